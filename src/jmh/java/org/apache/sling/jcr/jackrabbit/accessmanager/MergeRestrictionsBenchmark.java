@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.jcr.Value;
+import javax.jcr.security.Privilege;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RestrictionSet;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.SyntheticAccessControl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link LocalPrivilege#mergeRestrictions(Set, Set)} with the previous
+ * implementation that scanned the current restrictions for each multi-valued
+ * restriction being merged.  Each invocation merges the same restrictions into
+ * one privilege per leaf, like PrivilegesHelper does when expanding an aggregate
+ * privilege such as jcr:all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeRestrictionsBenchmark {
+
+    /**
+     * the number of multi-valued restrictions in the current and new sets
+     */
+    @Param({"2", "8", "32"})
+    public int restrictionCount;
+
+    /**
+     * the number of values for each multi-valued restriction
+     */
+    @Param({"4"})
+    public int valueCount;
+
+    /**
+     * the number of non-aggregate privileges the restrictions are merged into
+     */
+    @Param({"40"})
+    public int leafCount;
+
+    private Set<LocalRestriction> currentRestrictions;
+    private Set<LocalRestriction> newRestrictions;
+    private LocalPrivilege localPrivilege;
+
+    @Setup
+    public void setup() {
+        // the same shared sets that LocalPrivilege and PrivilegesHelper pass around
+        currentRestrictions = RestrictionSet.of(SyntheticAccessControl.restrictions(restrictionCount, valueCount, "current"));
+        newRestrictions = RestrictionSet.of(SyntheticAccessControl.restrictions(restrictionCount, valueCount, "new"));
+        localPrivilege = new LocalPrivilege((Privilege)null);
+    }
+
+    @Benchmark
+    public List<Set<LocalRestriction>> mergeRestrictions() {
+        List<Set<LocalRestriction>> result = new ArrayList<>(leafCount);
+        for (int i = 0; i < leafCount; i++) {
+            result.add(localPrivilege.mergeRestrictions(currentRestrictions, newRestrictions));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Set<LocalRestriction>> mergeRestrictionsByScan() {
+        List<Set<LocalRestriction>> result = new ArrayList<>(leafCount);
+        for (int i = 0; i < leafCount; i++) {
+            result.add(mergeRestrictionsByScan(currentRestrictions, newRestrictions));
+        }
+        return result;
+    }
+
+    /**
+     * The previous implementation of {@link LocalPrivilege#mergeRestrictions(Set, Set)}
+     * kept as the baseline for the comparison
+     */
+    private static Set<LocalRestriction> mergeRestrictionsByScan(Set<LocalRestriction> currentRestrictions, Set<LocalRestriction> newRestrictions) {
+        Set<LocalRestriction> mergedRestrictons = new HashSet<>(currentRestrictions);
+        for (LocalRestriction lr : newRestrictions) {
+            if (lr.isMultiValue()) {
+                String expectedName = lr.getName();
+                Optional<LocalRestriction> existing = currentRestrictions.stream()
+                        .filter(r ->  r.getName().equals(expectedName))
+                        .findFirst();
+                if (existing.isPresent()) {
+                    //remove the old one that we are replacing
+                    mergedRestrictons.removeIf(k -> expectedName.equals(k.getName()));
+
+                    Set<Value> mergedValues = new LinkedHashSet<>();
+                    // add the current values
+                    LocalRestriction existingLr = existing.get();
+                    Stream.of(existingLr.getValues())
+                        .forEach(mergedValues::add);
+                    // merge the new values
+                    Stream.of(lr.getValues())
+                        .forEach(mergedValues::add);
+                    Value[] newValues = mergedValues.toArray(new Value[mergedValues.size()]);
+                    // construct the replacement object
+                    lr = LocalRestriction.cloneWithNewValues(lr, newValues);
+                }
+            }
+            // add to the set
+            mergedRestrictons.add(lr);
+        }
+        return mergedRestrictons;
+    }
+
+}
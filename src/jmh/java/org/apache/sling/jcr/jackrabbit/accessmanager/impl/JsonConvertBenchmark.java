@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.security.Privilege;
+import javax.json.JsonObject;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks rendering the privileges of a principal with {@link JsonConvert#convertToJson(Principal, Map, int)}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonConvertBenchmark {
+
+    /**
+     * the number of levels of the privilege hierarchy below jcr:all
+     */
+    @Param({"2", "3"})
+    public int depth;
+
+    /**
+     * the number of privileges contained in each aggregate
+     */
+    @Param({"6"})
+    public int fanOut;
+
+    /**
+     * the number of restrictions of each privilege
+     */
+    @Param({"0", "4"})
+    public int restrictionCount;
+
+    private final Principal principal = () -> "testuser";
+    private Map<Privilege, LocalPrivilege> privileges;
+
+    @Setup
+    public void setup() throws RepositoryException {
+        Privilege jcrAll = SyntheticAccessControl.jcrAll(depth, fanOut);
+        Set<LocalRestriction> restrictions = SyntheticAccessControl.restrictions(restrictionCount, 2, "value");
+        // the expanded privileges, as if the aggregates could not be consolidated
+        privileges = new LinkedHashMap<>();
+        PrivilegesHelper.allow(privileges, restrictions, Collections.singletonList(jcrAll));
+    }
+
+    @Benchmark
+    public JsonObject convertToJson() {
+        return JsonConvert.convertToJson(principal, privileges, 0).build();
+    }
+
+}
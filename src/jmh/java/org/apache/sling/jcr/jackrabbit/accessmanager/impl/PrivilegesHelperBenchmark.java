@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.Privilege;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link PrivilegesHelper} operations that expand an aggregate
+ * privilege to the contained non-aggregate privileges and consolidate them again,
+ * with and without the {@link PrivilegeIndex}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrivilegesHelperBenchmark {
+
+    /**
+     * the number of levels of the privilege hierarchy below jcr:all
+     */
+    @Param({"2", "3"})
+    public int depth;
+
+    /**
+     * the number of privileges contained in each aggregate
+     */
+    @Param({"6"})
+    public int fanOut;
+
+    /**
+     * the number of restrictions of the allow entries
+     */
+    @Param({"0", "4"})
+    public int restrictionCount;
+
+    private Session session;
+    private List<Privilege> jcrAll;
+    private PrivilegeIndex privilegeIndex;
+    private ConsolidationContext consolidationContext;
+    private Set<LocalRestriction> restrictions;
+    private LocalRestriction restriction;
+
+    @Setup
+    public void setup() throws RepositoryException {
+        Privilege jcrAllPrivilege = SyntheticAccessControl.jcrAll(depth, fanOut);
+        session = SyntheticAccessControl.session(jcrAllPrivilege);
+        jcrAll = Collections.singletonList(jcrAllPrivilege);
+        privilegeIndex = PrivilegeIndex.build(SyntheticAccessControl.accessControlManager(jcrAllPrivilege));
+        consolidationContext = ConsolidationContext.build(session, null, privilegeIndex);
+        restrictions = SyntheticAccessControl.restrictions(restrictionCount, 2, "value");
+        restriction = SyntheticAccessControl.restrictions(1, 2, "other").iterator().next();
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allow() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll, privilegeIndex);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowWithoutIndex() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowThenDeny() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll, privilegeIndex);
+        PrivilegesHelper.deny(map, restrictions, jcrAll, privilegeIndex);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowThenNone() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll, privilegeIndex);
+        PrivilegesHelper.none(map, jcrAll, privilegeIndex);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowThenAllowRestriction() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll, privilegeIndex);
+        PrivilegesHelper.allowRestriction(map, restriction, jcrAll, privilegeIndex);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowThenConsolidate() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll, privilegeIndex);
+        consolidationContext.consolidateAggregates(map);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Privilege, LocalPrivilege> allowThenConsolidateWithoutIndex() throws RepositoryException {
+        Map<Privilege, LocalPrivilege> map = new HashMap<>();
+        PrivilegesHelper.allow(map, restrictions, jcrAll);
+        PrivilegesHelper.consolidateAggregates(session, null, map, privilegeIndex.getLongestDepthMap());
+        return map;
+    }
+
+}
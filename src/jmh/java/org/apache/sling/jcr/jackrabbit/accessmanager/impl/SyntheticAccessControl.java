@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.security.AccessControlException;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.JackrabbitWorkspace;
+import org.apache.jackrabbit.api.security.authorization.PrivilegeManager;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinitionImpl;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+
+/**
+ * Synthetic privilege hierarchies and restrictions of configurable size for the
+ * benchmarks, so they can run without starting a repository.
+ */
+public final class SyntheticAccessControl {
+
+    private SyntheticAccessControl() {
+        // no-op
+    }
+
+    /**
+     * Build a privilege hierarchy where jcr:all contains <code>fanOut</code> aggregates
+     * that each contain <code>fanOut</code> privileges down to the requested depth.  Like
+     * jcr:all in the repository, every privilege is also declared as an aggregate of jcr:all,
+     * so the hierarchy is a DAG and not a tree.
+     *
+     * @param depth the number of levels below jcr:all (at least 1)
+     * @param fanOut the number of privileges contained in each aggregate
+     * @return the jcr:all privilege
+     */
+    public static Privilege jcrAll(int depth, int fanOut) {
+        SyntheticPrivilege jcrAll = new SyntheticPrivilege(PrivilegeConstants.JCR_ALL);
+        List<SyntheticPrivilege> parents = new ArrayList<>();
+        parents.add(jcrAll);
+        for (int level = 1; level <= depth; level++) {
+            List<SyntheticPrivilege> children = new ArrayList<>();
+            for (SyntheticPrivilege parent : parents) {
+                for (int i = 0; i < fanOut; i++) {
+                    SyntheticPrivilege child = new SyntheticPrivilege(String.format("%s_%d", 
+                            parent == jcrAll ? "test:priv" : parent.getName(), i));
+                    parent.declaredAggregatePrivileges.add(child);
+                    if (parent != jcrAll) {
+                        jcrAll.declaredAggregatePrivileges.add(child);
+                    }
+                    children.add(child);
+                }
+            }
+            parents = children;
+        }
+        return jcrAll;
+    }
+
+    /**
+     * @param jcrAll the jcr:all privilege
+     * @return jcr:all and all the privileges it contains
+     */
+    public static Privilege[] allPrivileges(Privilege jcrAll) {
+        Set<Privilege> all = new LinkedHashSet<>();
+        all.add(jcrAll);
+        for (Privilege privilege : jcrAll.getAggregatePrivileges()) {
+            all.add(privilege);
+        }
+        return all.toArray(new Privilege[all.size()]);
+    }
+
+    /**
+     * A session that only supports looking up the registered privileges, which is
+     * all that consolidating the privileges of a non-existing path requires
+     *
+     * @param jcrAll the jcr:all privilege
+     * @return the session
+     */
+    public static Session session(Privilege jcrAll) {
+        Privilege[] registered = allPrivileges(jcrAll);
+        PrivilegeManager privilegeManager = proxy(PrivilegeManager.class, "getRegisteredPrivileges", registered);
+        JackrabbitWorkspace workspace = proxy(JackrabbitWorkspace.class, "getPrivilegeManager", privilegeManager);
+        return proxy(Session.class, "getWorkspace", workspace);
+    }
+
+    /**
+     * An access control manager that only supports looking up the privileges by name,
+     * which is all that building the privilege index requires
+     *
+     * @param jcrAll the jcr:all privilege
+     * @return the access control manager
+     */
+    public static AccessControlManager accessControlManager(Privilege jcrAll) {
+        Map<String, Privilege> privileges = new HashMap<>();
+        for (Privilege privilege : allPrivileges(jcrAll)) {
+            privileges.put(privilege.getName(), privilege);
+        }
+        return (AccessControlManager)Proxy.newProxyInstance(SyntheticAccessControl.class.getClassLoader(),
+                new Class<?>[] {AccessControlManager.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("privilegeFromName")) {
+                        Privilege privilege = privileges.get(args[0]);
+                        if (privilege == null) {
+                            throw new AccessControlException("Unknown privilege " + args[0]);
+                        }
+                        return privilege;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static <T> T proxy(Class<T> type, String methodName, Object result) {
+        return type.cast(Proxy.newProxyInstance(SyntheticAccessControl.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getName().equals(methodName)) {
+                        return result;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    /**
+     * Build a set of distinct multi-valued restrictions
+     *
+     * @param count the number of restrictions
+     * @param valueCount the number of values for each restriction
+     * @param valuePrefix the prefix of each value
+     * @return the restrictions
+     */
+    public static Set<LocalRestriction> restrictions(int count, int valueCount, String valuePrefix) {
+        ValueFactory vf = ValueFactoryImpl.getInstance();
+        Set<LocalRestriction> restrictions = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            RestrictionDefinitionImpl rd = new RestrictionDefinitionImpl("test:restriction" + i, Type.STRINGS, false);
+            Value[] values = new Value[valueCount];
+            for (int j = 0; j < valueCount; j++) {
+                values[j] = vf.createValue(valuePrefix + j);
+            }
+            restrictions.add(new LocalRestriction(rd, values));
+        }
+        return restrictions;
+    }
+
+    private static class SyntheticPrivilege implements Privilege {
+        private final String name;
+        private final List<Privilege> declaredAggregatePrivileges = new ArrayList<>();
+
+        SyntheticPrivilege(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return false;
+        }
+
+        @Override
+        public boolean isAggregate() {
+            return !declaredAggregatePrivileges.isEmpty();
+        }
+
+        @Override
+        public Privilege[] getDeclaredAggregatePrivileges() {
+            return declaredAggregatePrivileges.toArray(new Privilege[declaredAggregatePrivileges.size()]);
+        }
+
+        @Override
+        public Privilege[] getAggregatePrivileges() {
+            Set<Privilege> aggregated = new LinkedHashSet<>();
+            collect(declaredAggregatePrivileges, aggregated);
+            return aggregated.toArray(new Privilege[aggregated.size()]);
+        }
+
+        private static void collect(Collection<Privilege> privileges, Set<Privilege> aggregated) {
+            for (Privilege privilege : privileges) {
+                if (aggregated.add(privilege)) {
+                    collect(((SyntheticPrivilege)privilege).declaredAggregatePrivileges, aggregated);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The <code>AccessManagerBatch</code> service api.
+ * <p>
+ * Applies many ACE changes in one call.  The operations are grouped by the
+ * access control list they change so each access control list is loaded once,
+ * all the operations for it are applied and then it is written once.
+ * </p>
+ * <p>
+ * This interface is not intended to be implemented by bundles. It is
+ * implemented by this bundle and may be used by client bundles.
+ * </p>
+ */
+public interface AccessManagerBatch {
+
+    /**
+     * Apply the operations.  The operations for the same access control list are
+     * applied in the order they were supplied.  An operation that fails is reported
+     * in the result for that operation and does not stop the remaining operations.
+     * 
+     * @param jcrSession the JCR session of the user applying the changes
+     * @param operations the operations to apply (required)
+     * @param options the options for applying the operations (required)
+     * @return the result for each operation in the same order as the operations
+     * @throws RepositoryException if any errors accessing the repository
+     */
+    @NotNull List<AceOperationResult> apply(@NotNull Session jcrSession,
+                            @NotNull List<AceOperation> operations,
+                            @NotNull BatchOptions options
+                ) throws RepositoryException;
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Value;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Use to hold the details of one operation applied by {@link AccessManagerBatch}
+ */
+public final class AceOperation {
+
+    /**
+     * The kind of change the operation makes
+     */
+    public enum Type {
+        /**
+         * Add or modify the ACE of the principal in the ACL of the resource. See {@link ModifyAce}
+         */
+        MODIFY_ACE,
+        /**
+         * Delete the ACE of the principal from the ACL of the resource. See {@link DeleteAces}
+         */
+        DELETE_ACE,
+        /**
+         * Add or modify the ACE for the resource in the principal based ACL. See {@link ModifyPrincipalAce}
+         */
+        MODIFY_PRINCIPAL_ACE,
+        /**
+         * Delete the ACE for the resource from the principal based ACL. See {@link DeletePrincipalAces}
+         */
+        DELETE_PRINCIPAL_ACE
+    }
+
+    private final Type type;
+    private final String resourcePath;
+    private final String principalId;
+    private final Map<String, String> privileges;
+    private final String order;
+    private final Map<String, Value> restrictions;
+    private final Map<String, Value[]> mvRestrictions;
+    private final Set<String> removeRestrictionNames;
+
+    @SuppressWarnings("java:S107")
+    private AceOperation(@NotNull Type type, @NotNull String resourcePath, @NotNull String principalId,
+            @Nullable Map<String, String> privileges, @Nullable String order,
+            @Nullable Map<String, Value> restrictions, @Nullable Map<String, Value[]> mvRestrictions,
+            @Nullable Set<String> removeRestrictionNames) {
+        this.type = type;
+        this.resourcePath = resourcePath;
+        this.principalId = principalId;
+        this.privileges = privileges == null ? Collections.emptyMap() : privileges;
+        this.order = order;
+        this.restrictions = restrictions;
+        this.mvRestrictions = mvRestrictions;
+        this.removeRestrictionNames = removeRestrictionNames;
+    }
+
+    /**
+     * Add or modify the access control entry for the specified user or group.
+     * The arguments are the same as {@link ModifyAce#modifyAce(javax.jcr.Session, String, String, Map, String, Map, Map, Set)}
+     * 
+     * @param resourcePath The absolute path of the resource to apply the ACE to (required)
+     * @param principalId The name of the user/group to provision (required)
+     * @param privileges Map of privileges to apply. (optional)
+     * @param order where the access control entry should go in the list (optional)
+     * @param restrictions Map of single-value restrictions to apply. (optional)
+     * @param mvRestrictions Map of multi-value restrictions to apply. (optional)
+     * @param removeRestrictionNames Set of existing restriction names to remove (optional)
+     * @return the operation
+     */
+    public static @NotNull AceOperation modifyAce(@NotNull String resourcePath, @NotNull String principalId,
+            @Nullable Map<String, String> privileges, @Nullable String order,
+            @Nullable Map<String, Value> restrictions, @Nullable Map<String, Value[]> mvRestrictions,
+            @Nullable Set<String> removeRestrictionNames) {
+        return new AceOperation(Type.MODIFY_ACE, resourcePath, principalId, privileges, order,
+                restrictions, mvRestrictions, removeRestrictionNames);
+    }
+
+    /**
+     * Delete the access control entry for the specified user or group
+     * 
+     * @param resourcePath The absolute path of the resource to delete the ACE from (required)
+     * @param principalId The name of the user/group whose ACE should be deleted (required)
+     * @return the operation
+     */
+    public static @NotNull AceOperation deleteAce(@NotNull String resourcePath, @NotNull String principalId) {
+        return new AceOperation(Type.DELETE_ACE, resourcePath, principalId, null, null, null, null, null);
+    }
+
+    /**
+     * Add or modify the principal based access control entry for the specified service user.
+     * The arguments are the same as {@link ModifyPrincipalAce#modifyPrincipalAce(javax.jcr.Session, String, String, Map, Map, Map, Set, boolean)}
+     * 
+     * @param resourcePath The absolute path of the resource to apply the ACE to (required)
+     * @param principalId The name of the service user to provision (required)
+     * @param privileges Map of privileges to apply. (optional)
+     * @param restrictions Map of single-value restrictions to apply. (optional)
+     * @param mvRestrictions Map of multi-value restrictions to apply. (optional)
+     * @param removeRestrictionNames Set of existing restriction names to remove (optional)
+     * @return the operation
+     */
+    public static @NotNull AceOperation modifyPrincipalAce(@NotNull String resourcePath, @NotNull String principalId,
+            @Nullable Map<String, String> privileges,
+            @Nullable Map<String, Value> restrictions, @Nullable Map<String, Value[]> mvRestrictions,
+            @Nullable Set<String> removeRestrictionNames) {
+        return new AceOperation(Type.MODIFY_PRINCIPAL_ACE, resourcePath, principalId, privileges, null,
+                restrictions, mvRestrictions, removeRestrictionNames);
+    }
+
+    /**
+     * Delete the principal based access control entry for the specified service user
+     * 
+     * @param resourcePath The absolute path of the resource the ACE applies to (required)
+     * @param principalId The name of the service user whose ACE should be deleted (required)
+     * @return the operation
+     */
+    public static @NotNull AceOperation deletePrincipalAce(@NotNull String resourcePath, @NotNull String principalId) {
+        return new AceOperation(Type.DELETE_PRINCIPAL_ACE, resourcePath, principalId, null, null, null, null, null);
+    }
+
+    public @NotNull Type getType() {
+        return type;
+    }
+
+    public @NotNull String getResourcePath() {
+        return resourcePath;
+    }
+
+    public @NotNull String getPrincipalId() {
+        return principalId;
+    }
+
+    public @NotNull Map<String, String> getPrivileges() {
+        return privileges;
+    }
+
+    public @Nullable String getOrder() {
+        return order;
+    }
+
+    public @Nullable Map<String, Value> getRestrictions() {
+        return restrictions;
+    }
+
+    public @Nullable Map<String, Value[]> getMvRestrictions() {
+        return mvRestrictions;
+    }
+
+    public @Nullable Set<String> getRemoveRestrictionNames() {
+        return removeRestrictionNames;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("AceOperation [type=");
+        builder.append(type);
+        builder.append(", resourcePath=");
+        builder.append(resourcePath);
+        builder.append(", principalId=");
+        builder.append(principalId);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
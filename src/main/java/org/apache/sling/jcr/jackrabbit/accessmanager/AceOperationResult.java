@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Use to hold the outcome of one operation applied by {@link AccessManagerBatch}
+ */
+public final class AceOperationResult {
+
+    /**
+     * The outcome of the operation
+     */
+    public enum Status {
+        /**
+         * The ACE was added or modified
+         */
+        MODIFIED,
+        /**
+         * The ACE was deleted
+         */
+        DELETED,
+        /**
+         * The ACE was already in the requested state so nothing was changed
+         */
+        UNCHANGED,
+        /**
+         * The operation could not be applied. See {@link AceOperationResult#getException()}
+         */
+        FAILED
+    }
+
+    private final AceOperation operation;
+    private final Status status;
+    private final Exception exception;
+
+    public AceOperationResult(@NotNull AceOperation operation, @NotNull Status status) {
+        this(operation, status, null);
+    }
+
+    public AceOperationResult(@NotNull AceOperation operation, @NotNull Status status, @Nullable Exception exception) {
+        this.operation = operation;
+        this.status = status;
+        this.exception = exception;
+    }
+
+    public @NotNull AceOperation getOperation() {
+        return operation;
+    }
+
+    public @NotNull Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the reason the operation failed or null if it did not fail
+     */
+    public @Nullable Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("AceOperationResult [operation=");
+        builder.append(operation);
+        builder.append(", status=");
+        builder.append(status);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+/**
+ * Use to hold the options for {@link AccessManagerBatch#apply(javax.jcr.Session, java.util.List, BatchOptions)}
+ */
+public final class BatchOptions {
+
+    private boolean autoSave = true;
+    private int saveEvery;
+
+    /**
+     * @return true if the session is saved by the batch, false if saving is left to the caller
+     */
+    public boolean isAutoSave() {
+        return autoSave;
+    }
+
+    /**
+     * @param autoSave true to save the session by the batch, false to leave saving to the caller
+     * @return this options object
+     */
+    public BatchOptions withAutoSave(boolean autoSave) {
+        this.autoSave = autoSave;
+        return this;
+    }
+
+    /**
+     * @return the number of access control lists written between saves or 0
+     *          to save once after all the operations were applied
+     */
+    public int getSaveEvery() {
+        return saveEvery;
+    }
+
+    /**
+     * @param saveEvery the number of access control lists written between saves
+     *          or 0 to save once after all the operations were applied
+     * @return this options object
+     */
+    public BatchOptions withSaveEvery(int saveEvery) {
+        if (saveEvery < 0) {
+            throw new IllegalArgumentException("saveEvery can not be negative");
+        }
+        this.saveEvery = saveEvery;
+        return this;
+    }
+
+}
@@ -18,8 +18,11 @@
  */
 package org.apache.sling.jcr.jackrabbit.accessmanager;
 
+import java.util.Collection;
+
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.json.JsonObject;
 
 /**
@@ -45,4 +48,22 @@ public interface GetEffectiveAce {
                             String principalId
                 ) throws RepositoryException;
 
+    /**
+     * Gets the effective access control entries for a resource and each of the
+     * principals.  The effective policies are read once for all the principals.
+     * 
+     * @param jcrSession the JCR session of the user updating the user
+     * @param resourcePath The path of the resource to get the ACE for (required)
+     * @param principalIds the principals to get the ACE for (required)
+     * @return a JSON object where the key is the principal name and the value is the ACE
+     *          for each principal that has access control entries
+     * @throws RepositoryException if any errors reading the information
+     */
+    default JsonObject getEffectiveAces(Session jcrSession,
+                            String resourcePath,
+                            Collection<String> principalIds
+                ) throws RepositoryException {
+        throw new UnsupportedRepositoryOperationException();
+    }
+
 }
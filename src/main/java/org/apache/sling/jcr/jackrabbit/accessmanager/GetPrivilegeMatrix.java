@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.json.JsonObject;
+
+/**
+ * The <code>GetPrivilegeMatrix</code> service api.
+ * <p>
+ * This interface is not intended to be implemented by bundles. It is
+ * implemented by this bundle and may be used by client bundles.
+ * </p>
+ */
+public interface GetPrivilegeMatrix {
+
+    /**
+     * Checks whether each set of principals has been granted each of the
+     * privileges on each of the resources.  The privilege names are resolved
+     * once and the privileges of each set of principals are read once for
+     * each resource.
+     * <p>
+     * The result has a "privileges" array with the privilege names, a "principals"
+     * array with an array of the principal ids of each set and a "paths" object
+     * where the key is the resource path and the value is an array for each set of
+     * principals with a boolean for each privilege.  The value is null for a resource
+     * that does not exist or whose access control can not be read.
+     * </p>
+     * 
+     * @param jcrSession the JCR session of the current user
+     * @param resourcePaths The paths of the resources to check (required)
+     * @param principalSets the sets of principal ids to check (required)
+     * @param privilegeNames the names of the privileges to check or null to check the
+     *          privileges supported by the first resource
+     * @return the matrix as a JSON object
+     * @throws RepositoryException if any errors reading the information
+     */
+    JsonObject getPrivilegeMatrix(Session jcrSession,
+                            Collection<String> resourcePaths,
+                            List<? extends Collection<String>> principalSets,
+                            Collection<String> privilegeNames
+                ) throws RepositoryException;
+
+}
@@ -17,16 +17,11 @@
 package org.apache.sling.jcr.jackrabbit.accessmanager;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
 
-import javax.jcr.Value;
 import javax.jcr.security.Privilege;
 
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RestrictionSet;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -36,8 +31,8 @@ public class LocalPrivilege {
     private Privilege privilege;
     private boolean allow;
     private boolean deny;
-    private Set<LocalRestriction> allowRestrictions = Collections.emptySet();
-    private Set<LocalRestriction> denyRestrictions = Collections.emptySet();
+    private Set<LocalRestriction> allowRestrictions = RestrictionSet.EMPTY;
+    private Set<LocalRestriction> denyRestrictions = RestrictionSet.EMPTY;
 
     public LocalPrivilege(@NotNull Privilege privilege) {
         this.privilege = privilege;
@@ -72,11 +67,12 @@ public class LocalPrivilege {
     }
 
     public Set<LocalRestriction> getAllowRestrictions() {
-        return Collections.unmodifiableSet(allowRestrictions);
+        // the sets are immutable so they can be returned as is
+        return allowRestrictions;
     }
 
     public Set<LocalRestriction> getDenyRestrictions() {
-        return Collections.unmodifiableSet(denyRestrictions);
+        return denyRestrictions;
     }
 
     protected Set<LocalRestriction> mergeRestrictions(Set<LocalRestriction> currentRestrictions, Set<LocalRestriction> newRestrictions) {
@@ -84,54 +80,43 @@ public class LocalPrivilege {
         if (newRestrictions == null) {
             mergedRestrictons = null;
         } else {
-            mergedRestrictons = new HashSet<>(currentRestrictions);
-            for (LocalRestriction lr : newRestrictions) {
-                if (lr.isMultiValue()) {
-                    String expectedName = lr.getName();
-                    Optional<LocalRestriction> existing = currentRestrictions.stream()
-                            .filter(r ->  r.getName().equals(expectedName))
-                            .findFirst();
-                    if (existing.isPresent()) {
-                        //remove the old one that we are replacing
-                        mergedRestrictons.removeIf(k -> expectedName.equals(k.getName()));
-
-                        Set<Value> mergedValues = new LinkedHashSet<>();
-                        // add the current values
-                        LocalRestriction existingLr = existing.get();
-                        Stream.of(existingLr.getValues())
-                            .forEach(mergedValues::add);
-                        // merge the new values
-                        Stream.of(lr.getValues())
-                            .forEach(mergedValues::add);
-                        Value[] newValues = mergedValues.toArray(new Value[mergedValues.size()]);
-                        // construct the replacement object
-                        lr = LocalRestriction.cloneWithNewValues(lr, newValues);
-                    }
-                }
-                // add to the set
-                mergedRestrictons.add(lr);
-            }
+            // copy-on-write merge keyed by the restriction name
+            mergedRestrictons = RestrictionSet.of(currentRestrictions).merge(newRestrictions);
         }
         return mergedRestrictons;
     }
 
     public void setAllowRestrictions(Set<LocalRestriction> restrictions) {
-        this.allowRestrictions = mergeRestrictions(this.allowRestrictions, restrictions);
+        this.allowRestrictions = toRestrictionSet(mergeRestrictions(this.allowRestrictions, restrictions));
     }
     public void setDenyRestrictions(Set<LocalRestriction> restrictions) {
-        this.denyRestrictions = mergeRestrictions(this.denyRestrictions, restrictions);
+        this.denyRestrictions = toRestrictionSet(mergeRestrictions(this.denyRestrictions, restrictions));
     }
     public void unsetAllowRestrictions(Collection<String> restrictionNames) {
-        this.allowRestrictions.removeIf(k -> restrictionNames.contains(k.getName()));
+        this.allowRestrictions = withoutRestrictions(this.allowRestrictions, restrictionNames);
     }
     public void unsetDenyRestrictions(Collection<String> restrictionNames) {
-        this.denyRestrictions.removeIf(k -> restrictionNames.contains(k.getName()));
+        this.denyRestrictions = withoutRestrictions(this.denyRestrictions, restrictionNames);
     }
     public void clearAllowRestrictions() {
-        this.allowRestrictions.clear();
+        this.allowRestrictions = RestrictionSet.EMPTY;
     }
     public void clearDenyRestrictions() {
-        this.denyRestrictions.clear();
+        this.denyRestrictions = RestrictionSet.EMPTY;
+    }
+
+    /**
+     * Convert to the immutable restriction set
+     */
+    private static Set<LocalRestriction> toRestrictionSet(Set<LocalRestriction> restrictions) {
+        return restrictions == null ? null : RestrictionSet.of(restrictions);
+    }
+
+    /**
+     * Returns the restrictions without the restrictions with the supplied names
+     */
+    private static Set<LocalRestriction> withoutRestrictions(Set<LocalRestriction> restrictions, Collection<String> restrictionNames) {
+        return RestrictionSet.of(restrictions).without(restrictionNames);
     }
 
     /**
@@ -142,14 +127,7 @@ public class LocalPrivilege {
      * @return true or false
      */
     public boolean sameAllowRestrictions(Set<LocalRestriction> otherAllowRestrictions) {
-        boolean same = false;
-        // total (multivalue and simple)  number of restrictions should be same
-        if (allowRestrictions.size() == otherAllowRestrictions.size() &&
-                allowRestrictions.containsAll(otherAllowRestrictions)) {
-            // allow and deny list seems to be the same
-            same = true;
-        }
-        return same;
+        return RestrictionSet.same(allowRestrictions, otherAllowRestrictions);
     }
 
     /**
@@ -160,14 +138,7 @@ public class LocalPrivilege {
      * @return true or false
      */
     public boolean sameDenyRestrictions(Set<LocalRestriction> otherDenyRestrictions) {
-        boolean same = false;
-        // total (multivalue and simple)  number of restrictions should be same
-        if (denyRestrictions.size() == otherDenyRestrictions.size() &&
-                denyRestrictions.containsAll(otherDenyRestrictions)) {
-            // allow and deny list seems to be the same
-            same = true;
-        }
-        return same;
+        return RestrictionSet.same(denyRestrictions, otherDenyRestrictions);
     }
 
     /**
@@ -176,14 +147,7 @@ public class LocalPrivilege {
      * @return true or false
      */
     public boolean sameAllowAndDenyRestrictions() {
-        boolean same = false;
-        // total (multivalue and simple)  number of restrictions should be same
-        if (allowRestrictions.size() == denyRestrictions.size() &&
-                allowRestrictions.containsAll(denyRestrictions)) {
-            // allow and deny list seems to be the same
-            same = true;
-        }
-        return same;
+        return RestrictionSet.same(allowRestrictions, denyRestrictions);
     }
 
     @Override
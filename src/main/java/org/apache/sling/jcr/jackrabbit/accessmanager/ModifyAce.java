@@ -19,6 +19,7 @@
 package org.apache.sling.jcr.jackrabbit.accessmanager;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -210,4 +211,54 @@ public interface ModifyAce {
         throw new UnsupportedRepositoryOperationException();
     }
 
+    /**
+     * Replace the access control entry for the specified user 
+     * or group with the supplied state.  Unlike the modifyAce variants, the
+     * currently stored entry is not merged with the supplied state, so any
+     * privilege or restriction that is not supplied is removed.
+     * 
+     * @param jcrSession the JCR session of the user updating the user
+     * @param resourcePath The absolute path of the resource to apply the ACE to (required)
+     * @param principalId The name of the user/group to provision (required)
+     * @param privileges Map of privileges to apply. (optional)
+     * @param order where the access control entry should go in the list.  The value is the
+     *          same as for {@link #modifyAce(Session, String, String, Map, String, Map, Map, Set, boolean)}
+     * @param restrictions Map of single-value restrictions to apply. (optional)
+     * @param mvRestrictions Map of multi-value restrictions to apply. (optional)
+     * @param autoSave true to automatically save changes to the JCR session, false otherwise
+     * @throws RepositoryException if any errors applying the changes 
+     */
+    default void replaceAce(Session jcrSession, // NOSONAR
+                            String resourcePath,
+                            String principalId,
+                            Map<String, String> privileges,
+                            String order,
+                            Map<String, Value> restrictions,
+                            Map<String, Value[]> mvRestrictions,
+                            boolean autoSave
+                ) throws RepositoryException {
+        throw new UnsupportedRepositoryOperationException();
+    }
+
+    /**
+     * Set the order of the principals in the access control list of the resource
+     * in one pass.  The access control entries of the supplied principals are moved
+     * to the start of the list in the supplied order and the entries of any other
+     * principal follow in their current order.  Nothing is written when the list
+     * is already in that order.
+     * 
+     * @param jcrSession the JCR session of the user updating the user
+     * @param resourcePath The absolute path of the resource to reorder the ACEs of (required)
+     * @param principalIds The names of the users/groups in the desired order (required)
+     * @param autoSave true to automatically save changes to the JCR session, false otherwise
+     * @throws RepositoryException if any errors applying the changes 
+     */
+    default void reorderAcl(Session jcrSession,
+                            String resourcePath,
+                            List<String> principalIds,
+                            boolean autoSave
+                ) throws RepositoryException {
+        throw new UnsupportedRepositoryOperationException();
+    }
+
 }
@@ -17,10 +17,12 @@
 package org.apache.sling.jcr.jackrabbit.accessmanager;
 
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
@@ -48,6 +50,7 @@ import org.apache.jackrabbit.oak.spi.security.authorization.restriction.Restrict
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesInfoServices;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -635,7 +638,32 @@ public class PrivilegesInfo {
     }
 
     /**
-     * Utility to lookup a service and then run a function
+     * Checks whether each set of principals has been granted each of the privileges
+     * on each of the resources in one pass.  See {@link GetPrivilegeMatrix#getPrivilegeMatrix(Session, Collection, List, Collection)}
+     * for the structure of the result.
+     *
+     * @param session the JCR session of the current user
+     * @param absPaths the paths of the resources to check
+     * @param principalSets the sets of principal ids to check
+     * @param privilegeNames the names of the privileges to check
+     * @return the matrix or null if it could not be computed
+     */
+    public JsonObject getPrivilegeMatrix(Session session, Collection<String> absPaths,
+            List<? extends Collection<String>> principalSets, Collection<String> privilegeNames) {
+        return useGetPrivilegeMatrix(svc -> {
+                try {
+                    return svc.getPrivilegeMatrix(session, absPaths, principalSets, privilegeNames);
+                } catch (RepositoryException e) {
+                    logger.warn("Failed to load PrivilegeMatrix", e);
+                }
+                return null;
+            });
+    }
+
+    /**
+     * Utility to lookup a service and then run a function.  The service comes from
+     * the long-lived trackers when they are open, otherwise it is looked up in the
+     * service registry for this call only.
      * 
      * @param <S> the service interface type
      * @param <T> the return type of the fun
@@ -644,6 +672,12 @@ public class PrivilegesInfo {
      * @return the value of invoking the fn
      */
     private static <S, T> T useSvc(Class<S> svc, Function<S, T> fn) {
+        PrivilegesInfoServices services = PrivilegesInfoServices.getInstance();
+        if (services != null) {
+            S service = services.getService(svc);
+            return service == null ? null : fn.apply(service);
+        }
+
         T value = null;
         Bundle bundle = FrameworkUtil.getBundle(PrivilegesInfo.class);
         if (bundle != null) {
@@ -676,6 +710,10 @@ public class PrivilegesInfo {
         return useSvc(GetEffectiveAcl.class, fn);
     }
 
+    private static <T> T useGetPrivilegeMatrix(Function<GetPrivilegeMatrix, T> fn) {
+        return useSvc(GetPrivilegeMatrix.class, fn);
+    }
+
     private static <T> T useRestrictionProvider(Function<RestrictionProvider, T> fn) {
         return useSvc(RestrictionProvider.class, fn);
     }
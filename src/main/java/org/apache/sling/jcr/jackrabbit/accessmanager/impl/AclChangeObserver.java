@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.function.Consumer;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reports the paths whose access control may have changed with each commit,
+ * including the commits of other cluster nodes.  Only the changed parts of the
+ * tree are compared, and the policy nodes themselves, the hidden nodes and the
+ * index definitions are never walked.
+ */
+final class AclChangeObserver implements Observer {
+
+    static final String REP_POLICY = "rep:policy";
+    static final String REP_REPO_POLICY = "rep:repoPolicy";
+    static final String REP_PRINCIPAL_POLICY = "rep:principalPolicy";
+    static final String REP_MEMBERS = "rep:members";
+    static final String OAK_INDEX = "oak:index";
+
+    /**
+     * The path reported when the change can affect any path
+     */
+    static final String ALL_PATHS = "/";
+
+    private final Consumer<String> changedPaths;
+
+    private NodeState previousRoot;
+
+    /**
+     * @param changedPaths called with the path of each node whose access control changed
+     */
+    AclChangeObserver(@NotNull Consumer<String> changedPaths) {
+        this.changedPaths = changedPaths;
+    }
+
+    @Override
+    public synchronized void contentChanged(@NotNull NodeState root, @NotNull CommitInfo info) {
+        if (previousRoot != null) {
+            root.compareAgainstBaseState(previousRoot, new Diff(ALL_PATHS));
+        }
+        previousRoot = root;
+    }
+
+    private static String childPath(String parentPath, String name) {
+        return ALL_PATHS.equals(parentPath) ? parentPath + name : parentPath + "/" + name;
+    }
+
+    private final class Diff extends DefaultNodeStateDiff {
+        private final String path;
+
+        Diff(String path) {
+            this.path = path;
+        }
+
+        /**
+         * @return true if the child is a policy node and the change was reported
+         */
+        private boolean policyChanged(String name) {
+            if (REP_POLICY.equals(name)) {
+                changedPaths.accept(path);
+                return true;
+            } else if (REP_REPO_POLICY.equals(name) || REP_PRINCIPAL_POLICY.equals(name)) {
+                // repository level and principal-based entries can be effective anywhere
+                changedPaths.accept(ALL_PATHS);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean membersChanged(PropertyState property) {
+            if (REP_MEMBERS.equals(property.getName())) {
+                // the group membership changes which entries the members can read
+                //  anywhere.  Resolving the (transitive) members of the group here
+                //  would cost more than rebuilding the models, and membership changes
+                //  are rare compared to reads, so every model is evicted.
+                changedPaths.accept(ALL_PATHS);
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the changes below the child can not change access control
+         */
+        private boolean isSkipped(String name) {
+            return NodeStateUtils.isHidden(name) || OAK_INDEX.equals(name);
+        }
+
+        @Override
+        public boolean propertyAdded(PropertyState after) {
+            return membersChanged(after);
+        }
+
+        @Override
+        public boolean propertyChanged(PropertyState before, PropertyState after) {
+            return membersChanged(after);
+        }
+
+        @Override
+        public boolean propertyDeleted(PropertyState before) {
+            return membersChanged(before);
+        }
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            // a new node can only have a policy that is reported as added below
+            //  an existing node, anything else in the new subtree was never cached
+            policyChanged(name);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            if (!isSkipped(name) && !policyChanged(name)) {
+                after.compareAgainstBaseState(before, new Diff(childPath(path, name)));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            if (!policyChanged(name)) {
+                // the policies of the whole subtree are gone
+                changedPaths.accept(childPath(path, name));
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Objects;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Identifies a model in the {@link AclModelCacheService}.  The models depend on
+ * who asks for them, so the user is part of the key.
+ */
+public final class AclModelCacheKey {
+
+    private final String kind;
+    private final String path;
+    private final String userId;
+    private final String principalId;
+
+    /**
+     * @param kind identifies how the model is computed, including anything that changes the result
+     *          such as the restriction providers that were used
+     * @param path the path of the resource the model was computed for
+     * @param userId the user the model was computed for
+     * @param principalId the principal the model was computed for or null if the model is for all principals
+     */
+    public AclModelCacheKey(@NotNull String kind, @NotNull String path, @Nullable String userId, @Nullable String principalId) {
+        this.kind = kind;
+        this.path = path;
+        this.userId = userId;
+        this.principalId = principalId;
+    }
+
+    /**
+     * @return the path of the resource the model was computed for
+     */
+    public @NotNull String getPath() {
+        return path;
+    }
+
+    /**
+     * @param changedPath the path of a node whose access control changed
+     * @return true if the model is for the changed path or one of its descendants
+     */
+    boolean isAffectedBy(@NotNull String changedPath) {
+        if ("/".equals(changedPath)) {
+            return true;
+        }
+        return path.startsWith(changedPath) &&
+                (path.length() == changedPath.length() || path.charAt(changedPath.length()) == '/');
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, path, userId, principalId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof AclModelCacheKey)) {
+            return false;
+        }
+        AclModelCacheKey other = (AclModelCacheKey) obj;
+        return kind.equals(other.kind) && path.equals(other.path) &&
+                Objects.equals(userId, other.userId) && Objects.equals(principalId, other.principalId);
+    }
+
+    @Override
+    public String toString() {
+        return "AclModelCacheKey [kind=" + kind + ", path=" + path + ", userId=" + userId + ", principalId=" + principalId + "]";
+    }
+
+}
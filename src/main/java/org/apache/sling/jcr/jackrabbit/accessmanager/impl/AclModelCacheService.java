@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+
+import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the models computed by the ACL GET servlets so repeated requests for
+ * the same path don't have to read and consolidate the access control entries
+ * again.  The models are evicted when the cache is full, when they are older than
+ * the configured time to live and when an observed commit (local or from another
+ * cluster node) changes the access control of the path or one of its ancestors.
+ * The models are kept in their rendered form with the entity tag, so a cached
+ * model is written by the streaming writer only once.
+ * The service is only active when it is configured.
+ */
+@Component(service = AclModelCacheService.class,
+    configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = AclModelCacheService.Config.class)
+public class AclModelCacheService {
+
+    @ObjectClassDefinition(name = "Apache Sling Access Manager ACL Model Cache",
+            description = "Caches the computed ACL models of the GET servlets until the access control changes")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Maximum Entries",
+                description = "The maximum number of models to keep")
+        int maxEntries() default 1000;
+
+        @AttributeDefinition(name = "Time To Live",
+                description = "The maximum number of seconds to keep a model")
+        int ttlSeconds() default 60;
+
+    }
+
+    /**
+     * The path to {@link #invalidate(String)} to evict all models, for example
+     * when a principal-based access control list changed
+     */
+    public static final String ALL_PATHS = "/";
+
+    /**
+     * The number of commits that can be queued before they are collapsed into one
+     */
+    private static final int OBSERVER_QUEUE_LENGTH = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Incremented on each invalidation so models computed while the access
+     * control was changing are not stored
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * the models in access order, guarded by this
+     */
+    private Map<AclModelCacheKey, CachedModel> models;
+    private long ttlNanos;
+    LongSupplier clock = System::nanoTime;
+
+    private ExecutorService observerExecutor;
+    private BackgroundObserver observer;
+    private ServiceRegistration<Observer> observerRegistration;
+
+    @Activate
+    protected void activate(BundleContext bundleContext, Config config) {
+        int maxEntries = Math.max(1, config.maxEntries());
+        ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.ttlSeconds()));
+        synchronized (this) {
+            models = new LinkedHashMap<AclModelCacheKey, CachedModel>(16, 0.75f, true) {
+                private static final long serialVersionUID = 6420434278839434576L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<AclModelCacheKey, CachedModel> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        // diff the commits in the background so the commits are not slowed down
+        observerExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Sling Access Manager ACL Model Cache Observer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        observer = new BackgroundObserver(new AclChangeObserver(this::invalidate), observerExecutor, OBSERVER_QUEUE_LENGTH);
+        if (bundleContext != null) {
+            observerRegistration = bundleContext.registerService(Observer.class, observer, null);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (observerRegistration != null) {
+            observerRegistration.unregister();
+            observerRegistration = null;
+        }
+        if (observer != null) {
+            observer.close();
+            observer = null;
+        }
+        if (observerExecutor != null) {
+            observerExecutor.shutdown();
+            observerExecutor = null;
+        }
+        synchronized (this) {
+            models.clear();
+        }
+    }
+
+    /**
+     * @return the observer that reports the commits to this cache
+     */
+    @Nullable Observer getObserver() {
+        return observer;
+    }
+
+    /**
+     * Return the current invalidation stamp.  Read it before computing a model and
+     * pass it to {@link #put(AclModelCacheKey, RenderedJson, long)} so a model is not
+     * stored when the access control changed while it was being computed.
+     *
+     * @return the current stamp
+     */
+    public long getStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * @param key the key of the model
+     * @return the cached model or null if it is not cached or has expired
+     */
+    public synchronized @Nullable RenderedJson get(@NotNull AclModelCacheKey key) {
+        CachedModel cached = models.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (clock.getAsLong() - cached.expiresAt >= 0) {
+            models.remove(key);
+            return null;
+        }
+        return cached.model;
+    }
+
+    /**
+     * Store the model unless the access control changed since the stamp was read
+     *
+     * @param key the key of the model
+     * @param model the model to store
+     * @param stamp the value of {@link #getStamp()} from before the model was computed
+     */
+    public synchronized void put(@NotNull AclModelCacheKey key, @NotNull RenderedJson model, long stamp) {
+        if (stamp == invalidations.get()) {
+            models.put(key, new CachedModel(model, clock.getAsLong() + ttlNanos));
+        }
+    }
+
+    /**
+     * Evict the models of the path and all of its descendants
+     *
+     * @param changedPath the path whose access control changed
+     */
+    public void invalidate(@NotNull String changedPath) {
+        invalidations.incrementAndGet();
+        synchronized (this) {
+            Iterator<AclModelCacheKey> it = models.keySet().iterator();
+            while (it.hasNext()) {
+                AclModelCacheKey key = it.next();
+                if (key.isAffectedBy(changedPath)) {
+                    log.debug("Evicting {} for a change at {}", key, changedPath);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of models in the cache
+     */
+    public synchronized int size() {
+        return models.size();
+    }
+
+    private static final class CachedModel {
+        private final RenderedJson model;
+        private final long expiresAt;
+
+        CachedModel(RenderedJson model, long expiresAt) {
+            this.model = model;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
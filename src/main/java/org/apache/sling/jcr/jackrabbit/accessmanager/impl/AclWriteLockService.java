@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Serializes the writes of this instance that target the same access control
+ * list so concurrent requests for the same node (or principal for principal-based
+ * ACLs) don't race to commit while writes to different ones still run in parallel.
+ * The keys are spread over a fixed number of locks, so unrelated keys may
+ * occasionally share a lock.  The service is only active when it is configured.
+ */
+@Component(service = AclWriteLockService.class,
+    configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = AclWriteLockService.Config.class)
+public class AclWriteLockService {
+
+    @ObjectClassDefinition(name = "Apache Sling Access Manager ACL Write Locks",
+            description = "Serializes the ACL writes of this instance that target the same access control list")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Stripes",
+                description = "The number of locks that the access control lists are spread over")
+        int stripes() default 64;
+
+    }
+
+    /**
+     * The locks that were acquired by {@link AclWriteLockService#lock(Collection)}
+     */
+    public interface LockHandle extends AutoCloseable {
+
+        /**
+         * Release the locks
+         */
+        @Override
+        void close();
+
+    }
+
+    private ReentrantLock[] locks;
+
+    @Activate
+    protected void activate(Config config) {
+        int stripes = Math.max(1, config.stripes());
+        ReentrantLock[] newLocks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            newLocks[i] = new ReentrantLock();
+        }
+        locks = newLocks;
+    }
+
+    /**
+     * Acquire the locks for the supplied keys, waiting until any other writer
+     * holding one of them is done.  The locks are always acquired in the same
+     * order so writers with overlapping keys can not deadlock.
+     *
+     * @param keys the keys of the access control lists that will be written
+     * @return the handle to release the locks
+     */
+    public @NotNull LockHandle lock(@NotNull Collection<String> keys) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (String key : keys) {
+            stripes.add(stripe(key));
+        }
+        ReentrantLock[] acquired = new ReentrantLock[stripes.size()];
+        int count = 0;
+        for (Integer stripe : stripes) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            acquired[count++] = lock;
+        }
+        return () -> {
+            for (int i = acquired.length - 1; i >= 0; i--) {
+                acquired[i].unlock();
+            }
+        };
+    }
+
+    /**
+     * @param key the key of the access control list
+     * @return true if the lock for the key is held by the current thread
+     */
+    public boolean isHeldByCurrentThread(@NotNull String key) {
+        return locks[stripe(key)].isHeldByCurrentThread();
+    }
+
+    private int stripe(@NotNull String key) {
+        return (key.hashCode() & 0x7fffffff) % locks.length;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.Privilege;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The per path state needed to consolidate aggregate privileges.  The supported
+ * aggregates of the path are resolved and sorted once, so the same context can be
+ * reused to consolidate the privileges of each principal that has an ACE
+ * for the path.
+ */
+public final class ConsolidationContext {
+
+    private final PrivilegeIndex privilegeIndex;
+    /**
+     * the ordinals of the supported aggregate privileges with the deepest first
+     */
+    private final int[] aggregates;
+
+    private ConsolidationContext(@NotNull PrivilegeIndex privilegeIndex, @NotNull int[] aggregates) {
+        this.privilegeIndex = privilegeIndex;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Build the consolidation context for the resource path
+     *
+     * @param jcrSession the current session
+     * @param resourcePath the path of the resource
+     * @param privilegeIndex the index of the privilege hierarchy
+     * @return the consolidation context
+     */
+    public static @NotNull ConsolidationContext build(@NotNull Session jcrSession, @Nullable String resourcePath,
+            @NotNull PrivilegeIndex privilegeIndex) throws RepositoryException {
+        Privilege[] supportedPrivileges = PrivilegesHelper.getSupportedOrRegisteredPrivileges(jcrSession, resourcePath);
+        long[] supportedBits = privilegeIndex.newBits();
+        for (Privilege privilege : supportedPrivileges) {
+            int ordinal = privilegeIndex.ordinal(privilege);
+            if (ordinal != -1) {
+                PrivilegeIndex.set(supportedBits, ordinal);
+            }
+        }
+        int[] aggregates = Arrays.stream(privilegeIndex.aggregatesDeepestFirst())
+                .filter(ordinal -> PrivilegeIndex.isSet(supportedBits, ordinal) &&
+                        !PrivilegeIndex.isEmpty(privilegeIndex.childBits(ordinal)))
+                .toArray();
+        return new ConsolidationContext(privilegeIndex, aggregates);
+    }
+
+    /**
+     * Process the supplied privileges and consolidate each aggregate whenever the state of all the
+     * aggregated direct child privileges are allow or deny.
+     * 
+     * The allow and deny state of the privileges is tracked as one bit mask per distinct set
+     * of restrictions, so checking if all the direct children of an aggregate share the same
+     * state is a word-level containment check.  The aggregates are visited once from the
+     * deepest to the most shallow.
+     * 
+     * @param privilegeToLocalPrivilegesMap map of privileges to process. The map entry key is the
+     *          privilege and value is the associated LocalPrivilege.
+     */
+    public void consolidateAggregates(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) {
+        // group the allow and deny state by the restrictions
+        Map<Set<LocalRestriction>, long[]> allowBitsByRestrictions = new HashMap<>();
+        Map<Set<LocalRestriction>, long[]> denyBitsByRestrictions = new HashMap<>();
+        for (LocalPrivilege lp : privilegeToLocalPrivilegesMap.values()) {
+            int ordinal = privilegeIndex.ordinal(lp.getPrivilege());
+            if (ordinal != -1) {
+                if (lp.isAllow()) {
+                    PrivilegeIndex.set(allowBitsByRestrictions.computeIfAbsent(lp.getAllowRestrictions(), k -> privilegeIndex.newBits()), ordinal);
+                }
+                if (lp.isDeny()) {
+                    PrivilegeIndex.set(denyBitsByRestrictions.computeIfAbsent(lp.getDenyRestrictions(), k -> privilegeIndex.newBits()), ordinal);
+                }
+            }
+        }
+
+        if (!allowBitsByRestrictions.isEmpty() || !denyBitsByRestrictions.isEmpty()) {
+            for (int aggregateOrdinal : aggregates) {
+                long[] childBits = privilegeIndex.childBits(aggregateOrdinal);
+                consolidateAggregate(privilegeToLocalPrivilegesMap, aggregateOrdinal, childBits,
+                        allowBitsByRestrictions, true);
+                consolidateAggregate(privilegeToLocalPrivilegesMap, aggregateOrdinal, childBits,
+                        denyBitsByRestrictions, false);
+            }
+        }
+
+        // remove any entries that are neither allow nor deny
+        privilegeToLocalPrivilegesMap.entrySet().removeIf(entry -> entry.getValue().isNone());
+    }
+
+    /**
+     * Consolidate the allow or deny state of the direct children into the aggregate if
+     * all the direct children have the same state and restrictions
+     * 
+     * @param privilegeToLocalPrivilegesMap map of privileges to process
+     * @param aggregateOrdinal the ordinal of the aggregate privilege
+     * @param childBits the direct children of the aggregate privilege
+     * @param bitsByRestrictions the allow or deny state grouped by the restrictions
+     * @param forAllow true to consolidate the allow state, false for the deny state
+     */
+    private void consolidateAggregate(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            int aggregateOrdinal, long[] childBits,
+            Map<Set<LocalRestriction>, long[]> bitsByRestrictions, boolean forAllow) {
+        // find the restrictions shared by all the children (if any)
+        Set<LocalRestriction> childRestrictions = null;
+        for (Entry<Set<LocalRestriction>, long[]> entry : bitsByRestrictions.entrySet()) {
+            if (PrivilegeIndex.containsAll(entry.getValue(), childBits)) {
+                childRestrictions = entry.getKey();
+                break;
+            }
+        }
+        if (childRestrictions == null) {
+            return;
+        }
+
+        // all the child privileges have the same state so we can mark the parent the same way
+        LocalPrivilege alp = privilegeToLocalPrivilegesMap.computeIfAbsent(privilegeIndex.privilege(aggregateOrdinal), LocalPrivilege::new);
+        boolean wasSet = forAllow ? alp.isAllow() : alp.isDeny();
+        if (wasSet) {
+            long[] previousBits = bitsByRestrictions.get(forAllow ? alp.getAllowRestrictions() : alp.getDenyRestrictions());
+            if (previousBits != null) {
+                PrivilegeIndex.clear(previousBits, aggregateOrdinal);
+            }
+        }
+        Set<LocalRestriction> aggregateRestrictions;
+        if (forAllow) {
+            alp.setAllow(true);
+            alp.setAllowRestrictions(childRestrictions);
+            aggregateRestrictions = alp.getAllowRestrictions();
+        } else {
+            alp.setDeny(true);
+            alp.setDenyRestrictions(childRestrictions);
+            aggregateRestrictions = alp.getDenyRestrictions();
+        }
+        PrivilegeIndex.set(bitsByRestrictions.computeIfAbsent(aggregateRestrictions, k -> privilegeIndex.newBits()), aggregateOrdinal);
+
+        // each child with the same restrictions can be unset
+        if (childRestrictions.equals(aggregateRestrictions)) {
+            privilegeIndex.forEach(childBits, p -> {
+                LocalPrivilege lp = privilegeToLocalPrivilegesMap.get(p);
+                if (forAllow) {
+                    lp.setAllow(false);
+                    lp.setAllowRestrictions(Collections.emptySet());
+                } else {
+                    lp.setDeny(false);
+                    lp.setDenyRestrictions(Collections.emptySet());
+                }
+            });
+            PrivilegeIndex.andNot(bitsByRestrictions.get(childRestrictions), childBits);
+        }
+    }
+
+}
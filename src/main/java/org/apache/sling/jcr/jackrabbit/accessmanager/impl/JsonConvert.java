@@ -31,6 +31,7 @@ import javax.jcr.security.Privilege;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
@@ -168,6 +169,141 @@ public class JsonConvert {
         return builder;
     }
 
+    /**
+     * Write the members of the principal object to the generator, the same as
+     * {@link #convertToJson(Principal, Map, int)} but without building the JSON
+     * structure in memory first.  The caller starts and ends the principal object.
+     *
+     * @param generator the generator positioned in the principal object
+     * @param principal the principal
+     * @param entry the privileges of the principal
+     * @param order the order of the principal or -1 to not write the order
+     */
+    public static void writeTo(JsonGenerator generator, Principal principal, Map<Privilege, LocalPrivilege> entry,
+            int order) {
+        generator.write(JsonConvert.KEY_PRINCIPAL, principal.getName());
+        if (order != -1) {
+            generator.write(JsonConvert.KEY_ORDER, order);
+        }
+        Collection<LocalPrivilege> privileges = entry.values();
+        if (!privileges.isEmpty()) {
+            generator.writeStartObject(JsonConvert.KEY_PRIVILEGES);
+            for (LocalPrivilege pi : privileges) {
+                if (pi.isNone()) {
+                    continue;
+                }
+                generator.writeStartObject(pi.getName());
+                if (pi.isAllow()) {
+                    JsonConvert.writeRestrictions(generator, JsonConvert.KEY_ALLOW, pi.getAllowRestrictions());
+                }
+                if (pi.isDeny()) {
+                    JsonConvert.writeRestrictions(generator, JsonConvert.KEY_DENY, pi.getDenyRestrictions());
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Write details about where the privileges were declared, the same as
+     * {@link #addDeclaredAt(JsonObjectBuilder, Map)}
+     */
+    public static void writeDeclaredAt(JsonGenerator generator, Map<DeclarationType, Set<String>> declaredAt) {
+        generator.writeStartObject(JsonConvert.KEY_DECLARED_AT);
+        for (Entry<DeclarationType, Set<String>> daentry : declaredAt.entrySet()) {
+            DeclarationType type = daentry.getKey();
+            if (type != null) {
+                Set<String> value = daentry.getValue();
+                if (value.size() == 1) {
+                    generator.write(type.getJsonKey(), value.iterator().next());
+                } else {
+                    generator.writeStartArray(type.getJsonKey());
+                    for (String at : value) {
+                        generator.write(at);
+                    }
+                    generator.writeEnd();
+                }
+            }
+        }
+        generator.writeEnd();
+    }
+
+    /**
+     * Write the restrictions, the same as {@link #addRestrictions(JsonObjectBuilder, String, Set)}
+     */
+    public static void writeRestrictions(JsonGenerator generator, String key, Set<LocalRestriction> restrictions) {
+        if (restrictions.isEmpty()) {
+            generator.write(key, true);
+        } else {
+            generator.writeStartObject(key);
+            for (LocalRestriction ri : restrictions) {
+                if (ri.isMultiValue()) {
+                    generator.writeStartArray(ri.getName());
+                    for (Value value: ri.getValues()) {
+                        writeTo(generator, value);
+                    }
+                    generator.writeEnd();
+                } else {
+                    writeTo(generator, ri.getName(), ri.getValue());
+                }
+            }
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Write the value as a member of the current object, the same as
+     * {@link #addTo(JsonObjectBuilder, String, Object)}
+     */
+    public static JsonGenerator writeTo(JsonGenerator generator, String key, Object value) {
+        value = convertJcrValue(value);
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            generator.write(key, ((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            generator.write(key, (BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.write(key, (BigInteger) value);
+        } else if (value instanceof Boolean) {
+            generator.write(key, (Boolean) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            generator.write(key, ((Number) value).doubleValue());
+        } else if (value instanceof Privilege) {
+            generator.writeStartObject(key)
+                .write("name", ((Privilege) value).getName())
+                .writeEnd();
+        } else if (value instanceof String) {
+            generator.write(key, (String) value);
+        } else {
+            generator.write(key, value.toString());
+        }
+        return generator;
+    }
+
+    /**
+     * Write the value as an item of the current array, the same as
+     * {@link #addTo(JsonArrayBuilder, Object)}
+     */
+    public static JsonGenerator writeTo(JsonGenerator generator, Object value) {
+        value = convertJcrValue(value);
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            generator.write(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            generator.write((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.write((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            generator.write((Boolean) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            generator.write(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            generator.write((String) value);
+        } else {
+            generator.write(value.toString());
+        }
+        return generator;
+    }
+
     private static Object convertJcrValue(Object value) {
         if (value instanceof Value) {
             try {
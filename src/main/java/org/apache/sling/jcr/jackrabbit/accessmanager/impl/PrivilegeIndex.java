@@ -0,0 +1,661 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index of the privilege hierarchy rooted at jcr:all where each
+ * privilege is assigned an ordinal so that sets of privileges can be
+ * represented as <code>long[]</code> bit masks.  The expansion of an aggregate
+ * to the non-aggregate privileges it contains and the direct children
+ * considered when consolidating an aggregate are precomputed so the
+ * privilege algebra in {@link PrivilegesHelper} can work a word at a time
+ * instead of walking the aggregate tree for every operation.
+ * <p>
+ * The precomputed {@link Hierarchy} is immutable, keyed by the expanded
+ * privilege names and can be shared between sessions.  The index itself
+ * belongs to one session: the names of the privileges passed in are mapped
+ * with the namespace mappings of that session and the privileges handed out
+ * are resolved through its access control manager.  Like the session, the
+ * index is not meant to be used by concurrent threads.
+ */
+public final class PrivilegeIndex {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    /**
+     * The session independent part of the index
+     */
+    static final class Hierarchy {
+        /**
+         * the expanded name of the privilege for each ordinal
+         */
+        private final String[] names;
+        /**
+         * the ordinal for each expanded privilege name
+         */
+        private final Map<String, Integer> nameToOrdinal;
+        /**
+         * the longest depth in the hierarchy for each ordinal
+         */
+        private final int[] depths;
+        /**
+         * for each ordinal, the bits of the non-aggregate privileges it contains
+         */
+        private final long[][] leafBits;
+        /**
+         * for each ordinal, the bits of the direct children that are considered
+         * when consolidating the aggregate
+         */
+        private final long[][] childBits;
+        /**
+         * the ordinals of the aggregate privileges sorted with the deepest first
+         */
+        private final int[] aggregatesDeepestFirst;
+        /**
+         * the number of words required for a bit mask
+         */
+        private final int words;
+        /**
+         * the number of declared aggregate privileges of jcr:all when the index was built
+         */
+        private final int jcrAllDeclaredAggregateCount;
+        /**
+         * the registered namespace URI of each prefix of the privilege names, used
+         * to map the names when there is no session
+         */
+        private final Map<String, String> prefixToUri;
+
+        private Hierarchy(@NotNull Privilege jcrAll, @NotNull NameMapping nameMapping) throws RepositoryException {
+            jcrAllDeclaredAggregateCount = jcrAll.getDeclaredAggregatePrivileges().length;
+            Map<Privilege, Integer> longestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(jcrAll);
+
+            // assign the ordinals in a stable order
+            Privilege[] privileges = longestDepthMap.keySet().toArray(new Privilege[longestDepthMap.size()]);
+            Map<Privilege, String> expandedNames = new HashMap<>();
+            for (Privilege privilege : privileges) {
+                expandedNames.put(privilege, nameMapping.toExpandedName(privilege.getName()));
+            }
+            Arrays.sort(privileges, Comparator.comparing(expandedNames::get));
+            names = new String[privileges.length];
+            depths = new int[privileges.length];
+            nameToOrdinal = new HashMap<>();
+            for (int i = 0; i < privileges.length; i++) {
+                names[i] = expandedNames.get(privileges[i]);
+                depths[i] = longestDepthMap.get(privileges[i]);
+                nameToOrdinal.put(names[i], i);
+            }
+            words = wordIndex(privileges.length - 1) + 1;
+
+            childBits = new long[privileges.length][];
+            leafBits = new long[privileges.length][];
+            for (int i = 0; i < privileges.length; i++) {
+                Privilege privilege = privileges[i];
+                long[] children = new long[words];
+                if (privilege.isAggregate()) {
+                    // filter the declared aggregate privileges in case some are not a
+                    //   direct child.  For example, the jcr:all aggregate privileges list
+                    //   contains too many for this use case.
+                    int childDepth = depths[i] + 1;
+                    for (Privilege child : privilege.getDeclaredAggregatePrivileges()) {
+                        if (longestDepthMap.getOrDefault(child, -1) == childDepth) {
+                            set(children, nameToOrdinal.get(expandedNames.get(child)));
+                        }
+                    }
+                }
+                childBits[i] = children;
+            }
+            for (int i = 0; i < privileges.length; i++) {
+                calculateLeafBits(privileges, expandedNames, i);
+            }
+
+            aggregatesDeepestFirst = Arrays.stream(privileges)
+                    .filter(Privilege::isAggregate)
+                    .sorted((p1, p2) -> longestDepthMap.get(p2).compareTo(longestDepthMap.get(p1)))
+                    .mapToInt(p -> nameToOrdinal.get(expandedNames.get(p)))
+                    .toArray();
+            prefixToUri = nameMapping.getRegisteredPrefixes();
+        }
+
+        /**
+         * Calculates (once) the bits of the non-aggregate privileges contained in
+         * the privilege with the supplied ordinal
+         */
+        private long[] calculateLeafBits(Privilege[] privileges, Map<Privilege, String> expandedNames, int ordinal) {
+            long[] bits = leafBits[ordinal];
+            if (bits == null) {
+                bits = new long[words];
+                Privilege privilege = privileges[ordinal];
+                if (privilege.isAggregate()) {
+                    for (Privilege child : privilege.getDeclaredAggregatePrivileges()) {
+                        Integer childOrdinal = nameToOrdinal.get(expandedNames.get(child));
+                        if (childOrdinal != null) {
+                            or(bits, calculateLeafBits(privileges, expandedNames, childOrdinal));
+                        }
+                    }
+                } else {
+                    set(bits, ordinal);
+                }
+                leafBits[ordinal] = bits;
+            }
+            return bits;
+        }
+    }
+
+    /**
+     * Maps the privilege names between the namespace mappings of the session
+     * and the expanded form used as the key of the hierarchy.  Without a session
+     * the names are either used as they are or expanded with the registered
+     * namespaces of a previously built hierarchy.
+     */
+    private static final class NameMapping {
+        private final @Nullable Session session;
+        /**
+         * true if the names are mapped to the expanded form
+         */
+        private final boolean expand;
+        /**
+         * the namespace URI of each prefix that was looked up
+         */
+        private final Map<String, String> prefixToUri;
+        /**
+         * the registered prefix of each namespace URI when there is no session
+         */
+        private final Map<String, String> uriToPrefix;
+
+        NameMapping(@Nullable Session session) {
+            this.session = session;
+            this.expand = session != null;
+            this.prefixToUri = new HashMap<>();
+            this.uriToPrefix = Collections.emptyMap();
+        }
+
+        /**
+         * @param prefixToUri the registered namespace URI of each known prefix
+         */
+        private NameMapping(@NotNull Map<String, String> prefixToUri) {
+            this.session = null;
+            this.expand = true;
+            this.prefixToUri = prefixToUri;
+            this.uriToPrefix = new HashMap<>();
+            for (Entry<String, String> entry : prefixToUri.entrySet()) {
+                this.uriToPrefix.put(entry.getValue(), entry.getKey());
+            }
+        }
+
+        /**
+         * @return the prefixes that were looked up mapped to their namespace URI if the
+         *          session did not remap the prefix
+         */
+        @NotNull Map<String, String> getRegisteredPrefixes() throws RepositoryException {
+            if (session == null) {
+                return Collections.emptyMap();
+            }
+            NamespaceRegistry namespaceRegistry = session.getWorkspace().getNamespaceRegistry();
+            Map<String, String> registered = new HashMap<>();
+            for (Entry<String, String> entry : prefixToUri.entrySet()) {
+                if (entry.getValue().equals(namespaceRegistry.getURI(entry.getKey()))) {
+                    registered.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(registered);
+        }
+
+        /**
+         * @param jcrName the name in the namespace mappings of the session
+         * @return the name in the expanded form, for example: "{http://www.jcp.org/jcr/1.0}read"
+         */
+        @NotNull String toExpandedName(@NotNull String jcrName) throws RepositoryException {
+            int colon = jcrName.indexOf(':');
+            if (!expand || colon == -1 || jcrName.startsWith("{")) {
+                return jcrName;
+            }
+            String prefix = jcrName.substring(0, colon);
+            String uri = prefixToUri.get(prefix);
+            if (uri == null) {
+                if (session == null) {
+                    throw new NamespaceException("Unknown prefix: " + prefix);
+                }
+                uri = session.getNamespaceURI(prefix);
+                prefixToUri.put(prefix, uri);
+            }
+            return '{' + uri + '}' + jcrName.substring(colon + 1);
+        }
+
+        /**
+         * @param expandedName the name in the expanded form
+         * @return the name in the namespace mappings of the session, or with the
+         *          registered prefix without a session
+         */
+        @NotNull String toJcrName(@NotNull String expandedName) throws RepositoryException {
+            int end = expandedName.indexOf('}');
+            if (!expand || !expandedName.startsWith("{") || end == -1) {
+                return expandedName;
+            }
+            String uri = expandedName.substring(1, end);
+            String localName = expandedName.substring(end + 1);
+            if (uri.isEmpty()) {
+                return localName;
+            }
+            String prefix;
+            if (session == null) {
+                prefix = uriToPrefix.get(uri);
+                if (prefix == null) {
+                    throw new NamespaceException("Unknown namespace: " + uri);
+                }
+            } else {
+                prefix = session.getNamespacePrefix(uri);
+            }
+            return prefix + ':' + localName;
+        }
+    }
+
+    private final Hierarchy hierarchy;
+    private final NameMapping nameMapping;
+    private final AccessControlManager acm;
+    /**
+     * the privilege for each ordinal, resolved when first requested
+     */
+    private final Privilege[] privileges;
+    /**
+     * the ordinal (or -1) for each privilege name of the session that was looked up
+     */
+    private final Map<String, Integer> jcrNameToOrdinal = new HashMap<>();
+    /**
+     * view of the longest depth of each privilege, created when first requested
+     */
+    private Map<Privilege, Integer> longestDepthMap;
+
+    private PrivilegeIndex(@NotNull Hierarchy hierarchy, @NotNull NameMapping nameMapping, @NotNull AccessControlManager acm) {
+        this.hierarchy = hierarchy;
+        this.nameMapping = nameMapping;
+        this.acm = acm;
+        this.privileges = new Privilege[hierarchy.names.length];
+    }
+
+    /**
+     * Build the index for the privilege hierarchy
+     *
+     * @param session the session the index is used with
+     * @param acm the access control manager of the session
+     * @return the privilege index
+     */
+    public static @NotNull PrivilegeIndex build(@NotNull Session session, @NotNull AccessControlManager acm) throws RepositoryException {
+        NameMapping nameMapping = new NameMapping(session);
+        Hierarchy hierarchy = new Hierarchy(acm.privilegeFromName(PrivilegeConstants.JCR_ALL), nameMapping);
+        return new PrivilegeIndex(hierarchy, nameMapping, acm);
+    }
+
+    /**
+     * Build an index that is only used with the privileges of the supplied access
+     * control manager, so the names of the privileges are not mapped and the
+     * hierarchy can not be shared
+     *
+     * @param acm the access control manager
+     * @return the privilege index
+     */
+    public static @NotNull PrivilegeIndex build(@NotNull AccessControlManager acm) throws RepositoryException {
+        NameMapping nameMapping = new NameMapping((Session) null);
+        Hierarchy hierarchy = new Hierarchy(acm.privilegeFromName(PrivilegeConstants.JCR_ALL), nameMapping);
+        return new PrivilegeIndex(hierarchy, nameMapping, acm);
+    }
+
+    /**
+     * Use a previously built hierarchy with another session.  Without a session the
+     * privilege names are mapped with the registered namespaces, so a privilege whose
+     * prefix was remapped is reported as not known to the index.
+     *
+     * @param hierarchy the hierarchy from {@link #getHierarchy()}
+     * @param session the session the index is used with (may be null)
+     * @param acm the access control manager of the session
+     * @return the privilege index
+     */
+    static @NotNull PrivilegeIndex of(@NotNull Hierarchy hierarchy, @Nullable Session session, @NotNull AccessControlManager acm) {
+        NameMapping nameMapping = session == null ? new NameMapping(hierarchy.prefixToUri) : new NameMapping(session);
+        return new PrivilegeIndex(hierarchy, nameMapping, acm);
+    }
+
+    /**
+     * @return the session independent part of the index that can be shared
+     */
+    @NotNull Hierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Checks if this index still reflects the registered privileges.  Registering a
+     * new privilege always adds it to the declared aggregate privileges of jcr:all and
+     * privileges can not be unregistered, so comparing those is enough to detect
+     * that the index is stale without walking the hierarchy.
+     *
+     * @param jcrAll the current jcr:all privilege
+     * @return true if the index is up to date, false if it should be rebuilt
+     */
+    public boolean isCurrent(@NotNull Privilege jcrAll) {
+        Privilege[] declaredAggregatePrivileges = jcrAll.getDeclaredAggregatePrivileges();
+        if (declaredAggregatePrivileges.length != hierarchy.jcrAllDeclaredAggregateCount) {
+            return false;
+        }
+        for (Privilege privilege : declaredAggregatePrivileges) {
+            if (ordinal(privilege) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Map of privileges to the longest depth.  See {@link PrivilegesHelper#buildPrivilegeLongestDepthMap(Privilege)}
+     * <p>
+     * The map is a view of the depths kept by the index, so looking up a privilege
+     * is the same as {@link #depth(Privilege)} and the privileges are only resolved
+     * when iterating the map.
+     *
+     * @return unmodifiable map where the key is the privilege and the value is the longest depth
+     */
+    public @NotNull Map<Privilege, Integer> getLongestDepthMap() {
+        if (longestDepthMap == null) {
+            longestDepthMap = new LongestDepthMap();
+        }
+        return longestDepthMap;
+    }
+
+    /**
+     * Lookup the longest depth of the privilege in the hierarchy
+     *
+     * @param privilege the privilege to lookup
+     * @return the longest depth or -1 if the privilege is not known to this index
+     */
+    public int depth(@NotNull Privilege privilege) {
+        int ordinal = ordinal(privilege);
+        return ordinal == -1 ? -1 : hierarchy.depths[ordinal];
+    }
+
+    /**
+     * Unmodifiable view of the longest depth for each ordinal of the hierarchy
+     */
+    private final class LongestDepthMap extends AbstractMap<Privilege, Integer> {
+        private Set<Entry<Privilege, Integer>> entrySet;
+
+        @Override
+        public int size() {
+            return privileges.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Privilege && ordinal((Privilege)key) != -1;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (key instanceof Privilege) {
+                int ordinal = ordinal((Privilege)key);
+                if (ordinal != -1) {
+                    return hierarchy.depths[ordinal];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Entry<Privilege, Integer>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Entry<Privilege, Integer>>() {
+                    @Override
+                    public int size() {
+                        return privileges.length;
+                    }
+
+                    @Override
+                    public Iterator<Entry<Privilege, Integer>> iterator() {
+                        return new Iterator<Entry<Privilege, Integer>>() {
+                            private int next = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < privileges.length;
+                            }
+
+                            @Override
+                            public Entry<Privilege, Integer> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int ordinal = next++;
+                                return new SimpleImmutableEntry<>(privilege(ordinal), hierarchy.depths[ordinal]);
+                            }
+                        };
+                    }
+                };
+            }
+            return entrySet;
+        }
+    }
+
+    /**
+     * @return the number of privileges in the index
+     */
+    public int size() {
+        return privileges.length;
+    }
+
+    /**
+     * Lookup the ordinal of the privilege
+     *
+     * @param privilege the privilege to lookup
+     * @return the ordinal or -1 if the privilege is not known to this index
+     */
+    public int ordinal(@NotNull Privilege privilege) {
+        String jcrName = privilege.getName();
+        Integer ordinal = jcrNameToOrdinal.get(jcrName);
+        if (ordinal == null) {
+            try {
+                ordinal = hierarchy.nameToOrdinal.getOrDefault(nameMapping.toExpandedName(jcrName), -1);
+            } catch (RepositoryException e) {
+                // the prefix is not mapped, so it can't be a known privilege
+                ordinal = -1;
+            }
+            jcrNameToOrdinal.put(jcrName, ordinal);
+        }
+        return ordinal.intValue();
+    }
+
+    /**
+     * Lookup the privilege for the ordinal
+     *
+     * @param ordinal the ordinal to lookup
+     * @return the privilege of the session
+     * @throws IllegalStateException if the privilege can not be resolved by the session
+     */
+    public @NotNull Privilege privilege(int ordinal) {
+        Privilege privilege = privileges[ordinal];
+        if (privilege == null) {
+            String expandedName = hierarchy.names[ordinal];
+            try {
+                privilege = acm.privilegeFromName(nameMapping.toJcrName(expandedName));
+            } catch (RepositoryException e) {
+                throw new IllegalStateException("Failed to resolve the privilege: " + expandedName, e);
+            }
+            privileges[ordinal] = privilege;
+        }
+        return privilege;
+    }
+
+    /**
+     * Expand the privileges to the non-aggregate privileges they contain
+     *
+     * @param privileges the privileges to expand
+     * @return the bit mask of the non-aggregate privileges
+     */
+    public @NotNull long[] expand(@NotNull Privilege[] privileges) {
+        long[] bits = newBits();
+        for (Privilege privilege : privileges) {
+            addLeafBits(bits, privilege);
+        }
+        return bits;
+    }
+
+    /**
+     * Checks if every non-aggregate privilege contained in the privilege is set
+     *
+     * @param bits the bit mask from {@link #expand(Privilege[])}
+     * @param privilege the privilege to check
+     * @return true if the privilege is included, false if not or if the privilege is not known to this index
+     */
+    public boolean includes(@NotNull long[] bits, @NotNull Privilege privilege) {
+        int ordinal = ordinal(privilege);
+        return ordinal != -1 && containsAll(bits, hierarchy.leafBits[ordinal]);
+    }
+
+    /**
+     * @return a new empty bit mask that is large enough for every privilege in the index
+     */
+    long[] newBits() {
+        return new long[hierarchy.words];
+    }
+
+    /**
+     * Adds the bits of the non-aggregate privileges contained in the privilege
+     *
+     * @param bits the bit mask to add to
+     * @param privilege the privilege to expand
+     * @return true if the privilege was known to the index, false otherwise
+     */
+    boolean addLeafBits(@NotNull long[] bits, @NotNull Privilege privilege) {
+        int ordinal = ordinal(privilege);
+        if (ordinal == -1) {
+            return false;
+        }
+        or(bits, hierarchy.leafBits[ordinal]);
+        return true;
+    }
+
+    /**
+     * @return the bits of the direct children of the aggregate that are
+     *          considered when consolidating (do not modify)
+     */
+    long[] childBits(int ordinal) {
+        return hierarchy.childBits[ordinal];
+    }
+
+    /**
+     * @return the ordinals of the aggregate privileges with the deepest first (do not modify)
+     */
+    int[] aggregatesDeepestFirst() {
+        return hierarchy.aggregatesDeepestFirst;
+    }
+
+    /**
+     * Invoke the consumer for the privilege of each bit that is set
+     *
+     * @param bits the bit mask
+     * @param consumer the consumer to call
+     */
+    void forEach(@NotNull long[] bits, @NotNull Consumer<Privilege> consumer) {
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                consumer.accept(privilege((w << ADDRESS_BITS_PER_WORD) + bit));
+                // clear the lowest set bit
+                word &= word - 1;
+            }
+        }
+    }
+
+    private static int wordIndex(int ordinal) {
+        return ordinal >> ADDRESS_BITS_PER_WORD;
+    }
+
+    static void set(@NotNull long[] bits, int ordinal) {
+        bits[wordIndex(ordinal)] |= 1L << ordinal;
+    }
+
+    static void clear(@NotNull long[] bits, int ordinal) {
+        bits[wordIndex(ordinal)] &= ~(1L << ordinal);
+    }
+
+    static boolean isSet(@Nullable long[] bits, int ordinal) {
+        return bits != null && (bits[wordIndex(ordinal)] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * bits |= other
+     */
+    static void or(@NotNull long[] bits, @NotNull long[] other) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other[i];
+        }
+    }
+
+    /**
+     * bits &= ~other
+     */
+    static void andNot(@NotNull long[] bits, @NotNull long[] other) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= ~other[i];
+        }
+    }
+
+    /**
+     * @return true if every bit of other is also set in bits
+     */
+    static boolean containsAll(@NotNull long[] bits, @NotNull long[] other) {
+        for (int i = 0; i < bits.length; i++) {
+            if ((other[i] & ~bits[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isEmpty(@NotNull long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds a shared snapshot of the privilege hierarchy so the servlets don't
+ * have to walk the whole hierarchy for every request.  The snapshot is only
+ * rebuilt when new privileges have been registered with the PrivilegeManager.
+ * The snapshot is keyed by the expanded privilege names, so it can be shared
+ * by sessions with different namespace mappings.
+ */
+@Component(service = PrivilegeIndexService.class)
+public class PrivilegeIndexService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private volatile PrivilegeIndex.Hierarchy hierarchy;
+
+    @Deactivate
+    protected void deactivate() {
+        hierarchy = null;
+    }
+
+    /**
+     * Return the privilege index of the session using the current snapshot of the
+     * privilege hierarchy, rebuilding it first if new privileges were registered
+     * since it was taken.  Without a session the snapshot can only be used, so an
+     * index of its own is built for the access control manager when there is no
+     * current snapshot.
+     *
+     * @param session the current session (may be null)
+     * @param acm the access control manager of the current session
+     * @return the privilege index
+     */
+    public @NotNull PrivilegeIndex getPrivilegeIndex(@Nullable Session session, @NotNull AccessControlManager acm) throws RepositoryException {
+        Privilege jcrAll = acm.privilegeFromName(PrivilegeConstants.JCR_ALL);
+        PrivilegeIndex.Hierarchy current = hierarchy;
+        PrivilegeIndex index = current == null ? null : PrivilegeIndex.of(current, session, acm);
+        if (session == null) {
+            return index != null && index.isCurrent(jcrAll) ? index : PrivilegeIndex.build(acm);
+        }
+        if (index == null || !index.isCurrent(jcrAll)) {
+            synchronized (this) {
+                current = hierarchy;
+                index = current == null ? null : PrivilegeIndex.of(current, session, acm);
+                if (index == null || !index.isCurrent(jcrAll)) {
+                    log.debug("Building the privilege index");
+                    index = PrivilegeIndex.build(session, acm);
+                    hierarchy = index.getHierarchy();
+                }
+            }
+        }
+        return index;
+    }
+
+}
@@ -18,12 +18,16 @@
  */
 package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -49,33 +53,64 @@ public final class PrivilegesHelper {
     }
 
     /**
-     * If the privilege is contained in multiple aggregate privileges, then
-     * calculate the instance with the greatest depth.
+     * Tracks the progress of the depth first walk of one privilege
      */
-    private static void toLongestDepth(int parentDepth, Privilege parentPrivilege, Map<Privilege, Integer> privilegeToLongestDepth) {
-        Privilege[] declaredAggregatePrivileges = parentPrivilege.getDeclaredAggregatePrivileges();
-        for (Privilege privilege : declaredAggregatePrivileges) {
-            Integer oldValue = privilegeToLongestDepth.get(privilege);
-            int candidateDepth = parentDepth + 1;
-            if (oldValue == null || oldValue.intValue() < candidateDepth) {
-                privilegeToLongestDepth.put(privilege, candidateDepth);
-
-                // continue drilling down to the leaf privileges
-                toLongestDepth(candidateDepth, privilege, privilegeToLongestDepth);
-            }
+    private static final class PrivilegeVisit {
+        private final Privilege privilege;
+        private final Privilege[] declaredAggregatePrivileges;
+        private int next;
+
+        private PrivilegeVisit(Privilege privilege, Privilege[] declaredAggregatePrivileges) {
+            this.privilege = privilege;
+            this.declaredAggregatePrivileges = declaredAggregatePrivileges;
         }
     }
 
     /**
-     * Calculate the longest path for each of the possible privileges
+     * Calculate the longest path for each of the possible privileges.
      * 
-     * @param jcrSession the current users JCR session
+     * The privileges are visited once (without recursion) to calculate a topological
+     * order of the aggregates and then the depths are relaxed in that order, so privileges
+     * that are shared by multiple aggregates are not walked again for each deeper path.
+     * 
+     * @param jcrAll the jcr:all privilege
      * @return map where the key is the privilege and the value is the longest path
      */
     public static Map<Privilege, Integer> buildPrivilegeLongestDepthMap(Privilege jcrAll) {
+        // depth first walk to collect the declared aggregate privileges of each privilege
+        //   and a post order of the privileges
+        Map<Privilege, Privilege[]> privilegeToDeclaredAggregates = new HashMap<>();
+        List<Privilege> postOrder = new ArrayList<>();
+        Deque<PrivilegeVisit> stack = new ArrayDeque<>();
+        Privilege[] jcrAllAggregates = jcrAll.getDeclaredAggregatePrivileges();
+        privilegeToDeclaredAggregates.put(jcrAll, jcrAllAggregates);
+        stack.push(new PrivilegeVisit(jcrAll, jcrAllAggregates));
+        while (!stack.isEmpty()) {
+            PrivilegeVisit visit = stack.peek();
+            if (visit.next < visit.declaredAggregatePrivileges.length) {
+                Privilege privilege = visit.declaredAggregatePrivileges[visit.next++];
+                if (!privilegeToDeclaredAggregates.containsKey(privilege)) {
+                    Privilege[] declaredAggregates = privilege.getDeclaredAggregatePrivileges();
+                    privilegeToDeclaredAggregates.put(privilege, declaredAggregates);
+                    stack.push(new PrivilegeVisit(privilege, declaredAggregates));
+                }
+            } else {
+                stack.pop();
+                postOrder.add(visit.privilege);
+            }
+        }
+
+        // in reverse post order each aggregate comes before the privileges it contains,
+        //   so the depth of an aggregate is final before it is pushed to the children
         Map<Privilege, Integer> privilegeToLongestPath = new HashMap<>();
         privilegeToLongestPath.put(jcrAll, 1);
-        toLongestDepth(1, jcrAll, privilegeToLongestPath);
+        for (int i = postOrder.size() - 1; i >= 0; i--) {
+            Privilege parentPrivilege = postOrder.get(i);
+            int candidateDepth = privilegeToLongestPath.get(parentPrivilege) + 1;
+            for (Privilege privilege : privilegeToDeclaredAggregates.get(parentPrivilege)) {
+                privilegeToLongestPath.merge(privilege, candidateDepth, Math::max);
+            }
+        }
         return privilegeToLongestPath;
     }
 
@@ -172,92 +207,70 @@ public final class PrivilegesHelper {
     }
 
     /**
-     * Populates each of the local allow and/or deny privilege in the privilegeToLocalPrivilegesMap.  If the supplied
-     * privilege is an aggregate then the data is populated for each of non-aggregate privileges contained in
-     * the aggregate privilege.  Otherwise, the data is populated for the privilege itself.
+     * Invokes the consumer for each of the non-aggregate privileges contained in the supplied
+     * privileges.  If a supplied privilege is an aggregate then the consumer is called for each of
+     * non-aggregate privileges contained in the aggregate privilege.  Otherwise, the consumer is
+     * called for the privilege itself.
      * 
-     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
-     * @param p the privilege to update
-     * @param allow true or false to set the allow value of the LocalPrivilege
-     * @param allowRestrictions if allow is true, the set of restrictions
-     * @param deny true or false to set the allow value of the LocalPrivilege
-     * @param denyRestrictions if deny is true, the set of restrictions
+     * When the privilege index is available, the supplied privileges are first combined into
+     * a single bit mask so that each non-aggregate privilege is visited only once.
+     * 
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     * @param privileges the privileges to expand
+     * @param consumer the consumer to call for each non-aggregate privilege
      */
-    private static void expandAllowAndDenyPrivWithoutAggregates(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            Privilege p,
-            boolean allow, @NotNull Set<LocalRestriction> allowRestrictions,
-            boolean deny, @NotNull Set<LocalRestriction> denyRestrictions
-            ) throws RepositoryException {
-        if (p.isAggregate()) {
-            Privilege[] aggregatePrivileges = p.getDeclaredAggregatePrivileges();
-            for (Privilege aggregatePrivilege : aggregatePrivileges) {
-                if (aggregatePrivilege.isAggregate()) {
-                    expandAllowAndDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, aggregatePrivilege,
-                            allow, allowRestrictions,
-                            deny, denyRestrictions);
-                } else {
-                    localAllowAndDenyPriv(privilegeToLocalPrivilegesMap, aggregatePrivilege,
-                            allow, allowRestrictions,
-                            deny, denyRestrictions);
-                }
+    private static void forEachNonAggregatePrivilege(@Nullable PrivilegeIndex privilegeIndex,
+            @NotNull Collection<Privilege> privileges, @NotNull Consumer<Privilege> consumer) {
+        if (privilegeIndex == null) {
+            for (Privilege privilege : privileges) {
+                forEachNonAggregatePrivilege(privilege, consumer);
             }
         } else {
-            localAllowAndDenyPriv(privilegeToLocalPrivilegesMap, p,
-                    allow, allowRestrictions,
-                    deny, denyRestrictions);
+            long[] bits = privilegeIndex.newBits();
+            for (Privilege privilege : privileges) {
+                if (!privilegeIndex.addLeafBits(bits, privilege)) {
+                    // not known to the index so walk the aggregate instead
+                    forEachNonAggregatePrivilege(privilege, consumer);
+                }
+            }
+            privilegeIndex.forEach(bits, consumer);
         }
     }
 
     /**
-     * Populates each of the local allow privilege in the privilegeToLocalPrivilegesMap.  If the supplied
-     * privilege is an aggregate then the data is populated for each of non-aggregate privileges contained in
-     * the aggregate privilege.  Otherwise, the data is populated for the privilege itself.
+     * Invokes the consumer for each of the non-aggregate privileges contained in the supplied
+     * privilege by walking the declared aggregate privileges.
      * 
-     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
-     * @param p the privilege to update
-     * @param isAllow true or false to set the allow value of the LocalPrivilege
-     * @param restrictions if isAllow is true, the set of restrictions
+     * @param p the privilege to expand
+     * @param consumer the consumer to call for each non-aggregate privilege
      */
-    private static void expandAllowPrivWithoutAggregates(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            Privilege p, boolean isAllow, Set<LocalRestriction> restrictions) throws RepositoryException {
+    private static void forEachNonAggregatePrivilege(@NotNull Privilege p, @NotNull Consumer<Privilege> consumer) {
         if (p.isAggregate()) {
-            Privilege[] aggregatePrivileges = p.getDeclaredAggregatePrivileges();
-            for (Privilege aggregatePrivilege : aggregatePrivileges) {
-                if (aggregatePrivilege.isAggregate()) {
-                    expandAllowPrivWithoutAggregates(privilegeToLocalPrivilegesMap, aggregatePrivilege, isAllow, restrictions);
-                } else {
-                    localAllowPriv(privilegeToLocalPrivilegesMap, aggregatePrivilege, isAllow, restrictions);
-                }
+            for (Privilege aggregatePrivilege : p.getDeclaredAggregatePrivileges()) {
+                forEachNonAggregatePrivilege(aggregatePrivilege, consumer);
             }
         } else {
-            localAllowPriv(privilegeToLocalPrivilegesMap, p, isAllow, restrictions);
+            consumer.accept(p);
         }
     }
 
     /**
-     * Populates each of the local deny privilege in the privilegeToLocalPrivilegesMap.  If the supplied
+     * Populates each of the local allow and/or deny privilege in the privilegeToLocalPrivilegesMap.  If the supplied
      * privilege is an aggregate then the data is populated for each of non-aggregate privileges contained in
      * the aggregate privilege.  Otherwise, the data is populated for the privilege itself.
      * 
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
-     * @param p the privilege to update
-     * @param isDeny true or false to set the allow value of the LocalPrivilege
-     * @param restrictions if isDeny is true, the set of restrictions
+     * @param allow true or false to set the allow value of the LocalPrivilege
+     * @param allowRestrictions if allow is true, the set of restrictions
+     * @param deny true or false to set the allow value of the LocalPrivilege
+     * @param denyRestrictions if deny is true, the set of restrictions
+     * @param privileges the privilege to update
      */
-    private static void expandDenyPrivWithoutAggregates(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            Privilege p, boolean isDeny, Set<LocalRestriction> restrictions) throws RepositoryException {
-        if (p.isAggregate()) {
-            Privilege[] aggregatePrivileges = p.getDeclaredAggregatePrivileges();
-            for (Privilege aggregatePrivilege : aggregatePrivileges) {
-                if (aggregatePrivilege.isAggregate()) {
-                    expandDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, aggregatePrivilege, isDeny, restrictions);
-                } else {
-                    localDenyPriv(privilegeToLocalPrivilegesMap, aggregatePrivilege, isDeny, restrictions);
-                }
-            }
-        } else {
-            localDenyPriv(privilegeToLocalPrivilegesMap, p, isDeny, restrictions);
-        }
+    public static void allowAndDeny(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            boolean allow, @NotNull Set<LocalRestriction> allowRestrictions,
+            boolean deny, @NotNull Set<LocalRestriction> denyRestrictions,
+            @NotNull Collection<Privilege> privileges) throws RepositoryException {
+        allowAndDeny(privilegeToLocalPrivilegesMap, allow, allowRestrictions, deny, denyRestrictions, privileges, null);
     }
 
     /**
@@ -271,15 +284,17 @@ public final class PrivilegesHelper {
      * @param deny true or false to set the allow value of the LocalPrivilege
      * @param denyRestrictions if deny is true, the set of restrictions
      * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
      */
     public static void allowAndDeny(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             boolean allow, @NotNull Set<LocalRestriction> allowRestrictions,
             boolean deny, @NotNull Set<LocalRestriction> denyRestrictions,
-            @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandAllowAndDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege,
-                    allow, allowRestrictions, deny, denyRestrictions);
-        }
+            @NotNull Collection<Privilege> privileges, @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restrictions once so each LocalPrivilege can share them
+        Set<LocalRestriction> allowRestrictionSet = RestrictionSet.of(allowRestrictions);
+        Set<LocalRestriction> denyRestrictionSet = RestrictionSet.of(denyRestrictions);
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localAllowAndDenyPriv(privilegeToLocalPrivilegesMap, p, allow, allowRestrictionSet, deny, denyRestrictionSet));
     }
 
     /**
@@ -291,9 +306,24 @@ public final class PrivilegesHelper {
      */
     public static void allow(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Set<LocalRestriction> restrictions, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandAllowPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, restrictions);
-        }
+        allow(privilegeToLocalPrivilegesMap, restrictions, privileges, null);
+    }
+
+    /**
+     * Populates each of the allow privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictions the set of restrictions (possibly empty)
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void allow(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Set<LocalRestriction> restrictions, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restrictions once so each LocalPrivilege can share them
+        Set<LocalRestriction> restrictionSet = RestrictionSet.of(restrictions);
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localAllowPriv(privilegeToLocalPrivilegesMap, p, true, restrictionSet));
     }
 
     /**
@@ -304,9 +334,20 @@ public final class PrivilegesHelper {
      */
     public static void unallow(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandAllowPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, Collections.emptySet());
-        }
+        unallow(privilegeToLocalPrivilegesMap, privileges, null);
+    }
+
+    /**
+     * Unset each of the allow privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void unallow(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Collection<Privilege> privileges, @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localAllowPriv(privilegeToLocalPrivilegesMap, p, false, Collections.emptySet()));
     }
 
     /**
@@ -318,9 +359,24 @@ public final class PrivilegesHelper {
      */
     public static void deny(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Set<LocalRestriction> restrictions, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, restrictions);
-        }
+        deny(privilegeToLocalPrivilegesMap, restrictions, privileges, null);
+    }
+
+    /**
+     * Populates each of the deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictions the set of restrictions (possibly empty)
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void deny(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Set<LocalRestriction> restrictions, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restrictions once so each LocalPrivilege can share them
+        Set<LocalRestriction> restrictionSet = RestrictionSet.of(restrictions);
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localDenyPriv(privilegeToLocalPrivilegesMap, p, true, restrictionSet));
     }
 
     /**
@@ -331,9 +387,20 @@ public final class PrivilegesHelper {
      */
     public static void undeny(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, Collections.emptySet());
-        }
+        undeny(privilegeToLocalPrivilegesMap, privileges, null);
+    }
+
+    /**
+     * Unset each of the deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void undeny(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Collection<Privilege> privileges, @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localDenyPriv(privilegeToLocalPrivilegesMap, p, false, Collections.emptySet()));
     }
 
     /**
@@ -343,10 +410,22 @@ public final class PrivilegesHelper {
      * @param privileges the privilege to update
      */
     public static void none(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            expandAllowPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, Collections.emptySet());
-            expandDenyPrivWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, Collections.emptySet());
-        }
+        none(privilegeToLocalPrivilegesMap, privileges, null);
+    }
+
+    /**
+     * Unset each of the allow and deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void none(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges, p -> {
+            localAllowPriv(privilegeToLocalPrivilegesMap, p, false, Collections.emptySet());
+            localDenyPriv(privilegeToLocalPrivilegesMap, p, false, Collections.emptySet());
+        });
     }
 
     /**
@@ -386,34 +465,6 @@ public final class PrivilegesHelper {
         return localPrivilege;
     }
 
-    /**
-     * Remove the specified restrictions from each of the local privilege in the privilegeToLocalPrivilegesMap.
-     * If the supplied privilege is an aggregate then the data is populated for each of non-aggregate privileges contained in
-     * the aggregate privilege.  Otherwise, the data is populated for the privilege itself.
-     * 
-     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
-     * @param privileges the privilege to update
-     * @param forAllow true to remove allow restrictions
-     * @param forDeny true to remove deny restrictions
-     * @param restrictionNames the set of restriction names to remove
-     * @return the local privilege that was populated
-     */
-    private static void removeRestrictionsWithoutAggregates(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            @NotNull Privilege p, boolean forAllow, boolean forDeny, @NotNull Collection<String> restrictionNames) throws RepositoryException {
-        if (p.isAggregate()) {
-            Privilege[] aggregatePrivileges = p.getDeclaredAggregatePrivileges();
-            for (Privilege aggregatePrivilege : aggregatePrivileges) {
-                if (aggregatePrivilege.isAggregate()) {
-                    removeRestrictionsWithoutAggregates(privilegeToLocalPrivilegesMap, aggregatePrivilege, forAllow, forDeny, restrictionNames);
-                } else {
-                    localPrivRemoveRestrictions(privilegeToLocalPrivilegesMap, aggregatePrivilege, forAllow, forDeny, restrictionNames);
-                }
-            }
-        } else {
-            localPrivRemoveRestrictions(privilegeToLocalPrivilegesMap, p, forAllow, forDeny, restrictionNames);
-        }
-    }
-
     /**
      * Add the specified restriction to the LocalPrivilege
      * 
@@ -422,11 +473,13 @@ public final class PrivilegesHelper {
      * @param forAllow true to remove allow restrictions
      * @param forDeny true to remove deny restrictions
      * @param restriction the restriction to add
+     * @param restrictionSet the shared set containing only the restriction to add
      * @param requireAllowOrDenyAlreadySet if true, only do work if the allow/deny state is already set to true
      * @return the local privilege that was populated
      */
     private static LocalPrivilege localPrivAddRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            @NotNull Privilege privilege, boolean forAllow, boolean forDeny, @NotNull LocalRestriction restriction,
+            @NotNull Privilege privilege, boolean forAllow, boolean forDeny,
+            @NotNull LocalRestriction restriction, @NotNull Set<LocalRestriction> restrictionSet,
             boolean requireAllowOrDenyAlreadySet) {
         LocalPrivilege localPrivilege = privilegeToLocalPrivilegesMap.computeIfAbsent(privilege, LocalPrivilege::new);
         if (forDeny) {
@@ -435,7 +488,7 @@ public final class PrivilegesHelper {
             } else {
                 localPrivilege.setDeny(true);
                 localPrivilege.unsetDenyRestrictions(Collections.singleton(restriction.getName()));
-                localPrivilege.setDenyRestrictions(Collections.singleton(restriction));
+                localPrivilege.setDenyRestrictions(restrictionSet);
             }
         }
         if (forAllow) {
@@ -444,7 +497,7 @@ public final class PrivilegesHelper {
             } else {
                 localPrivilege.setAllow(true);
                 localPrivilege.unsetAllowRestrictions(Collections.singleton(restriction.getName()));
-                localPrivilege.setAllowRestrictions(Collections.singleton(restriction));
+                localPrivilege.setAllowRestrictions(restrictionSet);
             }
         }
 
@@ -463,31 +516,15 @@ public final class PrivilegesHelper {
     }
 
     /**
-     * Add the specified restrictions to each of the local privilege in the privilegeToLocalPrivilegesMap.
-     * If the supplied privilege is an aggregate then the data is populated for each of non-aggregate privileges contained in
-     * the aggregate privilege.  Otherwise, the data is populated for the privilege itself.
+     * Adds the restriction for each of the supplied allow privilege in the privilegeToLocalPrivilegesMap.
      * 
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restriction the restrictions to add
      * @param privileges the privilege to update
-     * @param forAllow true to remove allow restrictions
-     * @param forDeny true to remove deny restrictions
-     * @param restrictionNames the set of restriction names to remove
-     * @return the local privilege that was populated
      */
-    private static void addRestrictionWithoutAggregates(Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            Privilege p, boolean forAllow, boolean forDeny, LocalRestriction restriction, boolean requireAllowOrDenyAlreadySet) throws RepositoryException {
-        if (p.isAggregate()) {
-            Privilege[] aggregatePrivileges = p.getDeclaredAggregatePrivileges();
-            for (Privilege aggregatePrivilege : aggregatePrivileges) {
-                if (aggregatePrivilege.isAggregate()) {
-                    addRestrictionWithoutAggregates(privilegeToLocalPrivilegesMap, aggregatePrivilege, forAllow, forDeny, restriction, requireAllowOrDenyAlreadySet);
-                } else {
-                    localPrivAddRestriction(privilegeToLocalPrivilegesMap, aggregatePrivilege, forAllow, forDeny, restriction, requireAllowOrDenyAlreadySet);
-                }
-            }
-        } else {
-            localPrivAddRestriction(privilegeToLocalPrivilegesMap, p, forAllow, forDeny, restriction, requireAllowOrDenyAlreadySet);
-        }
+    public static void allowRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges) throws RepositoryException {
+        allowRestriction(privilegeToLocalPrivilegesMap, restriction, privileges, null);
     }
 
     /**
@@ -496,12 +533,15 @@ public final class PrivilegesHelper {
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
      * @param restriction the restrictions to add
      * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
      */
     public static void allowRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
-            @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            addRestrictionWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, false, restriction, false);
-        }
+            @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restriction once so each LocalPrivilege can share it
+        Set<LocalRestriction> restrictionSet = RestrictionSet.of(Collections.singleton(restriction));
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivAddRestriction(privilegeToLocalPrivilegesMap, p, true, false, restriction, restrictionSet, false));
     }
 
     /**
@@ -516,6 +556,20 @@ public final class PrivilegesHelper {
         unallowRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges);
     }
 
+    /**
+     * Remove the restriction for each of the supplied allow privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionName the restriction name to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void unallowRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull String restrictionName, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        unallowRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges, privilegeIndex);
+    }
+
     /**
      * Remove the restrictions for each of the supplied allow privilege in the privilegeToLocalPrivilegesMap.
      * 
@@ -525,9 +579,22 @@ public final class PrivilegesHelper {
      */
     public static void unallowRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            removeRestrictionsWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, false, restrictionNames);
-        }
+        unallowRestrictions(privilegeToLocalPrivilegesMap, restrictionNames, privileges, null);
+    }
+
+    /**
+     * Remove the restrictions for each of the supplied allow privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionNames the collection of restriction names to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void unallowRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivRemoveRestrictions(privilegeToLocalPrivilegesMap, p, true, false, restrictionNames));
     }
 
     /**
@@ -539,9 +606,24 @@ public final class PrivilegesHelper {
      */
     public static void denyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            addRestrictionWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, true, restriction, false);
-        }
+        denyRestriction(privilegeToLocalPrivilegesMap, restriction, privileges, null);
+    }
+
+    /**
+     * Adds the restriction for each of the supplied deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restriction the restrictions to add
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void denyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restriction once so each LocalPrivilege can share it
+        Set<LocalRestriction> restrictionSet = RestrictionSet.of(Collections.singleton(restriction));
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivAddRestriction(privilegeToLocalPrivilegesMap, p, false, true, restriction, restrictionSet, false));
     }
 
     /**
@@ -556,6 +638,20 @@ public final class PrivilegesHelper {
         undenyRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges);
     }
 
+    /**
+     * Remove the restriction for each of the supplied deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionName the restriction name to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void undenyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull String restrictionName, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        undenyRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges, privilegeIndex);
+    }
+
     /**
      * Remove the restrictions for each of the supplied deny privilege in the privilegeToLocalPrivilegesMap.
      * 
@@ -565,9 +661,22 @@ public final class PrivilegesHelper {
      */
     public static void undenyRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            removeRestrictionsWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, false, true, restrictionNames);
-        }
+        undenyRestrictions(privilegeToLocalPrivilegesMap, restrictionNames, privileges, null);
+    }
+
+    /**
+     * Remove the restrictions for each of the supplied deny privilege in the privilegeToLocalPrivilegesMap.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionNames the collection of restriction names to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void undenyRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivRemoveRestrictions(privilegeToLocalPrivilegesMap, p, false, true, restrictionNames));
     }
 
     /**
@@ -580,9 +689,25 @@ public final class PrivilegesHelper {
      */
     public static void allowOrDenyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            addRestrictionWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, true, restriction, true);
-        }
+        allowOrDenyRestriction(privilegeToLocalPrivilegesMap, restriction, privileges, null);
+    }
+
+    /**
+     * Adds the restriction for each of the supplied privilege in the privilegeToLocalPrivilegesMap that
+     * is already has allow or deny set to true.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restriction the restrictions to add
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void allowOrDenyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull LocalRestriction restriction, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        // intern the restriction once so each LocalPrivilege can share it
+        Set<LocalRestriction> restrictionSet = RestrictionSet.of(Collections.singleton(restriction));
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivAddRestriction(privilegeToLocalPrivilegesMap, p, true, true, restriction, restrictionSet, true));
     }
 
     /**
@@ -598,6 +723,21 @@ public final class PrivilegesHelper {
         unallowOrUndenyRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges);
     }
 
+    /**
+     * Remove the restriction for each of the supplied privilege in the privilegeToLocalPrivilegesMap that
+     * is already has allow or deny set to true.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionName the restriction name to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void unallowOrUndenyRestriction(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull String restrictionName, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        unallowOrUndenyRestrictions(privilegeToLocalPrivilegesMap, Collections.singleton(restrictionName), privileges, privilegeIndex);
+    }
+
     /**
      * Remove the restrictions for each of the supplied privilege in the privilegeToLocalPrivilegesMap that
      * is already has allow or deny set to true.
@@ -608,9 +748,23 @@ public final class PrivilegesHelper {
      */
     public static void unallowOrUndenyRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges) throws RepositoryException {
-        for (Privilege privilege : privileges) {
-            removeRestrictionsWithoutAggregates(privilegeToLocalPrivilegesMap, privilege, true, true, restrictionNames);
-        }
+        unallowOrUndenyRestrictions(privilegeToLocalPrivilegesMap, restrictionNames, privileges, null);
+    }
+
+    /**
+     * Remove the restrictions for each of the supplied privilege in the privilegeToLocalPrivilegesMap that
+     * is already has allow or deny set to true.
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param restrictionNames the collection of restriction names to remove
+     * @param privileges the privilege to update
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    public static void unallowOrUndenyRestrictions(@NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Collection<String> restrictionNames, @NotNull Collection<Privilege> privileges,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
+        forEachNonAggregatePrivilege(privilegeIndex, privileges,
+                p -> localPrivRemoveRestrictions(privilegeToLocalPrivilegesMap, p, true, true, restrictionNames));
     }
 
     /**
@@ -622,7 +776,7 @@ public final class PrivilegesHelper {
      * @return
      * @throws RepositoryException
      */
-    private static @NotNull Privilege[] getSupportedOrRegisteredPrivileges(@NotNull Session jcrSession, @Nullable String resourcePath) 
+    static @NotNull Privilege[] getSupportedOrRegisteredPrivileges(@NotNull Session jcrSession, @Nullable String resourcePath) 
             throws RepositoryException {
         Privilege[] supportedPrivileges = null;
         if (resourcePath != null && jcrSession.nodeExists(resourcePath)) {
@@ -723,4 +877,24 @@ public final class PrivilegesHelper {
         privilegeToLocalPrivilegesMap.entrySet().removeIf(entry -> entry.getValue().isNone());
     }
 
+    /**
+     * Process the supplied privileges and consolidate each aggregate whenever the state of all the
+     * aggregated direct child privileges are allow or deny.
+     * 
+     * When consolidating the privileges of multiple principals for the same path, build
+     * the {@link ConsolidationContext} once and reuse it instead.
+     * 
+     * @param jcrSession the current session
+     * @param resourcePath the path of the resource
+     * @param privilegeToLocalPrivilegesMap map of privileges to process. The map entry key is the
+     *          privilege and value is the associated LocalPrivilege.
+     * @param privilegeIndex the index of the privilege hierarchy. See {@link PrivilegeIndex#build(Session, javax.jcr.security.AccessControlManager)}
+     */
+    public static void consolidateAggregates(Session jcrSession, String resourcePath, 
+            Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull PrivilegeIndex privilegeIndex) throws RepositoryException {
+        ConsolidationContext.build(jcrSession, resourcePath, privilegeIndex)
+            .consolidateAggregates(privilegeToLocalPrivilegesMap);
+    }
+
 }
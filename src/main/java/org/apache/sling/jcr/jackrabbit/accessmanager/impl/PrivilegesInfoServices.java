@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetEffectiveAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetPrivilegeMatrix;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Keeps a service tracker open for each of the services used by the
+ * PrivilegesInfo script helper, so the helper does not have to look up,
+ * get and unget the service from the registry on every call.  The trackers
+ * are opened when the bundle starts and closed when it stops.
+ */
+@Component(service = PrivilegesInfoServices.class, immediate = true)
+public class PrivilegesInfoServices {
+
+    /**
+     * the services that are tracked
+     */
+    static final List<Class<?>> TRACKED_SERVICES = Collections.unmodifiableList(Arrays.asList(
+            GetAcl.class, GetEffectiveAcl.class, GetPrivilegeMatrix.class, RestrictionProvider.class));
+
+    private static volatile PrivilegesInfoServices instance;
+
+    /**
+     * the tracker of each service, replaced as a whole when activated so the
+     * callers never see a partially filled map
+     */
+    private volatile Map<Class<?>, ServiceTracker<?, ?>> trackers = Collections.emptyMap();
+
+    /**
+     * false once deactivated, as the closed trackers are kept
+     */
+    private volatile boolean active;
+
+    @Activate
+    protected void activate(BundleContext bundleContext) {
+        Map<Class<?>, ServiceTracker<?, ?>> map = new HashMap<>();
+        for (Class<?> svc : TRACKED_SERVICES) {
+            ServiceTracker<?, ?> tracker = new ServiceTracker<>(bundleContext, svc, null);
+            tracker.open();
+            map.put(svc, tracker);
+        }
+        trackers = Collections.unmodifiableMap(map);
+        active = true;
+        instance = this;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (instance == this) {
+            instance = null;
+        }
+        active = false;
+        for (ServiceTracker<?, ?> tracker : trackers.values()) {
+            tracker.close();
+        }
+    }
+
+    /**
+     * @return the active instance or null if the component is not active
+     */
+    public static @Nullable PrivilegesInfoServices getInstance() {
+        return instance;
+    }
+
+    /**
+     * Return the highest ranked service that is currently registered
+     *
+     * @param <S> the service interface type
+     * @param svc the service class, one of the tracked services
+     * @return the service or null if none is registered or the component is not active
+     */
+    public @Nullable <S> S getService(@NotNull Class<S> svc) {
+        if (!TRACKED_SERVICES.contains(svc)) {
+            throw new IllegalArgumentException("The service is not tracked: " + svc.getName());
+        }
+        ServiceTracker<?, ?> tracker = trackers.get(svc);
+        if (!active || tracker == null) {
+            return null;
+        }
+        return svc.cast(tracker.getService());
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.stream.JsonGenerator;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A JSON model rendered once in the compact form together with its entity tag,
+ * so the entity tag can be compared and the response written without rendering
+ * the model again.  The entity tag is the truncated SHA-256 digest of the
+ * rendered bytes, so the same model always results in the same entity tag.
+ */
+public final class RenderedJson {
+
+    /**
+     * the number of bytes of the digest used for the entity tag
+     */
+    private static final int ETAG_DIGEST_BYTES = 16;
+
+    private final byte[] json;
+    private final String etag;
+
+    private RenderedJson(@NotNull byte[] json, @NotNull String etag) {
+        this.json = json;
+        this.etag = etag;
+    }
+
+    /**
+     * Render the JSON written by the writer
+     *
+     * @param jsonWriter writes the JSON model to the supplied generator
+     * @return the rendered model
+     */
+    public static @NotNull RenderedJson render(@NotNull Consumer<JsonGenerator> jsonWriter) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        String etag = digest(buffer, jsonWriter);
+        return new RenderedJson(buffer.toByteArray(), etag);
+    }
+
+    /**
+     * Calculate the entity tag of the JSON written by the writer without keeping
+     * the rendered form in memory
+     *
+     * @param jsonWriter writes the JSON model to the supplied generator
+     * @return the quoted entity tag
+     */
+    public static @NotNull String toETag(@NotNull Consumer<JsonGenerator> jsonWriter) {
+        return digest(NullOutputStream.INSTANCE, jsonWriter);
+    }
+
+    private static @NotNull String digest(@NotNull OutputStream out, @NotNull Consumer<JsonGenerator> jsonWriter) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (JsonGenerator generator = Json.createGenerator(new DigestOutputStream(out, digest))) {
+            jsonWriter.accept(generator);
+        }
+        byte[] hash = digest.digest();
+        StringBuilder etag = new StringBuilder(ETAG_DIGEST_BYTES * 2 + 2).append('"');
+        for (int i = 0; i < ETAG_DIGEST_BYTES; i++) {
+            etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16))
+                .append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * @return the quoted entity tag
+     */
+    public @NotNull String getETag() {
+        return etag;
+    }
+
+    /**
+     * Write the compact UTF-8 encoded JSON
+     *
+     * @param out the stream to write to
+     */
+    public void writeTo(@NotNull OutputStream out) throws IOException {
+        out.write(json);
+    }
+
+    /**
+     * Write the JSON to a generator, for example to pretty print it.  The rendered
+     * form is parsed again, so prefer {@link #writeTo(OutputStream)} when the
+     * compact form will do.
+     *
+     * @param generator the generator to write to
+     */
+    public void writeTo(@NotNull JsonGenerator generator) {
+        JsonStructure structure;
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(json))) {
+            structure = reader.read();
+        }
+        generator.write(structure);
+    }
+
+    /**
+     * Discards everything written to it
+     */
+    private static final class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            // discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // discard
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Value;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable set of restrictions.  The hash code is calculated once so the
+ * sets are cheap to use as map keys and to tell apart, and an unchanged set
+ * is returned as is by {@link #of(Collection)}, {@link #merge(Collection)}
+ * and {@link #without(Collection)} so the LocalPrivileges of one operation
+ * share the same instance.  The sets are deliberately not pooled across
+ * operations since the restriction values may belong to a session.
+ * The restrictions are also indexed by name so that merging and removing
+ * restrictions does not need to scan the whole set for each name.
+ */
+public final class RestrictionSet extends AbstractSet<LocalRestriction> {
+
+    public static final RestrictionSet EMPTY = new RestrictionSet(new LocalRestriction[0]);
+
+    private final LocalRestriction[] restrictions;
+    /**
+     * the restrictions grouped by the restriction name
+     */
+    private final Map<String, LocalRestriction[]> restrictionsByName;
+    private final int hash;
+
+    private RestrictionSet(@NotNull LocalRestriction[] restrictions) {
+        this.restrictions = restrictions;
+        Map<String, List<LocalRestriction>> grouped = new LinkedHashMap<>();
+        int h = 0;
+        for (LocalRestriction restriction : restrictions) {
+            h += restriction.hashCode();
+            grouped.computeIfAbsent(restriction.getName(), k -> new ArrayList<>(1)).add(restriction);
+        }
+        this.hash = h;
+        Map<String, LocalRestriction[]> byName = new LinkedHashMap<>();
+        for (Map.Entry<String, List<LocalRestriction>> entry : grouped.entrySet()) {
+            List<LocalRestriction> list = entry.getValue();
+            byName.put(entry.getKey(), list.toArray(new LocalRestriction[list.size()]));
+        }
+        this.restrictionsByName = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * Returns the immutable set containing the supplied restrictions
+     *
+     * @param restrictions the restrictions (may be null or empty)
+     * @return the supplied set if it already is a restriction set, otherwise a new restriction set
+     */
+    public static @NotNull RestrictionSet of(@Nullable Collection<LocalRestriction> restrictions) {
+        if (restrictions instanceof RestrictionSet) {
+            return (RestrictionSet)restrictions;
+        }
+        if (restrictions == null || restrictions.isEmpty()) {
+            return EMPTY;
+        }
+        Set<LocalRestriction> distinct = restrictions instanceof Set ? (Set<LocalRestriction>)restrictions : new LinkedHashSet<>(restrictions);
+        return new RestrictionSet(distinct.toArray(new LocalRestriction[distinct.size()]));
+    }
+
+    private static @NotNull RestrictionSet of(@NotNull Map<String, List<LocalRestriction>> restrictionsByName) {
+        List<LocalRestriction> list = new ArrayList<>();
+        for (List<LocalRestriction> group : restrictionsByName.values()) {
+            list.addAll(group);
+        }
+        if (list.isEmpty()) {
+            return EMPTY;
+        }
+        return new RestrictionSet(list.toArray(new LocalRestriction[list.size()]));
+    }
+
+    /**
+     * Compare two sets of restrictions using the cheapest available check
+     *
+     * @param set1 the first set
+     * @param set2 the second set
+     * @return true if the sets contain the same restrictions
+     */
+    public static boolean same(@NotNull Set<LocalRestriction> set1, @NotNull Set<LocalRestriction> set2) {
+        if (set1 == set2) {
+            return true;
+        }
+        if (set1 instanceof RestrictionSet && set2 instanceof RestrictionSet &&
+                set1.hashCode() != set2.hashCode()) {
+            // the hash codes are cached so this is cheaper than comparing the restrictions
+            return false;
+        }
+        return set1.size() == set2.size() && set1.containsAll(set2);
+    }
+
+    /**
+     * Merge the supplied restrictions into the restrictions of this set.  The values of
+     * a multi-valued restriction are combined with the values of the existing restriction
+     * with the same name, other restrictions are added to the set.
+     *
+     * @param newRestrictions the restrictions to merge
+     * @return this set if nothing changed, otherwise the merged set
+     */
+    public @NotNull RestrictionSet merge(@NotNull Collection<LocalRestriction> newRestrictions) {
+        if (newRestrictions.isEmpty()) {
+            // nothing to merge so this set can be shared as is
+            return this;
+        }
+        if (isEmpty()) {
+            // nothing to merge with so the new set can be shared as is
+            return of(newRestrictions);
+        }
+        // copied on the first change
+        Map<String, List<LocalRestriction>> merged = null;
+        for (LocalRestriction lr : newRestrictions) {
+            String name = lr.getName();
+            if (lr.isMultiValue()) {
+                LocalRestriction[] existing = restrictionsByName.get(name);
+                if (existing != null) {
+                    Set<Value> mergedValues = new LinkedHashSet<>();
+                    // add the current values
+                    addValues(mergedValues, existing[0].getValues());
+                    // merge the new values
+                    addValues(mergedValues, lr.getValues());
+                    // construct the replacement object
+                    LocalRestriction replacement = LocalRestriction.cloneWithNewValues(lr,
+                            mergedValues.toArray(new Value[mergedValues.size()]));
+                    if (merged == null && existing.length == 1 && existing[0].equals(replacement)) {
+                        // the values are already present
+                        continue;
+                    }
+                    if (merged == null) {
+                        merged = copyRestrictionsByName();
+                    }
+                    // replaces the old one(s) with the same name
+                    List<LocalRestriction> group = new ArrayList<>(1);
+                    group.add(replacement);
+                    merged.put(name, group);
+                    continue;
+                }
+            }
+            if (merged == null) {
+                if (contains(lr)) {
+                    continue;
+                }
+                merged = copyRestrictionsByName();
+            }
+            List<LocalRestriction> group = merged.computeIfAbsent(name, k -> new ArrayList<>(1));
+            if (!group.contains(lr)) {
+                group.add(lr);
+            }
+        }
+        return merged == null ? this : of(merged);
+    }
+
+    /**
+     * Returns the restrictions of this set except for the restrictions with the supplied names
+     *
+     * @param restrictionNames the names of the restrictions to remove
+     * @return this set if nothing changed, otherwise the remaining set
+     */
+    public @NotNull RestrictionSet without(@NotNull Collection<String> restrictionNames) {
+        Map<String, List<LocalRestriction>> remaining = null;
+        for (String restrictionName : restrictionNames) {
+            if (restrictionsByName.containsKey(restrictionName)) {
+                if (remaining == null) {
+                    remaining = copyRestrictionsByName();
+                }
+                remaining.remove(restrictionName);
+            }
+        }
+        return remaining == null ? this : of(remaining);
+    }
+
+    private @NotNull Map<String, List<LocalRestriction>> copyRestrictionsByName() {
+        Map<String, List<LocalRestriction>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, LocalRestriction[]> entry : restrictionsByName.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(Arrays.asList(entry.getValue())));
+        }
+        return copy;
+    }
+
+    private static void addValues(@NotNull Set<Value> values, @Nullable Value[] toAdd) {
+        if (toAdd != null) {
+            Collections.addAll(values, toAdd);
+        }
+    }
+
+    @Override
+    public Iterator<LocalRestriction> iterator() {
+        return Arrays.asList(restrictions).iterator();
+    }
+
+    @Override
+    public int size() {
+        return restrictions.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return restrictions.length == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof LocalRestriction)) {
+            return false;
+        }
+        LocalRestriction[] group = restrictionsByName.get(((LocalRestriction)o).getName());
+        if (group != null) {
+            for (LocalRestriction restriction : group) {
+                if (restriction.equals(o)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof RestrictionSet && ((RestrictionSet)o).hash != hash) {
+            return false;
+        }
+        return super.equals(o);
+    }
+
+}
@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -37,6 +38,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlEntry;
 import javax.jcr.security.AccessControlList;
+import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicy;
 import javax.jcr.security.Privilege;
 import javax.json.Json;
@@ -56,14 +58,20 @@ import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheKey;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrincipalAceHelper;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesHelper;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RenderedJson;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 @SuppressWarnings("serial")
 public abstract class AbstractAccessGetServlet extends AbstractAccessServlet {
 
+    /** Caches the computed models when available */
+    private transient volatile AclModelCacheService aclModelCacheService = null;
+
     /* (non-Javadoc)
      * @see org.apache.sling.api.servlets.SlingSafeMethodsServlet#doGet(org.apache.sling.api.SlingHttpServletRequest, org.apache.sling.api.SlingHttpServletResponse)
      */
@@ -77,25 +85,35 @@ public abstract class AbstractAccessGetServlet extends AbstractAccessServlet {
             String resourcePath = getItemPath(request);
             String principalId = request.getParameter("pid");
 
-            JsonObject jsonObj = internalJson(session, resourcePath, principalId);
-            response.setContentType("application/json");
-            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
-
-            boolean isTidy = false;
-            final String[] selectors = request.getRequestPathInfo().getSelectors();
-            if (selectors.length > 0) {
-                for (final String level : selectors) {
-                    if("tidy".equals(level)) {
-                        isTidy = true;
-                        break;
-                    }
+            // a model that is written while it is computed has no entity tag
+            JsonStreamWriter streamWriter = requestStreamWriter(request, session, resourcePath, principalId);
+            if (streamWriter != null) {
+                try (JsonGenerator generator = createJsonGenerator(request, response)) {
+                    streamWriter.writeTo(generator);
+                    generator.flush();
                 }
+                return;
+            }
+
+            // the model is rendered once for both the entity tag and the response,
+            //  or not at all when it is served from the cache
+            RenderedJson renderedJson = requestRenderedJson(request, session, resourcePath, principalId);
+            String etag = renderedJson.getETag();
+            response.setHeader(HEADER_ETAG, etag);
+            if (isETagListed(request.getHeaders(HEADER_IF_NONE_MATCH), etag, true)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
             }
 
-            Map<String, Object> options = new HashMap<>();
-            options.put(JsonGenerator.PRETTY_PRINTING, isTidy);
-            try (JsonGenerator generator = Json.createGeneratorFactory(options).createGenerator(response.getWriter())) {
-                generator.write(jsonObj).flush();
+            if (isTidy(request)) {
+                try (JsonGenerator generator = createJsonGenerator(request, response)) {
+                    renderedJson.writeTo(generator);
+                    generator.flush();
+                }
+            } else {
+                response.setContentType("application/json");
+                response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                renderedJson.writeTo(response.getOutputStream());
             }
         } catch (AccessDeniedException ade) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
@@ -108,6 +126,121 @@ public abstract class AbstractAccessGetServlet extends AbstractAccessServlet {
         }
     }
 
+    /**
+     * Prepare the response for JSON and create the generator to write it,
+     * pretty printed when the 'tidy' selector was requested
+     */
+    @NotNull JsonGenerator createJsonGenerator(SlingHttpServletRequest request,
+            SlingHttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        Map<String, Object> options = new HashMap<>();
+        options.put(JsonGenerator.PRETTY_PRINTING, isTidy(request));
+        return Json.createGeneratorFactory(options).createGenerator(response.getWriter());
+    }
+
+    /**
+     * @return true if the 'tidy' selector was requested
+     */
+    static boolean isTidy(SlingHttpServletRequest request) {
+        for (final String level : request.getRequestPathInfo().getSelectors()) {
+            if ("tidy".equals(level)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the writer of the model for the request.  Override to apply
+     * additional request parameters to the model.
+     *
+     * @return the writer or null for the model of {@link #internalJsonWriter(Session, String, String)},
+     *          which may be served from the cache
+     */
+    @Nullable Consumer<JsonGenerator> requestJsonWriter(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        return null;
+    }
+
+    /**
+     * Return the writer that computes the model for the request while it is written
+     * to the response.  Override for models that are too large to render before
+     * the response is written.  The response has no entity tag, so conditional
+     * requests are not supported.
+     *
+     * @return the writer or null to render the model of {@link #requestJsonWriter(SlingHttpServletRequest, Session, String, String)}
+     */
+    @Nullable JsonStreamWriter requestStreamWriter(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        return null;
+    }
+
+    /**
+     * Render the model for the request
+     */
+    private @NotNull RenderedJson requestRenderedJson(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        Consumer<JsonGenerator> jsonWriter = requestJsonWriter(request, session, resourcePath, principalId);
+        if (jsonWriter == null) {
+            return internalCachedRenderedJson(session, resourcePath, principalId);
+        }
+        return RenderedJson.render(jsonWriter);
+    }
+
+    /**
+     * Return the rendered model from the cache when the cache is available,
+     * otherwise compute and render the model.  A cached model is served
+     * with its entity tag without being rendered again.
+     */
+    private @NotNull RenderedJson internalCachedRenderedJson(Session session, String resourcePath, String principalId) throws RepositoryException {
+        AclModelCacheService cache = aclModelCacheService;
+        if (cache == null || session == null || resourcePath == null) {
+            return RenderedJson.render(internalJsonWriter(session, resourcePath, principalId));
+        }
+
+        AclModelCacheKey key = new AclModelCacheKey(getClass().getName() + "#" + getRestrictionProviderGeneration(),
+                resourcePath, session.getUserID(), principalId);
+        RenderedJson renderedJson = cache.get(key);
+        if (renderedJson == null) {
+            long stamp = cache.getStamp();
+            renderedJson = RenderedJson.render(internalJsonWriter(session, resourcePath, principalId));
+            cache.put(key, renderedJson, stamp);
+        } else {
+            // the same checks as computing the model would do
+            if (principalId == null) {
+                validateArgs(session, resourcePath);
+            } else {
+                validateArgs(session, resourcePath, principalId);
+            }
+            AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+            Privilege readAccessControl = acm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL);
+            if (!acm.hasPrivileges(resourcePath, new Privilege[] {readAccessControl})) {
+                throw new AccessDeniedException();
+            }
+        }
+        return renderedJson;
+    }
+
+    /**
+     * Writes a model to the generator while it is computed
+     */
+    @FunctionalInterface
+    interface JsonStreamWriter {
+        void writeTo(@NotNull JsonGenerator generator) throws RepositoryException;
+    }
+
+    // @Reference
+    void bindAclModelCacheService(AclModelCacheService service) {
+        aclModelCacheService = service;
+    }
+    void unbindAclModelCacheService(AclModelCacheService service) {
+        if (aclModelCacheService == service) {
+            aclModelCacheService = null;
+        }
+    }
+
     /**
      * Return the path where the action should be applied
      */
@@ -117,6 +250,37 @@ public abstract class AbstractAccessGetServlet extends AbstractAccessServlet {
 
     protected abstract JsonObject internalJson(Session session, String resourcePath, String principalId) throws RepositoryException;
 
+    /**
+     * Compute the model and return a writer that renders it to a generator.  The
+     * writer may be called more than once and must write the same JSON as
+     * {@link #internalJson(Session, String, String)} each time.  Override to write
+     * large models straight to the response instead of building the whole JSON
+     * structure in memory first.
+     * 
+     * @param session the JCR session
+     * @param resourcePath the resource path
+     * @param principalId the principal id or null
+     * @return the writer of the model
+     */
+    protected @NotNull Consumer<JsonGenerator> internalJsonWriter(Session session, String resourcePath, String principalId) throws RepositoryException {
+        JsonObject jsonObj = internalJson(session, resourcePath, principalId);
+        return generator -> generator.write(jsonObj);
+    }
+
+    /**
+     * @param resourcePath the resource path
+     * @return the supported restriction definitions where the key is the restriction name
+     */
+    @NotNull Map<String, RestrictionDefinition> getRestrictionDefinitions(String resourcePath) {
+        //make a temp map for quick lookup below
+        Set<RestrictionDefinition> supportedRestrictions = getRestrictionProvider().getSupportedRestrictions(resourcePath);
+        Map<String, RestrictionDefinition> srMap = new HashMap<>();
+        for (RestrictionDefinition restrictionDefinition : supportedRestrictions) {
+            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
+        }
+        return srMap;
+    }
+
     /**
      * Verify that the user supplied arguments are valid
      * 
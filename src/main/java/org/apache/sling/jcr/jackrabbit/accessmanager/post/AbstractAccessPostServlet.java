@@ -20,10 +20,15 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jcr.InvalidItemStateException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlList;
@@ -40,6 +45,10 @@ import org.apache.sling.api.request.header.MediaRangeList;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.wrappers.SlingRequestPaths;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService.LockHandle;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrincipalAceHelper;
 import org.apache.sling.servlets.post.AbstractPostResponse;
 import org.apache.sling.servlets.post.HtmlResponse;
@@ -59,6 +68,21 @@ import org.slf4j.LoggerFactory;
 public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
     private static final long serialVersionUID = -5918670409789895333L;
 
+    /**
+     * The default number of retries for the operations that can be retried
+     */
+    static final int DEFAULT_MAX_CONFLICT_RETRIES = 3;
+
+    /**
+     * The prefix of the write lock keys of principal-based ACLs
+     */
+    protected static final String PRINCIPAL_LOCK_KEY_PREFIX = "principal:";
+
+    /**
+     * The upper bound of the delay before the first retry, doubled for each further retry
+     */
+    private static final long CONFLICT_RETRY_BASE_DELAY_MS = 20;
+
     /**
      * default log
      */
@@ -67,6 +91,18 @@ public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
     /** Sorted list of post response creator holders. */
     private final List<PostResponseCreatorHolder> postResponseCreators = new ArrayList<>();
 
+    /** Reads the current access control list to check the If-Match precondition when available */
+    private transient volatile GetAcl getAcl = null;
+
+    /** Serializes the writes to the same access control list when available */
+    private transient volatile AclWriteLockService aclWriteLockService = null;
+
+    /** The cache of the GET servlets to evict the changed models from when available */
+    private transient volatile AclModelCacheService aclModelCacheService = null;
+
+    /** The number of conflicting concurrent changes that were retried */
+    private final AtomicLong conflictCount = new AtomicLong();
+
     /** Cached array of post response creators used during request processing. */
     private transient PostResponseCreator[] cachedPostResponseCreators = new PostResponseCreator[0];
 
@@ -100,7 +136,7 @@ public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
         final List<Modification> changes = new ArrayList<>();
 
         try {
-            handleOperation(request, response, changes);
+            handleOperationAndSave(request, response, changes, session);
 
             // set changes on html response
             for(Modification change : changes) {
@@ -115,13 +151,12 @@ public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
                     break;
                 }
             }
-
-            if (session.hasPendingChanges()) {
-                session.save();
-            }
         } catch (ResourceNotFoundException rnfe) {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND,
                 rnfe.getMessage());
+        } catch (PreconditionFailedException pfe) {
+            response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED,
+                pfe.getMessage());
         } catch (Exception throwable) {
             log.debug(String.format("Exception while handling POST %s with %s",
                     request.getResource().getPath(), getClass().getName()), throwable);
@@ -161,6 +196,209 @@ public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
         response.send(httpResponse, isSetStatus(request));
     }
 
+    /**
+     * Handle the operation and save the changes.  When saving fails because of a
+     * conflicting concurrent change, the session is refreshed and the whole
+     * operation is run again against the current state, up to
+     * {@link #getMaxConflictRetries()} times.  When configured, the writes to the
+     * same access control list are serialized by holding the locks for each attempt,
+     * so the locks are not held while waiting to retry.
+     */
+    private void handleOperationAndSave(SlingHttpServletRequest request, PostResponse response,
+            List<Modification> changes, Session session) throws RepositoryException {
+        AclWriteLockService lockService = aclWriteLockService;
+        Collection<String> writeKeys = getWriteLockKeys(request);
+        int maxRetries = getMaxConflictRetries();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (lockService == null || writeKeys == null || writeKeys.isEmpty()) {
+                    handleOperationAndSaveOnce(request, response, changes, session, writeKeys);
+                } else {
+                    LockHandle lockHandle = lockService.lock(writeKeys);
+                    try {
+                        handleOperationAndSaveOnce(request, response, changes, session, writeKeys);
+                    } finally {
+                        lockHandle.close();
+                    }
+                }
+                return;
+            } catch (RepositoryException re) {
+                if (attempt >= maxRetries || !isConflict(re)) {
+                    throw re;
+                }
+                long count = conflictCount.incrementAndGet();
+                log.info("Conflict while handling POST {} with {}, retry {} of {} (conflicts so far: {})",
+                        request.getResource().getPath(), getClass().getName(), attempt + 1, maxRetries, count);
+
+                // discard the failed attempt so the next one starts from the current state
+                session.refresh(false);
+                changes.clear();
+                backoff(attempt, re);
+            }
+        }
+    }
+
+    private void handleOperationAndSaveOnce(SlingHttpServletRequest request, PostResponse response,
+            List<Modification> changes, Session session, @Nullable Collection<String> writeKeys) throws RepositoryException {
+        checkPreconditions(request, session);
+        handleOperation(request, response, changes);
+
+        if (session.hasPendingChanges()) {
+            session.save();
+        }
+        invalidateCachedModels(writeKeys);
+    }
+
+    /**
+     * Evict the models of the written access control lists from the cache of the
+     * GET servlets, so a client reading the access control list right after this
+     * request does not have to wait for the observed commit to evict them.
+     * Everything is evicted when the written access control lists are not known
+     * or when a principal-based access control list was written, as that
+     * changes the models of any path.
+     */
+    private void invalidateCachedModels(@Nullable Collection<String> writeKeys) {
+        AclModelCacheService cache = aclModelCacheService;
+        if (cache == null) {
+            return;
+        }
+        boolean all = writeKeys == null || writeKeys.isEmpty() ||
+                writeKeys.stream().anyMatch(key -> key.startsWith(PRINCIPAL_LOCK_KEY_PREFIX));
+        if (all) {
+            cache.invalidate(AclModelCacheService.ALL_PATHS);
+        } else {
+            writeKeys.forEach(cache::invalidate);
+        }
+    }
+
+    /**
+     * Verify that the access control list was not changed since the client read it
+     * when the request has an If-Match header.  This is checked again for each
+     * retry so a conflicting change is not silently overwritten.  The request is
+     * rejected when the entity tag of the access control list is not available,
+     * rather than applying the changes without the requested check.
+     */
+    private void checkPreconditions(SlingHttpServletRequest request, Session session) throws RepositoryException {
+        Enumeration<String> ifMatch = request.getHeaders(HEADER_IF_MATCH);
+        if (ifMatch != null && ifMatch.hasMoreElements()) {
+            String etag = getCurrentETag(request, session);
+            if (etag == null) {
+                throw new PreconditionFailedException("The If-Match precondition can not be evaluated for this request");
+            }
+            if (!isETagListed(ifMatch, etag, false)) {
+                throw new PreconditionFailedException("The access control list was changed by another request");
+            }
+        }
+    }
+
+    /**
+     * Returns the entity tag of the current access control list that the request
+     * modifies.  This is the same as the ETag header returned for the acl.json
+     * rendering of the resource, so a client can send it back in an If-Match header
+     * to have the request rejected when another request changed the access control
+     * list in the meantime.
+     * 
+     * @param request the sling http request to process
+     * @param session the JCR session
+     * @return the entity tag or null if conditional requests are not supported, in
+     *          which case a request with an If-Match header is rejected
+     */
+    protected @Nullable String getCurrentETag(SlingHttpServletRequest request, Session session) throws RepositoryException {
+        GetAcl service = getAcl;
+        String resourcePath = getItemPath(request);
+        if (service == null || session == null || resourcePath == null || !session.nodeExists(resourcePath)) {
+            return null;
+        }
+        return toETag(service.getAcl(session, resourcePath));
+    }
+
+    /**
+     * Wait a random time that grows with each attempt so the competing
+     * writers do not retry in lockstep
+     */
+    private static void backoff(int attempt, RepositoryException conflict) throws RepositoryException {
+        long maxDelay = CONFLICT_RETRY_BASE_DELAY_MS << Math.min(attempt, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+    /**
+     * @return true if the exception or any of its causes reports a conflicting
+     *          change of an item
+     */
+    static boolean isConflict(@Nullable Throwable throwable) {
+        while (throwable != null) {
+            if (throwable instanceof InvalidItemStateException) {
+                return true;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns how many times the operation is run again when saving fails because
+     * of a conflicting concurrent change.  Only operations that re-read the stored
+     * state on each run and that can read the request again should retry.
+     * 
+     * @return the maximum number of retries, 0 to not retry
+     */
+    protected int getMaxConflictRetries() {
+        return 0;
+    }
+
+    /**
+     * Returns the keys of the access control lists that the request will write
+     * so that concurrent writes to the same access control list in this instance
+     * are serialized when the {@link AclWriteLockService} is configured.  The
+     * key is the path of the node for resource-based ACLs or the principal name
+     * prefixed with {@link #PRINCIPAL_LOCK_KEY_PREFIX} for principal-based ACLs.
+     * 
+     * @param request the sling http request to process
+     * @return the keys to lock or null to not lock
+     */
+    protected @Nullable Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+        return null;
+    }
+
+    void bindGetAcl(GetAcl service) {
+        getAcl = service;
+    }
+    void unbindGetAcl(GetAcl service) {
+        if (getAcl == service) {
+            getAcl = null;
+        }
+    }
+
+    void bindAclWriteLockService(AclWriteLockService service) {
+        aclWriteLockService = service;
+    }
+    void unbindAclWriteLockService(AclWriteLockService service) {
+        if (aclWriteLockService == service) {
+            aclWriteLockService = null;
+        }
+    }
+
+    void bindAclModelCacheService(AclModelCacheService service) {
+        aclModelCacheService = service;
+    }
+    void unbindAclModelCacheService(AclModelCacheService service) {
+        if (aclModelCacheService == service) {
+            aclModelCacheService = null;
+        }
+    }
+
+    /**
+     * @return the number of conflicting concurrent changes that were retried by this servlet
+     */
+    long getConflictCount() {
+        return conflictCount.get();
+    }
+
     /**
      * Override if the path does not need to exist
      */
@@ -604,4 +842,15 @@ public abstract class AbstractAccessPostServlet extends AbstractAccessServlet {
         }
 
     }    
+    /**
+     * Thrown when the If-Match precondition of the request is not met
+     */
+    private static final class PreconditionFailedException extends RepositoryException {
+        private static final long serialVersionUID = 2305862349474130475L;
+
+        PreconditionFailedException(String message) {
+            super(message);
+        }
+    }
+
 }
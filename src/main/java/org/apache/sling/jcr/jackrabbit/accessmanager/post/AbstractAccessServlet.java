@@ -16,12 +16,26 @@
  */
 package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
 
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.CompositeRestrictionProvider;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RenderedJson;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Base class for all the servlets for the AccessManager operations
@@ -29,14 +43,27 @@ import org.apache.sling.api.servlets.SlingAllMethodsServlet;
 public abstract class AbstractAccessServlet extends SlingAllMethodsServlet {
     private static final long serialVersionUID = 6615497265938616188L;
 
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_IF_MATCH = "If-Match";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * The source of the restriction provider generations, shared by all the
+     * servlets so a generation is never reused
+     */
+    private static final AtomicLong RESTRICTION_PROVIDER_GENERATIONS = new AtomicLong();
+
     private transient RestrictionProvider compositeRestrictionProvider = null;
     private transient Set<RestrictionProvider> restrictionProviders = new HashSet<>();
+    private transient volatile long restrictionProviderGeneration = RESTRICTION_PROVIDER_GENERATIONS.incrementAndGet();
+    private transient volatile PrivilegeIndexService privilegeIndexService = null;
 
     // @Reference
     protected void bindRestrictionProvider(RestrictionProvider rp) {
         synchronized (restrictionProviders) {
             if (restrictionProviders.add(rp)) {
                 compositeRestrictionProvider = null;
+                restrictionProviderGeneration = RESTRICTION_PROVIDER_GENERATIONS.incrementAndGet();
             }
         }
     }
@@ -44,6 +71,7 @@ public abstract class AbstractAccessServlet extends SlingAllMethodsServlet {
         synchronized (restrictionProviders) {
             if (restrictionProviders.remove(rp)) {
                 compositeRestrictionProvider = null;
+                restrictionProviderGeneration = RESTRICTION_PROVIDER_GENERATIONS.incrementAndGet();
             }
         }
     }
@@ -60,4 +88,90 @@ public abstract class AbstractAccessServlet extends SlingAllMethodsServlet {
         }
     }
 
+    /**
+     * Return a value that changes whenever the set of bound restriction providers
+     * changes, so results that depend on the restriction providers can tell when
+     * they are stale
+     */
+    long getRestrictionProviderGeneration() {
+        return restrictionProviderGeneration;
+    }
+
+    // @Reference
+    void bindPrivilegeIndexService(PrivilegeIndexService service) {
+        privilegeIndexService = service;
+    }
+    void unbindPrivilegeIndexService(PrivilegeIndexService service) {
+        if (privilegeIndexService == service) {
+            privilegeIndexService = null;
+        }
+    }
+
+    /**
+     * Return the shared snapshot of the privilege hierarchy, or build a new one
+     * if the PrivilegeIndexService is not available
+     *
+     * @param jcrSession the session of the access control manager (may be null
+     *          when only the access control manager is known)
+     * @param acm the access control manager
+     */
+    @NotNull PrivilegeIndex getPrivilegeIndex(@Nullable Session jcrSession, @NotNull AccessControlManager acm) throws RepositoryException {
+        PrivilegeIndexService service = privilegeIndexService;
+        if (service != null) {
+            return service.getPrivilegeIndex(jcrSession, acm);
+        }
+        return jcrSession == null ? PrivilegeIndex.build(acm) : PrivilegeIndex.build(jcrSession, acm);
+    }
+
+    /**
+     * Calculate the entity tag of the JSON model.  The digest is calculated while
+     * streaming the model so the serialized form is never held in memory, and the
+     * same model always results in the same entity tag regardless of how it is
+     * rendered.
+     *
+     * @param json the JSON model
+     * @return the quoted entity tag
+     */
+    static @NotNull String toETag(@NotNull JsonObject json) {
+        return toETag(generator -> generator.write(json));
+    }
+
+    /**
+     * Calculate the entity tag of the JSON written by the writer, the same as
+     * {@link #toETag(JsonObject)} for the equivalent model
+     *
+     * @param jsonWriter writes the JSON model to the supplied generator
+     * @return the quoted entity tag
+     */
+    static @NotNull String toETag(@NotNull Consumer<JsonGenerator> jsonWriter) {
+        return RenderedJson.toETag(jsonWriter);
+    }
+
+    /**
+     * Checks if the entity tag is listed in the values of an If-Match or
+     * If-None-Match header
+     *
+     * @param headerValues the values of the header or null if not supplied
+     * @param etag the current quoted entity tag
+     * @param weakComparison true to ignore the weak indicator of the listed entity tags
+     * @return true if the entity tag or '*' is listed
+     */
+    static boolean isETagListed(@Nullable Enumeration<String> headerValues, @NotNull String etag, boolean weakComparison) {
+        if (headerValues == null) {
+            return false;
+        }
+        while (headerValues.hasMoreElements()) {
+            for (String candidate : headerValues.nextElement().split(",")) {
+                candidate = candidate.trim();
+                if (weakComparison && candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if ("*".equals(candidate) || etag.equals(candidate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
 }
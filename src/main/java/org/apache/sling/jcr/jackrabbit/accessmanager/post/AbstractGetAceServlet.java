@@ -17,26 +17,35 @@
 package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlEntry;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
+import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
-import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.ConsolidationContext;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesHelper;
 
 @SuppressWarnings({"serial", "java:S110"})
@@ -56,12 +65,7 @@ public abstract class AbstractGetAceServlet extends AbstractAccessGetServlet {
             throw new ResourceNotFoundException(resourcePath, "No access control entries were found");
         }
 
-        //make a temp map for quick lookup below
-        Set<RestrictionDefinition> supportedRestrictions = getRestrictionProvider().getSupportedRestrictions(resourcePath);
-        Map<String, RestrictionDefinition> srMap = new HashMap<>();
-        for (RestrictionDefinition restrictionDefinition : supportedRestrictions) {
-            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
-        }
+        Map<String, RestrictionDefinition> srMap = getRestrictionDefinitions(resourcePath);
 
         Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = new HashMap<>();
         for (List<AccessControlEntry> accessControlEntries : effectivePathToEntriesMap.values()) {
@@ -78,8 +82,8 @@ public abstract class AbstractGetAceServlet extends AbstractAccessGetServlet {
 
         // combine any aggregates that are still valid
         AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
-        Map<Privilege, Integer> privilegeLongestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL));
-        PrivilegesHelper.consolidateAggregates(jcrSession, resourcePath, privilegeToLocalPrivilegesMap, privilegeLongestDepthMap);
+        PrivilegeIndex privilegeIndex = getPrivilegeIndex(jcrSession, acm);
+        PrivilegesHelper.consolidateAggregates(jcrSession, resourcePath, privilegeToLocalPrivilegesMap, privilegeIndex);
 
         // convert the data to JSON
         JsonObjectBuilder principalObj = JsonConvert.convertToJson(principal, privilegeToLocalPrivilegesMap, -1);
@@ -87,6 +91,68 @@ public abstract class AbstractGetAceServlet extends AbstractAccessGetServlet {
         return principalObj.build();
     }
 
+    /**
+     * Get the ACE of each of the principals from the entries collected in one pass
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalIds the principal ids
+     * @return object where the key is the principal name and the value is the ACE for
+     *          each principal that has access control entries
+     */
+    protected JsonObject internalGetAces(Session jcrSession, String resourcePath, Collection<String> principalIds) throws RepositoryException {
+        if (principalIds == null || principalIds.isEmpty()) {
+            return internalGetAce(jcrSession, resourcePath, null);
+        }
+        Map<String, Principal> nameToPrincipal = new LinkedHashMap<>();
+        for (String principalId : principalIds) {
+            Principal principal = validateArgs(jcrSession, resourcePath, principalId);
+            nameToPrincipal.put(principal.getName(), principal);
+        }
+
+        Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths = new HashMap<>();
+        Map<String, List<AccessControlEntry>> effectivePathToEntriesMap = getAccessControlEntriesMap(jcrSession, resourcePath,
+                new HashSet<>(nameToPrincipal.values()), principalToDeclaredAtPaths);
+
+        Map<String, RestrictionDefinition> srMap = getRestrictionDefinitions(resourcePath);
+
+        // bucket the entries by principal in a single scan
+        Map<String, Map<Privilege, LocalPrivilege>> nameToPrivilegesMap = new HashMap<>();
+        for (List<AccessControlEntry> accessControlEntries : effectivePathToEntriesMap.values()) {
+            for (AccessControlEntry accessControlEntry : accessControlEntries) {
+                if (accessControlEntry instanceof JackrabbitAccessControlEntry) {
+                    JackrabbitAccessControlEntry jrAccessControlEntry = (JackrabbitAccessControlEntry)accessControlEntry;
+                    Privilege[] privileges = jrAccessControlEntry.getPrivileges();
+                    if (privileges != null) {
+                        Map<Privilege, LocalPrivilege> map = nameToPrivilegesMap.computeIfAbsent(accessControlEntry.getPrincipal().getName(),
+                                k -> new HashMap<>());
+                        processACE(srMap, jrAccessControlEntry, privileges, map);
+                    }
+                }
+            }
+        }
+        if (nameToPrivilegesMap.isEmpty()) {
+            throw new ResourceNotFoundException(resourcePath, "No access control entries were found");
+        }
+
+        // the supported aggregates are the same for every principal, so only calculate them once
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
+        ConsolidationContext consolidationContext = ConsolidationContext.build(jcrSession, resourcePath, getPrivilegeIndex(jcrSession, acm));
+
+        // convert the data to JSON in the requested order
+        JsonObjectBuilder jsonObj = Json.createObjectBuilder();
+        for (Principal principal : nameToPrincipal.values()) {
+            Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = nameToPrivilegesMap.get(principal.getName());
+            if (privilegeToLocalPrivilegesMap != null) {
+                consolidationContext.consolidateAggregates(privilegeToLocalPrivilegesMap);
+                JsonObjectBuilder principalObj = JsonConvert.convertToJson(principal, privilegeToLocalPrivilegesMap, -1);
+                addExtraInfo(principalObj, principal, principalToDeclaredAtPaths);
+                jsonObj.add(principal.getName(), principalObj);
+            }
+        }
+        return jsonObj.build();
+    }
+
     /**
      * Override to add additional data to the principal object
      * 
@@ -102,6 +168,31 @@ public abstract class AbstractGetAceServlet extends AbstractAccessGetServlet {
     protected abstract Map<String, List<AccessControlEntry>> getAccessControlEntriesMap(Session session, String absPath, Principal principal,
             Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) throws RepositoryException;
 
+    /**
+     * Collect the entries of all the principals.  The default implementation collects
+     * the entries of each principal separately, override to collect the entries of
+     * all the principals in one pass instead.
+     * 
+     * @param session the JCR session
+     * @param absPath the resource path
+     * @param principals the principals to collect the entries of
+     * @param declaredAtPaths populated with details about where privileges are declared for each principal
+     * @return map where the key is the effective path and the value is the entries for that path
+     */
+    protected Map<String, List<AccessControlEntry>> getAccessControlEntriesMap(Session session, String absPath, Set<Principal> principals,
+            Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) throws RepositoryException {
+        Map<String, List<AccessControlEntry>> effectivePathToEntriesMap = new TreeMap<>(
+                (k1, k2) -> Objects.compare(k1, k2, Comparator.nullsFirst(String::compareTo)));
+        for (Principal principal : principals) {
+            Map<String, List<AccessControlEntry>> map = getAccessControlEntriesMap(session, absPath, principal, declaredAtPaths);
+            if (map != null) {
+                map.forEach((effectivePath, entries) ->
+                    effectivePathToEntriesMap.computeIfAbsent(effectivePath, key -> new ArrayList<>()).addAll(entries));
+            }
+        }
+        return effectivePathToEntriesMap;
+    }
+
     /**
      * @deprecated use {@link #getAccessControlEntriesMap(Session, String, Principal, Map)} instead
      */
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -34,19 +35,28 @@ import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
-import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.ConsolidationContext;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
-import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesHelper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 @SuppressWarnings({"serial", "java:S110"})
 public abstract class AbstractGetAclServlet extends AbstractAccessGetServlet {
 
+    /**
+     * Which of the JSON builder methods are overridden without the matching
+     * streaming method, resolved on first use
+     */
+    private transient volatile JsonOverrides jsonOverrides = null;
+
     /**
      * @deprecated since 3.0.12, To be removed when the exported package version goes to 4.0
      *      use {@link JsonConvert#KEY_ORDER} instead
@@ -69,19 +79,97 @@ public abstract class AbstractGetAclServlet extends AbstractAccessGetServlet {
         return internalGetAcl(session, resourcePath);
     }
 
-    protected JsonObject internalGetAcl(Session jcrSession, String resourcePath) throws RepositoryException {
-        validateArgs(jcrSession, resourcePath);
+    /**
+     * Overridden to write each principal straight from the model instead of
+     * building the JSON structure for all the principals first.  When a subclass
+     * overrides {@link #convertToJson(List, Map)} or {@link #addExtraInfo(JsonObjectBuilder, Principal, Map)}
+     * without also overriding {@link #writeJson(JsonGenerator, List, Map)} or
+     * {@link #writeExtraInfo(JsonGenerator, Principal, Map)}, the JSON is built with
+     * the overridden method instead, so streaming is opt-in for subclasses.
+     */
+    @Override
+    protected @NotNull Consumer<JsonGenerator> internalJsonWriter(Session session, String resourcePath, String principalId)
+            throws RepositoryException {
+        Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths = new HashMap<>();
+        List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList = internalGetAclEntries(session, resourcePath,
+                principalToDeclaredAtPaths, AclEntryFilter.ALL, new HashMap<>());
+        return generator -> writeJson(generator, entrySetList, principalToDeclaredAtPaths);
+    }
 
-        //make a temp map for quick lookup below
-        Set<RestrictionDefinition> supportedRestrictions = getRestrictionProvider().getSupportedRestrictions(resourcePath);
-        Map<String, RestrictionDefinition> srMap = new HashMap<>();
-        for (RestrictionDefinition restrictionDefinition : supportedRestrictions) {
-            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
+    /**
+     * Overridden to only compute the principals requested with the 'pid', 'offset'
+     * and 'limit' parameters.  A filtered model is not cached.
+     */
+    @Override
+    @Nullable Consumer<JsonGenerator> requestJsonWriter(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        AclEntryFilter filter = AclEntryFilter.fromRequest(request);
+        if (filter.isAll()) {
+            return super.requestJsonWriter(request, session, resourcePath, principalId);
         }
-
         Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths = new HashMap<>();
-        Map<String, List<AccessControlEntry>> effectivePathToEntriesMap = getAccessControlEntriesMap(jcrSession, resourcePath, principalToDeclaredAtPaths);
         Map<Principal, Integer> principalToOrderMap = new HashMap<>();
+        List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList = internalGetAclEntries(session, resourcePath,
+                principalToDeclaredAtPaths, filter, principalToOrderMap);
+        return generator -> {
+            generator.writeStartObject();
+            writePrincipals(generator, entrySetList, principalToDeclaredAtPaths, principalToOrderMap);
+            generator.writeEnd();
+        };
+    }
+
+    protected JsonObject internalGetAcl(Session jcrSession, String resourcePath) throws RepositoryException {
+        Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths = new HashMap<>();
+        List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList = internalGetAclEntries(jcrSession, resourcePath,
+                principalToDeclaredAtPaths, AclEntryFilter.ALL, new HashMap<>());
+
+        // convert the data to JSON
+        JsonObjectBuilder jsonObj = convertToJson(entrySetList, principalToDeclaredAtPaths);
+        return jsonObj.build();
+    }
+
+    /**
+     * Compute the privileges of each principal sorted by the order of the principal
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalToDeclaredAtPaths populated with details about where privileges are declared for each principal
+     * @param filter the principals to include
+     * @param principalToOrderMap populated with the order of every principal of the ACL
+     * @return the principals and their privileges
+     */
+    private List<Entry<Principal, Map<Privilege, LocalPrivilege>>> internalGetAclEntries(Session jcrSession, String resourcePath,
+            Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths,
+            AclEntryFilter filter, Map<Principal, Integer> principalToOrderMap) throws RepositoryException {
+        validateArgs(jcrSession, resourcePath);
+        return computeAclEntries(jcrSession, resourcePath, principalToDeclaredAtPaths,
+                getRestrictionDefinitions(resourcePath), null, filter, principalToOrderMap);
+    }
+
+    /**
+     * Compute the privileges of each principal sorted by the order of the principal
+     * without validating the arguments
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalToDeclaredAtPaths populated with details about where privileges are declared for each principal
+     * @param srMap the supported restriction definitions
+     * @param consolidationContext the context to consolidate the aggregate privileges or null to build one for the path
+     * @param filter the principals to include
+     * @param principalToOrderMap populated with the order of every principal of the ACL, including
+     *          the principals that are not included
+     * @return the principals and their privileges
+     */
+    @NotNull List<Entry<Principal, Map<Privilege, LocalPrivilege>>> computeAclEntries(Session jcrSession, String resourcePath,
+            Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths,
+            Map<String, RestrictionDefinition> srMap, @Nullable ConsolidationContext consolidationContext,
+            @NotNull AclEntryFilter filter, @NotNull Map<Principal, Integer> principalToOrderMap) throws RepositoryException {
+        Map<String, List<AccessControlEntry>> effectivePathToEntriesMap = getAccessControlEntriesMap(jcrSession, resourcePath,
+                principalToDeclaredAtPaths);
+        // the order is numbered over every principal of the ACL, so a filtered
+        //  principal has the same order as without the filter
+        // the position of each principal among the principals that pass the filter
+        Map<Principal, Integer> principalToFilteredPositionMap = filter.isAll() ? principalToOrderMap : new HashMap<>();
         Map<Principal, Map<Privilege, LocalPrivilege>> principalToPrivilegesMap = new HashMap<>();
         for (Entry<String, List<AccessControlEntry>> entry : effectivePathToEntriesMap.entrySet()) {
             List<AccessControlEntry> accessControlEntries = entry.getValue();
@@ -91,33 +179,35 @@ public abstract class AbstractGetAclServlet extends AbstractAccessGetServlet {
                     Privilege[] privileges = jrAccessControlEntry.getPrivileges();
                     if (privileges != null) {
                         Principal principal = accessControlEntry.getPrincipal();
-                        if (!principalToPrivilegesMap.containsKey(principal)) {
-                            principalToOrderMap.put(principal, principalToPrivilegesMap.size());
-                        }
-                        Map<Privilege, LocalPrivilege> map = principalToPrivilegesMap.computeIfAbsent(principal, k -> new HashMap<>());
+                        principalToOrderMap.computeIfAbsent(principal, k -> principalToOrderMap.size());
+                        // skip the principals that were not requested or are outside of the requested page
+                        if (filter.test(accessControlEntry) &&
+                                filter.isInPage(principalToFilteredPositionMap.computeIfAbsent(principal, k -> principalToFilteredPositionMap.size()))) {
+                            Map<Privilege, LocalPrivilege> map = principalToPrivilegesMap.computeIfAbsent(principal, k -> new HashMap<>());
 
-                        processACE(srMap, jrAccessControlEntry, privileges, map);
+                            processACE(srMap, jrAccessControlEntry, privileges, map);
+                        }
                     }
                 }
             }
         }
 
         // combine any aggregates that are still valid
-        AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
-        Map<Privilege, Integer> privilegeLongestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL));
-        for (Entry<Principal, Map<Privilege, LocalPrivilege>> entry : principalToPrivilegesMap.entrySet()) {
-            Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = entry.getValue();
-
-            PrivilegesHelper.consolidateAggregates(jcrSession, resourcePath, privilegeToLocalPrivilegesMap, privilegeLongestDepthMap);
+        if (!principalToPrivilegesMap.isEmpty()) {
+            // the supported aggregates are the same for every principal, so only calculate them once
+            if (consolidationContext == null) {
+                AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
+                consolidationContext = ConsolidationContext.build(jcrSession, resourcePath, getPrivilegeIndex(jcrSession, acm));
+            }
+            for (Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap : principalToPrivilegesMap.values()) {
+                consolidationContext.consolidateAggregates(privilegeToLocalPrivilegesMap);
+            }
         }
 
         // sort the entries by the order value for readability
         List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList = new ArrayList<>(principalToPrivilegesMap.entrySet());
         Collections.sort(entrySetList, (e1, e2) -> principalToOrderMap.get(e1.getKey()).compareTo(principalToOrderMap.get(e2.getKey())));
-
-        // convert the data to JSON
-        JsonObjectBuilder jsonObj = convertToJson(entrySetList, principalToDeclaredAtPaths);
-        return jsonObj.build();
+        return entrySetList;
     }
 
     protected JsonObjectBuilder convertToJson(List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList,
@@ -133,6 +223,142 @@ public abstract class AbstractGetAclServlet extends AbstractAccessGetServlet {
         return jsonObj;
     }
 
+    /**
+     * Write the same JSON as {@link #convertToJson(List, Map)} to the generator
+     * one principal at a time.  When {@link #convertToJson(List, Map)} is overridden
+     * in a subclass that does not override this method, the JSON built by the
+     * overridden method is written instead.
+     * 
+     * @param generator the generator to write to
+     * @param entrySetList the principals and their privileges
+     * @param declaredAtPaths a map of principal the paths where ACEs are declared
+     */
+    protected void writeJson(JsonGenerator generator, List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList,
+            Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) {
+        if (getJsonOverrides().convertToJson) {
+            generator.write(convertToJson(entrySetList, declaredAtPaths).build());
+            return;
+        }
+        generator.writeStartObject();
+        writePrincipals(generator, entrySetList, declaredAtPaths, null);
+        generator.writeEnd();
+    }
+
+    /**
+     * Write an object for each principal into the current object
+     * 
+     * @param principalToOrderMap the order of each principal in the ACL, or null if
+     *          the entries are every principal of the ACL in order
+     */
+    void writePrincipals(JsonGenerator generator, List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList,
+            Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths,
+            @Nullable Map<Principal, Integer> principalToOrderMap) {
+        JsonOverrides overrides = getJsonOverrides();
+        if (overrides.convertToJson) {
+            convertToJson(entrySetList, declaredAtPaths).build().forEach(generator::write);
+            return;
+        }
+        for (int i = 0; i < entrySetList.size(); i++) {
+            Entry<Principal, Map<Privilege, LocalPrivilege>> entry = entrySetList.get(i);
+            Principal principal = entry.getKey();
+            generator.writeStartObject(principal.getName());
+            int order = principalToOrderMap == null ? i : principalToOrderMap.get(principal);
+            JsonConvert.writeTo(generator, principal, entry.getValue(), order);
+            if (overrides.addExtraInfo) {
+                writeAddedExtraInfo(generator, principal, declaredAtPaths);
+            } else {
+                writeExtraInfo(generator, principal, declaredAtPaths);
+            }
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Override to write additional data to the principal object, the same as
+     * {@link #addExtraInfo(JsonObjectBuilder, Principal, Map)}.  When
+     * {@link #addExtraInfo(JsonObjectBuilder, Principal, Map)} is overridden in a
+     * subclass that does not override this method, the data added by the
+     * overridden method is written instead.
+     * 
+     * @param generator the generator positioned in the principal object
+     * @param principal the current principal
+     * @param principalToDeclaredAtPaths a map of principal the paths where ACEs are declared
+     */
+    protected void writeExtraInfo(JsonGenerator generator,
+            Principal principal, Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths) {
+        if (getJsonOverrides().addExtraInfo) {
+            writeAddedExtraInfo(generator, principal, principalToDeclaredAtPaths);
+        }
+    }
+
+    /**
+     * Write the data added by {@link #addExtraInfo(JsonObjectBuilder, Principal, Map)}
+     * to the principal object
+     */
+    private void writeAddedExtraInfo(JsonGenerator generator,
+            Principal principal, Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths) {
+        JsonObjectBuilder extraInfo = Json.createObjectBuilder();
+        addExtraInfo(extraInfo, principal, principalToDeclaredAtPaths);
+        extraInfo.build().forEach(generator::write);
+    }
+
+    /**
+     * @return which of the JSON builder methods are overridden without the matching
+     *          streaming method
+     */
+    private @NotNull JsonOverrides getJsonOverrides() {
+        JsonOverrides overrides = jsonOverrides;
+        if (overrides == null) {
+            Class<?> type = getClass();
+            overrides = new JsonOverrides(
+                    isOverriddenBelow(type, "convertToJson", new Class<?>[] {List.class, Map.class},
+                            "writeJson", new Class<?>[] {JsonGenerator.class, List.class, Map.class}),
+                    isOverriddenBelow(type, "addExtraInfo", new Class<?>[] {JsonObjectBuilder.class, Principal.class, Map.class},
+                            "writeExtraInfo", new Class<?>[] {JsonGenerator.class, Principal.class, Map.class}));
+            jsonOverrides = overrides;
+        }
+        return overrides;
+    }
+
+    /**
+     * @return true if the builder method is declared in a subclass of the class
+     *          that declares the streaming method
+     */
+    private static boolean isOverriddenBelow(@NotNull Class<?> type, @NotNull String builderName, @NotNull Class<?>[] builderParameterTypes,
+            @NotNull String writerName, @NotNull Class<?>[] writerParameterTypes) {
+        Class<?> builderClass = getDeclaringClass(type, builderName, builderParameterTypes);
+        Class<?> writerClass = getDeclaringClass(type, writerName, writerParameterTypes);
+        return builderClass != writerClass && writerClass.isAssignableFrom(builderClass);
+    }
+
+    /**
+     * @return the most specific class that declares the method
+     */
+    private static @NotNull Class<?> getDeclaringClass(@NotNull Class<?> type, @NotNull String name, @NotNull Class<?>[] parameterTypes) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, parameterTypes);
+                return c;
+            } catch (NoSuchMethodException e) {
+                // not declared here, so try the superclass
+            }
+        }
+        return AbstractGetAclServlet.class;
+    }
+
+    /**
+     * The JSON builder methods that are overridden without the matching streaming method
+     */
+    private static final class JsonOverrides {
+        private final boolean convertToJson;
+        private final boolean addExtraInfo;
+
+        JsonOverrides(boolean convertToJson, boolean addExtraInfo) {
+            this.convertToJson = convertToJson;
+            this.addExtraInfo = addExtraInfo;
+        }
+    }
+
     /**
      * Override to add additional data to the principal object
      * 
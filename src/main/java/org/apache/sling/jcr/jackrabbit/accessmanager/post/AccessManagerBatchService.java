@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AccessManagerBatch;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation.Type;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult.Status;
+import org.apache.sling.jcr.jackrabbit.accessmanager.BatchOptions;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.ModifyAce;
+import org.apache.sling.jcr.jackrabbit.accessmanager.ModifyPrincipalAce;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link AccessManagerBatch} that reuses the
+ * internals of the {@link ModifyAceServlet} and {@link ModifyPrincipalAceServlet}
+ * to apply the changes to each access control list.  The references are
+ * restricted to the components of this bundle, so another ModifyAce or
+ * ModifyPrincipalAce implementation with a higher ranking is never bound.
+ */
+@Component(service = AccessManagerBatch.class,
+    reference = {
+            @Reference(name = "ModifyAce",
+                    bind = "bindModifyAce",
+                    service = ModifyAce.class,
+                    target = "(component.name=org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet)"),
+            @Reference(name = "ModifyPrincipalAce",
+                    bind = "bindModifyPrincipalAce",
+                    service = ModifyPrincipalAce.class,
+                    target = "(component.name=org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyPrincipalAceServlet)")
+    })
+public class AccessManagerBatchService implements AccessManagerBatch {
+
+    /**
+     * default log
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private ModifyAceServlet modifyAceServlet;
+    private ModifyAceServlet modifyPrincipalAceServlet;
+
+    void bindModifyAce(ModifyAce modifyAce) {
+        modifyAceServlet = (ModifyAceServlet)modifyAce;
+    }
+
+    void bindModifyPrincipalAce(ModifyPrincipalAce modifyPrincipalAce) {
+        modifyPrincipalAceServlet = (ModifyAceServlet)modifyPrincipalAce;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.AccessManagerBatch#apply(javax.jcr.Session, java.util.List, org.apache.sling.jcr.jackrabbit.accessmanager.BatchOptions)
+     */
+    @Override
+    public @NotNull List<AceOperationResult> apply(@NotNull Session jcrSession, @NotNull List<AceOperation> operations,
+            @NotNull BatchOptions options) throws RepositoryException {
+        AceOperationResult[] results = new AceOperationResult[operations.size()];
+
+        // group the operations by the access control list they change
+        Map<String, List<Integer>> aclToOperationsMap = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            aclToOperationsMap.computeIfAbsent(aclKey(operations.get(i)), key -> new ArrayList<>()).add(i);
+        }
+
+        // the operations that were written to the session but not saved yet
+        List<Integer> unsaved = new ArrayList<>();
+        int unsavedAcls = 0;
+        for (List<Integer> aclOperations : aclToOperationsMap.values()) {
+            if (applyToAcl(jcrSession, operations, aclOperations, results)) {
+                unsaved.addAll(aclOperations);
+                unsavedAcls++;
+                if (options.isAutoSave() && options.getSaveEvery() > 0 && unsavedAcls >= options.getSaveEvery()) {
+                    save(jcrSession, operations, unsaved, results);
+                    unsaved.clear();
+                    unsavedAcls = 0;
+                }
+            }
+        }
+        if (options.isAutoSave() && !unsaved.isEmpty()) {
+            save(jcrSession, operations, unsaved, results);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * The key of the access control list that the operation changes.  The ACL
+     * of a resource is changed for the resource based operations and the ACL of
+     * the principal for the principal based operations.
+     */
+    private static @NotNull String aclKey(@NotNull AceOperation operation) {
+        if (isPrincipalBased(operation)) {
+            return "principal:" + operation.getPrincipalId();
+        }
+        return "path:" + operation.getResourcePath();
+    }
+
+    private static boolean isPrincipalBased(@NotNull AceOperation operation) {
+        return operation.getType() == Type.MODIFY_PRINCIPAL_ACE || operation.getType() == Type.DELETE_PRINCIPAL_ACE;
+    }
+
+    private static boolean isDelete(@NotNull AceOperation operation) {
+        return operation.getType() == Type.DELETE_ACE || operation.getType() == Type.DELETE_PRINCIPAL_ACE;
+    }
+
+    /**
+     * Apply the operations that change the same access control list and then
+     * write the access control list once.
+     * 
+     * @return true if the access control list was written, false otherwise
+     */
+    @SuppressWarnings("java:S1141")
+    private boolean applyToAcl(@NotNull Session jcrSession, @NotNull List<AceOperation> operations,
+            @NotNull List<Integer> aclOperations, @NotNull AceOperationResult[] results) throws RepositoryException {
+        JackrabbitAccessControlList acl = null;
+        ModifyAceContext context = null;
+        boolean changed = false;
+        for (int i : aclOperations) {
+            AceOperation operation = operations.get(i);
+            ModifyAceServlet servlet = isPrincipalBased(operation) ? modifyPrincipalAceServlet : modifyAceServlet;
+
+            // resolve and merge without changing the ACL, so a failure only fails this operation
+            Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = null;
+            try {
+                context = servlet.newModifyAceContext(jcrSession, operation.getResourcePath(), operation.getPrincipalId(), acl);
+                if (!isDelete(operation)) {
+                    privilegeToLocalPrivilegesMap = servlet.mergeAce(context, operation.getPrivileges(),
+                            operation.getRestrictions(), operation.getMvRestrictions(), operation.getRemoveRestrictionNames());
+                }
+            } catch (RepositoryException | RuntimeException e) {
+                log.debug("Failed to apply {}", operation, e);
+                results[i] = new AceOperationResult(operation, Status.FAILED, e);
+                continue;
+            }
+            acl = context.getAcl();
+
+            try {
+                boolean operationChanged;
+                if (privilegeToLocalPrivilegesMap == null) {
+                    operationChanged = servlet.removeAce(context);
+                } else {
+                    operationChanged = servlet.applyAce(context, privilegeToLocalPrivilegesMap.values(), operation.getOrder());
+                }
+                Status status;
+                if (!operationChanged) {
+                    status = Status.UNCHANGED;
+                } else if (privilegeToLocalPrivilegesMap == null) {
+                    status = Status.DELETED;
+                } else {
+                    status = Status.MODIFIED;
+                }
+                results[i] = new AceOperationResult(operation, status);
+                changed |= operationChanged;
+            } catch (RepositoryException | RuntimeException e) {
+                // the ACL may have been partially changed so none of the changes can be written
+                log.debug("Failed to apply {}", operation, e);
+                failAll(operations, aclOperations, results, e);
+                return false;
+            }
+        }
+
+        if (changed) {
+            try {
+                context.getAccessControlManager().setPolicy(acl.getPath(), acl);
+            } catch (RepositoryException e) {
+                log.debug("Failed to write the access control list for {}", operations.get(aclOperations.get(0)), e);
+                failAll(operations, aclOperations, results, e);
+                return false;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Save the session and fail the written operations if the save fails
+     */
+    private void save(@NotNull Session jcrSession, @NotNull List<AceOperation> operations,
+            @NotNull List<Integer> unsaved, @NotNull AceOperationResult[] results) throws RepositoryException {
+        try {
+            if (jcrSession.hasPendingChanges()) {
+                jcrSession.save();
+            }
+        } catch (RepositoryException e) {
+            log.debug("Failed to save the access control changes", e);
+            jcrSession.refresh(false);
+            failAll(operations, unsaved, results, e);
+        }
+    }
+
+    /**
+     * Replace the result of the operations that did not already fail with a failure
+     */
+    private static void failAll(@NotNull List<AceOperation> operations, @NotNull List<Integer> failed,
+            @NotNull AceOperationResult[] results, @NotNull Exception e) {
+        for (int i : failed) {
+            if (results[i] == null || results[i].getStatus() != Status.FAILED) {
+                results[i] = new AceOperationResult(operations.get(i), Status.FAILED, e);
+            }
+        }
+    }
+
+}
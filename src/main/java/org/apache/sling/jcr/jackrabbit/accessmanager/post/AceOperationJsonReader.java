@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads a JSON array of ACE operations one parser event at a time, so the
+ * request body is never held as a JSON structure.
+ */
+final class AceOperationJsonReader {
+
+    private final RestrictionProvider restrictionProvider;
+    private final ValueFactory vf;
+    private final String defaultPath;
+    private final String defaultOperation;
+    /**
+     * the supported restrictions for each path
+     */
+    private final Map<String, Map<String, RestrictionDefinition>> pathToRestrictionDefinitionsMap = new HashMap<>();
+
+    /**
+     * @param restrictionProvider the provider of the supported restrictions
+     * @param vf the value factory to create the restriction values
+     * @param defaultPath the path for operations that do not specify a path
+     * @param defaultOperation the operation name for operations that do not specify
+     *          an operation or null if the operation is required
+     */
+    AceOperationJsonReader(@NotNull RestrictionProvider restrictionProvider, @NotNull ValueFactory vf,
+            @NotNull String defaultPath, @Nullable String defaultOperation) {
+        this.restrictionProvider = restrictionProvider;
+        this.vf = vf;
+        this.defaultPath = defaultPath;
+        this.defaultOperation = defaultOperation;
+    }
+
+    /**
+     * Read the operations from the JSON array and close the parser
+     * 
+     * @param parser the parser of the JSON array
+     * @return the operations in the order they were supplied
+     */
+    @NotNull List<AceOperation> readOperations(@NotNull JsonParser parser) throws RepositoryException {
+        List<AceOperation> operations = new ArrayList<>();
+        try {
+            if (!parser.hasNext() || parser.next() != Event.START_ARRAY) {
+                throw new IllegalArgumentException("The request body must be a JSON array of operations");
+            }
+            Event event;
+            while ((event = parser.next()) != Event.END_ARRAY) {
+                if (event != Event.START_OBJECT) {
+                    throw new IllegalArgumentException("Each operation must be a JSON object");
+                }
+                operations.add(readOperation(parser));
+            }
+        } finally {
+            parser.close();
+        }
+        return operations;
+    }
+
+    @SuppressWarnings({"java:S3776", "java:S6541"})
+    private @NotNull AceOperation readOperation(@NotNull JsonParser parser) throws RepositoryException {
+        String operationName = defaultOperation;
+        String path = defaultPath;
+        String principalId = null;
+        String order = null;
+        Map<String, String> privileges = null;
+        Map<String, List<String>> restrictionValues = null;
+        Set<String> removeRestrictionNames = null;
+
+        Event event;
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            if (event != Event.KEY_NAME) {
+                throw new IllegalArgumentException("Unexpected JSON content in an operation");
+            }
+            String key = parser.getString();
+            event = parser.next();
+            switch (key) {
+            case "operation":
+                operationName = readString(parser, event, key);
+                break;
+            case "path":
+                path = readString(parser, event, key);
+                break;
+            case "principalId":
+                principalId = readString(parser, event, key);
+                break;
+            case "order":
+                order = readString(parser, event, key);
+                break;
+            case "privileges":
+                privileges = new LinkedHashMap<>();
+                expect(event, Event.START_OBJECT, key);
+                while (parser.next() != Event.END_OBJECT) {
+                    String privilegeName = parser.getString();
+                    privileges.put(privilegeName, readString(parser, parser.next(), privilegeName));
+                }
+                break;
+            case "restrictions":
+                restrictionValues = new LinkedHashMap<>();
+                expect(event, Event.START_OBJECT, key);
+                while (parser.next() != Event.END_OBJECT) {
+                    String restrictionName = parser.getString();
+                    event = parser.next();
+                    if (event == Event.START_ARRAY) {
+                        restrictionValues.put(restrictionName, readStrings(parser, restrictionName));
+                    } else {
+                        List<String> values = new ArrayList<>(1);
+                        values.add(readString(parser, event, restrictionName));
+                        restrictionValues.put(restrictionName, values);
+                    }
+                }
+                break;
+            case "removeRestrictions":
+                expect(event, Event.START_ARRAY, key);
+                removeRestrictionNames = new LinkedHashSet<>(readStrings(parser, key));
+                break;
+            default:
+                // ignore any other members
+                skip(parser, event);
+                break;
+            }
+        }
+
+        if (principalId == null) {
+            throw new IllegalArgumentException("principalId was not submitted.");
+        }
+
+        Map<String, Value> restrictions = null;
+        Map<String, Value[]> mvRestrictions = null;
+        if (restrictionValues != null) {
+            restrictions = new HashMap<>();
+            mvRestrictions = new HashMap<>();
+            Map<String, RestrictionDefinition> srMap = pathToRestrictionDefinitionsMap.computeIfAbsent(path, this::restrictionDefinitions);
+            for (Entry<String, List<String>> entry : restrictionValues.entrySet()) {
+                RestrictionDefinition rd = srMap.get(entry.getKey());
+                List<String> values = entry.getValue();
+                if (rd != null && rd.getRequiredType().isArray()) {
+                    Value[] mvValues = new Value[values.size()];
+                    for (int i = 0; i < mvValues.length; i++) {
+                        mvValues[i] = vf.createValue(values.get(i), rd.getRequiredType().tag());
+                    }
+                    mvRestrictions.put(entry.getKey(), mvValues);
+                } else if (values.size() == 1) {
+                    // an unsupported restriction name is reported by the operation that uses it
+                    int type = rd == null ? PropertyType.STRING : rd.getRequiredType().tag();
+                    restrictions.put(entry.getKey(), vf.createValue(values.get(0), type));
+                } else {
+                    throw new IllegalArgumentException("Multiple values were supplied for the single-value restriction: " + entry.getKey());
+                }
+            }
+        }
+
+        if ("modifyAce".equals(operationName)) {
+            return AceOperation.modifyAce(path, principalId, privileges, order, restrictions, mvRestrictions, removeRestrictionNames);
+        } else if ("deleteAce".equals(operationName)) {
+            return AceOperation.deleteAce(path, principalId);
+        } else if ("modifyPAce".equals(operationName)) {
+            return AceOperation.modifyPrincipalAce(path, principalId, privileges, restrictions, mvRestrictions, removeRestrictionNames);
+        } else if ("deletePAce".equals(operationName)) {
+            return AceOperation.deletePrincipalAce(path, principalId);
+        }
+        throw new IllegalArgumentException("Invalid or missing operation was supplied: " + operationName);
+    }
+
+    private @NotNull Map<String, RestrictionDefinition> restrictionDefinitions(@NotNull String path) {
+        Map<String, RestrictionDefinition> srMap = new HashMap<>();
+        for (RestrictionDefinition restrictionDefinition : restrictionProvider.getSupportedRestrictions(path)) {
+            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
+        }
+        return srMap;
+    }
+
+    private static void expect(@Nullable Event event, @NotNull Event expected, @NotNull String key) {
+        if (event != expected) {
+            throw new IllegalArgumentException("Unexpected JSON content for: " + key);
+        }
+    }
+
+    private static @NotNull String readString(@NotNull JsonParser parser, @Nullable Event event, @NotNull String key) {
+        expect(event, Event.VALUE_STRING, key);
+        return parser.getString();
+    }
+
+    private static @NotNull List<String> readStrings(@NotNull JsonParser parser, @NotNull String key) {
+        List<String> values = new ArrayList<>();
+        Event event;
+        while ((event = parser.next()) != Event.END_ARRAY) {
+            values.add(readString(parser, event, key));
+        }
+        return values;
+    }
+
+    /**
+     * Skip the value that starts with the event, including any nested content
+     */
+    private static void skip(@NotNull JsonParser parser, @NotNull Event event) {
+        if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+            int depth = 1;
+            while (depth > 0) {
+                Event next = parser.next();
+                if (next == Event.START_OBJECT || next == Event.START_ARRAY) {
+                    depth++;
+                } else if (next == Event.END_OBJECT || next == Event.END_ARRAY) {
+                    depth--;
+                }
+            }
+        }
+    }
+
+}
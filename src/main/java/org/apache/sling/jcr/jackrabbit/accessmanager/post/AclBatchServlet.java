@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Locale;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.servlet.Servlet;
+
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AccessManagerBatch;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult.Status;
+import org.apache.sling.jcr.jackrabbit.accessmanager.BatchOptions;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.PostResponseCreator;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * <p>
+ * Sling Post Servlet implementation for applying many ACE changes across paths and
+ * principals in one request.
+ * </p>
+ * <h2>Rest Service Description</h2>
+ * <p>
+ * Applies the operations in the request body using a single session, the resource is
+ * identified by the request URL &gt;resource&lt;.aclBatch.json
+ * </p>
+ * <h3>Transport Details:</h3>
+ * <h4>Methods</h4>
+ * <ul>
+ * <li>POST</li>
+ * </ul>
+ * <h4>Request Body</h4>
+ * <p>
+ * A JSON array of operation objects. Each object may have these members:
+ * </p>
+ * <dl>
+ * <dt>operation</dt>
+ * <dd>One of 'modifyAce', 'deleteAce', 'modifyPAce' or 'deletePAce'. (required)</dd>
+ * <dt>path</dt>
+ * <dd>The path of the resource the ACE applies to. Defaults to the path of the requested resource.</dd>
+ * <dt>principalId</dt>
+ * <dd>The principal of the ACE. (required)</dd>
+ * <dt>privileges</dt>
+ * <dd>An object where each member name is a privilege name and the value is 'allow', 'deny' or 'none'.</dd>
+ * <dt>order</dt>
+ * <dd>Where the ACE should go in the list, the same as for the modifyAce operation.</dd>
+ * <dt>restrictions</dt>
+ * <dd>An object where each member name is a restriction name and the value is the restriction
+ *     value or an array of values for a multi-value restriction.</dd>
+ * <dt>removeRestrictions</dt>
+ * <dd>An array of the names of the restrictions to remove from the ACE.</dd>
+ * </dl>
+ * <h4>Post Parameters</h4>
+ * <dl>
+ * <dt>:saveEvery</dt>
+ * <dd>The number of access control lists to write between saves. When not supplied, all
+ *     the changes are saved once at the end.</dd>
+ * </dl>
+ * <h4>Failures</h4>
+ * <p>
+ * By default the batch is all or nothing: every operation is applied to the session
+ * and the changes are saved in one commit.  If any operation fails, all the changes
+ * are discarded, nothing is saved and the request fails.  Only when the client asks
+ * for chunked saves with a positive :saveEvery value are the operations that failed
+ * skipped while the others are saved, so the changes may be partially applied.
+ * </p>
+ *
+ * <h4>Response</h4>
+ * <dl>
+ * <dt>200</dt>
+ * <dd>Success. The "changes" list has one entry for each operation whose type is the outcome
+ *     of the operation ('modified', 'deleted', 'unchanged' or 'failed') and whose arguments are
+ *     the path and principalId of the operation followed by the failure message if it failed.
+ *     With a positive :saveEvery value some of the operations may have failed.</dd>
+ * <dt>404</dt>
+ * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The request has an If-Match header, which is not supported for this operation.</dd>
+ * <dt>500</dt>
+ * <dd>Failure, including a request body that could not be parsed. HTML explains the failure.
+ *     Without a positive :saveEvery value this includes the failure of any operation, in which
+ *     case nothing was saved and the "changes" list has the outcome each operation had before
+ *     the changes were discarded.</dd>
+ * </dl>
+ */
+
+@Component(service = {Servlet.class},
+property= {
+        "sling.servlet.resourceTypes=sling/servlet/default",
+        "sling.servlet.methods=POST",
+        "sling.servlet.selectors=aclBatch",
+        "sling.servlet.prefix:Integer=-1"
+},
+reference = {
+        @Reference(name="RestrictionProvider",
+                bind = "bindRestrictionProvider",
+                cardinality = ReferenceCardinality.MULTIPLE,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = RestrictionProvider.class),
+        @Reference(name="AccessManagerBatch",
+                bind = "bindAccessManagerBatch",
+                service = AccessManagerBatch.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class),
+        @Reference(name = "PostResponseCreator",
+                bind = "bindPostResponseCreator",
+                cardinality = ReferenceCardinality.MULTIPLE,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = PostResponseCreator.class)
+})
+@SuppressWarnings("java:S110")
+public class AclBatchServlet extends AbstractAccessPostServlet {
+    private static final long serialVersionUID = 4862134730487627364L;
+
+    /**
+     * The name of the request parameter for the number of ACLs to write between saves
+     */
+    static final String PARAM_SAVE_EVERY = ":saveEvery";
+
+    private transient AccessManagerBatch accessManagerBatch;
+
+    void bindAccessManagerBatch(AccessManagerBatch batch) {
+        accessManagerBatch = batch;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jackrabbit.accessmanager.post.AbstractAccessPostServlet#handleOperation(org.apache.sling.api.SlingHttpServletRequest, org.apache.sling.servlets.post.PostResponse, java.util.List)
+     */
+    @Override
+    protected void handleOperation(SlingHttpServletRequest request,
+            PostResponse response, List<Modification> changes)
+            throws RepositoryException {
+        Session session = request.getResourceResolver().adaptTo(Session.class);
+        if (session == null) {
+            throw new RepositoryException("JCR Session not found");
+        }
+
+        BatchOptions options = new BatchOptions();
+        String saveEvery = request.getParameter(PARAM_SAVE_EVERY);
+        if (saveEvery != null && !saveEvery.isEmpty()) {
+            try {
+                options.withSaveEvery(Integer.parseInt(saveEvery));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + PARAM_SAVE_EVERY + " value was supplied", e);
+            }
+        }
+        // without chunked saves the single commit is left to the caller, so a failed
+        //  operation can discard the changes of all the others
+        boolean chunked = options.getSaveEvery() > 0;
+        options.withAutoSave(chunked);
+
+        List<AceOperation> operations;
+        try (Reader reader = request.getReader()) {
+            operations = readOperations(Json.createParser(reader), getItemPath(request), session.getValueFactory());
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read the request body", e);
+        }
+
+        List<AceOperationResult> results = accessManagerBatch.apply(session, operations, options);
+        int failed = 0;
+        for (AceOperationResult result : results) {
+            AceOperation operation = result.getOperation();
+            String type = result.getStatus().name().toLowerCase(Locale.ROOT);
+            Exception exception = result.getException();
+            if (result.getStatus() == Status.FAILED) {
+                failed++;
+            }
+            if (result.getStatus() == Status.FAILED && exception != null) {
+                response.onChange(type, operation.getResourcePath(), operation.getPrincipalId(), String.valueOf(exception.getMessage()));
+            } else {
+                response.onChange(type, operation.getResourcePath(), operation.getPrincipalId());
+            }
+        }
+        if (!chunked && failed > 0) {
+            session.refresh(false);
+            throw new RepositoryException(String.format("%d of %d operations failed so none of the changes were saved",
+                    failed, results.size()));
+        }
+    }
+
+    /**
+     * Read the operations from the JSON array in the request body one event at a time
+     * 
+     * @param parser the parser of the request body
+     * @param defaultPath the path for operations that do not specify a path
+     * @param vf the value factory to create the restriction values
+     * @return the operations in the order they were supplied
+     */
+    @NotNull List<AceOperation> readOperations(@NotNull JsonParser parser, @NotNull String defaultPath,
+            @NotNull ValueFactory vf) throws RepositoryException {
+        return new AceOperationJsonReader(getRestrictionProvider(), vf, defaultPath, null).readOperations(parser);
+    }
+
+}
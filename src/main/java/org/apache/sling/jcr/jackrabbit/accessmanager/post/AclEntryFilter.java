@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.jcr.security.AccessControlEntry;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The principals and the page of principals requested from an ACL.  The principal
+ * filter is applied to the entries as they are collected and the page is applied
+ * before the privileges of a principal are processed, so the principals that were
+ * not requested are never expanded.
+ */
+final class AclEntryFilter implements Predicate<AccessControlEntry> {
+
+    /**
+     * The name of the request parameter for the principals to include, may be repeated
+     */
+    static final String PARAM_PRINCIPAL_ID = "pid";
+    /**
+     * The name of the request parameter for the number of principals to skip
+     */
+    static final String PARAM_OFFSET = "offset";
+    /**
+     * The name of the request parameter for the maximum number of principals to include
+     */
+    static final String PARAM_LIMIT = "limit";
+
+    /**
+     * The filter that includes every entry
+     */
+    static final AclEntryFilter ALL = new AclEntryFilter(null, 0, -1);
+
+    /**
+     * the names of the principals to include or null to include all
+     */
+    private final Set<String> principalIds;
+    private final int offset;
+    /**
+     * the maximum number of principals or -1 for no limit
+     */
+    private final int limit;
+
+    AclEntryFilter(@Nullable Set<String> principalIds, int offset, int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid " + PARAM_OFFSET + " value was supplied");
+        }
+        if (limit < -1) {
+            throw new IllegalArgumentException("Invalid " + PARAM_LIMIT + " value was supplied");
+        }
+        this.principalIds = principalIds;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * Read the filter from the request parameters
+     * 
+     * @param request the current request
+     * @return the filter
+     */
+    static @NotNull AclEntryFilter fromRequest(@NotNull SlingHttpServletRequest request) {
+        String[] pids = request.getParameterValues(PARAM_PRINCIPAL_ID);
+        Set<String> principalIds = null;
+        if (pids != null && pids.length > 0) {
+            principalIds = new HashSet<>(Arrays.asList(pids));
+        }
+        int offset = toInt(request.getParameter(PARAM_OFFSET), PARAM_OFFSET, 0);
+        int limit = toInt(request.getParameter(PARAM_LIMIT), PARAM_LIMIT, -1);
+        if (principalIds == null && offset == 0 && limit == -1) {
+            return ALL;
+        }
+        return new AclEntryFilter(principalIds, offset, limit);
+    }
+
+    private static int toInt(@Nullable String value, @NotNull String paramName, int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + paramName + " value was supplied", e);
+        }
+    }
+
+    /**
+     * @return true if every entry of every principal is included
+     */
+    boolean isAll() {
+        return principalIds == null && offset == 0 && limit == -1;
+    }
+
+    /**
+     * Checks if the principal with the supplied order is in the requested page
+     * 
+     * @param order the position of the principal among the principals that passed the filter
+     * @return true if the principal should be included
+     */
+    boolean isInPage(int order) {
+        return order >= offset && (limit == -1 || (long)order < (long)offset + limit);
+    }
+
+    /**
+     * @return true if the entry is for one of the requested principals
+     */
+    @Override
+    public boolean test(AccessControlEntry entry) {
+        return principalIds == null || principalIds.contains(entry.getPrincipal().getName());
+    }
+
+}
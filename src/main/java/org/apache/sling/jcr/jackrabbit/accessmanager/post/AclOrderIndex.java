@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.security.AccessControlEntry;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index of the entries of an ACL by principal that is built in a single pass, so
+ * resolving an order value or moving the entries of many principals does not need
+ * to scan the entries again for each lookup.
+ */
+final class AclOrderIndex {
+
+    private final AccessControlEntry[] entries;
+    /**
+     * the entries of each principal in the order the principals first appear
+     */
+    private final Map<Principal, List<AccessControlEntry>> principalToEntries = new LinkedHashMap<>();
+    /**
+     * the index of the first entry for each principal name
+     */
+    private final Map<String, Integer> nameToFirstIndex = new HashMap<>();
+    /**
+     * the index of the last entry for each principal name
+     */
+    private final Map<String, Integer> nameToLastIndex = new HashMap<>();
+    /**
+     * the principals in the order they first appear
+     */
+    private final List<Principal> principals;
+
+    AclOrderIndex(@NotNull AccessControlEntry[] entries) {
+        this.entries = entries;
+        for (int i = 0; i < entries.length; i++) {
+            Principal principal = entries[i].getPrincipal();
+            principalToEntries.computeIfAbsent(principal, key -> new ArrayList<>()).add(entries[i]);
+            nameToFirstIndex.putIfAbsent(principal.getName(), i);
+            nameToLastIndex.put(principal.getName(), i);
+        }
+        principals = new ArrayList<>(principalToEntries.keySet());
+    }
+
+    /**
+     * @return the entries that were indexed
+     */
+    @NotNull AccessControlEntry[] getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the principals in the order they first appear in the entries
+     */
+    @NotNull List<Principal> getPrincipals() {
+        return Collections.unmodifiableList(principals);
+    }
+
+    /**
+     * @param principal the principal to lookup
+     * @return the entries of the principal in their current order
+     */
+    @NotNull List<AccessControlEntry> getEntries(@NotNull Principal principal) {
+        return principalToEntries.getOrDefault(principal, Collections.emptyList());
+    }
+
+    /**
+     * Resolve the entry that the entries being positioned should be moved before.
+     *
+     * @param order where the access control entry should go in the list.
+     *         Value should be one of these:
+     *         <table>
+     *          <caption>Values</caption>
+     *          <tr><td>first</td><td>Place the target ACE as the first amongst its siblings</td></tr>
+     *          <tr><td>last</td><td>Place the target ACE as the last amongst its siblings</td></tr>
+     *          <tr><td>before xyz</td><td>Place the target ACE immediately before the sibling whose name is xyz</td></tr>
+     *          <tr><td>after xyz</td><td>Place the target ACE immediately after the sibling whose name is xyz</td></tr>
+     *          <tr><td>numeric</td><td>Place the target ACE at the specified index</td></tr>
+     *         </table>
+     * @return the entry to move before or null if nothing should be moved
+     */
+    @Nullable AccessControlEntry resolveBeforeEntry(@NotNull String order) {
+        AccessControlEntry beforeEntry = null;
+        if ("first".equals(order)) {
+            beforeEntry = entries[0];
+        } else if ("last".equals(order)) {
+            // add to the end is the same as default
+        } else if (order.startsWith("before ")) {
+            String beforePrincipalName = order.substring(7);
+            Integer idx = nameToFirstIndex.get(beforePrincipalName);
+            if (idx == null) {
+                //didn't find an ACE that matched the 'before' principal
+                throw new IllegalArgumentException("No ACE was found for the specified principal: " + beforePrincipalName);
+            }
+            beforeEntry = entries[idx];
+        } else if (order.startsWith("after ")) {
+            String afterPrincipalName = order.substring(6);
+            Integer idx = nameToLastIndex.get(afterPrincipalName);
+            // the 'before' ACE is the next one after the 'after' ACE
+            if (idx != null && idx < entries.length - 1) {
+                beforeEntry = entries[idx + 1];
+            }
+            if (beforeEntry == null) {
+                //didn't find an ACE that matched the 'after' principal
+                throw new IllegalArgumentException("No ACE was found for the specified principal: " + afterPrincipalName);
+            }
+        } else {
+            int index = -1;
+            try {
+                index = Integer.parseInt(order);
+            } catch (NumberFormatException nfe) {
+                //not a number.
+                throw new IllegalArgumentException("Illegal value for the order parameter: " + order);
+            }
+            if (index > entries.length) {
+                //invalid index
+                throw new IndexOutOfBoundsException("Index value is too large: " + index);
+            }
+
+            //the index value is the index of the principal.  A principal may have more
+            // than one ACEs (deny + grant), so we need to compensate.
+            if (index >= 0 && index < principals.size() - 1) {
+                beforeEntry = principalToEntries.get(principals.get(index)).get(0);
+            }
+        }
+        return beforeEntry;
+    }
+
+    /**
+     * Move the entries of the ACL so the supplied principals come first in the supplied
+     * order, followed by the entries of any other principals in their current order.  Only
+     * the entries after the first one that is out of place are moved.
+     *
+     * @param acl the ACL that was indexed
+     * @param principalOrder the desired order of the principals
+     * @return true if any entries were moved, false if the ACL was already in that order
+     */
+    boolean applyOrder(@NotNull JackrabbitAccessControlList acl, @NotNull List<Principal> principalOrder)
+            throws RepositoryException {
+        List<AccessControlEntry> target = new ArrayList<>(entries.length);
+        Map<Principal, List<AccessControlEntry>> remaining = new LinkedHashMap<>(principalToEntries);
+        for (Principal principal : principalOrder) {
+            List<AccessControlEntry> principalEntries = remaining.remove(principal);
+            if (principalEntries != null) {
+                target.addAll(principalEntries);
+            }
+        }
+        for (List<AccessControlEntry> principalEntries : remaining.values()) {
+            target.addAll(principalEntries);
+        }
+
+        int firstMoved = 0;
+        while (firstMoved < entries.length && entries[firstMoved] == target.get(firstMoved)) {
+            firstMoved++;
+        }
+        for (int i = firstMoved; i < target.size(); i++) {
+            // move to the end
+            acl.orderBefore(target.get(i), null);
+        }
+        return firstMoved < entries.length;
+    }
+
+}
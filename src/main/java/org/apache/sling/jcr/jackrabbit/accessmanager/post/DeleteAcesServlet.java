@@ -18,6 +18,8 @@ package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,11 +35,15 @@ import org.apache.jackrabbit.api.security.principal.PrincipalManager;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.DeleteAces;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.PostResponseCreator;
 import org.apache.sling.servlets.post.SlingPostConstants;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -73,6 +79,8 @@ import org.slf4j.LoggerFactory;
  * <dd>Success.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The If-Match request header does not list the ETag of the current acl.json rendering of the resource.</dd>
  * <dt>500</dt>
  * <dd>Failure. HTML explains the failure.</dd>
  * </dl>
@@ -86,6 +94,24 @@ import org.slf4j.LoggerFactory;
             "sling.servlet.prefix:Integer=-1"
     },
     reference = {
+            @Reference(name="AclWriteLockService",
+                    bind = "bindAclWriteLockService",
+                    unbind = "unbindAclWriteLockService",
+                    cardinality = ReferenceCardinality.OPTIONAL,
+                    policyOption = ReferencePolicyOption.GREEDY,
+                    service = AclWriteLockService.class),
+            @Reference(name="GetAcl",
+                    bind = "bindGetAcl",
+                    unbind = "unbindGetAcl",
+                    cardinality = ReferenceCardinality.OPTIONAL,
+                    policyOption = ReferencePolicyOption.GREEDY,
+                    service = GetAcl.class),
+            @Reference(name="AclModelCacheService",
+                    bind = "bindAclModelCacheService",
+                    unbind = "unbindAclModelCacheService",
+                    cardinality = ReferenceCardinality.OPTIONAL,
+                    policyOption = ReferencePolicyOption.GREEDY,
+                    service = AclModelCacheService.class),
             @Reference(name = "PostResponseCreator",
                     bind = "bindPostResponseCreator",
                     cardinality = ReferenceCardinality.MULTIPLE,
@@ -115,6 +141,23 @@ public class DeleteAcesServlet extends AbstractAccessPostServlet implements Dele
         deleteAces(session, resourcePath, applyTo, changes);
     }
 
+    /**
+     * The ACL of the requested resource is written
+     */
+    @Override
+    protected @Nullable Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+        String resourcePath = getItemPath(request);
+        return resourcePath == null ? null : Collections.singleton(resourcePath);
+    }
+
+    /**
+     * The ACL is read again on each run, so a conflicting concurrent change can be retried
+     */
+    @Override
+    protected int getMaxConflictRetries() {
+        return DEFAULT_MAX_CONFLICT_RETRIES;
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jcr.jackrabbit.accessmanager.DeleteAces#deleteAces(javax.jcr.Session, java.lang.String, java.lang.String[])
      */
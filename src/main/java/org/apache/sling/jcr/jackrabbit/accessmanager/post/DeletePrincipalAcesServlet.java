@@ -18,6 +18,7 @@ package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,12 +32,17 @@ import javax.servlet.Servlet;
 
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
 import org.apache.jackrabbit.api.security.authorization.PrincipalAccessControlList;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.DeletePrincipalAces;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrincipalAceHelper;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponseCreator;
+import org.apache.sling.servlets.post.SlingPostConstants;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -72,6 +78,8 @@ import org.slf4j.LoggerFactory;
  * <dd>Success.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The request has an If-Match header, which is not supported for principal-based access control lists.</dd>
  * <dt>500</dt>
  * <dd>Failure. HTML explains the failure.</dd>
  * </dl>
@@ -85,6 +93,18 @@ import org.slf4j.LoggerFactory;
             "sling.servlet.prefix:Integer=-1"
     },
     reference = {
+            @Reference(name="AclWriteLockService",
+                    bind = "bindAclWriteLockService",
+                    unbind = "unbindAclWriteLockService",
+                    cardinality = ReferenceCardinality.OPTIONAL,
+                    policyOption = ReferencePolicyOption.GREEDY,
+                    service = AclWriteLockService.class),
+            @Reference(name="AclModelCacheService",
+                    bind = "bindAclModelCacheService",
+                    unbind = "unbindAclModelCacheService",
+                    cardinality = ReferenceCardinality.OPTIONAL,
+                    policyOption = ReferencePolicyOption.GREEDY,
+                    service = AclModelCacheService.class),
             @Reference(name = "PostResponseCreator",
                     bind = "bindPostResponseCreator",
                     cardinality = ReferenceCardinality.MULTIPLE,
@@ -105,6 +125,31 @@ public class DeletePrincipalAcesServlet extends DeleteAcesServlet implements Del
         return true;
     }
 
+    /**
+     * The principal-based ACLs of the requested principals are written
+     */
+    @Override
+    protected @Nullable Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+        String[] applyTo = request.getParameterValues(SlingPostConstants.RP_APPLY_TO);
+        if (applyTo == null) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>(applyTo.length);
+        for (String principalId : applyTo) {
+            keys.add(PRINCIPAL_LOCK_KEY_PREFIX + principalId);
+        }
+        return keys;
+    }
+
+    /**
+     * The entity tag of the acl.json rendering does not describe the principal-based
+     * access control list, so a request with an If-Match header is rejected
+     */
+    @Override
+    protected @Nullable String getCurrentETag(SlingHttpServletRequest request, Session session) {
+        return null;
+    }
+
     @Override
     public void deletePrincipalAces(Session jcrSession, String resourcePath, String[] principalNamesToDelete)
             throws RepositoryException {
@@ -33,6 +33,7 @@ import javax.servlet.Servlet;
 
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
 import org.apache.sling.jcr.jackrabbit.accessmanager.GetAce;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -63,6 +64,8 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <dl>
  * <dt>200</dt>
  * <dd>Success.</dd>
+ * <dt>304</dt>
+ * <dd>Not modified. The If-None-Match request header lists the ETag of the current response.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found or no access control entries exist for the principal.</dd>
  * <dt>500</dt>
@@ -83,7 +86,11 @@ reference = {
                 bind = "bindRestrictionProvider",
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
-                service = RestrictionProvider.class)
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class)
 }
 )
 @SuppressWarnings("java:S110")
@@ -16,21 +16,44 @@
  */
 package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
+import java.io.IOException;
 import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlEntry;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicy;
+import javax.jcr.security.Privilege;
 import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
 import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceNotFoundException;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.ConsolidationContext;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -46,15 +69,36 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * &gt;resource&lt;.acl.json Provided the user has access to the ACL, they get a chunk of
  * JSON of the form.
  * </p>
+ * <p>
+ * A GET of the form &gt;resource&lt;.acl.infinity.json dumps the declared ACL of the
+ * resource and every descendant that has one. The subtree is traversed once and the
+ * ACL of each node is streamed as it is found, so the response is not cached and does
+ * not have an ETag. Nodes that the user can not read the ACL of are skipped.
+ * </p>
  * <h3>Transport Details:</h3>
  * <h4>Methods</h4>
  * <ul>
  * <li>GET</li>
  * </ul>
+ * <h4>Get Parameters</h4>
+ * <dl>
+ * <dt>pid</dt>
+ * <dd>The principal id to include, may be supplied more than once. When not supplied, all the
+ *     principals are included.</dd>
+ * <dt>offset</dt>
+ * <dd>The number of principals to skip. Defaults to 0.</dd>
+ * <dt>limit</dt>
+ * <dd>The maximum number of principals to include. When not supplied, there is no limit.</dd>
+ * </dl>
+ * <p>
+ * The parameters are applied to the ACL of each node of an infinity request.
+ * </p>
  * <h4>Response</h4>
  * <dl>
  * <dt>200</dt>
  * <dd>Success.</dd>
+ * <dt>304</dt>
+ * <dd>Not modified. The If-None-Match request header lists the ETag of the current response.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
  * <dt>500</dt>
@@ -95,6 +139,17 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  *    }
  * }
  * </code>
+ * <h4>Example Response for the infinity selector</h4>
+ * <code style='white-space: pre'>
+ * {
+ * &quot;/content&quot;:{
+ *    &quot;principalNameA&quot;:{ ... }
+ *    },
+ * &quot;/content/child&quot;:{
+ *    &quot;principalNameB&quot;:{ ... }
+ *    }
+ * }
+ * </code>
  */
 
 @Component(service = {Servlet.class, GetAcl.class},
@@ -103,6 +158,8 @@ property= {
         "sling.servlet.methods=GET",
         "sling.servlet.selectors=acl",
         "sling.servlet.selectors=tidy.acl",
+        "sling.servlet.selectors=acl.infinity",
+        "sling.servlet.selectors=tidy.acl.infinity",
         "sling.servlet.extensions=json",
         "sling.servlet.prefix:Integer=-1"
 },
@@ -111,13 +168,127 @@ reference = {
                 bind = "bindRestrictionProvider",
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
-                service = RestrictionProvider.class)
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class)
 }
 )
 @SuppressWarnings("java:S110")
 public class GetAclServlet extends AbstractGetAclServlet implements GetAcl {
     private static final long serialVersionUID = 3391376559396223185L;
 
+    /**
+     * The selector that requests the ACL of the whole subtree
+     */
+    static final String SELECTOR_INFINITY = "infinity";
+
+    /**
+     * The names of the child nodes that store access control policies
+     */
+    private static final Set<String> POLICY_NODE_NAMES = new HashSet<>(Arrays.asList(
+            "rep:policy", "rep:repoPolicy", "rep:principalPolicy"));
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.post.AbstractAccessGetServlet#doGet(org.apache.sling.api.SlingHttpServletRequest, org.apache.sling.api.SlingHttpServletResponse)
+     */
+    @Override
+    protected void doGet(SlingHttpServletRequest request,
+            SlingHttpServletResponse response) throws ServletException,
+            IOException {
+        if (!Arrays.asList(request.getRequestPathInfo().getSelectors()).contains(SELECTOR_INFINITY)) {
+            super.doGet(request, response);
+            return;
+        }
+
+        try {
+            Session session = request.getResourceResolver().adaptTo(Session.class);
+            String resourcePath = getItemPath(request);
+            validateArgs(session, resourcePath);
+
+            try (JsonGenerator generator = createJsonGenerator(request, response)) {
+                writeAclTree(generator, session, resourcePath, AclEntryFilter.fromRequest(request));
+                generator.flush();
+            }
+        } catch (AccessDeniedException ade) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (ResourceNotFoundException rnfe) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, rnfe.getMessage());
+        } catch (Exception throwable) {
+            throw new ServletException(String.format("Exception while handling GET %s with %s",
+                                            request.getResource().getPath(), getClass().getName()),
+                                        throwable);
+        }
+    }
+
+    /**
+     * Write the declared ACL of the node and each descendant that has one.  The
+     * nodes are visited depth first with one iterator for each level so only the
+     * current branch is held in memory and the restriction definitions and the
+     * consolidation context are computed once for the whole subtree.
+     * 
+     * @param generator the generator to write to
+     * @param jcrSession the JCR session
+     * @param resourcePath the path of the root of the subtree
+     * @param filter the principals to include for each node
+     */
+    void writeAclTree(JsonGenerator generator, Session jcrSession, String resourcePath,
+            AclEntryFilter filter) throws RepositoryException {
+        Map<String, RestrictionDefinition> srMap = getRestrictionDefinitions(resourcePath);
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
+        ConsolidationContext consolidationContext = ConsolidationContext.build(jcrSession, resourcePath, getPrivilegeIndex(jcrSession, acm));
+
+        generator.writeStartObject();
+        Node root = jcrSession.getNode(resourcePath);
+        writeNodeAcl(generator, jcrSession, root, srMap, consolidationContext, filter);
+        Deque<NodeIterator> stack = new ArrayDeque<>();
+        stack.push(root.getNodes());
+        while (!stack.isEmpty()) {
+            NodeIterator children = stack.peek();
+            if (!children.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Node child = children.nextNode();
+            if (!POLICY_NODE_NAMES.contains(child.getName())) {
+                writeNodeAcl(generator, jcrSession, child, srMap, consolidationContext, filter);
+                stack.push(child.getNodes());
+            }
+        }
+        generator.writeEnd();
+    }
+
+    private void writeNodeAcl(JsonGenerator generator, Session jcrSession, Node node,
+            Map<String, RestrictionDefinition> srMap, ConsolidationContext consolidationContext,
+            AclEntryFilter filter) throws RepositoryException {
+        // only nodes with a policy child can declare an ACL
+        if (!node.hasNode("rep:policy")) {
+            return;
+        }
+        String path = node.getPath();
+        Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths = new HashMap<>();
+        Map<Principal, Integer> principalToOrderMap = new HashMap<>();
+        List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList;
+        try {
+            entrySetList = computeAclEntries(jcrSession, path, declaredAtPaths, srMap, consolidationContext, filter, principalToOrderMap);
+        } catch (AccessDeniedException ade) {
+            // not allowed to read this ACL, so leave it out
+            return;
+        }
+        if (!entrySetList.isEmpty()) {
+            generator.writeStartObject(path);
+            writePrincipals(generator, entrySetList, declaredAtPaths, principalToOrderMap);
+            generator.writeEnd();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl#getAcl(javax.jcr.Session, java.lang.String)
      */
@@ -19,9 +19,13 @@
 package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -30,12 +34,17 @@ import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicy;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 import javax.servlet.Servlet;
 
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.GetEffectiveAce;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -49,7 +58,8 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <h2>Rest Service Description</h2>
  * <p>
  * Get a principal's ACE for the node identified as a resource by the request
- * URL &gt;resource&lt;.eace.json?pid=[principal_id]
+ * URL &gt;resource&lt;.eace.json?pid=[principal_id] or the ACEs of many principals with
+ * &gt;resource&lt;.eace.json?pids=[principal_id]&amp;pids=[principal_id]
  * </p>
  * <h3>Transport Details:</h3>
  * <h4>Methods</h4>
@@ -60,14 +70,21 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <dl>
  * <dt>pid</dt>
  * <dd>The principal id of the ACE to get in the effective ACL specified by the path.</dd>
+ * <dt>pids</dt>
+ * <dd>One param for each principal id of the ACEs to get instead of the 'pid' param. The response
+ *     is an object where the key is the principal name and the value is the ACE for each principal
+ *     that has access control entries, even when only one principal id is supplied.</dd>
  * </dl>
  *
  * <h4>Response</h4>
  * <dl>
  * <dt>200</dt>
  * <dd>Success.</dd>
+ * <dt>304</dt>
+ * <dd>Not modified. The If-None-Match request header lists the ETag of the current response.</dd>
  * <dt>404</dt>
- * <dd>The resource was not found or no access control entries exist for the principal.</dd>
+ * <dd>The resource was not found or no access control entries exist for the principal
+ *     or any of the principals.</dd>
  * <dt>500</dt>
  * <dd>Failure. JSON explains the failure.</dd>
  * </dl>
@@ -86,19 +103,56 @@ reference = {
                 bind = "bindRestrictionProvider",
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
-                service = RestrictionProvider.class)
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class)
 }
 )
 @SuppressWarnings("java:S110")
 public class GetEffectiveAceServlet extends AbstractGetAceServlet implements GetEffectiveAce {
     private static final long serialVersionUID = 1654062732084983394L;
 
+    /**
+     * The name of the request parameter for the principals of the ACEs to get
+     * as an object keyed by principal name, may be repeated
+     */
+    static final String PARAM_PRINCIPAL_IDS = "pids";
+
     @Override
     public JsonObject getEffectiveAce(Session jcrSession, String resourcePath, String principalId)
             throws RepositoryException {
         return internalGetAce(jcrSession, resourcePath, principalId);
     }
 
+    @Override
+    public JsonObject getEffectiveAces(Session jcrSession, String resourcePath, Collection<String> principalIds)
+            throws RepositoryException {
+        return internalGetAces(jcrSession, resourcePath, principalIds);
+    }
+
+    /**
+     * Overridden to get the ACE of all the principals of the 'pids' parameters.
+     * The combined model is not cached.
+     */
+    @Override
+    @Nullable Consumer<JsonGenerator> requestJsonWriter(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        String[] principalIds = request.getParameterValues(PARAM_PRINCIPAL_IDS);
+        if (principalIds == null) {
+            return super.requestJsonWriter(request, session, resourcePath, principalId);
+        }
+        JsonObject jsonObj = internalGetAces(session, resourcePath, Arrays.asList(principalIds));
+        return generator -> generator.write(jsonObj);
+    }
+
     /**
      * Overridden to add the declaredAt data to the json
      */
@@ -117,4 +171,16 @@ public class GetEffectiveAceServlet extends AbstractGetAceServlet implements Get
         return entriesSortedByEffectivePath(policies, ace -> principal.equals(ace.getPrincipal()), declaredAtPaths);
     }
 
+    /**
+     * Overridden to get the effective policies once for all the principals
+     */
+    @Override
+    protected Map<String, List<AccessControlEntry>> getAccessControlEntriesMap(Session session, String absPath,
+            Set<Principal> principals, Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) throws RepositoryException {
+        AccessControlManager acMgr = AccessControlUtil.getAccessControlManager(session);
+        AccessControlPolicy[] policies = acMgr.getEffectivePolicies(absPath);
+        Set<String> principalNames = principals.stream().map(Principal::getName).collect(Collectors.toSet());
+        return entriesSortedByEffectivePath(policies, ace -> principalNames.contains(ace.getPrincipal().getName()), declaredAtPaths);
+    }
+
 }
@@ -28,11 +28,14 @@ import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicy;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 import javax.servlet.Servlet;
 
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
 import org.apache.sling.jcr.jackrabbit.accessmanager.GetEffectiveAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
@@ -53,10 +56,22 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <ul>
  * <li>GET</li>
  * </ul>
+ * <h4>Get Parameters</h4>
+ * <dl>
+ * <dt>pid</dt>
+ * <dd>The principal id to include, may be supplied more than once. When not supplied, all the
+ *     principals are included.</dd>
+ * <dt>offset</dt>
+ * <dd>The number of principals to skip. Defaults to 0.</dd>
+ * <dt>limit</dt>
+ * <dd>The maximum number of principals to include. When not supplied, there is no limit.</dd>
+ * </dl>
  * <h4>Response</h4>
  * <dl>
  * <dt>200</dt>
  * <dd>Success.</dd>
+ * <dt>304</dt>
+ * <dd>Not modified. The If-None-Match request header lists the ETag of the current response.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
  * <dt>500</dt>
@@ -113,7 +128,17 @@ reference = {
                 bind = "bindRestrictionProvider",
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
-                service = RestrictionProvider.class)
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class)
 }
 )
 @SuppressWarnings("java:S110")
@@ -138,6 +163,16 @@ public class GetEffectiveAclServlet extends AbstractGetAclServlet implements Get
         JsonConvert.addDeclaredAt(principalJson, map);
     }
 
+    /**
+     * Overridden to write the declaredAt data to the json
+     */
+    @Override
+    protected void writeExtraInfo(JsonGenerator generator, Principal principal,
+            Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths) {
+        Map<DeclarationType, Set<String>> map = principalToDeclaredAtPaths.get(principal);
+        JsonConvert.writeDeclaredAt(generator, map);
+    }
+
     @Override
     protected Map<String, List<AccessControlEntry>> getAccessControlEntriesMap(Session session, String absPath,
             Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) throws RepositoryException {
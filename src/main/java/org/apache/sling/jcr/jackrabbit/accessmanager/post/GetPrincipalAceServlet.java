@@ -39,6 +39,7 @@ import org.apache.jackrabbit.oak.spi.security.authorization.restriction.Restrict
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.jackrabbit.accessmanager.GetPrincipalAce;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrincipalAceHelper;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Component;
@@ -71,6 +72,8 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <dl>
  * <dt>200</dt>
  * <dd>Success.</dd>
+ * <dt>304</dt>
+ * <dd>Not modified. The If-None-Match request header lists the ETag of the current response.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found or no access control entries exist for the principal.</dd>
  * <dt>500</dt>
@@ -91,7 +94,11 @@ reference = {
                 bind = "bindRestrictionProvider",
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
-                service = RestrictionProvider.class)
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class)
 }
 )
 @SuppressWarnings("java:S110")
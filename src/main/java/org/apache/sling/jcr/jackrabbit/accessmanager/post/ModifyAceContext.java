@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The state that is resolved once when modifying the ACE of a principal and is
+ * then carried through loading the stored ACE, merging the changes and writing
+ * the result, so nothing needs to be looked up again during the operation.
+ */
+final class ModifyAceContext {
+
+    private final Session session;
+    private final String resourcePath;
+    private final Principal principal;
+    private final AccessControlManager accessControlManager;
+    private final JackrabbitAccessControlList acl;
+    private final Map<String, RestrictionDefinition> restrictionDefinitions;
+    private final PrivilegeIndex privilegeIndex;
+
+    ModifyAceContext(@NotNull Session session, @NotNull String resourcePath, @NotNull Principal principal,
+            @NotNull AccessControlManager accessControlManager, @NotNull JackrabbitAccessControlList acl,
+            @NotNull Map<String, RestrictionDefinition> restrictionDefinitions,
+            @NotNull PrivilegeIndex privilegeIndex) {
+        this.session = session;
+        this.resourcePath = resourcePath;
+        this.principal = principal;
+        this.accessControlManager = accessControlManager;
+        this.acl = acl;
+        this.restrictionDefinitions = Collections.unmodifiableMap(restrictionDefinitions);
+        this.privilegeIndex = privilegeIndex;
+    }
+
+    @NotNull Session getSession() {
+        return session;
+    }
+
+    @NotNull String getResourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * @return the principal whose ACE is being modified
+     */
+    @NotNull Principal getPrincipal() {
+        return principal;
+    }
+
+    @NotNull AccessControlManager getAccessControlManager() {
+        return accessControlManager;
+    }
+
+    /**
+     * @return the ACL that is read and then modified by the operation
+     */
+    @NotNull JackrabbitAccessControlList getAcl() {
+        return acl;
+    }
+
+    /**
+     * @return map of restriction names to the restriction definition
+     */
+    @NotNull Map<String, RestrictionDefinition> getRestrictionDefinitions() {
+        return restrictionDefinitions;
+    }
+
+    /**
+     * @return the snapshot of the privilege hierarchy
+     */
+    @NotNull PrivilegeIndex getPrivilegeIndex() {
+        return privilegeIndex;
+    }
+
+}
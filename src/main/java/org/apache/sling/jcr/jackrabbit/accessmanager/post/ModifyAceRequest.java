@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.security.AccessControlException;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RestrictionSet;
+import org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet.DeleteValues;
+import org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet.PrivilegeValues;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable model of the privilege and restriction parameters posted to
+ * the {@link ModifyAceServlet}.  The request parameters are classified in a
+ * single pass and the privileges and restriction values are resolved once,
+ * so each phase of the modification can consume the model instead of
+ * scanning the request parameters again.
+ */
+public final class ModifyAceRequest {
+
+    /**
+     * A posted restriction@[restriction_name]@Delete or
+     * restriction@[privilege_name]@[restriction_name]@Delete parameter
+     */
+    static final class RestrictionDelete {
+        private final Privilege privilege;
+        private final String restrictionName;
+        private final Set<DeleteValues> deleteValues;
+
+        private RestrictionDelete(@Nullable Privilege privilege, @NotNull String restrictionName,
+                @NotNull Set<DeleteValues> deleteValues) {
+            this.privilege = privilege;
+            this.restrictionName = restrictionName;
+            this.deleteValues = Collections.unmodifiableSet(deleteValues);
+        }
+
+        /**
+         * @return the privilege to delete the restriction from, or null for every privilege
+         */
+        @Nullable Privilege getPrivilege() {
+            return privilege;
+        }
+
+        @NotNull String getRestrictionName() {
+            return restrictionName;
+        }
+
+        /**
+         * @return the states to delete the restriction from
+         */
+        @NotNull Set<DeleteValues> getDeleteValues() {
+            return deleteValues;
+        }
+    }
+
+    private final Map<Privilege, DeleteValues> privilegeDeletes;
+    private final List<RestrictionDelete> restrictionDeletes;
+    private final Map<Privilege, Set<PrivilegeValues>> privilegeValues;
+    private final Set<LocalRestriction> generalRestrictions;
+    private final Map<Privilege, Map<PrivilegeValues, Map<String, LocalRestriction>>> privilegeRestrictions;
+    private final PrivilegeIndex privilegeIndex;
+
+    private ModifyAceRequest(@NotNull Map<Privilege, DeleteValues> privilegeDeletes,
+            @NotNull List<RestrictionDelete> restrictionDeletes,
+            @NotNull Map<Privilege, Set<PrivilegeValues>> privilegeValues,
+            @NotNull Set<LocalRestriction> generalRestrictions,
+            @NotNull Map<Privilege, Map<PrivilegeValues, Map<String, LocalRestriction>>> privilegeRestrictions,
+            @NotNull PrivilegeIndex privilegeIndex) {
+        this.privilegeDeletes = Collections.unmodifiableMap(privilegeDeletes);
+        this.restrictionDeletes = Collections.unmodifiableList(restrictionDeletes);
+        this.privilegeValues = Collections.unmodifiableMap(privilegeValues);
+        this.generalRestrictions = generalRestrictions;
+        this.privilegeRestrictions = Collections.unmodifiableMap(privilegeRestrictions);
+        this.privilegeIndex = privilegeIndex;
+    }
+
+    /**
+     * Classify each of the request parameters in a single pass
+     *
+     * @param request the current request
+     * @param acm the access control manager to resolve the privileges
+     * @param srMap map of restriction names to the restriction definition
+     * @param vf the value factory to create the restriction values
+     * @param privilegeIndex the index of the privilege hierarchy to merge the changes with
+     * @return the model of the request
+     * @throws AccessControlException if a posted privilege or restriction name is invalid
+     */
+    static @NotNull ModifyAceRequest parse(@NotNull SlingHttpServletRequest request, @NotNull AccessControlManager acm,
+            @NotNull Map<String, RestrictionDefinition> srMap, @NotNull ValueFactory vf,
+            @NotNull PrivilegeIndex privilegeIndex) throws RepositoryException {
+        Map<Privilege, DeleteValues> privilegeDeletes = new LinkedHashMap<>();
+        List<RestrictionDelete> restrictionDeletes = new ArrayList<>();
+        Map<Privilege, Set<PrivilegeValues>> privilegeValues = new LinkedHashMap<>();
+        Map<String, LocalRestriction> generalRestrictions = new LinkedHashMap<>();
+        Map<Privilege, Map<PrivilegeValues, Map<String, LocalRestriction>>> privilegeRestrictions = new HashMap<>();
+
+        Enumeration<String> parameterNames = request.getParameterNames();
+        while (parameterNames.hasMoreElements()) {
+            String paramName = parameterNames.nextElement();
+            if (paramName.startsWith("privilege@")) {
+                Matcher matcher = ModifyAceServlet.PRIVILEGE_PATTERN_DELETE.matcher(paramName);
+                if (matcher.matches()) {
+                    Privilege privilege = acm.privilegeFromName(matcher.group(1));
+                    privilegeDeletes.put(privilege, DeleteValues.valueOfParam(request.getParameter(paramName)));
+                } else {
+                    matcher = ModifyAceServlet.PRIVILEGE_PATTERN.matcher(paramName);
+                    if (matcher.matches()) {
+                        Privilege privilege = acm.privilegeFromName(matcher.group(1));
+                        Set<PrivilegeValues> values = privilegeValues.computeIfAbsent(privilege, p -> EnumSet.noneOf(PrivilegeValues.class));
+                        for (String value : request.getParameterValues(paramName)) {
+                            values.add(PrivilegeValues.valueOfParam(value));
+                        }
+                    }
+                }
+            } else if (paramName.startsWith("restriction@")) {
+                Matcher matcher = ModifyAceServlet.RESTRICTION_PATTERN_DELETE.matcher(paramName);
+                if (matcher.matches()) {
+                    restrictionDeletes.add(toRestrictionDelete(request, acm, srMap, paramName, matcher));
+                } else {
+                    matcher = ModifyAceServlet.RESTRICTION_PATTERN.matcher(paramName);
+                    if (matcher.matches()) {
+                        if (matcher.group(2) != null) {
+                            // restriction for a specific privilege
+                            Privilege privilege = acm.privilegeFromName(matcher.group(1));
+                            PrivilegeValues allowOrDeny = PrivilegeValues.valueOfParam(matcher.group(4));
+                            LocalRestriction localRestriction = toLocalRestriction(request, srMap, vf, matcher.group(3), paramName);
+                            privilegeValues.computeIfAbsent(privilege, p -> EnumSet.noneOf(PrivilegeValues.class))
+                                .add(allowOrDeny);
+                            privilegeRestrictions.computeIfAbsent(privilege, p -> new EnumMap<>(PrivilegeValues.class))
+                                .computeIfAbsent(allowOrDeny, v -> new LinkedHashMap<>())
+                                .put(localRestriction.getName(), localRestriction);
+                        } else {
+                            // restriction but not for a specific privilege
+                            LocalRestriction localRestriction = toLocalRestriction(request, srMap, vf, matcher.group(1), paramName);
+                            generalRestrictions.put(localRestriction.getName(), localRestriction);
+                        }
+                    }
+                }
+            }
+        }
+        return new ModifyAceRequest(privilegeDeletes, restrictionDeletes, privilegeValues,
+                RestrictionSet.of(generalRestrictions.values()), privilegeRestrictions, privilegeIndex);
+    }
+
+    private static @NotNull RestrictionDelete toRestrictionDelete(@NotNull SlingHttpServletRequest request,
+            @NotNull AccessControlManager acm, @NotNull Map<String, RestrictionDefinition> srMap,
+            @NotNull String paramName, @NotNull Matcher matcher) throws RepositoryException {
+        Privilege privilege;
+        String restrictionName;
+        Set<DeleteValues> deleteValues = EnumSet.noneOf(DeleteValues.class);
+        if (matcher.group(2) != null) {
+            privilege = acm.privilegeFromName(matcher.group(1));
+            restrictionName = matcher.group(3);
+            for (String allowOrDeny : request.getParameterValues(paramName)) {
+                deleteValues.add(DeleteValues.valueOfParam(allowOrDeny));
+            }
+        } else {
+            // for backward compatibility, the restriction@[restriction_name]@Delete syntax
+            //   deletes from both 'allow' and 'deny' of every privilege
+            privilege = null;
+            restrictionName = matcher.group(1);
+            deleteValues.add(DeleteValues.ALL);
+        }
+        if (!srMap.containsKey(restrictionName)) {
+            //illegal restriction name?
+            throw new AccessControlException(ModifyAceServlet.INVALID_OR_NOT_SUPPORTED_RESTRICTION_NAME_WAS_SUPPLIED);
+        }
+        return new RestrictionDelete(privilege, restrictionName, deleteValues);
+    }
+
+    private static @NotNull LocalRestriction toLocalRestriction(@NotNull SlingHttpServletRequest request,
+            @NotNull Map<String, RestrictionDefinition> srMap, @NotNull ValueFactory vf,
+            @NotNull String restrictionName, @NotNull String paramName) throws RepositoryException {
+        RestrictionDefinition rd = srMap.get(restrictionName);
+        if (rd == null) {
+            //illegal restriction name?
+            throw new AccessControlException(ModifyAceServlet.INVALID_OR_NOT_SUPPORTED_RESTRICTION_NAME_WAS_SUPPLIED);
+        }
+        LocalRestriction localRestriction;
+        int restrictionType = rd.getRequiredType().tag();
+        if (rd.getRequiredType().isArray()) {
+            // multi-value
+            String[] parameterValues = request.getParameterValues(paramName);
+            Value[] restrictionValue = new Value[parameterValues.length];
+            for (int i = 0; i < parameterValues.length; i++) {
+                restrictionValue[i] = vf.createValue(parameterValues[i], restrictionType);
+            }
+            localRestriction = new LocalRestriction(rd, restrictionValue);
+        } else {
+            // single value
+            Value restrictionValue = vf.createValue(request.getParameter(paramName), restrictionType);
+            localRestriction = new LocalRestriction(rd, restrictionValue);
+        }
+        return localRestriction;
+    }
+
+    /**
+     * @return the index of the privilege hierarchy to merge the changes with
+     */
+    @NotNull PrivilegeIndex getPrivilegeIndex() {
+        return privilegeIndex;
+    }
+
+    /**
+     * @return the posted privilege@[privilege_name]@Delete parameters mapped to the state to delete
+     */
+    @NotNull Map<Privilege, DeleteValues> getPrivilegeDeletes() {
+        return privilegeDeletes;
+    }
+
+    /**
+     * @return the posted restriction delete parameters
+     */
+    @NotNull List<RestrictionDelete> getRestrictionDeletes() {
+        return restrictionDeletes;
+    }
+
+    /**
+     * @return the privileges that were posted with a new state mapped to the posted values
+     */
+    @NotNull Map<Privilege, Set<PrivilegeValues>> getPrivilegeValues() {
+        return privilegeValues;
+    }
+
+    /**
+     * @return the posted restrictions that are not for a specific privilege
+     */
+    @NotNull Set<LocalRestriction> getGeneralRestrictions() {
+        return generalRestrictions;
+    }
+
+    /**
+     * The restrictions that were posted and applicable to the requested privilege.  The
+     * restrictions posted for the specific privilege replace any general restriction
+     * with the same name.
+     *
+     * @param forPrivilege the privilege to get the restrictions for
+     * @param forAllowOrDeny the posted privilege value
+     * @return the restrictions
+     */
+    @NotNull Set<LocalRestriction> getRestrictions(@NotNull Privilege forPrivilege, @NotNull PrivilegeValues forAllowOrDeny) {
+        Map<String, LocalRestriction> specific = privilegeRestrictions
+                .getOrDefault(forPrivilege, Collections.emptyMap())
+                .get(forAllowOrDeny);
+        if (specific == null) {
+            return generalRestrictions;
+        }
+        Map<String, LocalRestriction> restrictions = new LinkedHashMap<>();
+        for (LocalRestriction lr : generalRestrictions) {
+            restrictions.put(lr.getName(), lr);
+        }
+        restrictions.putAll(specific);
+        return RestrictionSet.of(restrictions.values());
+    }
+
+}
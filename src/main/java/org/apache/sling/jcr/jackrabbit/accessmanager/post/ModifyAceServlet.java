@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -28,7 +29,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.ToIntFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -54,12 +57,16 @@ import org.apache.jackrabbit.api.security.authorization.PrincipalAccessControlLi
 import org.apache.jackrabbit.api.security.principal.PrincipalManager;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
-import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
 import org.apache.sling.jcr.jackrabbit.accessmanager.ModifyAce;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesHelper;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
@@ -107,6 +114,9 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  *     specifies whether to apply the restriction to the 'allow' or 'deny' privilege.  The value is the target value of the restriction to be set.</dd>
  * <dt>restriction@[privilege_name]@[restriction_name]@Delete</dt>
  * <dd>One param for each restriction to delete. The parameter value must be either 'allow', 'deny' or 'all' to specify which state to delete from.</dd>
+ * <dt>:replace</dt>
+ * <dd>When 'true', the ACE is replaced with the privileges and restrictions from the request instead of merging
+ *     them with the currently stored ACE. The @Delete parameters are ignored in this mode.</dd>
  * </dl>
  *
  * <h4>Response</h4>
@@ -115,6 +125,8 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <dd>Success.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The If-Match request header does not list the ETag of the current acl.json rendering of the resource.</dd>
  * <dt>500</dt>
  * <dd>Failure. HTML explains the failure.</dd>
  * </dl>
@@ -140,6 +152,28 @@ reference = {
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
                 service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclWriteLockService",
+                bind = "bindAclWriteLockService",
+                unbind = "unbindAclWriteLockService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclWriteLockService.class),
+        @Reference(name="GetAcl",
+                bind = "bindGetAcl",
+                unbind = "unbindGetAcl",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = GetAcl.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class),
         @Reference(name = "PostResponseCreator",
                 bind = "bindPostResponseCreator",
                 cardinality = ReferenceCardinality.MULTIPLE,
@@ -149,12 +183,12 @@ reference = {
 @SuppressWarnings("java:S110")
 public class ModifyAceServlet extends AbstractAccessPostServlet implements ModifyAce {
     private static final long serialVersionUID = -9182485466670280437L;
-    private static final String INVALID_OR_NOT_SUPPORTED_RESTRICTION_NAME_WAS_SUPPLIED = "Invalid restriction name was supplied";
+    static final String INVALID_OR_NOT_SUPPORTED_RESTRICTION_NAME_WAS_SUPPLIED = "Invalid restriction name was supplied";
 
     /**
      * Possible values for a privilege parameter
      */
-    private enum PrivilegeValues {
+    enum PrivilegeValues {
             ALLOW("allow"),
             GRANTED("granted"),
             NONE("none"),
@@ -183,7 +217,7 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
     /**
      * Possible values for a delete privilege or restriction parameter
      */
-    private enum DeleteValues {
+    enum DeleteValues {
         ALL("all"),
         ALLOW("allow"),
         DENY("deny"),
@@ -203,14 +237,19 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
         }
     }
 
-    private static final Pattern PRIVILEGE_PATTERN = Pattern.compile(String.format("^privilege@(.+)(?<!%s)$",
+    static final Pattern PRIVILEGE_PATTERN = Pattern.compile(String.format("^privilege@(.+)(?<!%s)$",
             SlingPostConstants.SUFFIX_DELETE));
-    private static final Pattern PRIVILEGE_PATTERN_DELETE = Pattern.compile(String.format("^privilege@(.+)%s$",
+    static final Pattern PRIVILEGE_PATTERN_DELETE = Pattern.compile(String.format("^privilege@(.+)%s$",
             SlingPostConstants.SUFFIX_DELETE));
-    private static final Pattern RESTRICTION_PATTERN = Pattern.compile("^restriction@([^@]+)(@([^@]+)@(Allow|Deny))?$");
-    private static final Pattern RESTRICTION_PATTERN_DELETE = Pattern.compile(String.format("^restriction@([^@]+)(@([^@]+))?%s$",
+    static final Pattern RESTRICTION_PATTERN = Pattern.compile("^restriction@([^@]+)(@([^@]+)@(Allow|Deny))?$");
+    static final Pattern RESTRICTION_PATTERN_DELETE = Pattern.compile(String.format("^restriction@([^@]+)(@([^@]+))?%s$",
                 SlingPostConstants.SUFFIX_DELETE));
 
+    /**
+     * The name of the request attribute that holds the {@link ModifyAceRequest} parsed by this servlet
+     */
+    private final String modifyAceRequestAttributeName = ModifyAceRequest.class.getName() + ":" + getClass().getName();
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.accessmanager.post.AbstractAccessPostServlet#handleOperation(org.apache.sling.api.SlingHttpServletRequest, org.apache.sling.servlets.post.PostResponse, java.util.List)
      */
@@ -222,28 +261,56 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
         String resourcePath = getItemPath(request);
         String principalId = request.getParameter("principalId");
         String order = request.getParameter("order");
+        boolean replace = Boolean.parseBoolean(request.getParameter(SlingPostConstants.RP_REPLACE));
 
-        Principal principal = validateArgs(session, resourcePath, principalId);
+        // resolve the principal, ACL, restriction definitions and privileges once
+        ModifyAceContext context = newModifyAceContext(session, resourcePath, principalId);
+        PrivilegeIndex privilegeIndex = context.getPrivilegeIndex();
 
-        // Calculate a map of restriction names to the restriction definition.
-        // Use for fast lookup during the calls below.
-        Map<String, RestrictionDefinition> srMap = buildRestrictionNameToDefinitionMap(resourcePath);
-        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
-        Map<Privilege, Integer> privilegeLongestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL));
+        // classify the request parameters once
+        ModifyAceRequest modifyAceRequest = parseModifyAceRequest(context.getAccessControlManager(), request,
+                context.getRestrictionDefinitions(), privilegeIndex);
 
-        // first calculate what is currently stored in the ace
-        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = loadStoredAce(acm, resourcePath, principal, srMap);
+        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap;
+        if (replace) {
+            // the request has the complete state, so what is currently stored is not needed
+            privilegeToLocalPrivilegesMap = new HashMap<>();
+        } else {
+            // first calculate what is currently stored in the ace
+            privilegeToLocalPrivilegesMap = loadStoredAce(context);
 
-        // and now merge the changes from the request parameters
-        processPostedPrivilegeDeleteParams(acm, request, privilegeToLocalPrivilegesMap);
-        processPostedRestrictionDeleteParams(acm, request, srMap, privilegeToLocalPrivilegesMap);
-        processPostedPrivilegeAndRestrictionParams(acm, request, srMap, privilegeToLocalPrivilegesMap, privilegeLongestDepthMap);
+            // and now merge the changes from the request parameters
+            processPostedPrivilegeDeleteParams(modifyAceRequest, privilegeToLocalPrivilegesMap);
+            processPostedRestrictionDeleteParams(modifyAceRequest, privilegeToLocalPrivilegesMap);
+        }
+        processPostedPrivilegeAndRestrictionParams(modifyAceRequest, privilegeToLocalPrivilegesMap);
 
         // consolidate any aggregates that are still valid
-        PrivilegesHelper.consolidateAggregates(session, resourcePath, privilegeToLocalPrivilegesMap, privilegeLongestDepthMap);
+        PrivilegesHelper.consolidateAggregates(session, resourcePath, privilegeToLocalPrivilegesMap, privilegeIndex);
 
         // and then store it
-        modifyAce(session, resourcePath, principalId, privilegeToLocalPrivilegesMap.values(), order, false, changes);
+        if (!modifyAce(context, privilegeToLocalPrivilegesMap.values(), order, false, changes)) {
+            // the merged state is what is already stored
+            response.onChange("unchanged", principalId);
+        }
+    }
+
+    /**
+     * The stored ACE is loaded and merged again on each run, so a conflicting
+     * concurrent change can be retried
+     */
+    @Override
+    protected int getMaxConflictRetries() {
+        return DEFAULT_MAX_CONFLICT_RETRIES;
+    }
+
+    /**
+     * The ACL of the requested resource is written
+     */
+    @Override
+    protected @Nullable Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+        String resourcePath = getItemPath(request);
+        return resourcePath == null ? null : Collections.singleton(resourcePath);
     }
 
     /**
@@ -255,6 +322,34 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      * @return the principal for the requested principalId
      */
     protected @NotNull Principal validateArgs(Session jcrSession, String resourcePath, String principalId) throws RepositoryException {
+        return newModifyAceContext(jcrSession, resourcePath, principalId).getPrincipal();
+    }
+
+    /**
+     * Verify that the user supplied arguments are valid and resolve the state
+     * that is used while modifying the ACE so that it is only looked up once.
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalId the principal id
+     * @return the context for modifying the ACE of the principal
+     */
+    @NotNull ModifyAceContext newModifyAceContext(Session jcrSession, String resourcePath, String principalId) throws RepositoryException {
+        return newModifyAceContext(jcrSession, resourcePath, principalId, null);
+    }
+
+    /**
+     * Variant of {@link #newModifyAceContext(Session, String, String)} that works with
+     * an ACL that was already resolved by an earlier operation on the same ACL
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalId the principal id
+     * @param acl the ACL to modify or null to lookup the ACL
+     * @return the context for modifying the ACE of the principal
+     */
+    @NotNull ModifyAceContext newModifyAceContext(Session jcrSession, String resourcePath, String principalId,
+            @Nullable JackrabbitAccessControlList acl) throws RepositoryException {
         if (jcrSession == null) {
             throw new RepositoryException("JCR Session not found");
         }
@@ -277,12 +372,17 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
         validateResourcePath(jcrSession, resourcePath);
 
         AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
-        JackrabbitAccessControlList acl = getAcl(acm, resourcePath, principal);
+        if (acl == null) {
+            acl = getAcl(acm, resourcePath, principal);
+        }
         if (acl == null) {
             throw new IllegalStateException("No access control list is available so unable to process");
         }
 
-        return principal;
+        // Calculate a map of restriction names to the restriction definition.
+        // Use for fast lookup during the calls below.
+        Map<String, RestrictionDefinition> srMap = buildRestrictionNameToDefinitionMap(resourcePath);
+        return new ModifyAceContext(jcrSession, resourcePath, principal, acm, acl, srMap, getPrivilegeIndex(jcrSession, acm));
     }
 
     /**
@@ -313,8 +413,27 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      */
     protected @NotNull Map<Privilege, LocalPrivilege> loadStoredAce(@NotNull AccessControlManager acm, @NotNull String resourcePath,
             @NotNull Principal forPrincipal, @NotNull Map<String, RestrictionDefinition> srMap) throws RepositoryException {
-        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = new HashMap<>();
         JackrabbitAccessControlList acl = getAcl(acm, resourcePath, forPrincipal);
+        return loadStoredAce(acl, resourcePath, forPrincipal, srMap, getPrivilegeIndex(null, acm));
+    }
+
+    /**
+     * Loads the state for the currently stored ACE from the ACL that was
+     * resolved for the context.
+     * 
+     * @param context the context for modifying the ACE
+     * @return the privileges from the ace as a map where the key is the privilege
+     *          and the value is the LocalPrivilege that encapsulates the state
+     */
+    private @NotNull Map<Privilege, LocalPrivilege> loadStoredAce(@NotNull ModifyAceContext context) throws RepositoryException {
+        return loadStoredAce(context.getAcl(), context.getResourcePath(), context.getPrincipal(),
+                context.getRestrictionDefinitions(), context.getPrivilegeIndex());
+    }
+
+    private @NotNull Map<Privilege, LocalPrivilege> loadStoredAce(@NotNull JackrabbitAccessControlList acl, @NotNull String resourcePath,
+            @NotNull Principal forPrincipal, @NotNull Map<String, RestrictionDefinition> srMap,
+            @NotNull PrivilegeIndex privilegeIndex) throws RepositoryException {
+        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = new HashMap<>();
         AccessControlEntry[] accessControlEntries = acl.getAccessControlEntries();
         for (AccessControlEntry accessControlEntry : accessControlEntries) {
             JackrabbitAccessControlEntry jrAccessControlEntry = getJackrabbitAccessControlEntry(accessControlEntry, resourcePath, forPrincipal);
@@ -339,9 +458,9 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
                     }
 
                     if (isAllow) {
-                        PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, restrictionItems, Arrays.asList(privileges));
+                        PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, restrictionItems, Arrays.asList(privileges), privilegeIndex);
                     } else {
-                        PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, restrictionItems, Arrays.asList(privileges));
+                        PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, restrictionItems, Arrays.asList(privileges), privilegeIndex);
                     }
                 }
             }
@@ -378,6 +497,57 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
         return keys;
     }
 
+    /**
+     * Classify the request parameters of the current request
+     * 
+     * @param acm the access control manager
+     * @param request the current request
+     * @param srMap map of restriction names to the restriction definition
+     * @return the model of the request
+     */
+    private @NotNull ModifyAceRequest parseModifyAceRequest(@NotNull AccessControlManager acm,
+            @NotNull SlingHttpServletRequest request,
+            @NotNull Map<String, RestrictionDefinition> srMap) throws RepositoryException {
+        ModifyAceRequest modifyAceRequest = getParsedModifyAceRequest(request);
+        if (modifyAceRequest == null) {
+            Session session = request.getResourceResolver().adaptTo(Session.class);
+            modifyAceRequest = parseModifyAceRequest(acm, request, srMap, getPrivilegeIndex(session, acm));
+        }
+        return modifyAceRequest;
+    }
+
+    /**
+     * Classify the request parameters of the current request once.  The model is
+     * kept as a request attribute, so each of the deprecated request based
+     * methods that are called for the same request reuse it.
+     * 
+     * @param acm the access control manager
+     * @param request the current request
+     * @param srMap map of restriction names to the restriction definition
+     * @param privilegeIndex the index of the privilege hierarchy
+     * @return the model of the request
+     */
+    private @NotNull ModifyAceRequest parseModifyAceRequest(@NotNull AccessControlManager acm,
+            @NotNull SlingHttpServletRequest request,
+            @NotNull Map<String, RestrictionDefinition> srMap,
+            @NotNull PrivilegeIndex privilegeIndex) throws RepositoryException {
+        ModifyAceRequest modifyAceRequest = getParsedModifyAceRequest(request);
+        if (modifyAceRequest == null) {
+            Session session = request.getResourceResolver().adaptTo(Session.class);
+            modifyAceRequest = ModifyAceRequest.parse(request, acm, srMap, session.getValueFactory(), privilegeIndex);
+            request.setAttribute(modifyAceRequestAttributeName, modifyAceRequest);
+        }
+        return modifyAceRequest;
+    }
+
+    /**
+     * @return the model that was already parsed for the request by this servlet or null
+     */
+    private @Nullable ModifyAceRequest getParsedModifyAceRequest(@NotNull SlingHttpServletRequest request) {
+        Object value = request.getAttribute(modifyAceRequestAttributeName);
+        return value instanceof ModifyAceRequest ? (ModifyAceRequest)value : null;
+    }
+
     /**
      * Merge into the privilegeToLocalPrivilegesMap the changes requested in privilege
      * delete request parameters.
@@ -385,26 +555,36 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      * @param acm the access control manager
      * @param request the current request
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @deprecated use {@link #processPostedPrivilegeDeleteParams(ModifyAceRequest, Map)} instead
      */
+    @Deprecated
     protected void processPostedPrivilegeDeleteParams(@NotNull AccessControlManager acm,
             @NotNull SlingHttpServletRequest request,
             @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) throws RepositoryException {
-        @NotNull
-        Map<String, Matcher> postedPrivilegeDeleteNames = getMatchedRequestParameterNames(request, PRIVILEGE_PATTERN_DELETE);
-        for (Entry<String, Matcher> entry : postedPrivilegeDeleteNames.entrySet()) {
-            String paramName = entry.getKey();
-            Matcher matcher = entry.getValue();
-            String privilegeName = matcher.group(1);
-            Privilege privilege = acm.privilegeFromName(privilegeName);
-            String paramValue = request.getParameter(paramName);
-            DeleteValues value = DeleteValues.valueOfParam(paramValue);
+        Map<String, RestrictionDefinition> srMap = buildRestrictionNameToDefinitionMap(getItemPath(request));
+        processPostedPrivilegeDeleteParams(parseModifyAceRequest(acm, request, srMap), privilegeToLocalPrivilegesMap);
+    }
+
+    /**
+     * Merge into the privilegeToLocalPrivilegesMap the changes requested in privilege
+     * delete request parameters.
+     * 
+     * @param modifyAceRequest the posted parameters of the current request
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     */
+    protected void processPostedPrivilegeDeleteParams(@NotNull ModifyAceRequest modifyAceRequest,
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) throws RepositoryException {
+        PrivilegeIndex privilegeIndex = modifyAceRequest.getPrivilegeIndex();
+        for (Entry<Privilege, DeleteValues> entry : modifyAceRequest.getPrivilegeDeletes().entrySet()) {
+            Privilege privilege = entry.getKey();
+            DeleteValues value = entry.getValue();
             if (DeleteValues.ALL.equals(value) || DeleteValues.ALLOW.equals(value)) {
                 PrivilegesHelper.unallow(privilegeToLocalPrivilegesMap,
-                        Collections.singleton(privilege));
+                        Collections.singleton(privilege), privilegeIndex);
             }
             if (DeleteValues.ALL.equals(value) || DeleteValues.DENY.equals(value)) {
                 PrivilegesHelper.undeny(privilegeToLocalPrivilegesMap,
-                        Collections.singleton(privilege));
+                        Collections.singleton(privilege), privilegeIndex);
             }
         }
     }
@@ -417,62 +597,50 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      * @param request the current request
      * @param srMap map of restriction names to the restriction definition
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @deprecated use {@link #processPostedRestrictionDeleteParams(ModifyAceRequest, Map)} instead
      */
+    @Deprecated
     protected void processPostedRestrictionDeleteParams(@NotNull AccessControlManager acm,
             @NotNull SlingHttpServletRequest request,
             @NotNull Map<String, RestrictionDefinition> srMap,
             @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) throws RepositoryException {
-        @NotNull
-        Map<String, Matcher> postedRestrictionDeleteNames = getMatchedRequestParameterNames(request, RESTRICTION_PATTERN_DELETE);
-        for (Entry<String, Matcher> entry : postedRestrictionDeleteNames.entrySet()) {
-            String paramName = entry.getKey();
-            Matcher matcher = entry.getValue();
-            String privilegeName;
-            String restrictionName;
-            if (matcher.group(2) != null) {
-                privilegeName = matcher.group(1);
-                restrictionName = matcher.group(3);
-            } else {
-                privilegeName = null;
-                restrictionName = matcher.group(1);
-            }
-            RestrictionDefinition rd = srMap.get(restrictionName);
-            if (rd == null) {
-                //illegal restriction name?
-                throw new AccessControlException(INVALID_OR_NOT_SUPPORTED_RESTRICTION_NAME_WAS_SUPPLIED);
-            }
+        processPostedRestrictionDeleteParams(parseModifyAceRequest(acm, request, srMap), privilegeToLocalPrivilegesMap);
+    }
+
+    /**
+     * Merge into the privilegeToLocalPrivilegesMap the changes requested in restriction
+     * delete request parameters.
+     * 
+     * @param modifyAceRequest the posted parameters of the current request
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     */
+    protected void processPostedRestrictionDeleteParams(@NotNull ModifyAceRequest modifyAceRequest,
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) throws RepositoryException {
+        PrivilegeIndex privilegeIndex = modifyAceRequest.getPrivilegeIndex();
+        for (ModifyAceRequest.RestrictionDelete restrictionDelete : modifyAceRequest.getRestrictionDeletes()) {
+            String restrictionName = restrictionDelete.getRestrictionName();
             Collection<Privilege> privileges;
-            if (privilegeName == null) {
+            if (restrictionDelete.getPrivilege() == null) {
                 // process for every privilege
                 privileges = privilegeToLocalPrivilegesMap.keySet();
             } else {
                 // process for the specific privilege only
-                Privilege privilege = acm.privilegeFromName(privilegeName);
-                privileges = Collections.singletonList(privilege);
+                privileges = Collections.singletonList(restrictionDelete.getPrivilege());
             }
-            String[] parameterValues;
-            if (privilegeName == null) {
-                // for backward compatibility, the restriction@[restriction_name]@Delete syntax
-                //   deletes from both 'allow' and 'deny'
-                parameterValues = new String[] { "all" };
-            } else {
-                parameterValues = request.getParameterValues(paramName);
-            }
-            for (String allowOrDeny : parameterValues) {
-                DeleteValues value = DeleteValues.valueOfParam(allowOrDeny);
+            for (DeleteValues value : restrictionDelete.getDeleteValues()) {
                 switch (value) {
                 case ALL:
                     // not specified try both the deny and allow sets
                     PrivilegesHelper.unallowOrUndenyRestriction(privilegeToLocalPrivilegesMap,
-                            restrictionName, privileges);
+                            restrictionName, privileges, privilegeIndex);
                     break;
                 case ALLOW:
                     PrivilegesHelper.unallowRestriction(privilegeToLocalPrivilegesMap,
-                            restrictionName, privileges);
+                            restrictionName, privileges, privilegeIndex);
                     break;
                 case DENY:
                     PrivilegesHelper.undenyRestriction(privilegeToLocalPrivilegesMap,
-                            restrictionName, privileges);
+                            restrictionName, privileges, privilegeIndex);
                     break;
                 default:
                     break;
@@ -490,7 +658,9 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      * @param forPrivilege the privilege to load the restrictions for
      * @param forAllowOrDeny either {@link PrivilegeValues#ALLOW} or {@link PrivilegeValues#DENY}
      * @param generalRestrictions the general restrictions that are not for a specific privilege
+     * @deprecated the posted restrictions are now resolved once by {@link ModifyAceRequest}
      */
+    @Deprecated
     protected Set<LocalRestriction> postedRestrictionsForPrivilege(
             @NotNull SlingHttpServletRequest request,
             @NotNull Map<String, RestrictionDefinition> srMap,
@@ -575,52 +745,41 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
      * @param srMap map of restriction names to the restriction definition
      * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
      * @param privilegeLongestDepthMap the map of privileges to their longest depth
+     * @deprecated use {@link #processPostedPrivilegeAndRestrictionParams(ModifyAceRequest, Map)} instead
      */
+    @Deprecated
     protected void processPostedPrivilegeAndRestrictionParams(@NotNull AccessControlManager acm,
             @NotNull SlingHttpServletRequest request,
             @NotNull Map<String, RestrictionDefinition> srMap,
             @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
             @NotNull Map<Privilege, Integer> privilegeLongestDepthMap) throws RepositoryException {
-        @NotNull
-        Map<String, Matcher> postedPrivilegeNameKeys = getMatchedRequestParameterNames(request, PRIVILEGE_PATTERN);
+        processPostedPrivilegeAndRestrictionParams(parseModifyAceRequest(acm, request, srMap),
+                privilegeToLocalPrivilegesMap, privilegeLongestDepthMap::get);
+    }
 
-        // collect all the privileges so we can process them in the right order
-        Map<Privilege, Set<String>> privilegeToParamValuesMap = new HashMap<>();
-        for (Entry<String, Matcher> entry : postedPrivilegeNameKeys.entrySet()) {
-            String paramName = entry.getKey();
-            Matcher matcher = entry.getValue();
-            String privilegeName = matcher.group(1);
-            Privilege privilege = acm.privilegeFromName(privilegeName);
-            Set<String> paramValues = privilegeToParamValuesMap.computeIfAbsent(privilege, p -> new HashSet<>());
-            paramValues.addAll(Arrays.asList(request.getParameterValues(paramName)));
-        }
+    /**
+     * Merge into the privilegeToLocalPrivilegesMap the changes requested in privilege and
+     * restriction request parameters.
+     * 
+     * @param modifyAceRequest the posted parameters of the current request
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     */
+    protected void processPostedPrivilegeAndRestrictionParams(@NotNull ModifyAceRequest modifyAceRequest,
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap) throws RepositoryException {
+        processPostedPrivilegeAndRestrictionParams(modifyAceRequest, privilegeToLocalPrivilegesMap,
+                modifyAceRequest.getPrivilegeIndex()::depth);
+    }
 
-        //also check for any restriction params
-        Set<LocalRestriction> generalRestrictions = new HashSet<>();
-        Map<String, Matcher> postedRestrictionParams = getMatchedRequestParameterNames(request, RESTRICTION_PATTERN);
-        for (Entry<String, Matcher> entry : postedRestrictionParams.entrySet()) {
-            Matcher matcher = entry.getValue();
-            if (matcher.group(2) != null) {
-                PrivilegeValues allowOrDeny = PrivilegeValues.valueOfParam(matcher.group(4));
-                if (PrivilegeValues.ALLOW.equals(allowOrDeny) ||
-                        PrivilegeValues.DENY.equals(allowOrDeny)) {
-                    String privilegeName = matcher.group(1);
-                    Privilege privilege = acm.privilegeFromName(privilegeName);
-                    Set<String> paramValues = privilegeToParamValuesMap.computeIfAbsent(privilege, p -> new HashSet<>());
-                    paramValues.add(allowOrDeny.getParamValue());
-                }
-            } else {
-                // restriction but not for a specific privilege
-                String restrictionName = matcher.group(1);
-                String paramName = entry.getKey();
-                LocalRestriction localRestriction = toLocalRestriction(request, srMap, restrictionName, paramName);
-                generalRestrictions.removeIf(r -> r.getName().equals(localRestriction.getName()));
-                generalRestrictions.add(localRestriction);
-            }
-        }
+    private void processPostedPrivilegeAndRestrictionParams(@NotNull ModifyAceRequest modifyAceRequest,
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull ToIntFunction<Privilege> privilegeLongestDepth) throws RepositoryException {
+        PrivilegeIndex privilegeIndex = modifyAceRequest.getPrivilegeIndex();
+        // all the privileges so we can process them in the right order
+        Map<Privilege, Set<PrivilegeValues>> privilegeToParamValuesMap = modifyAceRequest.getPrivilegeValues();
 
         // apply the general restrictions to any already existing privilege that was not posted
         //   with new state
+        Set<LocalRestriction> generalRestrictions = modifyAceRequest.getGeneralRestrictions();
         if (!generalRestrictions.isEmpty()) {
             for (Entry<Privilege, LocalPrivilege> entry : privilegeToLocalPrivilegesMap.entrySet()) {
                 Privilege p = entry.getKey();
@@ -628,24 +787,21 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
                     LocalPrivilege lp = entry.getValue();
                     applyPrivilegeAndRestrictions(privilegeToLocalPrivilegesMap, p, 
                             lp.isAllow(), generalRestrictions, 
-                            lp.isDeny(), generalRestrictions);
+                            lp.isDeny(), generalRestrictions, privilegeIndex);
                 }
             }
         }
 
-        List<Entry<Privilege, Set<String>>> sortedEntries = new ArrayList<>(privilegeToParamValuesMap.entrySet());
+        List<Entry<Privilege, Set<PrivilegeValues>>> sortedEntries = new ArrayList<>(privilegeToParamValuesMap.entrySet());
         // sort the entries to process the most shallow last
-        Collections.sort(sortedEntries, (e1, e2) -> privilegeLongestDepthMap.get(e1.getKey()).compareTo(privilegeLongestDepthMap.get(e2.getKey())));
-        for (Entry<Privilege, Set<String>> entry : sortedEntries) {
-            Set<String> paramValues = entry.getValue();
+        Collections.sort(sortedEntries, Comparator.comparingInt(e -> privilegeLongestDepth.applyAsInt(e.getKey())));
+        for (Entry<Privilege, Set<PrivilegeValues>> entry : sortedEntries) {
             Privilege privilege = entry.getKey();
 
-            // convert and sort the values to ensure that allow goes after
+            // sort the values to ensure that allow goes after
             //  deny or none when there is a conflict
-            List<PrivilegeValues> privilegeValues = paramValues.stream()
-                .map(PrivilegeValues::valueOfParam)
-                .sorted((v1, v2) -> Integer.compare(v2.ordinal(), v1.ordinal()))
-                .collect(Collectors.toList());
+            List<PrivilegeValues> privilegeValues = new ArrayList<>(entry.getValue());
+            Collections.reverse(privilegeValues);
             boolean none = false;
             boolean allow = false;
             Set<LocalRestriction> allowRestrictions = Collections.emptySet();
@@ -656,12 +812,12 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
                 case DENY:
                 case DENIED:
                     deny = true;
-                    denyRestrictions = postedRestrictionsForPrivilege(request, srMap, privilege, value, generalRestrictions);
+                    denyRestrictions = modifyAceRequest.getRestrictions(privilege, value);
                     break;
                 case ALLOW:
                 case GRANTED:
                     allow = true;
-                    allowRestrictions = postedRestrictionsForPrivilege(request, srMap, privilege, value, generalRestrictions);
+                    allowRestrictions = modifyAceRequest.getRestrictions(privilege, value);
                     break;
                 case NONE:
                     none = true;
@@ -671,11 +827,11 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
                 }
             }
             if (none) {
-                PrivilegesHelper.none(privilegeToLocalPrivilegesMap, Collections.singleton(privilege));
+                PrivilegesHelper.none(privilegeToLocalPrivilegesMap, Collections.singleton(privilege), privilegeIndex);
             }
             applyPrivilegeAndRestrictions(privilegeToLocalPrivilegesMap, privilege,
                     allow, allowRestrictions, 
-                    deny, denyRestrictions);
+                    deny, denyRestrictions, privilegeIndex);
         }
     }
 
@@ -694,26 +850,49 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
             @NotNull Privilege p, 
             boolean allow, @NotNull Set<LocalRestriction> allowRestrictions,
             boolean deny, @NotNull Set<LocalRestriction> denyRestrictions) throws RepositoryException {
+        applyPrivilegeAndRestrictions(privilegeToLocalPrivilegesMap, p,
+                allow, allowRestrictions,
+                deny, denyRestrictions, null);
+    }
+
+    /**
+     * Variant of {@link #applyPrivilegeAndRestrictions(Map, Privilege, boolean, Set, boolean, Set)}
+     * that merges the changes with the index of the privilege hierarchy
+     * 
+     * @param privilegeToLocalPrivilegesMap the map containing the declared LocalPrivilege items
+     * @param p the privilege
+     * @param allow true if the privilege is to be allowed
+     * @param allowRestrictions restrictions (if any) for the allow
+     * @param deny true if the privilege is to be denied
+     * @param denyRestrictions restrictions (if any) for the deny
+     * @param privilegeIndex the index of the privilege hierarchy (may be null)
+     */
+    void applyPrivilegeAndRestrictions(
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap,
+            @NotNull Privilege p, 
+            boolean allow, @NotNull Set<LocalRestriction> allowRestrictions,
+            boolean deny, @NotNull Set<LocalRestriction> denyRestrictions,
+            @Nullable PrivilegeIndex privilegeIndex) throws RepositoryException {
         if (allow) {
             // clear out the state that we are replacing
             PrivilegesHelper.unallowRestrictions(privilegeToLocalPrivilegesMap,
                     allowRestrictions.stream().map(LocalRestriction::getName).collect(Collectors.toSet()),
-                    Collections.singleton(p));
+                    Collections.singleton(p), privilegeIndex);
         }
         if (deny) {
             // clear out the state that we are replacing
             PrivilegesHelper.undenyRestrictions(privilegeToLocalPrivilegesMap,
                     denyRestrictions.stream().map(LocalRestriction::getName).collect(Collectors.toSet()),
-                    Collections.singleton(p));
+                    Collections.singleton(p), privilegeIndex);
         }
         if (allow && deny) {
             PrivilegesHelper.allowAndDeny(privilegeToLocalPrivilegesMap, 
                     allow, allowRestrictions, deny, denyRestrictions,
-                    Collections.singleton(p));
+                    Collections.singleton(p), privilegeIndex);
         } else if (allow) {
-            PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, allowRestrictions, Collections.singleton(p));
+            PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, allowRestrictions, Collections.singleton(p), privilegeIndex);
         } else if (deny) {
-            PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, denyRestrictions, Collections.singleton(p));
+            PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, denyRestrictions, Collections.singleton(p), privilegeIndex);
         }
     }
 
@@ -881,88 +1060,13 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
                 return; //only one ACE, so nothing to reorder.
             }
 
-            AccessControlEntry beforeEntry = null;
-            if ("first".equals(order)) {
-                beforeEntry = accessControlEntries[0];
-            } else if ("last".equals(order)) {
-                // add to the end is the same as default
-            } else if (order.startsWith("before ")) {
-                String beforePrincipalName = order.substring(7);
-
-                //find the index of the ACE of the 'before' principal
-                for (int i=0; i < accessControlEntries.length; i++) {
-                    if (beforePrincipalName.equals(accessControlEntries[i].getPrincipal().getName())) {
-                        //found it!
-                        beforeEntry = accessControlEntries[i];
-                        break;
-                    }
-                }
-
-                if (beforeEntry == null) {
-                    //didn't find an ACE that matched the 'before' principal
-                    throw new IllegalArgumentException("No ACE was found for the specified principal: " + beforePrincipalName);
-                }
-            } else if (order.startsWith("after ")) {
-                String afterPrincipalName = order.substring(6);
-
-                //find the index of the ACE of the 'after' principal
-                for (int i = accessControlEntries.length - 1; i >= 0; i--) {
-                    if (afterPrincipalName.equals(accessControlEntries[i].getPrincipal().getName())) {
-                        //found it!
-
-                        // the 'before' ACE is the next one after the 'after' ACE
-                        if (i >= accessControlEntries.length - 1) {
-                            //the after is the last one in the list
-                            beforeEntry = null;
-                        } else {
-                            beforeEntry = accessControlEntries[i + 1];
-                        }
-                        break;
-                    }
-                }
-
-                if (beforeEntry == null) {
-                    //didn't find an ACE that matched the 'after' principal
-                    throw new IllegalArgumentException("No ACE was found for the specified principal: " + afterPrincipalName);
-                }
-            } else {
-                int index = -1;
-                try {
-                    index = Integer.parseInt(order);
-                } catch (NumberFormatException nfe) {
-                    //not a number.
-                    throw new IllegalArgumentException("Illegal value for the order parameter: " + order);
-                }
-                if (index > accessControlEntries.length) {
-                    //invalid index
-                    throw new IndexOutOfBoundsException("Index value is too large: " + index);
-                }
-
-                //the index value is the index of the principal.  A principal may have more
-                // than one ACEs (deny + grant), so we need to compensate.
-                Map<Principal, Integer> principalToIndex = new HashMap<>();
-                for (int i = 0; i < accessControlEntries.length; i++) {
-                    Principal principal2 = accessControlEntries[i].getPrincipal();
-                    Integer idx = i;
-                    principalToIndex.computeIfAbsent(principal2, key -> idx);
-                }
-                Integer[] sortedIndexes = principalToIndex.values().stream()
-                        .sorted()
-                        .toArray(size -> new Integer[size]);
-                if (index >= 0 && index < sortedIndexes.length - 1) {
-                    int idx = sortedIndexes[index];
-                    beforeEntry = accessControlEntries[idx];
-                }
-            }
-
+            // resolve the position with a single pass over the entries
+            AclOrderIndex orderIndex = new AclOrderIndex(accessControlEntries);
+            AccessControlEntry beforeEntry = orderIndex.resolveBeforeEntry(order);
             if (beforeEntry != null) {
-                //now loop through the entries to move the affected ACEs to the specified
-                // position.
-                for (AccessControlEntry ace : accessControlEntries) {
-                    if (principal.equals(ace.getPrincipal())) {
-                        //this ACE is for the specified principal.
-                        jacl.orderBefore(ace, beforeEntry);
-                    }
+                //now move the affected ACEs to the specified position.
+                for (AccessControlEntry ace : orderIndex.getEntries(principal)) {
+                    jacl.orderBefore(ace, beforeEntry);
                 }
             }
         } else {
@@ -1016,24 +1120,160 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
             String order, Map<String, Value> restrictions, Map<String, Value[]> mvRestrictions,
             Set<String> removeRestrictionNames, boolean autoSave, List<Modification> changes) throws RepositoryException {
 
-        Principal principal = validateArgs(jcrSession, resourcePath, principalId);
+        // resolve the principal, ACL, restriction definitions and privileges once
+        ModifyAceContext context = newModifyAceContext(jcrSession, resourcePath, principalId);
+        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = mergeAce(context, privileges,
+                restrictions, mvRestrictions, removeRestrictionNames);
+        modifyAce(context, privilegeToLocalPrivilegesMap.values(), order, autoSave, changes);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.ModifyAce#replaceAce(javax.jcr.Session, java.lang.String, java.lang.String, java.util.Map, java.lang.String, java.util.Map, java.util.Map, boolean)
+     */
+    @Override
+    public void replaceAce(Session jcrSession, String resourcePath, String principalId, Map<String, String> privileges,
+            String order, Map<String, Value> restrictions, Map<String, Value[]> mvRestrictions,
+            boolean autoSave) throws RepositoryException {
+        replaceAce(jcrSession, resourcePath, principalId, privileges, order,
+                restrictions, mvRestrictions, autoSave, null);
+    }
+
+    protected void replaceAce( // NOSONAR
+            Session jcrSession, String resourcePath, String principalId, Map<String, String> privileges,
+            String order, Map<String, Value> restrictions, Map<String, Value[]> mvRestrictions,
+            boolean autoSave, List<Modification> changes) throws RepositoryException {
+        ModifyAceContext context = newModifyAceContext(jcrSession, resourcePath, principalId);
+        // the supplied state is complete, so start without what is currently stored
+        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = mergeAce(context, new HashMap<>(), privileges,
+                restrictions, mvRestrictions, null);
+        modifyAce(context, privilegeToLocalPrivilegesMap.values(), order, autoSave, changes);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.ModifyAce#reorderAcl(javax.jcr.Session, java.lang.String, java.util.List, boolean)
+     */
+    @Override
+    public void reorderAcl(Session jcrSession, String resourcePath, List<String> principalIds,
+            boolean autoSave) throws RepositoryException {
+        reorderAcl(jcrSession, resourcePath, principalIds, autoSave, null);
+    }
+
+    /**
+     * Set the order of the principals in the ACL of the resource
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param principalIds the principal ids in the desired order
+     * @param autoSave true to save the session when done
+     * @param changes to collect the modifications (may be null)
+     * @return true if the ACL was changed, false if it was already in that order
+     *          so nothing was written
+     */
+    protected boolean reorderAcl(Session jcrSession, String resourcePath, List<String> principalIds,
+            boolean autoSave, List<Modification> changes) throws RepositoryException {
+        if (jcrSession == null) {
+            throw new RepositoryException("JCR Session not found");
+        }
+        if (principalIds == null || principalIds.isEmpty()) {
+            throw new RepositoryException("principalId was not submitted.");
+        }
+        validateResourcePath(jcrSession, resourcePath);
 
-        // Calculate a map of restriction names to the restriction definition.
-        // Use for fast lookup during the calls below.
         AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
-        Map<String, RestrictionDefinition> srMap = buildRestrictionNameToDefinitionMap(resourcePath);
-        Map<Privilege, Integer> privilegeLongestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL));
+        JackrabbitAccessControlList acl = getAcl(acm, resourcePath, null);
+        if (acl == null) {
+            throw new IllegalStateException("No access control list is available so unable to process");
+        }
+
+        // index the entries once and then resolve each principal from the index
+        AclOrderIndex orderIndex = new AclOrderIndex(acl.getAccessControlEntries());
+        Map<String, Principal> nameToPrincipal = new HashMap<>();
+        for (Principal principal : orderIndex.getPrincipals()) {
+            nameToPrincipal.put(principal.getName(), principal);
+        }
+        List<Principal> principalOrder = new ArrayList<>(principalIds.size());
+        Set<Principal> processedPrincipals = new HashSet<>();
+        for (String principalId : principalIds) {
+            Principal principal = nameToPrincipal.get(principalId);
+            if (principal == null) {
+                throw new IllegalArgumentException("No ACE was found for the specified principal: " + principalId);
+            }
+            if (!processedPrincipals.add(principal)) {
+                throw new IllegalArgumentException("The principal was supplied more than once: " + principalId);
+            }
+            principalOrder.add(principal);
+        }
+
+        try {
+            if (!orderIndex.applyOrder(acl, principalOrder)) {
+                return false;
+            }
+
+            // Store the actual changes.
+            acm.setPolicy(acl.getPath(), acl);
+
+            if (changes != null) {
+                for (String principalId : principalIds) {
+                    changes.add(Modification.onModified(principalId));
+                }
+            }
+
+            if (autoSave && jcrSession.hasPendingChanges()) {
+                jcrSession.save();
+            }
+            return true;
+        } catch (RepositoryException re) {
+            throw new RepositoryException("Failed to reorder the aces.", re);
+        }
+    }
 
+    /**
+     * Merge the supplied changes with the ACE that is currently stored in the ACL of the context
+     * 
+     * @param context the context for modifying the ACE
+     * @param privileges Map of privileges to apply
+     * @param restrictions Map of single-value restrictions to apply (may be null)
+     * @param mvRestrictions Map of multi-value restrictions to apply (may be null)
+     * @param removeRestrictionNames Set of existing restriction names to remove (may be null)
+     * @return the merged privileges where the key is the privilege and the value is
+     *          the LocalPrivilege that encapsulates the state
+     */
+    @NotNull Map<Privilege, LocalPrivilege> mergeAce(@NotNull ModifyAceContext context, Map<String, String> privileges,
+            Map<String, Value> restrictions, Map<String, Value[]> mvRestrictions,
+            Set<String> removeRestrictionNames) throws RepositoryException {
         // first calculate what is currently stored in the ace
-        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = loadStoredAce(acm, resourcePath, principal, srMap);
+        return mergeAce(context, loadStoredAce(context), privileges, restrictions, mvRestrictions, removeRestrictionNames);
+    }
+
+    /**
+     * Merge the supplied changes with the supplied privileges
+     * 
+     * @param context the context for modifying the ACE
+     * @param privilegeToLocalPrivilegesMap the privileges to merge into (modified in place)
+     * @param privileges Map of privileges to apply
+     * @param restrictions Map of single-value restrictions to apply (may be null)
+     * @param mvRestrictions Map of multi-value restrictions to apply (may be null)
+     * @param removeRestrictionNames Set of existing restriction names to remove (may be null)
+     * @return the merged privileges
+     */
+    @NotNull Map<Privilege, LocalPrivilege> mergeAce(@NotNull ModifyAceContext context, // NOSONAR
+            @NotNull Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap, Map<String, String> privileges,
+            Map<String, Value> restrictions, Map<String, Value[]> mvRestrictions,
+            Set<String> removeRestrictionNames) throws RepositoryException {
+        AccessControlManager acm = context.getAccessControlManager();
+        Map<String, RestrictionDefinition> srMap = context.getRestrictionDefinitions();
+        PrivilegeIndex privilegeIndex = context.getPrivilegeIndex();
 
         //process the restrictions to remove
+        if (removeRestrictionNames == null) {
+            removeRestrictionNames = Collections.emptySet();
+        }
         for (LocalPrivilege lp : privilegeToLocalPrivilegesMap.values()) {
             if (lp.isAllow()) {
-                PrivilegesHelper.unallowRestrictions(privilegeToLocalPrivilegesMap, removeRestrictionNames, Collections.singleton(lp.getPrivilege()));
+                PrivilegesHelper.unallowRestrictions(privilegeToLocalPrivilegesMap, removeRestrictionNames, Collections.singleton(lp.getPrivilege()), privilegeIndex);
             }
             if (lp.isDeny()) {
-                PrivilegesHelper.undenyRestrictions(privilegeToLocalPrivilegesMap, removeRestrictionNames, Collections.singleton(lp.getPrivilege()));
+                PrivilegesHelper.undenyRestrictions(privilegeToLocalPrivilegesMap, removeRestrictionNames, Collections.singleton(lp.getPrivilege()), privilegeIndex);
             }
         }
 
@@ -1079,14 +1319,14 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
             switch (entry.getKey()) {
             case GRANTED:
             case ALLOW:
-                PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, localRestrictions, entry.getValue());
+                PrivilegesHelper.allow(privilegeToLocalPrivilegesMap, localRestrictions, entry.getValue(), privilegeIndex);
                 break;
             case DENIED:
             case DENY:
-                PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, localRestrictions, entry.getValue());
+                PrivilegesHelper.deny(privilegeToLocalPrivilegesMap, localRestrictions, entry.getValue(), privilegeIndex);
                 break;
             case NONE:
-                PrivilegesHelper.none(privilegeToLocalPrivilegesMap, entry.getValue());
+                PrivilegesHelper.none(privilegeToLocalPrivilegesMap, entry.getValue(), privilegeIndex);
                 break;
             default:
                 break;
@@ -1094,11 +1334,8 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
         }
 
         // combine any aggregates that are still valid
-        PrivilegesHelper.consolidateAggregates(jcrSession, resourcePath, privilegeToLocalPrivilegesMap, privilegeLongestDepthMap);
-
-        modifyAce(jcrSession, resourcePath, principalId, 
-                privilegeToLocalPrivilegesMap.values(), order, 
-                autoSave, changes);
+        PrivilegesHelper.consolidateAggregates(context.getSession(), context.getResourcePath(), privilegeToLocalPrivilegesMap, privilegeIndex);
+        return privilegeToLocalPrivilegesMap;
     }
 
     /* (non-Javadoc)
@@ -1118,8 +1355,62 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
             Session jcrSession, String resourcePath, String principalId, 
             Collection<LocalPrivilege> localPrivileges, String order, 
             boolean autoSave, List<Modification> changes) throws RepositoryException {
-        @NotNull
-        Principal principal = validateArgs(jcrSession, resourcePath, principalId);
+        modifyAce(newModifyAceContext(jcrSession, resourcePath, principalId), localPrivileges, order, autoSave, changes);
+    }
+
+    /**
+     * Replace the ACEs of the principal in the ACL of the context with
+     * the supplied privileges
+     * 
+     * @param context the context for modifying the ACE
+     * @param localPrivileges the privileges to store
+     * @param order the requested order (may be null)
+     * @param autoSave true to save the session when done
+     * @param changes to collect the modifications (may be null)
+     * @return true if the ACL was changed, false if the result is the same as what
+     *          was already stored so nothing was written
+     */
+    private boolean modifyAce(@NotNull ModifyAceContext context,
+            Collection<LocalPrivilege> localPrivileges, String order,
+            boolean autoSave, List<Modification> changes) throws RepositoryException {
+        Session jcrSession = context.getSession();
+        Principal principal = context.getPrincipal();
+        try {
+            // nothing to store if the entries are the same as before
+            if (!applyAce(context, localPrivileges, order)) {
+                return false;
+            }
+
+            // Store the actual changes.
+            JackrabbitAccessControlList acl = context.getAcl();
+            context.getAccessControlManager().setPolicy(acl.getPath(), acl);
+
+            if (changes != null) {
+                changes.add(Modification.onModified(principal.getName()));
+            }
+
+            if (autoSave && jcrSession.hasPendingChanges()) {
+                jcrSession.save();
+            }
+            return true;
+        } catch (RepositoryException re) {
+            throw new RepositoryException("Failed to create ace.", re);
+        }
+    }
+
+    /**
+     * Replace the ACEs of the principal in the ACL of the context with the supplied
+     * privileges without storing the ACL
+     * 
+     * @param context the context for modifying the ACE
+     * @param localPrivileges the privileges to store
+     * @param order the requested order (may be null)
+     * @return true if the entries of the ACL were changed, false otherwise
+     */
+    boolean applyAce(@NotNull ModifyAceContext context,
+            Collection<LocalPrivilege> localPrivileges, String order) throws RepositoryException {
+        String resourcePath = context.getResourcePath();
+        Principal principal = context.getPrincipal();
 
         // build a list of each of the LocalPrivileges that have the same restrictions
         Map<Set<LocalRestriction>, List<LocalPrivilege>> allowRestrictionsToLocalPrivilegesMap = new HashMap<>();
@@ -1135,35 +1426,97 @@ public class ModifyAceServlet extends AbstractAccessPostServlet implements Modif
             }
         }
 
-        try {
-            // Get or create the ACL for the node.
-            AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
-            JackrabbitAccessControlList acl = getAcl(acm, resourcePath, principal);
+        // the ACL for the node that was resolved (or created) for the context
+        JackrabbitAccessControlList acl = context.getAcl();
+        AccessControlEntry[] storedEntries = acl.getAccessControlEntries();
 
-            // remove all the old aces for the principal
-            order = removeAces(resourcePath, order, principal, acl);
+        // remove all the old aces for the principal
+        order = removeAces(resourcePath, order, principal, acl);
 
-            // now add all the new aces that we have collected
-            Map<Privilege, Integer> privilegeLongestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL));
-            addAces(resourcePath, principal, denyRestrictionsToLocalPrivilegesMap, false, acl, privilegeLongestDepthMap);
-            addAces(resourcePath, principal, allowRestrictionsToLocalPrivilegesMap, true, acl, privilegeLongestDepthMap);
+        // now add all the new aces that we have collected
+        //   (the depths are looked up by the ordinal of the privileges in the index)
+        Map<Privilege, Integer> privilegeLongestDepthMap = context.getPrivilegeIndex().getLongestDepthMap();
+        addAces(resourcePath, principal, denyRestrictionsToLocalPrivilegesMap, false, acl, privilegeLongestDepthMap);
+        addAces(resourcePath, principal, allowRestrictionsToLocalPrivilegesMap, true, acl, privilegeLongestDepthMap);
 
-            // reorder the aces
-            reorderAccessControlEntries(acl, principal, order);
+        // reorder the aces
+        reorderAccessControlEntries(acl, principal, order);
 
-            // Store the actual changes.
-            acm.setPolicy(acl.getPath(), acl);
+        return !isSameEntries(storedEntries, acl.getAccessControlEntries());
+    }
 
-            if (changes != null) {
-                changes.add(Modification.onModified(principal.getName()));
+    /**
+     * Remove the ACEs of the principal from the ACL of the context without
+     * storing the ACL
+     * 
+     * @param context the context for modifying the ACE
+     * @return true if any entries were removed, false otherwise
+     */
+    boolean removeAce(@NotNull ModifyAceContext context) throws RepositoryException {
+        JackrabbitAccessControlList acl = context.getAcl();
+        int size = acl.size();
+        removeAces(context.getResourcePath(), null, context.getPrincipal(), acl);
+        return acl.size() != size;
+    }
+
+    /**
+     * Compare the entries of an ACL by value.  The entry objects are re-created when
+     * they are removed and added again, so they can not be compared by identity.
+     * 
+     * @param entries1 the first entries to compare
+     * @param entries2 the second entries to compare
+     * @return true if both have the same entries in the same order
+     */
+    static boolean isSameEntries(@NotNull AccessControlEntry[] entries1, @NotNull AccessControlEntry[] entries2)
+            throws RepositoryException {
+        if (entries1.length != entries2.length) {
+            return false;
+        }
+        for (int i = 0; i < entries1.length; i++) {
+            if (!isSameEntry(entries1[i], entries2[i])) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            if (autoSave && jcrSession.hasPendingChanges()) {
-                jcrSession.save();
+    private static boolean isSameEntry(@NotNull AccessControlEntry entry1, @NotNull AccessControlEntry entry2)
+            throws RepositoryException {
+        if (!entry1.getPrincipal().equals(entry2.getPrincipal()) ||
+                !privilegeNames(entry1).equals(privilegeNames(entry2))) {
+            return false;
+        }
+        if (entry1 instanceof JackrabbitAccessControlEntry && entry2 instanceof JackrabbitAccessControlEntry) {
+            JackrabbitAccessControlEntry jrEntry1 = (JackrabbitAccessControlEntry)entry1;
+            JackrabbitAccessControlEntry jrEntry2 = (JackrabbitAccessControlEntry)entry2;
+            if (jrEntry1.isAllow() != jrEntry2.isAllow()) {
+                return false;
             }
-        } catch (RepositoryException re) {
-            throw new RepositoryException("Failed to create ace.", re);
+            if (entry1 instanceof PrincipalAccessControlList.Entry && entry2 instanceof PrincipalAccessControlList.Entry &&
+                    !Objects.equals(((PrincipalAccessControlList.Entry)entry1).getEffectivePath(),
+                            ((PrincipalAccessControlList.Entry)entry2).getEffectivePath())) {
+                return false;
+            }
+            String[] restrictionNames = jrEntry1.getRestrictionNames();
+            if (!new HashSet<>(Arrays.asList(restrictionNames)).equals(new HashSet<>(Arrays.asList(jrEntry2.getRestrictionNames())))) {
+                return false;
+            }
+            for (String restrictionName : restrictionNames) {
+                if (!Arrays.equals(jrEntry1.getRestrictions(restrictionName), jrEntry2.getRestrictions(restrictionName))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return entry1.equals(entry2);
+    }
+
+    private static @NotNull Set<String> privilegeNames(@NotNull AccessControlEntry entry) {
+        Set<String> names = new HashSet<>();
+        for (Privilege privilege : entry.getPrivileges()) {
+            names.add(privilege.getName());
         }
+        return names;
     }
 
 }
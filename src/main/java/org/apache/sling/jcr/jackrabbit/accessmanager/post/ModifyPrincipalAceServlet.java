@@ -18,6 +18,7 @@ package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import java.security.Principal;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,10 +37,14 @@ import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
 import org.apache.jackrabbit.api.security.authorization.PrincipalAccessControlList;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
 import org.apache.sling.jcr.jackrabbit.accessmanager.ModifyPrincipalAce;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
 import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrincipalAceHelper;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
 import org.apache.sling.servlets.post.PostResponseCreator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -91,6 +96,8 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * <dd>Success.</dd>
  * <dt>404</dt>
  * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The request has an If-Match header, which is not supported for principal-based access control lists.</dd>
  * <dt>500</dt>
  * <dd>Failure. HTML explains the failure.</dd>
  * </dl>
@@ -115,6 +122,22 @@ reference = {
                 cardinality = ReferenceCardinality.MULTIPLE,
                 policyOption = ReferencePolicyOption.GREEDY,
                 service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclWriteLockService",
+                bind = "bindAclWriteLockService",
+                unbind = "unbindAclWriteLockService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclWriteLockService.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class),
         @Reference(name = "PostResponseCreator",
                 bind = "bindPostResponseCreator",
                 cardinality = ReferenceCardinality.MULTIPLE,
@@ -131,6 +154,24 @@ public class ModifyPrincipalAceServlet extends ModifyAceServlet implements Modif
         return true;
     }
 
+    /**
+     * The principal-based ACL of the requested principal is written
+     */
+    @Override
+    protected @Nullable Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+        String principalId = request.getParameter("principalId");
+        return principalId == null ? null : Collections.singleton(PRINCIPAL_LOCK_KEY_PREFIX + principalId);
+    }
+
+    /**
+     * The entity tag of the acl.json rendering does not describe the principal-based
+     * access control list, so a request with an If-Match header is rejected
+     */
+    @Override
+    protected @Nullable String getCurrentETag(SlingHttpServletRequest request, Session session) {
+        return null;
+    }
+
     @Override
     public void modifyPrincipalAce(Session jcrSession, String resourcePath, String principalId,
             Map<String, String> privileges, boolean autoSave) throws RepositoryException {
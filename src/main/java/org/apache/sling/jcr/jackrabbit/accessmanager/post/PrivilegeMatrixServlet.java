@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import javax.servlet.Servlet;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.principal.PrincipalManager;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetPrivilegeMatrix;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * <p>
+ * Sling GET servlet implementation for checking whether sets of principals have
+ * been granted privileges on many resources in one request.
+ * </p>
+ * <h2>Rest Service Description</h2>
+ * <p>
+ * Mapped to the default resourceType. Get of the form
+ * &gt;resource&lt;.privilegeMatrix.json?principals.0=[pid1]&amp;principals.0=[pid2]&amp;privilege=[name]&amp;path=[path]
+ * Provided the user has access to the access control of the paths, they get a
+ * chunk of JSON with a boolean for each path, set of principals and privilege.
+ * The row of each path is written as soon as it is computed, so the response has
+ * no ETag and conditional requests are not supported.
+ * </p>
+ * <h3>Transport Details:</h3>
+ * <h4>Methods</h4>
+ * <ul>
+ * <li>GET</li>
+ * </ul>
+ * <h4>Get Parameters</h4>
+ * <dl>
+ * <dt>principals.[index]</dt>
+ * <dd>One param for each principal id of the set of principals with that index. The sets are
+ *     ordered by their index.</dd>
+ * <dt>pid</dt>
+ * <dd>The principal id of a set with only one principal when no principals.[index] parameter
+ *     is supplied.</dd>
+ * <dt>privilege</dt>
+ * <dd>The name of a privilege to check, may be supplied more than once. When not supplied,
+ *     the privileges supported by the resource are checked.</dd>
+ * <dt>path</dt>
+ * <dd>The absolute path of a resource to check, may be supplied more than once. When not
+ *     supplied, the requested resource is checked.</dd>
+ * </dl>
+ *
+ * <h4>Response</h4>
+ * <dl>
+ * <dt>200</dt>
+ * <dd>Success.</dd>
+ * <dt>404</dt>
+ * <dd>The resource was not found.</dd>
+ * <dt>500</dt>
+ * <dd>Failure. HTML explains the failure.</dd>
+ * </dl>
+ * <h4>Example Response</h4>
+ * <code style='white-space: pre'>
+ * {
+ * &quot;privileges&quot;:[&quot;jcr:read&quot;,&quot;jcr:write&quot;],
+ * &quot;principals&quot;:[[&quot;user1&quot;,&quot;group1&quot;],[&quot;user2&quot;]],
+ * &quot;paths&quot;:{
+ *    &quot;/content/a&quot;:[[true,true],[true,false]],
+ *    &quot;/content/b&quot;:null
+ *    }
+ * }
+ * </code>
+ */
+
+@Component(service = {Servlet.class, GetPrivilegeMatrix.class},
+property= {
+        "sling.servlet.resourceTypes=sling/servlet/default",
+        "sling.servlet.methods=GET",
+        "sling.servlet.selectors=privilegeMatrix",
+        "sling.servlet.selectors=tidy.privilegeMatrix",
+        "sling.servlet.extensions=json",
+        "sling.servlet.prefix:Integer=-1"
+},
+reference = {
+        @Reference(name="RestrictionProvider",
+                bind = "bindRestrictionProvider",
+                cardinality = ReferenceCardinality.MULTIPLE,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class)
+}
+)
+@SuppressWarnings("java:S110")
+public class PrivilegeMatrixServlet extends AbstractAccessGetServlet implements GetPrivilegeMatrix {
+    private static final long serialVersionUID = -4186412359261744727L;
+
+    /**
+     * The prefix of the request parameters for a set of principal ids, followed by
+     * the index of the set
+     */
+    static final String PARAM_PRINCIPALS_PREFIX = "principals.";
+    /**
+     * The name of the request parameter for the privilege names
+     */
+    static final String PARAM_PRIVILEGE = "privilege";
+    /**
+     * The name of the request parameter for the resource paths
+     */
+    static final String PARAM_PATH = "path";
+
+    static final String KEY_PRIVILEGES = "privileges";
+    static final String KEY_PRINCIPALS = "principals";
+    static final String KEY_PATHS = "paths";
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.GetPrivilegeMatrix#getPrivilegeMatrix(javax.jcr.Session, java.util.Collection, java.util.List, java.util.Collection)
+     */
+    @Override
+    public JsonObject getPrivilegeMatrix(Session jcrSession, Collection<String> resourcePaths,
+            List<? extends Collection<String>> principalSets, Collection<String> privilegeNames) throws RepositoryException {
+        return prepareMatrix(jcrSession, resourcePaths, principalSets, privilegeNames).toJson();
+    }
+
+    /**
+     * The matrix of a set with only the supplied principal for the privileges supported
+     * by the resource
+     */
+    @Override
+    protected JsonObject internalJson(Session session, String resourcePath, String principalId) throws RepositoryException {
+        return getPrivilegeMatrix(session, Collections.singletonList(resourcePath),
+                Collections.singletonList(Collections.singletonList(principalId)), null);
+    }
+
+    /**
+     * Overridden to read the paths, principal sets and privileges from the request
+     * parameters and to write the row of each path as soon as it is computed.  The
+     * matrix is not cached and has no entity tag.
+     */
+    @Override
+    @NotNull JsonStreamWriter requestStreamWriter(SlingHttpServletRequest request, Session session,
+            String resourcePath, String principalId) throws RepositoryException {
+        String[] paths = request.getParameterValues(PARAM_PATH);
+        String[] privilegeNames = request.getParameterValues(PARAM_PRIVILEGE);
+
+        // the arguments are checked before anything is written
+        Matrix matrix = prepareMatrix(session,
+                paths == null ? Collections.singletonList(resourcePath) : Arrays.asList(paths),
+                getPrincipalSets(request, principalId),
+                privilegeNames == null ? null : Arrays.asList(privilegeNames));
+        return matrix::writeTo;
+    }
+
+    /**
+     * Read the sets of principal ids from the 'principals.N' parameters in the order
+     * of their index, or the set with only the 'pid' principal when there are none
+     *
+     * @param request the request
+     * @param principalId the value of the 'pid' parameter
+     * @return the sets of principal ids
+     */
+    static @NotNull List<List<String>> getPrincipalSets(SlingHttpServletRequest request, String principalId) throws RepositoryException {
+        SortedMap<Integer, List<String>> indexedSets = new TreeMap<>();
+        for (String name : request.getParameterMap().keySet()) {
+            if (name.startsWith(PARAM_PRINCIPALS_PREFIX)) {
+                int index;
+                try {
+                    index = Integer.parseInt(name.substring(PARAM_PRINCIPALS_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    throw new RepositoryException("Invalid principals parameter was submitted: " + name);
+                }
+                indexedSets.put(index, Arrays.asList(request.getParameterValues(name)));
+            }
+        }
+        if (!indexedSets.isEmpty()) {
+            return new ArrayList<>(indexedSets.values());
+        }
+        if (principalId != null) {
+            return Collections.singletonList(Collections.singletonList(principalId));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Check the arguments and resolve the privileges and principals once for all
+     * the paths.  The rows of the paths are computed when the matrix is written.
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePaths the resource paths
+     * @param principalSets the sets of principal ids
+     * @param privilegeNames the privilege names or null for the privileges supported by the first path
+     * @return the matrix
+     */
+    @NotNull Matrix prepareMatrix(Session jcrSession, Collection<String> resourcePaths,
+            List<? extends Collection<String>> principalSets, Collection<String> privilegeNames) throws RepositoryException {
+        if (resourcePaths == null || resourcePaths.isEmpty()) {
+            throw new RepositoryException("resourcePath was not submitted.");
+        }
+        String firstPath = resourcePaths.iterator().next();
+        validateArgs(jcrSession, firstPath);
+        if (principalSets == null || principalSets.isEmpty()) {
+            throw new RepositoryException("principalId was not submitted.");
+        }
+
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
+        if (!(acm instanceof JackrabbitAccessControlManager)) {
+            throw new UnsupportedRepositoryOperationException("The access control manager does not support principal based evaluation");
+        }
+        JackrabbitAccessControlManager jacm = (JackrabbitAccessControlManager)acm;
+
+        // resolve the privileges once for all the paths
+        Privilege[] privileges;
+        if (privilegeNames == null || privilegeNames.isEmpty()) {
+            privileges = acm.getSupportedPrivileges(firstPath);
+        } else {
+            privileges = new Privilege[privilegeNames.size()];
+            int i = 0;
+            for (String privilegeName : privilegeNames) {
+                privileges[i++] = acm.privilegeFromName(privilegeName);
+            }
+        }
+        PrivilegeIndex privilegeIndex = getPrivilegeIndex(jcrSession, acm);
+
+        // resolve the principals once for all the paths
+        PrincipalManager principalManager = AccessControlUtil.getPrincipalManager(jcrSession);
+        List<Set<Principal>> principals = new ArrayList<>(principalSets.size());
+        for (Collection<String> principalIds : principalSets) {
+            if (principalIds == null || principalIds.isEmpty()) {
+                throw new RepositoryException("principalId was not submitted.");
+            }
+            Set<Principal> set = new HashSet<>();
+            for (String principalId : principalIds) {
+                if (principalId == null) {
+                    throw new RepositoryException("principalId was not submitted.");
+                }
+                Principal principal = principalManager.getPrincipal(principalId);
+                if (principal == null) {
+                    throw new RepositoryException("Invalid principalId was submitted.");
+                }
+                set.add(principal);
+            }
+            principals.add(set);
+        }
+
+        return new Matrix(jacm, privilegeIndex, privileges, principalSets, principals, new ArrayList<>(resourcePaths));
+    }
+
+    /**
+     * Checks each privilege with the privileges of the principals that are read once
+     */
+    private static boolean[] hasPrivileges(JackrabbitAccessControlManager jacm, String absPath, Set<Principal> principals,
+            Privilege[] privileges, PrivilegeIndex privilegeIndex) throws RepositoryException {
+        long[] bits = privilegeIndex.expand(jacm.getPrivileges(absPath, principals));
+        boolean[] result = new boolean[privileges.length];
+        for (int i = 0; i < privileges.length; i++) {
+            if (privilegeIndex.ordinal(privileges[i]) == -1) {
+                // not in the snapshot of the privilege hierarchy, so ask the repository
+                result[i] = jacm.hasPrivileges(absPath, principals, new Privilege[] {privileges[i]});
+            } else {
+                result[i] = privilegeIndex.includes(bits, privileges[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The resolved arguments of a matrix whose rows are computed one path at a
+     * time, each time the matrix is written
+     */
+    static final class Matrix {
+        private final JackrabbitAccessControlManager jacm;
+        private final PrivilegeIndex privilegeIndex;
+        private final Privilege[] privileges;
+        private final List<? extends Collection<String>> principalSets;
+        private final List<Set<Principal>> principals;
+        private final List<String> paths;
+
+        Matrix(JackrabbitAccessControlManager jacm, PrivilegeIndex privilegeIndex, Privilege[] privileges,
+                List<? extends Collection<String>> principalSets, List<Set<Principal>> principals, List<String> paths) {
+            this.jacm = jacm;
+            this.privilegeIndex = privilegeIndex;
+            this.privileges = privileges;
+            this.principalSets = principalSets;
+            this.principals = principals;
+            this.paths = paths;
+        }
+
+        /**
+         * @return for each principal set, for each privilege, whether it is granted
+         *          or null when the path could not be checked
+         */
+        @Nullable boolean[][] computeRow(@NotNull String path) throws RepositoryException {
+            try {
+                boolean[][] row = new boolean[principals.size()][];
+                for (int s = 0; s < row.length; s++) {
+                    row[s] = hasPrivileges(jacm, path, principals.get(s), privileges, privilegeIndex);
+                }
+                return row;
+            } catch (AccessDeniedException | PathNotFoundException e) {
+                // leave the row of this path empty
+                return null;
+            }
+        }
+
+        @NotNull JsonObject toJson() throws RepositoryException {
+            JsonArrayBuilder privilegesArray = Json.createArrayBuilder();
+            for (Privilege privilege : privileges) {
+                privilegesArray.add(privilege.getName());
+            }
+            JsonArrayBuilder principalsArray = Json.createArrayBuilder();
+            for (Collection<String> principalIds : principalSets) {
+                JsonArrayBuilder setArray = Json.createArrayBuilder();
+                for (String principalId : principalIds) {
+                    setArray.add(principalId);
+                }
+                principalsArray.add(setArray);
+            }
+            JsonObjectBuilder pathsObj = Json.createObjectBuilder();
+            for (String path : paths) {
+                boolean[][] row = computeRow(path);
+                if (row == null) {
+                    pathsObj.addNull(path);
+                } else {
+                    JsonArrayBuilder rowArray = Json.createArrayBuilder();
+                    for (boolean[] set : row) {
+                        JsonArrayBuilder setArray = Json.createArrayBuilder();
+                        for (boolean value : set) {
+                            setArray.add(value);
+                        }
+                        rowArray.add(setArray);
+                    }
+                    pathsObj.add(path, rowArray);
+                }
+            }
+            return Json.createObjectBuilder()
+                    .add(KEY_PRIVILEGES, privilegesArray)
+                    .add(KEY_PRINCIPALS, principalsArray)
+                    .add(KEY_PATHS, pathsObj)
+                    .build();
+        }
+
+        void writeTo(@NotNull JsonGenerator generator) throws RepositoryException {
+            generator.writeStartObject();
+            generator.writeStartArray(KEY_PRIVILEGES);
+            for (Privilege privilege : privileges) {
+                generator.write(privilege.getName());
+            }
+            generator.writeEnd();
+            generator.writeStartArray(KEY_PRINCIPALS);
+            for (Collection<String> principalIds : principalSets) {
+                generator.writeStartArray();
+                for (String principalId : principalIds) {
+                    generator.write(principalId);
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+            generator.writeStartObject(KEY_PATHS);
+            for (String path : paths) {
+                boolean[][] row = computeRow(path);
+                if (row == null) {
+                    generator.writeNull(path);
+                } else {
+                    generator.writeStartArray(path);
+                    for (boolean[] set : row) {
+                        generator.writeStartArray();
+                        for (boolean value : set) {
+                            generator.write(value);
+                        }
+                        generator.writeEnd();
+                    }
+                    generator.writeEnd();
+                }
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.json.Json;
+import javax.servlet.Servlet;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation.Type;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult.Status;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndexService;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.PostResponseCreator;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * <p>
+ * Sling Post Servlet implementation for converging the ACL of a JCR resource to a
+ * desired state for all principals.
+ * </p>
+ * <h2>Rest Service Description</h2>
+ * <p>
+ * Replaces the ACEs of the node identified as a resource by the request URL
+ * &gt;resource&lt;.syncAcl.json with the ACEs in the request body. Only the principals
+ * whose entries or position differ are touched and the ACL is written at most once,
+ * so syncing an ACL that is already in the desired state writes nothing.
+ * </p>
+ * <h3>Transport Details:</h3>
+ * <h4>Methods</h4>
+ * <ul>
+ * <li>POST</li>
+ * </ul>
+ * <h4>Request Body</h4>
+ * <p>
+ * A JSON array with one object for each principal in the desired order of the ACL. Each
+ * object may have these members:
+ * </p>
+ * <dl>
+ * <dt>principalId</dt>
+ * <dd>The principal of the ACEs. (required)</dd>
+ * <dt>privileges</dt>
+ * <dd>An object where each member name is a privilege name and the value is 'allow' or 'deny'.</dd>
+ * <dt>restrictions</dt>
+ * <dd>An object where each member name is a restriction name and the value is the restriction
+ *     value or an array of values for a multi-value restriction.</dd>
+ * </dl>
+ * <p>
+ * The ACEs of any principal that is not in the request body, or that is supplied without
+ * any allowed or denied privilege, are removed.  The 'order' and 'removeRestrictions' members
+ * of the modifyAce operation are not supported since the position in the request body is the
+ * order and the supplied restrictions are the complete state.
+ * </p>
+ *
+ * <h4>Response</h4>
+ * <dl>
+ * <dt>200</dt>
+ * <dd>Success. The "changes" list has a 'modified' entry for each principal whose ACEs were
+ *     changed or moved, a 'deleted' entry for each principal whose ACEs were removed and an
+ *     'unchanged' entry for each principal that was already in the desired state.</dd>
+ * <dt>404</dt>
+ * <dd>The resource was not found.</dd>
+ * <dt>412</dt>
+ * <dd>The If-Match request header does not list the ETag of the current acl.json rendering of the resource.</dd>
+ * <dt>500</dt>
+ * <dd>Failure, including a request body that could not be parsed. HTML explains the failure.</dd>
+ * </dl>
+ */
+
+@Component(service = {Servlet.class},
+property= {
+        "sling.servlet.resourceTypes=sling/servlet/default",
+        "sling.servlet.methods=POST",
+        "sling.servlet.selectors=syncAcl",
+        "sling.servlet.prefix:Integer=-1"
+},
+reference = {
+        @Reference(name="RestrictionProvider",
+                bind = "bindRestrictionProvider",
+                cardinality = ReferenceCardinality.MULTIPLE,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = RestrictionProvider.class),
+        @Reference(name="PrivilegeIndexService",
+                bind = "bindPrivilegeIndexService",
+                unbind = "unbindPrivilegeIndexService",
+                service = PrivilegeIndexService.class),
+        @Reference(name="AclWriteLockService",
+                bind = "bindAclWriteLockService",
+                unbind = "unbindAclWriteLockService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclWriteLockService.class),
+        @Reference(name="GetAcl",
+                bind = "bindGetAcl",
+                unbind = "unbindGetAcl",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = GetAcl.class),
+        @Reference(name="AclModelCacheService",
+                bind = "bindAclModelCacheService",
+                unbind = "unbindAclModelCacheService",
+                cardinality = ReferenceCardinality.OPTIONAL,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = AclModelCacheService.class),
+        @Reference(name = "PostResponseCreator",
+                bind = "bindPostResponseCreator",
+                cardinality = ReferenceCardinality.MULTIPLE,
+                policyOption = ReferencePolicyOption.GREEDY,
+                service = PostResponseCreator.class)
+})
+@SuppressWarnings("java:S110")
+public class SyncAclServlet extends ModifyAceServlet {
+    private static final long serialVersionUID = 4969426378912257460L;
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet#handleOperation(org.apache.sling.api.SlingHttpServletRequest, org.apache.sling.servlets.post.PostResponse, java.util.List)
+     */
+    @Override
+    protected void handleOperation(SlingHttpServletRequest request,
+            PostResponse response, List<Modification> changes)
+            throws RepositoryException {
+        Session session = request.getResourceResolver().adaptTo(Session.class);
+        if (session == null) {
+            throw new RepositoryException("JCR Session not found");
+        }
+        String resourcePath = getItemPath(request);
+
+        List<AceOperation> desired;
+        try (Reader reader = request.getReader()) {
+            desired = new AceOperationJsonReader(getRestrictionProvider(), session.getValueFactory(), resourcePath, "modifyAce")
+                    .readOperations(Json.createParser(reader));
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read the request body", e);
+        }
+
+        Map<String, Status> outcomes = syncAcl(session, resourcePath, desired);
+        for (Entry<String, Status> entry : outcomes.entrySet()) {
+            switch (entry.getValue()) {
+            case MODIFIED:
+                changes.add(Modification.onModified(entry.getKey()));
+                break;
+            case DELETED:
+                changes.add(Modification.onDeleted(entry.getKey()));
+                break;
+            default:
+                response.onChange("unchanged", entry.getKey());
+                break;
+            }
+        }
+    }
+
+    /**
+     * The request body can only be read once, so do not retry
+     */
+    @Override
+    protected int getMaxConflictRetries() {
+        return 0;
+    }
+
+    /**
+     * Converge the ACL of the resource to the desired entries without saving the session
+     * 
+     * @param jcrSession the JCR session
+     * @param resourcePath the resource path
+     * @param desired the modifyAce operations for each principal in the desired order
+     * @return the outcome for each principal that is in the desired state or was removed
+     */
+    @NotNull Map<String, Status> syncAcl(Session jcrSession, @NotNull String resourcePath,
+            @NotNull List<AceOperation> desired) throws RepositoryException {
+        validateResourcePath(jcrSession, resourcePath);
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(jcrSession);
+        JackrabbitAccessControlList acl = getAcl(acm, resourcePath, null);
+        if (acl == null) {
+            throw new IllegalStateException("No access control list is available so unable to process");
+        }
+        AccessControlEntry[] storedEntries = acl.getAccessControlEntries();
+
+        // replace the entries of each desired principal in memory
+        Map<String, Status> outcomes = new LinkedHashMap<>();
+        List<Principal> desiredPrincipals = new ArrayList<>(desired.size());
+        List<String> desiredPrincipalIds = new ArrayList<>(desired.size());
+        // the principals supplied without any privilege
+        Map<Principal, String> removedPrincipalIds = new HashMap<>();
+        for (AceOperation operation : desired) {
+            String principalId = operation.getPrincipalId();
+            if (operation.getType() != Type.MODIFY_ACE || !resourcePath.equals(operation.getResourcePath())) {
+                throw new IllegalArgumentException("Only the ACEs of the requested resource may be supplied");
+            }
+            if (operation.getOrder() != null) {
+                throw new IllegalArgumentException("The order is the position in the request body, so 'order' is not supported: " + principalId);
+            }
+            if (operation.getRemoveRestrictionNames() != null && !operation.getRemoveRestrictionNames().isEmpty()) {
+                throw new IllegalArgumentException("The supplied restrictions are the complete state, so 'removeRestrictions' is not supported: " + principalId);
+            }
+            if (outcomes.containsKey(principalId)) {
+                throw new IllegalArgumentException("The principal was supplied more than once: " + principalId);
+            }
+            ModifyAceContext context = newModifyAceContext(jcrSession, resourcePath, principalId, acl);
+            // the supplied state is complete, so start without what is currently stored
+            Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = mergeAce(context, new HashMap<>(),
+                    operation.getPrivileges(), operation.getRestrictions(), operation.getMvRestrictions(), null);
+            outcomes.put(principalId, Status.UNCHANGED);
+            if (privilegeToLocalPrivilegesMap.values().stream().noneMatch(lp -> lp.isAllow() || lp.isDeny())) {
+                // nothing allowed or denied, so the entries of the principal are removed below
+                removedPrincipalIds.put(context.getPrincipal(), principalId);
+                continue;
+            }
+            applyAce(context, privilegeToLocalPrivilegesMap.values(), null);
+            desiredPrincipals.add(context.getPrincipal());
+            desiredPrincipalIds.add(principalId);
+        }
+
+        // remove the entries of every other principal
+        Set<Principal> desiredPrincipalSet = new HashSet<>(desiredPrincipals);
+        for (AccessControlEntry ace : acl.getAccessControlEntries()) {
+            Principal principal = ace.getPrincipal();
+            if (!desiredPrincipalSet.contains(principal)) {
+                acl.removeAccessControlEntry(ace);
+                outcomes.put(removedPrincipalIds.getOrDefault(principal, principal.getName()), Status.DELETED);
+            }
+        }
+
+        // move the entries to the desired order when it differs
+        new AclOrderIndex(acl.getAccessControlEntries()).applyOrder(acl, desiredPrincipals);
+
+        AccessControlEntry[] entries = acl.getAccessControlEntries();
+        if (!isSameEntries(storedEntries, entries)) {
+            // report which principals were touched
+            List<Principal> storedOrder = principalOrder(storedEntries);
+            storedOrder.retainAll(desiredPrincipalSet);
+            for (int i = 0; i < desiredPrincipals.size(); i++) {
+                Principal principal = desiredPrincipals.get(i);
+                if (i >= storedOrder.size() || !principal.equals(storedOrder.get(i)) ||
+                        !isSameEntries(entriesOf(storedEntries, principal), entriesOf(entries, principal))) {
+                    outcomes.put(desiredPrincipalIds.get(i), Status.MODIFIED);
+                }
+            }
+
+            // Store the actual changes.
+            acm.setPolicy(acl.getPath(), acl);
+        }
+        return outcomes;
+    }
+
+    /**
+     * @return the principals in the order of their entries where consecutive
+     *          entries of the same principal are only listed once
+     */
+    private static @NotNull List<Principal> principalOrder(@NotNull AccessControlEntry[] entries) {
+        List<Principal> principals = new ArrayList<>();
+        for (AccessControlEntry ace : entries) {
+            Principal principal = ace.getPrincipal();
+            if (principals.isEmpty() || !principal.equals(principals.get(principals.size() - 1))) {
+                principals.add(principal);
+            }
+        }
+        return principals;
+    }
+
+    private static @NotNull AccessControlEntry[] entriesOf(@NotNull AccessControlEntry[] entries, @NotNull Principal principal) {
+        List<AccessControlEntry> principalEntries = new ArrayList<>();
+        for (AccessControlEntry ace : entries) {
+            if (principal.equals(ace.getPrincipal())) {
+                principalEntries.add(ace);
+            }
+        }
+        return principalEntries.toArray(new AccessControlEntry[principalEntries.size()]);
+    }
+
+}
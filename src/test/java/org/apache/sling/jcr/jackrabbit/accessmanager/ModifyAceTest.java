@@ -54,6 +54,11 @@ public class ModifyAceTest {
         modifyAce.modifyAce(null, null, null, (Collection<LocalPrivilege>)null, null, false);
     }
 
+    @Test(expected = UnsupportedRepositoryOperationException.class)
+    public void testReorder1() throws RepositoryException {
+        modifyAce.reorderAcl(null, null, null, false);
+    }
+
 
     protected static class ModifyAceOldImpl implements ModifyAce {
 
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AclChangeObserver}
+ */
+public class AclChangeObserverTest {
+
+    private final List<String> changedPaths = new ArrayList<>();
+    private final MemoryNodeStore store = new MemoryNodeStore();
+    private AclChangeObserver observer;
+
+    @Before
+    public void setup() throws CommitFailedException {
+        observer = new AclChangeObserver(changedPaths::add);
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("content").child("a").child("b");
+        builder.child("content").child("a").child(AclChangeObserver.REP_POLICY).child("allow").setProperty("rep:principalName", "everyone");
+        builder.child("home").child("groups").child("g1");
+        // the first state is only remembered
+        commit(builder);
+        assertTrue(changedPaths.isEmpty());
+    }
+
+    private void commit(NodeBuilder builder) throws CommitFailedException {
+        NodeState root = store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        observer.contentChanged(root, CommitInfo.EMPTY);
+    }
+
+    @Test
+    public void testContentChange() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("content").child("a").child("b").setProperty("title", "changed");
+        builder.child("content").child("c");
+        commit(builder);
+        assertEquals(Collections.emptyList(), changedPaths);
+    }
+
+    @Test
+    public void testHiddenAndIndexChangesSkipped() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child(":hidden").child(AclChangeObserver.REP_POLICY);
+        builder.child("content").child(AclChangeObserver.OAK_INDEX).child("uuid").child(AclChangeObserver.REP_POLICY);
+        commit(builder);
+        changedPaths.clear();
+
+        builder = store.getRoot().builder();
+        builder.child(":hidden").child(AclChangeObserver.REP_POLICY).setProperty("rep:glob", "*.txt");
+        builder.child("content").child(AclChangeObserver.OAK_INDEX).child("uuid").child(AclChangeObserver.REP_POLICY).setProperty("rep:glob", "*.txt");
+        builder.child("content").child(AclChangeObserver.OAK_INDEX).child("uuid").setProperty(AclChangeObserver.REP_MEMBERS, "uuid");
+        commit(builder);
+        assertEquals(Collections.emptyList(), changedPaths);
+    }
+
+    @Test
+    public void testPolicyAdded() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("content").child("a").child("b").child(AclChangeObserver.REP_POLICY).child("allow");
+        commit(builder);
+        assertEquals(Arrays.asList("/content/a/b"), changedPaths);
+    }
+
+    @Test
+    public void testEntryChanged() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("content").child("a").child(AclChangeObserver.REP_POLICY).child("allow").setProperty("rep:glob", "*.txt");
+        commit(builder);
+        assertEquals(Arrays.asList("/content/a"), changedPaths);
+    }
+
+    @Test
+    public void testNodeDeleted() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("content").child("a").remove();
+        commit(builder);
+        assertEquals(Arrays.asList("/content/a"), changedPaths);
+    }
+
+    @Test
+    public void testRepositoryAndPrincipalPolicy() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child(AclChangeObserver.REP_REPO_POLICY);
+        builder.child("home").child("groups").child("g1").child(AclChangeObserver.REP_PRINCIPAL_POLICY);
+        commit(builder);
+        assertEquals(Arrays.asList(AclChangeObserver.ALL_PATHS, AclChangeObserver.ALL_PATHS), changedPaths);
+    }
+
+    @Test
+    public void testMembersChanged() throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("home").child("groups").child("g1").setProperty(AclChangeObserver.REP_MEMBERS, "uuid");
+        commit(builder);
+        assertEquals(Arrays.asList(AclChangeObserver.ALL_PATHS), changedPaths);
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AclModelCacheService}
+ */
+public class AclModelCacheServiceTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    private AclModelCacheService cache;
+    private final AtomicLong now = new AtomicLong();
+    private final RenderedJson model = RenderedJson.render(
+            generator -> generator.write(Json.createObjectBuilder().add("everyone", Json.createObjectBuilder()).build()));
+
+    @Before
+    public void setup() {
+        cache = context.registerInjectActivateService(new AclModelCacheService(),
+                "maxEntries", 2,
+                "ttlSeconds", 10);
+        cache.clock = now::get;
+    }
+
+    private static AclModelCacheKey key(String path) {
+        return new AclModelCacheKey("acl", path, "admin", null);
+    }
+
+    @Test
+    public void testObserverRegistered() {
+        assertSame(cache.getObserver(), context.getService(Observer.class));
+    }
+
+    @Test
+    public void testGetAndPut() {
+        assertNull(cache.get(key("/content")));
+        cache.put(key("/content"), model, cache.getStamp());
+        assertSame(model, cache.get(key("/content")));
+
+        // the user and principal are part of the key
+        assertNull(cache.get(new AclModelCacheKey("acl", "/content", "user1", null)));
+        assertNull(cache.get(new AclModelCacheKey("acl", "/content", "admin", "everyone")));
+        assertNull(cache.get(new AclModelCacheKey("eacl", "/content", "admin", null)));
+    }
+
+    @Test
+    public void testTimeToLive() {
+        cache.put(key("/content"), model, cache.getStamp());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertNotNull(cache.get(key("/content")));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(cache.get(key("/content")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache.put(key("/content/a"), model, cache.getStamp());
+        cache.put(key("/content/b"), model, cache.getStamp());
+        // use a so b is the least recently used
+        assertNotNull(cache.get(key("/content/a")));
+        cache.put(key("/content/c"), model, cache.getStamp());
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(key("/content/a")));
+        assertNull(cache.get(key("/content/b")));
+        assertNotNull(cache.get(key("/content/c")));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put(key("/content"), model, cache.getStamp());
+        cache.put(key("/content/a"), model, cache.getStamp());
+        cache.invalidate("/content/a");
+        assertNotNull(cache.get(key("/content")));
+        assertNull(cache.get(key("/content/a")));
+
+        // the descendants are invalidated too
+        cache.put(key("/content/a"), model, cache.getStamp());
+        cache.invalidate("/content");
+        assertEquals(0, cache.size());
+
+        // but not siblings with the same prefix
+        cache.put(key("/content2"), model, cache.getStamp());
+        cache.invalidate("/content");
+        assertNotNull(cache.get(key("/content2")));
+
+        cache.invalidate("/");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        long stamp = cache.getStamp();
+        // changed while the model was being computed
+        cache.invalidate("/other");
+        cache.put(key("/content"), model, stamp);
+        assertNull(cache.get(key("/content")));
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService.LockHandle;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AclWriteLockService}
+ */
+public class AclWriteLockServiceTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    private AclWriteLockService lockService;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        lockService = context.registerInjectActivateService(new AclWriteLockService(), "stripes", 16);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLock() {
+        try (LockHandle lockHandle = lockService.lock(Arrays.asList("/content/a", "principal:user1", "/content/a"))) {
+            assertTrue(lockService.isHeldByCurrentThread("/content/a"));
+            assertTrue(lockService.isHeldByCurrentThread("principal:user1"));
+        }
+        assertFalse(lockService.isHeldByCurrentThread("/content/a"));
+        assertFalse(lockService.isHeldByCurrentThread("principal:user1"));
+    }
+
+    @Test
+    public void testLockSerializesSameKey() throws Exception {
+        CountDownLatch acquired = new CountDownLatch(1);
+        Future<?> other;
+        try (LockHandle lockHandle = lockService.lock(Collections.singleton("/content/a"))) {
+            other = executor.submit(() -> {
+                try (LockHandle otherHandle = lockService.lock(Collections.singleton("/content/a"))) {
+                    acquired.countDown();
+                }
+            });
+            // the other writer waits while the lock is held
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        other.get(5, TimeUnit.SECONDS);
+    }
+
+}
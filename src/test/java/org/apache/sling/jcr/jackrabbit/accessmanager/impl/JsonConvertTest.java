@@ -22,12 +22,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.io.StringWriter;
 import java.security.Principal;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 
 import javax.jcr.RepositoryException;
@@ -43,6 +47,7 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonString;
 import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
 
 import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
 import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
@@ -55,6 +60,7 @@ import org.apache.jackrabbit.value.ValueFactoryImpl;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
 import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.jcr.jackrabbit.accessmanager.post.DeclarationType;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 import org.apache.sling.testing.mock.sling.junit.SlingContext;
 import org.jetbrains.annotations.NotNull;
@@ -113,11 +119,9 @@ public class JsonConvertTest {
     }
 
     /**
-     * Test method for {@link org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert#convertToJson(java.security.Principal, java.util.Map, int)}.
+     * @return the privileges of the principal used by the conversion tests
      */
-    @Test
-    public void testConvertToJson() throws RepositoryException {
-        Principal principal = new PrincipalImpl("testuser");
+    private Map<Privilege, LocalPrivilege> testEntry() throws RepositoryException {
         LocalPrivilege lp1 = new LocalPrivilege(priv(PrivilegeConstants.JCR_READ));
         lp1.setAllow(true);
         LocalPrivilege lp2 = new LocalPrivilege(priv(PrivilegeConstants.JCR_WRITE));
@@ -135,6 +139,16 @@ public class JsonConvertTest {
         entry.put(lp3.getPrivilege(), lp3);
         entry.put(lp4.getPrivilege(), lp4);
         entry.put(lp5.getPrivilege(), lp5);
+        return entry;
+    }
+
+    /**
+     * Test method for {@link org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert#convertToJson(java.security.Principal, java.util.Map, int)}.
+     */
+    @Test
+    public void testConvertToJson() throws RepositoryException {
+        Principal principal = new PrincipalImpl("testuser");
+        Map<Privilege, LocalPrivilege> entry = testEntry();
         int order = 1;
         JsonObjectBuilder principalObj = JsonConvert.convertToJson(principal, entry, order);
         assertNotNull(principalObj);
@@ -171,6 +185,34 @@ public class JsonConvertTest {
         assertEquals("item2", ((JsonArray)itemNamesRestrictionObj5).getString(1));
     }
 
+    /**
+     * Test method for {@link org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert#writeTo(javax.json.stream.JsonGenerator, java.security.Principal, java.util.Map, int)}.
+     */
+    @Test
+    public void testWriteTo() throws RepositoryException {
+        Principal principal = new PrincipalImpl("testuser");
+        Map<Privilege, LocalPrivilege> entry = testEntry();
+        JsonObjectBuilder principalObj = JsonConvert.convertToJson(principal, entry, 1);
+        Map<DeclarationType, Set<String>> declaredAt = new EnumMap<>(DeclarationType.class);
+        declaredAt.put(DeclarationType.NODE, new TreeSet<>(Arrays.asList("/content", "/content/a")));
+        declaredAt.put(DeclarationType.PRINCIPAL, Collections.singleton("/content"));
+        JsonConvert.addDeclaredAt(principalObj, declaredAt);
+        StringWriter expected = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(expected)) {
+            generator.write(principalObj.build());
+        }
+
+        // streaming writes exactly the same JSON
+        StringWriter actual = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(actual)) {
+            generator.writeStartObject();
+            JsonConvert.writeTo(generator, principal, entry, 1);
+            JsonConvert.writeDeclaredAt(generator, declaredAt);
+            generator.writeEnd();
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
     /**
      * Test method for {@link org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert#addRestrictions(javax.json.JsonObjectBuilder, java.lang.String, java.util.Set)}.
      */
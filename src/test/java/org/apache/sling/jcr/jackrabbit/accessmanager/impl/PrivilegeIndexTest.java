@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.JackrabbitWorkspace;
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Verify that the privilege algebra behaves the same with and without
+ * the privilege index
+ */
+public class PrivilegeIndexTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session jcrSession;
+    private AccessControlManager acm;
+    private Privilege jcrAll;
+    private PrivilegeIndex privilegeIndex;
+
+    @Before
+    public void buildPrivilegeIndex() throws RepositoryException {
+        context.registerService(new RestrictionProviderImpl());
+        jcrSession = context.resourceResolver().adaptTo(Session.class);
+        acm = AccessControlUtil.getAccessControlManager(jcrSession);
+        jcrAll = acm.privilegeFromName(PrivilegeConstants.JCR_ALL);
+        privilegeIndex = PrivilegeIndex.build(jcrSession, acm);
+    }
+
+    private Privilege priv(String privilegeName) throws RepositoryException {
+        return acm.privilegeFromName(privilegeName);
+    }
+
+    private LocalRestriction globRestriction(String value) {
+        RestrictionProvider restrictionProvider = context.getService(RestrictionProvider.class);
+        RestrictionDefinition rd = restrictionProvider.getSupportedRestrictions("/").stream()
+                .filter(d -> AccessControlConstants.REP_GLOB.equals(d.getName()))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+        return new LocalRestriction(rd, ValueFactoryImpl.getInstance().createValue(value));
+    }
+
+    @Test
+    public void testOrdinals() throws RepositoryException {
+        Privilege[] registered = jcrAll.getAggregatePrivileges();
+        // the aggregate privileges of jcr:all plus jcr:all itself
+        assertEquals(registered.length + 1, privilegeIndex.size());
+        for (Privilege privilege : registered) {
+            int ordinal = privilegeIndex.ordinal(privilege);
+            assertTrue(ordinal >= 0);
+            assertEquals(privilege.getName(), privilegeIndex.privilege(ordinal).getName());
+        }
+        Map<Privilege, Integer> longestDepthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(jcrAll);
+        assertEquals(privilegeIndex.getLongestDepthMap(), longestDepthMap);
+        assertEquals(longestDepthMap, privilegeIndex.getLongestDepthMap());
+        for (Entry<Privilege, Integer> entry : longestDepthMap.entrySet()) {
+            assertEquals(entry.getValue().intValue(), privilegeIndex.depth(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testLeafBits() throws RepositoryException {
+        long[] bits = privilegeIndex.newBits();
+        assertTrue(privilegeIndex.addLeafBits(bits, priv(PrivilegeConstants.JCR_WRITE)));
+        Set<String> leafNames = new HashSet<>();
+        privilegeIndex.forEach(bits, p -> leafNames.add(p.getName()));
+
+        Set<String> expected = new HashSet<>();
+        for (Privilege p : priv(PrivilegeConstants.JCR_WRITE).getAggregatePrivileges()) {
+            if (!p.isAggregate()) {
+                expected.add(p.getName());
+            }
+        }
+        assertEquals(expected, leafNames);
+    }
+
+    @Test
+    public void testIncludes() throws RepositoryException {
+        long[] bits = privilegeIndex.expand(new Privilege[] {priv(PrivilegeConstants.JCR_READ), priv(PrivilegeConstants.JCR_ADD_CHILD_NODES)});
+        assertTrue(privilegeIndex.includes(bits, priv(PrivilegeConstants.JCR_READ)));
+        assertTrue(privilegeIndex.includes(bits, priv(PrivilegeConstants.REP_READ_NODES)));
+        assertTrue(privilegeIndex.includes(bits, priv(PrivilegeConstants.JCR_ADD_CHILD_NODES)));
+        // only part of the aggregate
+        assertFalse(privilegeIndex.includes(bits, priv(PrivilegeConstants.JCR_WRITE)));
+
+        bits = privilegeIndex.expand(new Privilege[] {jcrAll});
+        assertTrue(privilegeIndex.includes(bits, priv(PrivilegeConstants.JCR_WRITE)));
+        assertTrue(privilegeIndex.includes(bits, jcrAll));
+    }
+
+    @Test
+    public void testExpandSameAsWithoutIndex() throws RepositoryException {
+        Set<LocalRestriction> restrictions = Collections.singleton(globRestriction("/hello"));
+        Map<Privilege, LocalPrivilege> expected = new HashMap<>();
+        PrivilegesHelper.allow(expected, restrictions, Collections.singleton(jcrAll));
+        PrivilegesHelper.deny(expected, Collections.emptySet(), Collections.singleton(priv(PrivilegeConstants.JCR_READ)));
+        PrivilegesHelper.none(expected, Collections.singleton(priv(PrivilegeConstants.JCR_LOCK_MANAGEMENT)));
+
+        Map<Privilege, LocalPrivilege> actual = new HashMap<>();
+        PrivilegesHelper.allow(actual, restrictions, Collections.singleton(jcrAll), privilegeIndex);
+        PrivilegesHelper.deny(actual, Collections.emptySet(), Collections.singleton(priv(PrivilegeConstants.JCR_READ)), privilegeIndex);
+        PrivilegesHelper.none(actual, Collections.singleton(priv(PrivilegeConstants.JCR_LOCK_MANAGEMENT)), privilegeIndex);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testConsolidateAggregatesSameAsWithoutIndex() throws RepositoryException {
+        Set<LocalRestriction> restrictions = Collections.singleton(globRestriction("/hello"));
+        Map<Privilege, LocalPrivilege> expected = new HashMap<>();
+        PrivilegesHelper.allow(expected, Collections.emptySet(), Collections.singleton(jcrAll));
+        PrivilegesHelper.deny(expected, restrictions, Collections.singleton(priv(PrivilegeConstants.JCR_WRITE)));
+        PrivilegesHelper.allow(expected, Collections.emptySet(), Collections.singleton(priv(PrivilegeConstants.REP_ADD_PROPERTIES)));
+        Map<Privilege, LocalPrivilege> actual = new HashMap<>();
+        for (LocalPrivilege lp : expected.values()) {
+            LocalPrivilege copy = new LocalPrivilege(lp.getPrivilege());
+            copy.setAllow(lp.isAllow());
+            copy.setAllowRestrictions(lp.getAllowRestrictions());
+            copy.setDeny(lp.isDeny());
+            copy.setDenyRestrictions(lp.getDenyRestrictions());
+            actual.put(lp.getPrivilege(), copy);
+        }
+
+        PrivilegesHelper.consolidateAggregates(jcrSession, "/", expected, privilegeIndex.getLongestDepthMap());
+        PrivilegesHelper.consolidateAggregates(jcrSession, "/", actual, privilegeIndex);
+
+        assertEquals(expected, actual);
+        assertTrue(actual.get(priv(PrivilegeConstants.JCR_WRITE)).isDeny());
+        assertTrue(actual.get(jcrAll).isAllow());
+    }
+
+    @Test
+    public void testConsolidationContextReusedForEachPrincipal() throws RepositoryException {
+        ConsolidationContext consolidationContext = ConsolidationContext.build(jcrSession, "/", privilegeIndex);
+
+        Map<Privilege, LocalPrivilege> first = new HashMap<>();
+        PrivilegesHelper.allow(first, Collections.emptySet(), Collections.singleton(priv(PrivilegeConstants.JCR_WRITE)), privilegeIndex);
+        Map<Privilege, LocalPrivilege> expectedFirst = new HashMap<>();
+        PrivilegesHelper.allow(expectedFirst, Collections.emptySet(), Collections.singleton(priv(PrivilegeConstants.JCR_WRITE)));
+
+        Map<Privilege, LocalPrivilege> second = new HashMap<>();
+        PrivilegesHelper.deny(second, Collections.singleton(globRestriction("/hello")), Collections.singleton(jcrAll), privilegeIndex);
+        Map<Privilege, LocalPrivilege> expectedSecond = new HashMap<>();
+        PrivilegesHelper.deny(expectedSecond, Collections.singleton(globRestriction("/hello")), Collections.singleton(jcrAll));
+
+        consolidationContext.consolidateAggregates(first);
+        consolidationContext.consolidateAggregates(second);
+        PrivilegesHelper.consolidateAggregates(jcrSession, "/", expectedFirst, privilegeIndex.getLongestDepthMap());
+        PrivilegesHelper.consolidateAggregates(jcrSession, "/", expectedSecond, privilegeIndex.getLongestDepthMap());
+
+        assertEquals(expectedFirst, first);
+        assertEquals(Collections.singleton(priv(PrivilegeConstants.JCR_WRITE)), first.keySet());
+        assertEquals(expectedSecond, second);
+        assertEquals(Collections.singleton(jcrAll), second.keySet());
+    }
+
+    @Test
+    public void testServiceReusesSnapshotUntilPrivilegeRegistered() throws RepositoryException {
+        PrivilegeIndexService service = context.registerInjectActivateService(new PrivilegeIndexService());
+        PrivilegeIndex first = service.getPrivilegeIndex(jcrSession, acm);
+        assertSame(first.getHierarchy(), service.getPrivilegeIndex(jcrSession, acm).getHierarchy());
+
+        ((JackrabbitWorkspace)jcrSession.getWorkspace()).getPrivilegeManager()
+            .registerPrivilege("customPrivilege", false, new String[0]);
+        jcrAll = acm.privilegeFromName(PrivilegeConstants.JCR_ALL);
+        assertFalse(first.isCurrent(jcrAll));
+
+        PrivilegeIndex second = service.getPrivilegeIndex(jcrSession, acm);
+        assertNotSame(first.getHierarchy(), second.getHierarchy());
+        assertTrue(second.ordinal(priv("customPrivilege")) >= 0);
+        assertSame(second.getHierarchy(), service.getPrivilegeIndex(jcrSession, acm).getHierarchy());
+    }
+
+    @Test
+    public void testServiceSharesSnapshotWithRemappedNamespace() throws RepositoryException {
+        jcrSession.getWorkspace().getNamespaceRegistry().registerNamespace("test", "http://sling.apache.org/test/privileges");
+        ((JackrabbitWorkspace)jcrSession.getWorkspace()).getPrivilegeManager()
+            .registerPrivilege("test:custom", false, new String[0]);
+        PrivilegeIndexService service = context.registerInjectActivateService(new PrivilegeIndexService());
+        PrivilegeIndex first = service.getPrivilegeIndex(jcrSession, acm);
+
+        Session otherSession = jcrSession.impersonate(new SimpleCredentials(jcrSession.getUserID(), new char[0]));
+        try {
+            otherSession.setNamespacePrefix("other", "http://sling.apache.org/test/privileges");
+            AccessControlManager otherAcm = AccessControlUtil.getAccessControlManager(otherSession);
+            PrivilegeIndex second = service.getPrivilegeIndex(otherSession, otherAcm);
+            assertSame(first.getHierarchy(), second.getHierarchy());
+
+            Privilege custom = otherAcm.privilegeFromName("other:custom");
+            int ordinal = second.ordinal(custom);
+            assertEquals(first.ordinal(priv("test:custom")), ordinal);
+            // resolved through the access control manager of the other session
+            assertEquals("other:custom", second.privilege(ordinal).getName());
+            assertEquals("test:custom", first.privilege(ordinal).getName());
+        } finally {
+            otherSession.logout();
+        }
+    }
+
+    @Test
+    public void testServiceSharesSnapshotWithoutSession() throws RepositoryException {
+        PrivilegeIndexService service = context.registerInjectActivateService(new PrivilegeIndexService());
+        // without a snapshot an index of its own is built
+        PrivilegeIndex unshared = service.getPrivilegeIndex(null, acm);
+        assertTrue(unshared.ordinal(priv(PrivilegeConstants.JCR_READ)) >= 0);
+
+        PrivilegeIndex first = service.getPrivilegeIndex(jcrSession, acm);
+        PrivilegeIndex second = service.getPrivilegeIndex(null, acm);
+        assertSame(first.getHierarchy(), second.getHierarchy());
+        for (Privilege privilege : jcrAll.getAggregatePrivileges()) {
+            int ordinal = second.ordinal(privilege);
+            assertEquals(first.ordinal(privilege), ordinal);
+            assertEquals(privilege, second.privilege(ordinal));
+            assertEquals(first.depth(privilege), second.depth(privilege));
+        }
+        assertEquals(first.getLongestDepthMap(), second.getLongestDepthMap());
+    }
+
+}
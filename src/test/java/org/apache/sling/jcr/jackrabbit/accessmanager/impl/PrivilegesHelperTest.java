@@ -25,12 +25,15 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.jcr.RepositoryException;
@@ -200,6 +203,112 @@ public class PrivilegesHelperTest {
         assertEquals(Integer.valueOf(5), privilegeLongestDepthMap.get(priv(PrivilegeConstants.REP_ADD_PROPERTIES)));
     }
 
+    /**
+     * Privilege for building synthetic privilege hierarchies that counts how
+     * often the declared aggregate privileges were requested
+     */
+    private static class CountingPrivilege implements Privilege {
+        private final String name;
+        private final List<Privilege> declaredAggregatePrivileges = new ArrayList<>();
+        private final AtomicInteger visits;
+
+        CountingPrivilege(String name, AtomicInteger visits) {
+            this.name = name;
+            this.visits = visits;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return false;
+        }
+
+        @Override
+        public boolean isAggregate() {
+            return !declaredAggregatePrivileges.isEmpty();
+        }
+
+        @Override
+        public Privilege[] getDeclaredAggregatePrivileges() {
+            visits.incrementAndGet();
+            return declaredAggregatePrivileges.toArray(new Privilege[declaredAggregatePrivileges.size()]);
+        }
+
+        @Override
+        public Privilege[] getAggregatePrivileges() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A deep hierarchy where each aggregate contains both privileges of the next level.  Walking
+     * each path separately would visit the deepest privileges 2^levels times.
+     */
+    @Test
+    public void testBuildPrivilegeLongestDepthMapDeepSharedAggregates() {
+        AtomicInteger visits = new AtomicInteger();
+        int levels = 600;
+        CountingPrivilege jcrAll = new CountingPrivilege(PrivilegeConstants.JCR_ALL, visits);
+        CountingPrivilege[][] hierarchy = new CountingPrivilege[levels][2];
+        for (int level = 0; level < levels; level++) {
+            for (int i = 0; i < 2; i++) {
+                hierarchy[level][i] = new CountingPrivilege(String.format("level%d_%d", level, i), visits);
+                // like jcr:all in the repository, declare every privilege as an aggregate of jcr:all
+                jcrAll.declaredAggregatePrivileges.add(hierarchy[level][i]);
+                if (level > 0) {
+                    hierarchy[level - 1][0].declaredAggregatePrivileges.add(hierarchy[level][i]);
+                    hierarchy[level - 1][1].declaredAggregatePrivileges.add(hierarchy[level][i]);
+                }
+            }
+        }
+
+        Map<Privilege, Integer> depthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(jcrAll);
+        assertEquals(levels * 2 + 1, depthMap.size());
+        assertEquals(Integer.valueOf(1), depthMap.get(jcrAll));
+        for (int level = 0; level < levels; level++) {
+            assertEquals(Integer.valueOf(level + 2), depthMap.get(hierarchy[level][0]));
+            assertEquals(Integer.valueOf(level + 2), depthMap.get(hierarchy[level][1]));
+        }
+        // each privilege is expanded only once
+        assertEquals(depthMap.size(), visits.get());
+    }
+
+    /**
+     * A wide hierarchy where many aggregates share the same non-aggregate privileges
+     */
+    @Test
+    public void testBuildPrivilegeLongestDepthMapWideSharedAggregates() {
+        AtomicInteger visits = new AtomicInteger();
+        CountingPrivilege jcrAll = new CountingPrivilege(PrivilegeConstants.JCR_ALL, visits);
+        CountingPrivilege top = new CountingPrivilege("top", visits);
+        jcrAll.declaredAggregatePrivileges.add(top);
+        List<CountingPrivilege> leaves = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            CountingPrivilege leaf = new CountingPrivilege("leaf" + i, visits);
+            leaves.add(leaf);
+            jcrAll.declaredAggregatePrivileges.add(leaf);
+        }
+        for (int i = 0; i < 50; i++) {
+            CountingPrivilege aggregate = new CountingPrivilege("aggregate" + i, visits);
+            aggregate.declaredAggregatePrivileges.addAll(leaves);
+            top.declaredAggregatePrivileges.add(aggregate);
+            jcrAll.declaredAggregatePrivileges.add(aggregate);
+        }
+
+        Map<Privilege, Integer> depthMap = PrivilegesHelper.buildPrivilegeLongestDepthMap(jcrAll);
+        assertEquals(1 + 1 + 50 + 1000, depthMap.size());
+        assertEquals(Integer.valueOf(2), depthMap.get(top));
+        for (CountingPrivilege leaf : leaves) {
+            assertEquals(Integer.valueOf(4), depthMap.get(leaf));
+        }
+        // each privilege is expanded only once
+        assertEquals(depthMap.size(), visits.get());
+    }
+
     @Test
     public void testAllowLocalPriv() throws RepositoryException {
         Map<Privilege, LocalPrivilege> merged = new HashMap<>();
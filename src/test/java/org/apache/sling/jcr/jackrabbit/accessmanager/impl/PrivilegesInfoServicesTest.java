@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetAcl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.GetEffectiveAcl;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PrivilegesInfoServices}
+ */
+public class PrivilegesInfoServicesTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Test
+    public void testTrackers() {
+        GetAcl getAcl = (session, path) -> null;
+        context.registerService(GetAcl.class, getAcl);
+        PrivilegesInfoServices services = context.registerInjectActivateService(new PrivilegesInfoServices());
+        assertSame(services, PrivilegesInfoServices.getInstance());
+        assertSame(getAcl, services.getService(GetAcl.class));
+        assertNull(services.getService(GetEffectiveAcl.class));
+
+        // services registered later are tracked too
+        GetEffectiveAcl getEffectiveAcl = (session, path) -> null;
+        context.registerService(GetEffectiveAcl.class, getEffectiveAcl);
+        assertSame(getEffectiveAcl, services.getService(GetEffectiveAcl.class));
+
+        MockOsgi.deactivate(services, context.bundleContext());
+        assertNull(PrivilegesInfoServices.getInstance());
+
+        // a caller that still holds the instance gets no service
+        assertNull(services.getService(GetAcl.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotTracked() {
+        PrivilegesInfoServices services = context.registerInjectActivateService(new PrivilegesInfoServices());
+        services.getService(String.class);
+    }
+
+}
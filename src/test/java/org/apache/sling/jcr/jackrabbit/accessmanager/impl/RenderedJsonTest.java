@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link RenderedJson}
+ */
+public class RenderedJsonTest {
+
+    private final Consumer<JsonGenerator> writer = generator -> generator.writeStartObject()
+            .writeStartObject("everyone")
+                .write("granted", "jcr:read")
+            .writeEnd()
+        .writeEnd();
+
+    @Test
+    public void testETag() {
+        RenderedJson rendered = RenderedJson.render(writer);
+        assertEquals(RenderedJson.toETag(writer), rendered.getETag());
+        assertEquals(34, rendered.getETag().length());
+        assertNotEquals(RenderedJson.toETag(generator -> generator.writeStartObject().writeEnd()), rendered.getETag());
+    }
+
+    @Test
+    public void testWriteToStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RenderedJson.render(writer).writeTo(out);
+        assertEquals("{\"everyone\":{\"granted\":\"jcr:read\"}}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteToGenerator() {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            RenderedJson.render(writer).writeTo(generator);
+        }
+        assertEquals("{\"everyone\":{\"granted\":\"jcr:read\"}}", out.toString());
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RestrictionSet}
+ */
+public class RestrictionSetTest {
+
+    private Map<String, RestrictionDefinition> srMap;
+
+    @Before
+    public void setup() {
+        srMap = new HashMap<>();
+        for (RestrictionDefinition restrictionDefinition : new RestrictionProviderImpl().getSupportedRestrictions("/")) {
+            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
+        }
+    }
+
+    private LocalRestriction glob(String value) {
+        return new LocalRestriction(srMap.get(AccessControlConstants.REP_GLOB),
+                ValueFactoryImpl.getInstance().createValue(value));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(RestrictionSet.EMPTY, RestrictionSet.of(null));
+        assertSame(RestrictionSet.EMPTY, RestrictionSet.of(Collections.emptySet()));
+        assertTrue(RestrictionSet.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void testOf() {
+        RestrictionSet set1 = RestrictionSet.of(new HashSet<>(Arrays.asList(glob("/a"), glob("/b"))));
+        RestrictionSet set2 = RestrictionSet.of(Arrays.asList(glob("/b"), glob("/a"), glob("/b")));
+        // equal but not pooled across operations
+        assertEquals(set1, set2);
+        assertNotSame(set1, set2);
+        assertTrue(RestrictionSet.same(set1, set2));
+        assertSame(set1, RestrictionSet.of(set1));
+        assertEquals(2, set1.size());
+        assertTrue(set1.contains(glob("/a")));
+        assertFalse(set1.contains(glob("/c")));
+    }
+
+    @Test
+    public void testEqualsOtherSets() {
+        Set<LocalRestriction> hashSet = new HashSet<>(Arrays.asList(glob("/a"), glob("/b")));
+        RestrictionSet set = RestrictionSet.of(hashSet);
+        assertEquals(hashSet, set);
+        assertEquals(set, hashSet);
+        assertEquals(hashSet.hashCode(), set.hashCode());
+        assertTrue(RestrictionSet.same(set, hashSet));
+        assertFalse(RestrictionSet.same(set, RestrictionSet.of(Collections.singleton(glob("/a")))));
+    }
+
+    private LocalRestriction itemNames(String ... names) {
+        Value[] values = new Value[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = ValueFactoryImpl.getInstance().createValue(names[i]);
+        }
+        return new LocalRestriction(srMap.get(AccessControlConstants.REP_ITEM_NAMES), values);
+    }
+
+    @Test
+    public void testMergeMultiValue() {
+        RestrictionSet current = RestrictionSet.of(Arrays.asList(glob("/a"), itemNames("item1", "item2")));
+        RestrictionSet merged = current.merge(Collections.singleton(itemNames("item2", "item3")));
+        assertEquals(RestrictionSet.of(Arrays.asList(glob("/a"), itemNames("item1", "item2", "item3"))), merged);
+
+        // merging again changes nothing so the same instance is returned
+        assertSame(merged, merged.merge(Collections.singleton(itemNames("item3"))));
+        assertSame(merged, merged.merge(Collections.singleton(glob("/a"))));
+        assertSame(merged, merged.merge(Collections.emptySet()));
+    }
+
+    @Test
+    public void testMergeSingleValue() {
+        RestrictionSet current = RestrictionSet.of(Collections.singleton(glob("/a")));
+        RestrictionSet merged = current.merge(Collections.singleton(glob("/b")));
+        assertEquals(new HashSet<>(Arrays.asList(glob("/a"), glob("/b"))), merged);
+        assertSame(current, current.merge(Collections.singleton(glob("/a"))));
+        assertSame(current, RestrictionSet.EMPTY.merge(current));
+    }
+
+    @Test
+    public void testWithout() {
+        RestrictionSet current = RestrictionSet.of(Arrays.asList(glob("/a"), itemNames("item1")));
+        assertSame(current, current.without(Collections.singleton(AccessControlConstants.REP_NT_NAMES)));
+        assertEquals(Collections.singleton(itemNames("item1")),
+                current.without(Collections.singleton(AccessControlConstants.REP_GLOB)));
+        assertSame(RestrictionSet.EMPTY,
+                current.without(Arrays.asList(AccessControlConstants.REP_GLOB, AccessControlConstants.REP_ITEM_NAMES)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        RestrictionSet.of(Collections.singleton(glob("/a"))).removeIf(r -> true);
+    }
+
+}
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
@@ -40,6 +41,9 @@ import javax.json.JsonValue.ValueType;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.NameValuePair;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
@@ -123,6 +127,38 @@ public class ModifyAceIT extends AccessManagerClientTestSupport {
         assertPrivilege(privilegesObject, true, PrivilegeValues.DENY, PrivilegeConstants.JCR_WRITE);
     }
 
+    /**
+     * Test to verify that the :replace parameter replaces the stored ACE
+     * instead of merging with it
+     */
+    @Test
+    public void testReplaceAceForUser() throws IOException, JsonException {
+        testUserId = createTestUser();
+
+        testFolderUrl = createTestFolder();
+
+        List<NameValuePair> postParams = new AcePostParamsBuilder(testUserId)
+                .withPrivilege(PrivilegeConstants.JCR_READ, PrivilegeValues.ALLOW)
+                .withPrivilege(PrivilegeConstants.JCR_WRITE, PrivilegeValues.DENY)
+                .build();
+        addOrUpdateAce(testFolderUrl, postParams);
+
+        // replace the ACE
+        postParams = new AcePostParamsBuilder(testUserId)
+                .withPrivilege(PrivilegeConstants.JCR_LOCK_MANAGEMENT, PrivilegeValues.ALLOW)
+                .with(":replace", "true")
+                .build();
+        addOrUpdateAce(testFolderUrl, postParams);
+
+        JsonObject aceObject = getAce(testFolderUrl, testUserId);
+        assertNotNull(aceObject);
+
+        JsonObject privilegesObject = aceObject.getJsonObject("privileges");
+        assertNotNull(privilegesObject);
+        assertEquals(1, privilegesObject.size());
+        assertPrivilege(privilegesObject, true, PrivilegeValues.ALLOW, PrivilegeConstants.JCR_LOCK_MANAGEMENT);
+    }
+
     /**
      * Test for SLING-7831
      */
@@ -623,6 +659,36 @@ public class ModifyAceIT extends AccessManagerClientTestSupport {
     }
 
 
+    /**
+     * Test to verify setting the order of all the principals of
+     * the ACL at once
+     */
+    @Test
+    public void testReorderAcl() throws IOException, JsonException {
+        createAceOrderTestFolderWithOneAce();
+
+        testGroupId = createTestGroup();
+        addOrUpdateAce(testFolderUrl, testGroupId, true, null);
+
+        String postUrl = testFolderUrl + ".reorderAcl.html";
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair("principalId", testGroupId));
+        postParams.add(new BasicNameValuePair("principalId", testUserId));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, postParams, null);
+
+        JsonObject aclObject = getAcl(testFolderUrl);
+        assertNotNull(aclObject);
+        assertEquals(2, aclObject.size());
+
+        JsonObject group = aclObject.getJsonObject(testGroupId);
+        assertNotNull(group);
+        assertEquals(0, group.getInt("order"));
+        JsonObject user =  aclObject.getJsonObject(testUserId);
+        assertNotNull(user);
+        assertEquals(1, user.getInt("order"));
+    }
+
     /**
      * Helper to create a test folder with a single ACE pre-created
      */
@@ -1169,6 +1235,37 @@ public class ModifyAceIT extends AccessManagerClientTestSupport {
         assertEquals(testUserId, change.getString("argument"));
     }
 
+    /**
+     * Test to verify that the "changes" list of a modifyAce response reports
+     * the principal as unchanged when the ACE is already in the requested state
+     */
+    @Test
+    public void testModifyAceUnchangedInResponse() throws IOException, JsonException {
+        testUserId = createTestUser();
+
+        testFolderUrl = createTestFolder();
+
+        // update the ACE
+        List<NameValuePair> postParams = new AcePostParamsBuilder(testUserId)
+                .with(":http-equiv-accept", JSONResponse.RESPONSE_CONTENT_TYPE)
+                .withPrivilege(PrivilegeConstants.JCR_READ, PrivilegeValues.ALLOW)
+                .withPrivilege(PrivilegeConstants.JCR_WRITE, PrivilegeValues.DENY)
+                .build();
+        addOrUpdateAce(testFolderUrl, postParams, CONTENT_TYPE_JSON);
+
+        // submit the same ACE again
+        String json = addOrUpdateAce(testFolderUrl, postParams, CONTENT_TYPE_JSON);
+        assertNotNull(json);
+
+        JsonObject jsonObject = parseJson(json);
+        JsonArray changesArray = jsonObject.getJsonArray("changes");
+        assertNotNull(changesArray);
+        assertEquals(1, changesArray.size());
+        JsonObject change = changesArray.getJsonObject(0);
+        assertEquals("unchanged", change.getString("type"));
+        assertEquals(testUserId, change.getString("argument"));
+    }
+
     private void testModifyAceRedirect(String redirectTo, int expectedStatus) throws IOException {
         testUserId = createTestUser();
 
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheKey;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclWriteLockService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.RenderedJson;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for the conflict retry and preconditions of {@link AbstractAccessPostServlet}
+ */
+public class AbstractAccessPostServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content");
+        session.save();
+        context.request().setResource(context.resourceResolver().getResource("/content"));
+    }
+
+    @Test
+    public void testIsConflict() {
+        assertTrue(AbstractAccessPostServlet.isConflict(new InvalidItemStateException()));
+        assertTrue(AbstractAccessPostServlet.isConflict(new RepositoryException("Failed to create ace.", new InvalidItemStateException())));
+        assertFalse(AbstractAccessPostServlet.isConflict(new RepositoryException()));
+        assertFalse(AbstractAccessPostServlet.isConflict(null));
+    }
+
+    @Test
+    public void testRetryConflict() throws ServletException, IOException, RepositoryException {
+        ConflictingPostServlet servlet = new ConflictingPostServlet(2, AbstractAccessPostServlet.DEFAULT_MAX_CONFLICT_RETRIES);
+        servlet.doPost(context.request(), context.response());
+
+        assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+        assertEquals(3, servlet.calls);
+        assertEquals(2, servlet.getConflictCount());
+        // only the changes of the last run are kept
+        assertTrue(session.nodeExists("/content/node3"));
+        assertFalse(session.nodeExists("/content/node1"));
+    }
+
+    @Test
+    public void testRetryConflictGivesUp() throws ServletException, IOException {
+        ConflictingPostServlet servlet = new ConflictingPostServlet(5, 1);
+        servlet.doPost(context.request(), context.response());
+
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, context.response().getStatus());
+        assertEquals(2, servlet.calls);
+        assertEquals(1, servlet.getConflictCount());
+    }
+
+    @Test
+    public void testNoRetryByDefault() throws ServletException, IOException {
+        ConflictingPostServlet servlet = new ConflictingPostServlet(1, 0);
+        servlet.doPost(context.request(), context.response());
+
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, context.response().getStatus());
+        assertEquals(1, servlet.calls);
+        assertEquals(0, servlet.getConflictCount());
+    }
+
+    @Test
+    public void testWriteLock() throws ServletException, IOException {
+        AclWriteLockService lockService = context.registerInjectActivateService(new AclWriteLockService());
+        List<Boolean> held = new ArrayList<>();
+        ConflictingPostServlet servlet = new ConflictingPostServlet(0, 0) {
+            private static final long serialVersionUID = -3151282496434935096L;
+
+            @Override
+            protected Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+                return Collections.singleton(request.getResource().getPath());
+            }
+
+            @Override
+            protected void handleOperation(SlingHttpServletRequest request, PostResponse response,
+                    List<Modification> changes) throws RepositoryException {
+                held.add(lockService.isHeldByCurrentThread("/content"));
+                super.handleOperation(request, response, changes);
+            }
+        };
+
+        // without the service nothing is locked
+        servlet.doPost(context.request(), context.response());
+        assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+
+        servlet.bindAclWriteLockService(lockService);
+        servlet.doPost(context.request(), context.response());
+        assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+        assertEquals(Arrays.asList(false, true), held);
+        assertFalse(lockService.isHeldByCurrentThread("/content"));
+    }
+
+    @Test
+    public void testInvalidateCachedModels() throws ServletException, IOException {
+        AclModelCacheService cache = context.registerInjectActivateService(new AclModelCacheService(),
+                "maxEntries", 10,
+                "ttlSeconds", 60);
+        RenderedJson model = RenderedJson.render(generator -> generator.writeStartObject().writeEnd());
+        AclModelCacheKey contentKey = new AclModelCacheKey("acl", "/content", "admin", null);
+        AclModelCacheKey otherKey = new AclModelCacheKey("acl", "/other", "admin", null);
+        List<String> writeKeys = new ArrayList<>();
+        ConflictingPostServlet servlet = new ConflictingPostServlet(0, 0) {
+            private static final long serialVersionUID = 5398823390170187916L;
+
+            @Override
+            protected Collection<String> getWriteLockKeys(SlingHttpServletRequest request) {
+                return writeKeys;
+            }
+        };
+        servlet.bindAclModelCacheService(cache);
+
+        // only the written path is evicted
+        writeKeys.add("/content");
+        cache.put(contentKey, model, cache.getStamp());
+        cache.put(otherKey, model, cache.getStamp());
+        servlet.doPost(context.request(), context.response());
+        assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+        assertNull(cache.get(contentKey));
+        assertNotNull(cache.get(otherKey));
+
+        // a principal-based write evicts all paths
+        writeKeys.set(0, AbstractAccessPostServlet.PRINCIPAL_LOCK_KEY_PREFIX + "everyone");
+        cache.put(contentKey, model, cache.getStamp());
+        servlet.doPost(context.request(), context.response());
+        assertEquals(0, cache.size());
+
+        // as does a write of unknown access control lists
+        writeKeys.clear();
+        cache.put(contentKey, model, cache.getStamp());
+        cache.put(otherKey, model, cache.getStamp());
+        servlet.doPost(context.request(), context.response());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testIfMatch() throws ServletException, IOException, RepositoryException {
+        GetAclServlet getAcl = new GetAclServlet();
+        String etag = AbstractAccessServlet.toETag(getAcl.getAcl(session, "/content"));
+        ConflictingPostServlet servlet = new ConflictingPostServlet(0, 0);
+
+        // without the service the precondition can not be checked
+        MockSlingHttpServletResponse response = post(servlet, etag);
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, response.getStatus());
+        assertEquals(0, servlet.calls);
+
+        servlet.bindGetAcl(getAcl);
+        response = post(servlet, "\"other\"");
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, response.getStatus());
+        assertEquals(0, servlet.calls);
+
+        response = post(servlet, etag);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(1, servlet.calls);
+    }
+
+    @Test
+    public void testIfMatchPrincipalAce() throws ServletException, IOException, RepositoryException {
+        GetAclServlet getAcl = new GetAclServlet();
+        String etag = AbstractAccessServlet.toETag(getAcl.getAcl(session, "/content"));
+        ModifyPrincipalAceServlet servlet = new ModifyPrincipalAceServlet();
+        servlet.bindGetAcl(getAcl);
+
+        // the etag of the resource based acl does not apply to the principal-based acl
+        MockSlingHttpServletResponse response = post(servlet, etag);
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, response.getStatus());
+    }
+
+    private MockSlingHttpServletResponse post(AbstractAccessPostServlet servlet, String ifMatch) throws ServletException, IOException {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        request.addHeader(AbstractAccessServlet.HEADER_IF_MATCH, ifMatch);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doPost(request, response);
+        return response;
+    }
+
+    /**
+     * Adds a node on each call and reports a conflict for the first calls
+     */
+    private static class ConflictingPostServlet extends AbstractAccessPostServlet {
+        private static final long serialVersionUID = 2403540713386911372L;
+
+        private final int conflicts;
+        private final int maxRetries;
+        private int calls;
+
+        ConflictingPostServlet(int conflicts, int maxRetries) {
+            this.conflicts = conflicts;
+            this.maxRetries = maxRetries;
+        }
+
+        @Override
+        protected int getMaxConflictRetries() {
+            return maxRetries;
+        }
+
+        @Override
+        protected void handleOperation(SlingHttpServletRequest request, PostResponse response,
+                List<Modification> changes) throws RepositoryException {
+            calls++;
+            Session session = request.getResourceResolver().adaptTo(Session.class);
+            session.getNode("/content").addNode("node" + calls);
+            changes.add(Modification.onModified("/content/node" + calls));
+            if (calls <= conflicts) {
+                throw new RepositoryException("Failed to create ace.", new InvalidItemStateException("conflict"));
+            }
+        }
+    }
+
+}
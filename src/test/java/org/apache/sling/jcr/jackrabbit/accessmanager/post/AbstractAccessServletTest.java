@@ -18,6 +18,12 @@ package org.apache.sling.jcr.jackrabbit.accessmanager.post;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.CompositeRestrictionProvider;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
 import org.apache.sling.jcr.jackrabbit.accessmanager.it.CustomRestrictionProviderImpl;
@@ -78,6 +84,41 @@ public class AbstractAccessServletTest {
         assertNotNull(tas.getRestrictionProvider());
     }
 
+    @Test
+    public void testToETag() {
+        JsonObject json = Json.createObjectBuilder()
+                .add("everyone", Json.createObjectBuilder().add("order", 0))
+                .build();
+        String etag = AbstractAccessServlet.toETag(json);
+        assertTrue(etag.matches("\"[0-9a-f]{32}\""));
+
+        // the same model has the same entity tag
+        assertEquals(etag, AbstractAccessServlet.toETag(Json.createObjectBuilder()
+                .add("everyone", Json.createObjectBuilder().add("order", 0))
+                .build()));
+
+        // a different model has a different entity tag
+        assertNotEquals(etag, AbstractAccessServlet.toETag(Json.createObjectBuilder()
+                .add("everyone", Json.createObjectBuilder().add("order", 1))
+                .build()));
+    }
+
+    @Test
+    public void testIsETagListed() {
+        String etag = "\"abc\"";
+        assertFalse(AbstractAccessServlet.isETagListed(null, etag, true));
+        assertFalse(AbstractAccessServlet.isETagListed(Collections.emptyEnumeration(), etag, true));
+        assertTrue(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("\"abc\"")), etag, false));
+        assertTrue(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("\"xyz\", \"abc\"")), etag, false));
+        assertTrue(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("\"xyz\"", "\"abc\"")), etag, false));
+        assertTrue(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("*")), etag, false));
+        assertFalse(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("\"xyz\"")), etag, false));
+
+        // weak entity tags only match with the weak comparison
+        assertTrue(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("W/\"abc\"")), etag, true));
+        assertFalse(AbstractAccessServlet.isETagListed(Collections.enumeration(Arrays.asList("W/\"abc\"")), etag, false));
+    }
+
     private class TestAccessServlet extends AbstractAccessServlet {
         private static final long serialVersionUID = -2948341218853558959L;
     }
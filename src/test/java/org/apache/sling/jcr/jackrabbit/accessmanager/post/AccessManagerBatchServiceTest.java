@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlList;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicy;
+
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult.Status;
+import org.apache.sling.jcr.jackrabbit.accessmanager.BatchOptions;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AccessManagerBatchService}
+ */
+public class AccessManagerBatchServiceTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private AccessManagerBatchService batch;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content").addNode("a");
+        session.getNode("/content").addNode("b");
+        session.save();
+
+        ModifyAceServlet modifyAceServlet = new ModifyAceServlet();
+        modifyAceServlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        ModifyPrincipalAceServlet modifyPrincipalAceServlet = new ModifyPrincipalAceServlet();
+        modifyPrincipalAceServlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        batch = new AccessManagerBatchService();
+        batch.bindModifyAce(modifyAceServlet);
+        batch.bindModifyPrincipalAce(modifyPrincipalAceServlet);
+    }
+
+    private AccessControlEntry[] entries(String path) throws RepositoryException {
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        for (AccessControlPolicy policy : acm.getPolicies(path)) {
+            if (policy instanceof AccessControlList) {
+                return ((AccessControlList)policy).getAccessControlEntries();
+            }
+        }
+        return new AccessControlEntry[0];
+    }
+
+    @Test
+    public void testApply() throws RepositoryException {
+        List<AceOperation> operations = Arrays.asList(
+                AceOperation.modifyAce("/content/a", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null),
+                AceOperation.modifyAce("/content/b", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null),
+                AceOperation.modifyAce("/content/a", "invalid",
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null),
+                AceOperation.modifyAce("/content/a", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_WRITE, "deny"), null, null, null, null),
+                AceOperation.deleteAce("/content/b", EveryonePrincipal.NAME));
+        List<AceOperationResult> results = batch.apply(session, operations, new BatchOptions());
+
+        assertEquals(operations.size(), results.size());
+        assertEquals(Status.MODIFIED, results.get(0).getStatus());
+        assertEquals(Status.MODIFIED, results.get(1).getStatus());
+        assertEquals(Status.FAILED, results.get(2).getStatus());
+        assertNotNull(results.get(2).getException());
+        assertEquals(Status.MODIFIED, results.get(3).getStatus());
+        assertEquals(Status.DELETED, results.get(4).getStatus());
+        for (int i = 0; i < operations.size(); i++) {
+            assertEquals(operations.get(i), results.get(i).getOperation());
+        }
+
+        assertFalse(session.hasPendingChanges());
+        assertEquals(2, entries("/content/a").length);
+        assertEquals(0, entries("/content/b").length);
+    }
+
+    @Test
+    public void testApplyUnchanged() throws RepositoryException {
+        List<AceOperation> operations = Collections.singletonList(
+                AceOperation.modifyAce("/content/a", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null));
+        assertEquals(Status.MODIFIED, batch.apply(session, operations, new BatchOptions()).get(0).getStatus());
+        assertEquals(Status.UNCHANGED, batch.apply(session, operations, new BatchOptions()).get(0).getStatus());
+
+        // nothing to delete
+        assertEquals(Status.UNCHANGED, batch.apply(session,
+                Collections.singletonList(AceOperation.deleteAce("/content/b", EveryonePrincipal.NAME)),
+                new BatchOptions()).get(0).getStatus());
+    }
+
+    @Test
+    public void testApplyWithoutAutoSave() throws RepositoryException {
+        List<AceOperation> operations = Arrays.asList(
+                AceOperation.modifyAce("/content/a", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null),
+                AceOperation.modifyAce("/content/b", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null));
+        List<AceOperationResult> results = batch.apply(session, operations, new BatchOptions().withAutoSave(false).withSaveEvery(1));
+        assertEquals(Status.MODIFIED, results.get(0).getStatus());
+        assertEquals(Status.MODIFIED, results.get(1).getStatus());
+        assertTrue(session.hasPendingChanges());
+    }
+
+    @Test
+    public void testApplyWithSaveEvery() throws RepositoryException {
+        List<AceOperation> operations = Arrays.asList(
+                AceOperation.modifyAce("/content/a", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null),
+                AceOperation.modifyAce("/content/b", EveryonePrincipal.NAME,
+                        Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, null, null, null));
+        List<AceOperationResult> results = batch.apply(session, operations, new BatchOptions().withSaveEvery(1));
+        assertEquals(Status.MODIFIED, results.get(0).getStatus());
+        assertEquals(Status.MODIFIED, results.get(1).getStatus());
+        assertFalse(session.hasPendingChanges());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSaveEvery() {
+        new BatchOptions().withSaveEvery(-1);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.json.Json;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperation.Type;
+import org.apache.sling.servlets.post.AbstractPostResponse;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AclBatchServlet}
+ */
+public class AclBatchServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private AclBatchServlet servlet;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content").addNode("a");
+        session.save();
+
+        ModifyAceServlet modifyAceServlet = new ModifyAceServlet();
+        modifyAceServlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        ModifyPrincipalAceServlet modifyPrincipalAceServlet = new ModifyPrincipalAceServlet();
+        modifyPrincipalAceServlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        AccessManagerBatchService batch = new AccessManagerBatchService();
+        batch.bindModifyAce(modifyAceServlet);
+        batch.bindModifyPrincipalAce(modifyPrincipalAceServlet);
+
+        servlet = new AclBatchServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        servlet.bindAccessManagerBatch(batch);
+    }
+
+    private List<AceOperation> read(String json) throws RepositoryException {
+        return servlet.readOperations(Json.createParser(new StringReader(json)), "/content", session.getValueFactory());
+    }
+
+    @Test
+    public void testReadOperations() throws RepositoryException {
+        List<AceOperation> operations = read("["
+                + "{\"operation\":\"modifyAce\",\"path\":\"/content/a\",\"principalId\":\"everyone\","
+                + "\"privileges\":{\"jcr:read\":\"allow\",\"jcr:write\":\"deny\"},\"order\":\"first\","
+                + "\"restrictions\":{\"rep:glob\":\"*.txt\",\"rep:itemNames\":[\"item1\",\"item2\"]},"
+                + "\"removeRestrictions\":[\"rep:ntNames\"],\"ignored\":{\"nested\":[1,2]}},"
+                + "{\"operation\":\"deleteAce\",\"principalId\":\"everyone\"},"
+                + "{\"operation\":\"modifyPAce\",\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"operation\":\"deletePAce\",\"path\":\"/content/a\",\"principalId\":\"everyone\"}"
+                + "]");
+        assertEquals(4, operations.size());
+
+        AceOperation modifyAce = operations.get(0);
+        assertEquals(Type.MODIFY_ACE, modifyAce.getType());
+        assertEquals("/content/a", modifyAce.getResourcePath());
+        assertEquals(EveryonePrincipal.NAME, modifyAce.getPrincipalId());
+        assertEquals(Arrays.asList(PrivilegeConstants.JCR_READ, PrivilegeConstants.JCR_WRITE), new ArrayList<>(modifyAce.getPrivileges().keySet()));
+        assertEquals("deny", modifyAce.getPrivileges().get(PrivilegeConstants.JCR_WRITE));
+        assertEquals("first", modifyAce.getOrder());
+        assertEquals("*.txt", modifyAce.getRestrictions().get(AccessControlConstants.REP_GLOB).getString());
+        assertArrayEquals(new String[] {"item1", "item2"},
+                Arrays.stream(modifyAce.getMvRestrictions().get(AccessControlConstants.REP_ITEM_NAMES)).map(v -> {
+                    try {
+                        return v.getString();
+                    } catch (RepositoryException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }).toArray());
+        assertEquals(Collections.singleton(AccessControlConstants.REP_NT_NAMES), modifyAce.getRemoveRestrictionNames());
+
+        assertEquals(Type.DELETE_ACE, operations.get(1).getType());
+        assertEquals("/content", operations.get(1).getResourcePath());
+        assertEquals(Type.MODIFY_PRINCIPAL_ACE, operations.get(2).getType());
+        assertNull(operations.get(2).getOrder());
+        assertEquals(Type.DELETE_PRINCIPAL_ACE, operations.get(3).getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOperationsNotArray() throws RepositoryException {
+        read("{\"operation\":\"modifyAce\"}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOperationsInvalidOperation() throws RepositoryException {
+        read("[{\"operation\":\"bogus\",\"principalId\":\"everyone\"}]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOperationsMissingPrincipal() throws RepositoryException {
+        read("[{\"operation\":\"deleteAce\"}]");
+    }
+
+    private List<String> handleOperation(Map<String, Object> parameters) throws RepositoryException {
+        context.request().setResource(context.resourceResolver().getResource("/content"));
+        context.request().setParameterMap(parameters);
+        context.request().setContent(("["
+                + "{\"operation\":\"modifyAce\",\"path\":\"/content/a\",\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"operation\":\"modifyAce\",\"path\":\"/content/a\",\"principalId\":\"invalid\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"operation\":\"deleteAce\",\"principalId\":\"everyone\"}"
+                + "]").getBytes(StandardCharsets.UTF_8));
+        List<String> changes = new ArrayList<>();
+        AbstractPostResponse response = new AbstractPostResponse() {
+            @Override
+            public void onChange(String type, String... arguments) {
+                changes.add(type + " " + String.join(" ", arguments));
+            }
+            @Override
+            protected void doSend(HttpServletResponse response) {
+                // not used
+            }
+        };
+        try {
+            servlet.handleOperation(context.request(), response, new ArrayList<>());
+        } finally {
+            assertEquals(Arrays.asList(
+                    "modified /content/a everyone",
+                    "failed /content/a invalid Invalid principalId was submitted.",
+                    "unchanged /content everyone"), changes);
+        }
+        return changes;
+    }
+
+    @Test
+    public void testHandleOperationFailureDiscardsAllChanges() throws RepositoryException {
+        try {
+            handleOperation(Collections.emptyMap());
+            fail("Expected the batch to fail");
+        } catch (RepositoryException e) {
+            assertEquals("1 of 3 operations failed so none of the changes were saved", e.getMessage());
+        }
+        assertFalse(session.hasPendingChanges());
+        assertEquals(0, session.getAccessControlManager().getPolicies("/content/a").length);
+    }
+
+    @Test
+    public void testHandleOperationChunkedSavesPartially() throws RepositoryException {
+        handleOperation(Collections.singletonMap(AclBatchServlet.PARAM_SAVE_EVERY, new String[] {"1"}));
+        assertFalse(session.hasPendingChanges());
+        assertEquals(1, session.getAccessControlManager().getPolicies("/content/a").length);
+    }
+
+}
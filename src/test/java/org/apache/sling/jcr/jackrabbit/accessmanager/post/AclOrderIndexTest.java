@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AclOrderIndex}
+ */
+public class AclOrderIndexTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Principal user1;
+    private Principal user2;
+    private Principal user3;
+    private JackrabbitAccessControlList acl;
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content");
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        user1 = userManager.createUser("user1", "testPwd").getPrincipal();
+        user2 = userManager.createUser("user2", "testPwd").getPrincipal();
+        user3 = userManager.createUser("user3", "testPwd").getPrincipal();
+
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        Privilege[] read = new Privilege[] {acm.privilegeFromName(PrivilegeConstants.JCR_READ)};
+        Privilege[] write = new Privilege[] {acm.privilegeFromName(PrivilegeConstants.JCR_WRITE)};
+        acl = (JackrabbitAccessControlList)acm.getApplicablePolicies("/content").nextAccessControlPolicy();
+        acl.addEntry(user1, write, false);
+        acl.addEntry(user1, read, true);
+        acl.addEntry(user2, read, true);
+        acl.addEntry(user3, read, true);
+    }
+
+    private List<String> principalNames() throws RepositoryException {
+        List<String> names = new ArrayList<>();
+        for (AccessControlEntry ace : acl.getAccessControlEntries()) {
+            names.add(ace.getPrincipal().getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testResolveBeforeEntry() throws RepositoryException {
+        AccessControlEntry[] entries = acl.getAccessControlEntries();
+        AclOrderIndex index = new AclOrderIndex(entries);
+        assertEquals(Arrays.asList(user1, user2, user3), index.getPrincipals());
+        assertEquals(Arrays.asList(entries[0], entries[1]), index.getEntries(user1));
+
+        assertSame(entries[0], index.resolveBeforeEntry("first"));
+        assertNull(index.resolveBeforeEntry("last"));
+        assertSame(entries[2], index.resolveBeforeEntry("before user2"));
+        assertSame(entries[2], index.resolveBeforeEntry("after user1"));
+        assertSame(entries[0], index.resolveBeforeEntry("0"));
+        assertSame(entries[2], index.resolveBeforeEntry("1"));
+        // the index of the last principal is the same as the default
+        assertNull(index.resolveBeforeEntry("2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveBeforeEntryMissingBefore() throws RepositoryException {
+        new AclOrderIndex(acl.getAccessControlEntries()).resolveBeforeEntry("before missing");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveBeforeEntryAfterLast() throws RepositoryException {
+        new AclOrderIndex(acl.getAccessControlEntries()).resolveBeforeEntry("after user3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveBeforeEntryInvalid() throws RepositoryException {
+        new AclOrderIndex(acl.getAccessControlEntries()).resolveBeforeEntry("invalid");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testResolveBeforeEntryTooLarge() throws RepositoryException {
+        new AclOrderIndex(acl.getAccessControlEntries()).resolveBeforeEntry("5");
+    }
+
+    @Test
+    public void testApplyOrder() throws RepositoryException {
+        assertTrue(new AclOrderIndex(acl.getAccessControlEntries()).applyOrder(acl, Arrays.asList(user3, user1)));
+        assertEquals(Arrays.asList("user3", "user1", "user1", "user2"), principalNames());
+
+        // already in that order
+        assertFalse(new AclOrderIndex(acl.getAccessControlEntries()).applyOrder(acl, Arrays.asList(user3, user1, user2)));
+        assertFalse(new AclOrderIndex(acl.getAccessControlEntries()).applyOrder(acl, Collections.singletonList(user3)));
+        assertEquals(Arrays.asList("user3", "user1", "user1", "user2"), principalNames());
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.AclModelCacheService;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.JsonConvert;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for the conditional requests and caching of {@link GetAclServlet}
+ */
+public class GetAclServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private GetAclServlet servlet;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content");
+        session.save();
+        servlet = new GetAclServlet();
+    }
+
+    private MockSlingHttpServletResponse get(String ifNoneMatch) throws ServletException, IOException {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        if (ifNoneMatch != null) {
+            request.addHeader(AbstractAccessServlet.HEADER_IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        return response;
+    }
+
+    @Test
+    public void testETag() throws ServletException, IOException, RepositoryException {
+        MockSlingHttpServletResponse response = get(null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        String etag = response.getHeader(AbstractAccessServlet.HEADER_ETAG);
+        assertNotNull(etag);
+        assertEquals(AbstractAccessServlet.toETag(servlet.getAcl(session, "/content")), etag);
+
+        // changing the ACL changes the entity tag
+        addEveryoneReadEntry();
+        response = get(null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNotEquals(etag, response.getHeader(AbstractAccessServlet.HEADER_ETAG));
+
+        // the streamed response is the same as the JSON of the API
+        JsonObject json = servlet.getAcl(session, "/content");
+        assertEquals(AbstractAccessServlet.toETag(json), response.getHeader(AbstractAccessServlet.HEADER_ETAG));
+        assertEquals(json, Json.createReader(new StringReader(response.getOutputAsString())).readObject());
+    }
+
+    @Test
+    public void testAddExtraInfoOverride() throws ServletException, IOException, RepositoryException {
+        addEveryoneReadEntry();
+        servlet = new GetAclServlet() {
+            private static final long serialVersionUID = -1402765471296426384L;
+
+            @Override
+            protected void addExtraInfo(JsonObjectBuilder principalJson, Principal principal,
+                    Map<Principal, Map<DeclarationType, Set<String>>> principalToDeclaredAtPaths) {
+                principalJson.add("extra", principal.getName());
+            }
+        };
+
+        // the streamed response includes the data added by the override
+        JsonObject json = Json.createReader(new StringReader(get(null).getOutputAsString())).readObject();
+        assertEquals(EveryonePrincipal.NAME, json.getJsonObject(EveryonePrincipal.NAME).getString("extra"));
+        assertEquals(servlet.getAcl(session, "/content"), json);
+    }
+
+    @Test
+    public void testConvertToJsonOverride() throws ServletException, IOException, RepositoryException {
+        addEveryoneReadEntry();
+        servlet = new GetAclServlet() {
+            private static final long serialVersionUID = 4718904622937153305L;
+
+            @Override
+            protected JsonObjectBuilder convertToJson(List<Entry<Principal, Map<Privilege, LocalPrivilege>>> entrySetList,
+                    Map<Principal, Map<DeclarationType, Set<String>>> declaredAtPaths) {
+                return super.convertToJson(entrySetList, declaredAtPaths).add("count", entrySetList.size());
+            }
+        };
+
+        // the streamed response is the JSON built by the override
+        JsonObject json = Json.createReader(new StringReader(get(null).getOutputAsString())).readObject();
+        assertEquals(1, json.getInt("count"));
+        assertEquals(servlet.getAcl(session, "/content"), json);
+    }
+
+    @Test
+    public void testCache() throws ServletException, IOException, RepositoryException {
+        AclModelCacheService cache = context.registerInjectActivateService(new AclModelCacheService());
+        servlet.bindAclModelCacheService(cache);
+        String etag = get(null).getHeader(AbstractAccessServlet.HEADER_ETAG);
+        assertEquals(1, cache.size());
+
+        // served from the cache until the change is observed
+        addEveryoneReadEntry();
+        assertEquals(etag, get(null).getHeader(AbstractAccessServlet.HEADER_ETAG));
+        cache.invalidate("/content");
+        assertNotEquals(etag, get(null).getHeader(AbstractAccessServlet.HEADER_ETAG));
+    }
+
+    @Test
+    public void testInfinity() throws ServletException, IOException, RepositoryException {
+        session.getNode("/content").addNode("child").addNode("grandchild");
+        session.getNode("/content").addNode("other");
+        session.save();
+        addEveryoneReadEntry("/content");
+        addEveryoneReadEntry("/content/child/grandchild");
+
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        ((MockRequestPathInfo)request.getRequestPathInfo()).setSelectorString("acl.infinity");
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNull(response.getHeader(AbstractAccessServlet.HEADER_ETAG));
+
+        // only the nodes with an ACL are included and each is the same as the single node JSON
+        JsonObject json = Json.createReader(new StringReader(response.getOutputAsString())).readObject();
+        assertEquals(new HashSet<>(Arrays.asList("/content", "/content/child/grandchild")), json.keySet());
+        assertEquals(servlet.getAcl(session, "/content"), json.getJsonObject("/content"));
+        assertEquals(servlet.getAcl(session, "/content/child/grandchild"), json.getJsonObject("/content/child/grandchild"));
+    }
+
+    @Test
+    public void testFilter() throws ServletException, IOException, RepositoryException {
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        Principal user1 = userManager.createUser("user1", "testPwd").getPrincipal();
+        Principal user2 = userManager.createUser("user2", "testPwd").getPrincipal();
+        session.save();
+        addEveryoneReadEntry();
+        addReadEntry("/content", user1);
+        addReadEntry("/content", user2);
+
+        // only the requested principals with the same order as in the full ACL
+        JsonObject full = servlet.getAcl(session, "/content");
+        Map<String, Object> params = new HashMap<>();
+        params.put(AclEntryFilter.PARAM_PRINCIPAL_ID, new String[] {"user1", "user2"});
+        JsonObject json = getJson(params);
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2")), json.keySet());
+        assertEquals(1, json.getJsonObject("user1").getInt(JsonConvert.KEY_ORDER));
+        assertEquals(2, json.getJsonObject("user2").getInt(JsonConvert.KEY_ORDER));
+        assertEquals(full.getJsonObject("user1"), json.getJsonObject("user1"));
+        assertEquals(full.getJsonObject("user2"), json.getJsonObject("user2"));
+
+        // the page is of the requested principals
+        params.put(AclEntryFilter.PARAM_OFFSET, "1");
+        json = getJson(params);
+        assertEquals(Collections.singleton("user2"), json.keySet());
+        assertEquals(full.getJsonObject("user2"), json.getJsonObject("user2"));
+
+        // a page of the principals keeps the order of the full ACL
+        params.clear();
+        params.put(AclEntryFilter.PARAM_OFFSET, "1");
+        params.put(AclEntryFilter.PARAM_LIMIT, "1");
+        json = getJson(params);
+        assertEquals(Collections.singleton("user1"), json.keySet());
+        assertEquals(full.getJsonObject("user1"), json.getJsonObject("user1"));
+
+        params.put(AclEntryFilter.PARAM_OFFSET, "3");
+        assertEquals(0, getJson(params).size());
+    }
+
+    @Test(expected = ServletException.class)
+    public void testFilterInvalidLimit() throws ServletException, IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put(AclEntryFilter.PARAM_LIMIT, "-2");
+        getJson(params);
+    }
+
+    private JsonObject getJson(Map<String, Object> params) throws ServletException, IOException {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        request.setParameterMap(params);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        return Json.createReader(new StringReader(response.getOutputAsString())).readObject();
+    }
+
+    private void addReadEntry(String path, Principal principal) throws RepositoryException {
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        JackrabbitAccessControlList acl = AccessControlUtils.getAccessControlList(acm, path);
+        acl.addEntry(principal, new Privilege[] {acm.privilegeFromName(PrivilegeConstants.JCR_READ)}, true);
+        acm.setPolicy(path, acl);
+        session.save();
+    }
+
+    private void addEveryoneReadEntry() throws RepositoryException {
+        addEveryoneReadEntry("/content");
+    }
+
+    private void addEveryoneReadEntry(String path) throws RepositoryException {
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        JackrabbitAccessControlList acl = (JackrabbitAccessControlList)acm.getApplicablePolicies(path).nextAccessControlPolicy();
+        acl.addEntry(EveryonePrincipal.getInstance(), new Privilege[] {acm.privilegeFromName(PrivilegeConstants.JCR_READ)}, true);
+        acm.setPolicy(path, acl);
+        session.save();
+    }
+
+    @Test
+    public void testIfNoneMatch() throws ServletException, IOException {
+        String etag = get(null).getHeader(AbstractAccessServlet.HEADER_ETAG);
+
+        MockSlingHttpServletResponse response = get(etag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(etag, response.getHeader(AbstractAccessServlet.HEADER_ETAG));
+        assertEquals(0, response.getOutput().length);
+
+        response = get("W/" + etag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+
+        response = get("\"other\"");
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getOutputAsString().startsWith("{"));
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.api.resource.ResourceNotFoundException;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for getting the effective ACE of many principals with {@link GetEffectiveAceServlet}
+ */
+public class GetEffectiveAceServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private GetEffectiveAceServlet servlet;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content").addNode("child");
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        Principal user1 = userManager.createUser("user1", "testPwd").getPrincipal();
+        userManager.createUser("user2", "testPwd");
+        session.save();
+        addEntry("/content", EveryonePrincipal.getInstance(), PrivilegeConstants.JCR_READ);
+        addEntry("/content/child", user1, PrivilegeConstants.JCR_WRITE);
+        addEntry("/content/child", EveryonePrincipal.getInstance(), PrivilegeConstants.JCR_READ_ACCESS_CONTROL);
+        servlet = new GetEffectiveAceServlet();
+    }
+
+    private void addEntry(String path, Principal principal, String privilegeName) throws RepositoryException {
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        JackrabbitAccessControlList acl = AccessControlUtils.getAccessControlList(acm, path);
+        acl.addEntry(principal, new Privilege[] {acm.privilegeFromName(privilegeName)}, true);
+        acm.setPolicy(path, acl);
+        session.save();
+    }
+
+    @Test
+    public void testGetEffectiveAces() throws RepositoryException {
+        JsonObject json = servlet.getEffectiveAces(session, "/content/child",
+                Arrays.asList("user1", EveryonePrincipal.NAME, "user2"));
+
+        // the same as getting each principal separately and principals without entries are left out
+        assertEquals(Arrays.asList("user1", EveryonePrincipal.NAME), Arrays.asList(json.keySet().toArray()));
+        assertEquals(servlet.getEffectiveAce(session, "/content/child", "user1"), json.getJsonObject("user1"));
+        assertEquals(servlet.getEffectiveAce(session, "/content/child", EveryonePrincipal.NAME),
+                json.getJsonObject(EveryonePrincipal.NAME));
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void testGetEffectiveAcesNotFound() throws RepositoryException {
+        servlet.getEffectiveAces(session, "/content/child", Arrays.asList("user2"));
+    }
+
+    @Test
+    public void testPids() throws ServletException, IOException, RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put(GetEffectiveAceServlet.PARAM_PRINCIPAL_IDS, new String[] {"user1", EveryonePrincipal.NAME});
+        JsonObject json = getJson(params);
+        assertEquals(servlet.getEffectiveAces(session, "/content/child", Arrays.asList("user1", EveryonePrincipal.NAME)), json);
+
+        // a single pids value is still keyed by the principal name
+        params.put(GetEffectiveAceServlet.PARAM_PRINCIPAL_IDS, new String[] {"user1"});
+        json = getJson(params);
+        assertEquals(servlet.getEffectiveAces(session, "/content/child", Arrays.asList("user1")), json);
+        assertTrue(json.containsKey("user1"));
+
+        // a pid is the ACE itself
+        params.clear();
+        params.put("pid", "user1");
+        json = getJson(params);
+        assertFalse(json.containsKey("user1"));
+        assertEquals(servlet.getEffectiveAce(session, "/content/child", "user1"), json);
+    }
+
+    private JsonObject getJson(Map<String, Object> params) throws ServletException, IOException {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content/child"));
+        request.setParameterMap(params);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        return Json.createReader(new StringReader(response.getOutputAsString())).readObject();
+    }
+
+}
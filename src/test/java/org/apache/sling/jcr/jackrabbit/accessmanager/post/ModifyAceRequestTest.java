@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.security.AccessControlException;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalRestriction;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegeIndex;
+import org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet.DeleteValues;
+import org.apache.sling.jcr.jackrabbit.accessmanager.post.ModifyAceServlet.PrivilegeValues;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ModifyAceRequest}
+ */
+public class ModifyAceRequestTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private AccessControlManager acm;
+    private ValueFactory vf;
+    private PrivilegeIndex privilegeIndex;
+    private Map<String, RestrictionDefinition> srMap;
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        acm = AccessControlUtil.getAccessControlManager(session);
+        vf = session.getValueFactory();
+        privilegeIndex = PrivilegeIndex.build(session, acm);
+        srMap = new HashMap<>();
+        for (RestrictionDefinition restrictionDefinition : new RestrictionProviderImpl().getSupportedRestrictions("/")) {
+            srMap.put(restrictionDefinition.getName(), restrictionDefinition);
+        }
+    }
+
+    private ModifyAceRequest parse(Map<String, Object> params) throws RepositoryException {
+        context.request().setParameterMap(params);
+        return ModifyAceRequest.parse(context.request(), acm, srMap, vf, privilegeIndex);
+    }
+
+    private Privilege priv(String privilegeName) throws RepositoryException {
+        return acm.privilegeFromName(privilegeName);
+    }
+
+    private LocalRestriction restriction(String restrictionName, String ... values) throws RepositoryException {
+        RestrictionDefinition rd = srMap.get(restrictionName);
+        int type = rd.getRequiredType().tag();
+        if (rd.getRequiredType().isArray()) {
+            Value[] restrictionValues = new Value[values.length];
+            for (int i = 0; i < values.length; i++) {
+                restrictionValues[i] = vf.createValue(values[i], type);
+            }
+            return new LocalRestriction(rd, restrictionValues);
+        }
+        return new LocalRestriction(rd, vf.createValue(values[0], type));
+    }
+
+    @Test
+    public void testParsePrivileges() throws RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("principalId", "everyone");
+        params.put("privilege@jcr:read", new String[] {"allow", "deny"});
+        params.put("privilege@jcr:write", "none");
+        params.put("privilege@jcr:addChildNodes@Delete", "allow");
+        ModifyAceRequest modifyAceRequest = parse(params);
+
+        Map<Privilege, Set<PrivilegeValues>> privilegeValues = modifyAceRequest.getPrivilegeValues();
+        assertEquals(2, privilegeValues.size());
+        assertEquals(EnumSet.of(PrivilegeValues.ALLOW, PrivilegeValues.DENY), privilegeValues.get(priv(PrivilegeConstants.JCR_READ)));
+        assertEquals(EnumSet.of(PrivilegeValues.NONE), privilegeValues.get(priv(PrivilegeConstants.JCR_WRITE)));
+
+        assertEquals(1, modifyAceRequest.getPrivilegeDeletes().size());
+        assertEquals(DeleteValues.ALLOW, modifyAceRequest.getPrivilegeDeletes().get(priv(PrivilegeConstants.JCR_ADD_CHILD_NODES)));
+        assertTrue(modifyAceRequest.getRestrictionDeletes().isEmpty());
+        assertTrue(modifyAceRequest.getGeneralRestrictions().isEmpty());
+    }
+
+    @Test
+    public void testParseRestrictions() throws RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("restriction@rep:glob", "/general");
+        params.put("restriction@rep:itemNames", new String[] {"item1", "item2"});
+        params.put("restriction@jcr:read@rep:glob@Allow", "/specific");
+        params.put("restriction@jcr:write@rep:ntNames@Deny", new String[] {"nt:folder"});
+        ModifyAceRequest modifyAceRequest = parse(params);
+
+        assertEquals(new HashSet<>(Arrays.asList(restriction(AccessControlConstants.REP_GLOB, "/general"),
+                    restriction(AccessControlConstants.REP_ITEM_NAMES, "item1", "item2"))),
+                modifyAceRequest.getGeneralRestrictions());
+
+        // the restriction params for a privilege also post the privilege state
+        assertEquals(EnumSet.of(PrivilegeValues.ALLOW), modifyAceRequest.getPrivilegeValues().get(priv(PrivilegeConstants.JCR_READ)));
+        assertEquals(EnumSet.of(PrivilegeValues.DENY), modifyAceRequest.getPrivilegeValues().get(priv(PrivilegeConstants.JCR_WRITE)));
+
+        // the restriction for the privilege replaces the general restriction with the same name
+        assertEquals(new HashSet<>(Arrays.asList(restriction(AccessControlConstants.REP_GLOB, "/specific"),
+                    restriction(AccessControlConstants.REP_ITEM_NAMES, "item1", "item2"))),
+                modifyAceRequest.getRestrictions(priv(PrivilegeConstants.JCR_READ), PrivilegeValues.ALLOW));
+        assertEquals(modifyAceRequest.getGeneralRestrictions(),
+                modifyAceRequest.getRestrictions(priv(PrivilegeConstants.JCR_READ), PrivilegeValues.DENY));
+        assertEquals(3, modifyAceRequest.getRestrictions(priv(PrivilegeConstants.JCR_WRITE), PrivilegeValues.DENY).size());
+    }
+
+    @Test
+    public void testParseRestrictionDeletes() throws RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("restriction@rep:glob@Delete", "yes");
+        params.put("restriction@jcr:read@rep:itemNames@Delete", new String[] {"allow", "deny"});
+        ModifyAceRequest modifyAceRequest = parse(params);
+
+        List<ModifyAceRequest.RestrictionDelete> restrictionDeletes = modifyAceRequest.getRestrictionDeletes();
+        assertEquals(2, restrictionDeletes.size());
+        for (ModifyAceRequest.RestrictionDelete restrictionDelete : restrictionDeletes) {
+            if (AccessControlConstants.REP_GLOB.equals(restrictionDelete.getRestrictionName())) {
+                assertNull(restrictionDelete.getPrivilege());
+                assertEquals(EnumSet.of(DeleteValues.ALL), restrictionDelete.getDeleteValues());
+            } else {
+                assertEquals(AccessControlConstants.REP_ITEM_NAMES, restrictionDelete.getRestrictionName());
+                assertEquals(priv(PrivilegeConstants.JCR_READ), restrictionDelete.getPrivilege());
+                assertEquals(EnumSet.of(DeleteValues.ALLOW, DeleteValues.DENY), restrictionDelete.getDeleteValues());
+            }
+        }
+    }
+
+    @Test(expected = AccessControlException.class)
+    public void testParseInvalidRestrictionName() throws RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("restriction@invalid_name", "value");
+        parse(params);
+    }
+
+    @Test(expected = AccessControlException.class)
+    public void testParseInvalidPrivilegeName() throws RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("privilege@invalid_name", "allow");
+        parse(params);
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicy;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlEntry;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.principal.PrincipalManager;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.authorization.accesscontrol.AccessControlConstants;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionDefinition;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.LocalPrivilege;
+import org.apache.sling.jcr.jackrabbit.accessmanager.impl.PrivilegesHelper;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ModifyAceServlet}
+ */
+public class ModifyAceServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private AccessControlManager acm;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        acm = AccessControlUtil.getAccessControlManager(session);
+        session.getRootNode().addNode("content");
+    }
+
+    private JackrabbitAccessControlList acl() throws RepositoryException {
+        return (JackrabbitAccessControlList)acm.getApplicablePolicies("/content").nextAccessControlPolicy();
+    }
+
+    private Privilege[] privs(String ... privilegeNames) throws RepositoryException {
+        Privilege[] privileges = new Privilege[privilegeNames.length];
+        for (int i = 0; i < privilegeNames.length; i++) {
+            privileges[i] = acm.privilegeFromName(privilegeNames[i]);
+        }
+        return privileges;
+    }
+
+    private Map<String, Value> glob(String value) throws RepositoryException {
+        return Collections.singletonMap(AccessControlConstants.REP_GLOB, session.getValueFactory().createValue(value));
+    }
+
+    @Test
+    public void testIsSameEntriesAfterReAdd() throws RepositoryException {
+        PrincipalManager principalManager = AccessControlUtil.getPrincipalManager(session);
+        JackrabbitAccessControlList acl = acl();
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ, PrivilegeConstants.JCR_WRITE), true, glob("*.txt"));
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        AccessControlEntry[] storedEntries = acl.getAccessControlEntries();
+
+        // remove and add the same entries again
+        for (AccessControlEntry entry : storedEntries) {
+            acl.removeAccessControlEntry(entry);
+        }
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_WRITE, PrivilegeConstants.JCR_READ), true, glob("*.txt"));
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        assertTrue(ModifyAceServlet.isSameEntries(storedEntries, acl.getAccessControlEntries()));
+    }
+
+    @Test
+    public void testIsSameEntriesWithChanges() throws RepositoryException {
+        PrincipalManager principalManager = AccessControlUtil.getPrincipalManager(session);
+        JackrabbitAccessControlList acl = acl();
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ), true, glob("*.txt"));
+        acl.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        AccessControlEntry[] storedEntries = acl.getAccessControlEntries();
+
+        // different restriction value
+        JackrabbitAccessControlList acl2 = acl();
+        acl2.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ), true, glob("*.html"));
+        acl2.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        assertFalse(ModifyAceServlet.isSameEntries(storedEntries, acl2.getAccessControlEntries()));
+
+        // different order
+        JackrabbitAccessControlList acl3 = acl();
+        acl3.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        acl3.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ), true, glob("*.txt"));
+        assertFalse(ModifyAceServlet.isSameEntries(storedEntries, acl3.getAccessControlEntries()));
+
+        // different privileges
+        JackrabbitAccessControlList acl4 = acl();
+        acl4.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ, PrivilegeConstants.JCR_WRITE), true, glob("*.txt"));
+        acl4.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_LOCK_MANAGEMENT), false);
+        assertFalse(ModifyAceServlet.isSameEntries(storedEntries, acl4.getAccessControlEntries()));
+
+        // missing entry
+        JackrabbitAccessControlList acl5 = acl();
+        acl5.addEntry(principalManager.getEveryone(), privs(PrivilegeConstants.JCR_READ), true, glob("*.txt"));
+        assertFalse(ModifyAceServlet.isSameEntries(storedEntries, acl5.getAccessControlEntries()));
+    }
+
+    @Test
+    public void testReplaceAce() throws RepositoryException {
+        ModifyAceServlet servlet = new ModifyAceServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        Map<String, String> privileges = new HashMap<>();
+        privileges.put(PrivilegeConstants.JCR_READ, "allow");
+        privileges.put(PrivilegeConstants.JCR_WRITE, "deny");
+        servlet.modifyAce(session, "/content", EveryonePrincipal.NAME, privileges, null,
+                glob("*.txt"), null, null, true);
+
+        // merging keeps the stored privileges
+        servlet.modifyAce(session, "/content", EveryonePrincipal.NAME,
+                Collections.singletonMap(PrivilegeConstants.JCR_LOCK_MANAGEMENT, "allow"), null,
+                null, null, null, true);
+        assertEquals(3, privilegeNames(acl("/content").getAccessControlEntries()).size());
+
+        // replacing removes anything that was not supplied
+        servlet.replaceAce(session, "/content", EveryonePrincipal.NAME,
+                Collections.singletonMap(PrivilegeConstants.JCR_LOCK_MANAGEMENT, "allow"), null,
+                null, null, true);
+        AccessControlEntry[] entries = acl("/content").getAccessControlEntries();
+        assertEquals(1, entries.length);
+        assertEquals(Collections.singleton(PrivilegeConstants.JCR_LOCK_MANAGEMENT), privilegeNames(entries));
+        assertEquals(0, ((JackrabbitAccessControlEntry)entries[0]).getRestrictionNames().length);
+        assertFalse(session.hasPendingChanges());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testDeprecatedMethodsParseRequestOnce() throws RepositoryException {
+        ModifyAceServlet servlet = new ModifyAceServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        context.currentResource("/content");
+        Map<String, Object> params = new HashMap<>();
+        params.put("privilege@" + PrivilegeConstants.JCR_READ, "allow");
+        params.put("privilege@" + PrivilegeConstants.JCR_WRITE + "@Delete", "all");
+        context.request().setParameterMap(params);
+
+        Map<Privilege, LocalPrivilege> privilegeToLocalPrivilegesMap = new HashMap<>();
+        servlet.processPostedPrivilegeDeleteParams(acm, context.request(), privilegeToLocalPrivilegesMap);
+        ModifyAceRequest parsed = parsedModifyAceRequest();
+        assertNotNull(parsed);
+
+        Map<String, RestrictionDefinition> srMap = servlet.buildRestrictionNameToDefinitionMap("/content");
+        servlet.processPostedRestrictionDeleteParams(acm, context.request(), srMap, privilegeToLocalPrivilegesMap);
+        servlet.processPostedPrivilegeAndRestrictionParams(acm, context.request(), srMap, privilegeToLocalPrivilegesMap,
+                PrivilegesHelper.buildPrivilegeLongestDepthMap(acm.privilegeFromName(PrivilegeConstants.JCR_ALL)));
+        assertSame(parsed, parsedModifyAceRequest());
+        assertTrue(privilegeToLocalPrivilegesMap.get(acm.privilegeFromName(PrivilegeConstants.REP_READ_NODES)).isAllow());
+    }
+
+    private ModifyAceRequest parsedModifyAceRequest() {
+        ModifyAceRequest parsed = null;
+        Enumeration<String> attributeNames = context.request().getAttributeNames();
+        while (attributeNames.hasMoreElements()) {
+            Object value = context.request().getAttribute(attributeNames.nextElement());
+            if (value instanceof ModifyAceRequest) {
+                assertNull(parsed);
+                parsed = (ModifyAceRequest)value;
+            }
+        }
+        return parsed;
+    }
+
+    @Test
+    public void testReorderAcl() throws RepositoryException {
+        ModifyAceServlet servlet = new ModifyAceServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        userManager.createUser("user1", "testPwd");
+        userManager.createUser("user2", "testPwd");
+        session.save();
+        Map<String, String> privileges = Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow");
+        servlet.modifyAce(session, "/content", "user1", privileges, null, true);
+        servlet.modifyAce(session, "/content", "user2", privileges, null, true);
+        servlet.modifyAce(session, "/content", EveryonePrincipal.NAME, privileges, null, true);
+
+        servlet.reorderAcl(session, "/content", Arrays.asList(EveryonePrincipal.NAME, "user2"), true);
+        assertEquals(Arrays.asList(EveryonePrincipal.NAME, "user2", "user1"), principalNames(acl("/content").getAccessControlEntries()));
+        assertFalse(session.hasPendingChanges());
+
+        // nothing is written when already in that order
+        List<Modification> changes = new ArrayList<>();
+        assertFalse(servlet.reorderAcl(session, "/content", Arrays.asList(EveryonePrincipal.NAME, "user2", "user1"), false, changes));
+        assertTrue(changes.isEmpty());
+        assertFalse(session.hasPendingChanges());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReorderAclMissingPrincipal() throws RepositoryException {
+        ModifyAceServlet servlet = new ModifyAceServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+        servlet.modifyAce(session, "/content", EveryonePrincipal.NAME,
+                Collections.singletonMap(PrivilegeConstants.JCR_READ, "allow"), null, true);
+        servlet.reorderAcl(session, "/content", Arrays.asList("missing", EveryonePrincipal.NAME), true);
+    }
+
+    private List<String> principalNames(AccessControlEntry[] entries) {
+        List<String> names = new ArrayList<>();
+        for (AccessControlEntry entry : entries) {
+            names.add(entry.getPrincipal().getName());
+        }
+        return names;
+    }
+
+    private JackrabbitAccessControlList acl(String path) throws RepositoryException {
+        for (AccessControlPolicy policy : acm.getPolicies(path)) {
+            if (policy instanceof JackrabbitAccessControlList) {
+                return (JackrabbitAccessControlList)policy;
+            }
+        }
+        return null;
+    }
+
+    private Set<String> privilegeNames(AccessControlEntry[] entries) {
+        Set<String> names = new HashSet<>();
+        for (AccessControlEntry entry : entries) {
+            for (Privilege privilege : entry.getPrivileges()) {
+                names.add(privilege.getName());
+            }
+        }
+        return names;
+    }
+
+}
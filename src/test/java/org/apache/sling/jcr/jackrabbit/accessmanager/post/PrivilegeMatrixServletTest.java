@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PrivilegeMatrixServlet}
+ */
+public class PrivilegeMatrixServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private PrivilegeMatrixServlet servlet;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        session.getRootNode().addNode("content");
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        Principal user1 = userManager.createUser("user1", "testPwd").getPrincipal();
+        Principal user2 = userManager.createUser("user2", "testPwd").getPrincipal();
+        session.save();
+        addEntry("/content", user1, PrivilegeConstants.JCR_WRITE);
+        addEntry("/content", user2, PrivilegeConstants.JCR_READ_ACCESS_CONTROL);
+        servlet = new PrivilegeMatrixServlet();
+    }
+
+    private void addEntry(String path, Principal principal, String privilegeName) throws RepositoryException {
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        JackrabbitAccessControlList acl = AccessControlUtils.getAccessControlList(acm, path);
+        acl.addEntry(principal, new Privilege[] {acm.privilegeFromName(privilegeName)}, true);
+        acm.setPolicy(path, acl);
+        session.save();
+    }
+
+    private static final List<String> PRIVILEGES = Arrays.asList(PrivilegeConstants.JCR_WRITE,
+            PrivilegeConstants.JCR_READ_ACCESS_CONTROL, PrivilegeConstants.REP_WRITE);
+
+    private static JsonArray toArray(Object... values) {
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        for (Object value : values) {
+            if (value instanceof Boolean) {
+                builder.add((Boolean)value);
+            } else {
+                builder.add((String)value);
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testGetPrivilegeMatrix() throws RepositoryException {
+        JsonObject json = servlet.getPrivilegeMatrix(session, Arrays.asList("/content", "/missing"),
+                Arrays.asList(Collections.singletonList("user1"), Arrays.asList("user1", "user2")),
+                PRIVILEGES);
+        assertEquals(toArray(PRIVILEGES.toArray()), json.getJsonArray(PrivilegeMatrixServlet.KEY_PRIVILEGES));
+        assertEquals(2, json.getJsonArray(PrivilegeMatrixServlet.KEY_PRINCIPALS).size());
+
+        JsonObject paths = json.getJsonObject(PrivilegeMatrixServlet.KEY_PATHS);
+        assertEquals(JsonValue.NULL, paths.get("/missing"));
+        JsonArray row = paths.getJsonArray("/content");
+        assertEquals(toArray(true, false, false), row.getJsonArray(0));
+        // rep:write also needs jcr:nodeTypeManagement
+        assertEquals(toArray(true, true, false), row.getJsonArray(1));
+    }
+
+    @Test
+    public void testRequest() throws ServletException, IOException, RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        // the sets are ordered by index, not by the order of the parameters
+        params.put(PrivilegeMatrixServlet.PARAM_PRINCIPALS_PREFIX + "10", new String[] {"user1", "user2"});
+        params.put(PrivilegeMatrixServlet.PARAM_PRINCIPALS_PREFIX + "2", new String[] {"user1"});
+        params.put(PrivilegeMatrixServlet.PARAM_PRIVILEGE, PRIVILEGES.toArray(new String[0]));
+        params.put(PrivilegeMatrixServlet.PARAM_PATH, new String[] {"/content", "/missing"});
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        request.setParameterMap(params);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        // the rows are streamed, so there is no entity tag
+        assertNull(response.getHeader(AbstractAccessServlet.HEADER_ETAG));
+
+        JsonObject json = Json.createReader(new StringReader(response.getOutputAsString())).readObject();
+        assertEquals(servlet.getPrivilegeMatrix(session, Arrays.asList("/content", "/missing"),
+                Arrays.asList(Collections.singletonList("user1"), Arrays.asList("user1", "user2")),
+                PRIVILEGES), json);
+    }
+
+    @Test
+    public void testPidRequest() throws ServletException, IOException, RepositoryException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("pid", "user1");
+        params.put(PrivilegeMatrixServlet.PARAM_PRIVILEGE, PRIVILEGES.toArray(new String[0]));
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        request.setResource(context.resourceResolver().getResource("/content"));
+        request.setParameterMap(params);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+
+        JsonObject json = Json.createReader(new StringReader(response.getOutputAsString())).readObject();
+        assertEquals(servlet.getPrivilegeMatrix(session, Collections.singletonList("/content"),
+                Collections.singletonList(Collections.singletonList("user1")), PRIVILEGES), json);
+    }
+
+    @Test
+    public void testSupportedPrivilegesByDefault() throws RepositoryException {
+        JsonObject json = servlet.getPrivilegeMatrix(session, Collections.singletonList("/content"),
+                Collections.singletonList(Collections.singletonList("user1")), null);
+        AccessControlManager acm = AccessControlUtil.getAccessControlManager(session);
+        JsonArray privileges = json.getJsonArray(PrivilegeMatrixServlet.KEY_PRIVILEGES);
+        assertEquals(acm.getSupportedPrivileges("/content").length, privileges.size());
+        assertTrue(privileges.getValuesAs(JsonString.class).stream()
+                .anyMatch(s -> PrivilegeConstants.JCR_WRITE.equals(s.getString())));
+    }
+
+}
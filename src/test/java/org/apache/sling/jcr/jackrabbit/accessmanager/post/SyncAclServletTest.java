@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.accessmanager.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicy;
+import javax.json.Json;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.principal.EveryonePrincipal;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.jcr.jackrabbit.accessmanager.AceOperationResult.Status;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SyncAclServlet}
+ */
+public class SyncAclServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    private Session session;
+    private AccessControlManager acm;
+    private SyncAclServlet servlet;
+
+    @Before
+    public void setup() throws RepositoryException {
+        session = context.resourceResolver().adaptTo(Session.class);
+        acm = AccessControlUtil.getAccessControlManager(session);
+        session.getRootNode().addNode("content");
+        UserManager userManager = ((JackrabbitSession)session).getUserManager();
+        userManager.createUser("user1", "testPwd");
+        userManager.createUser("user2", "testPwd");
+        session.save();
+
+        servlet = new SyncAclServlet();
+        servlet.bindRestrictionProvider(new RestrictionProviderImpl());
+    }
+
+    private Map<String, Status> sync(String json) throws RepositoryException {
+        return servlet.syncAcl(session, "/content", new AceOperationJsonReader(new RestrictionProviderImpl(),
+                session.getValueFactory(), "/content", "modifyAce").readOperations(Json.createParser(new StringReader(json))));
+    }
+
+    private Map<String, Status> outcomes(Object ... principalAndStatus) {
+        Map<String, Status> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < principalAndStatus.length; i += 2) {
+            outcomes.put((String)principalAndStatus[i], (Status)principalAndStatus[i + 1]);
+        }
+        return outcomes;
+    }
+
+    private List<String> principalOrder() throws RepositoryException {
+        List<String> names = new ArrayList<>();
+        for (AccessControlPolicy policy : acm.getPolicies("/content")) {
+            if (policy instanceof JackrabbitAccessControlList) {
+                for (AccessControlEntry ace : ((JackrabbitAccessControlList)policy).getAccessControlEntries()) {
+                    Principal principal = ace.getPrincipal();
+                    if (names.isEmpty() || !names.get(names.size() - 1).equals(principal.getName())) {
+                        names.add(principal.getName());
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testSyncAcl() throws RepositoryException {
+        assertEquals(outcomes("user1", Status.MODIFIED, "user2", Status.MODIFIED),
+                sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\",\"jcr:write\":\"deny\"}},"
+                        + "{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"},\"restrictions\":{\"rep:glob\":\"*.txt\"}}]"));
+        session.save();
+        assertEquals(Arrays.asList("user1", "user2"), principalOrder());
+
+        // the same state again does not touch the ACL
+        assertEquals(outcomes("user1", Status.UNCHANGED, "user2", Status.UNCHANGED),
+                sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:write\":\"deny\",\"jcr:read\":\"allow\"}},"
+                        + "{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"},\"restrictions\":{\"rep:glob\":\"*.txt\"}}]"));
+        assertFalse(session.hasPendingChanges());
+
+        // only the principals that differ are modified and the others are removed
+        assertEquals(outcomes("user2", Status.UNCHANGED, EveryonePrincipal.NAME, Status.MODIFIED, "user1", Status.DELETED),
+                sync("[{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"},\"restrictions\":{\"rep:glob\":\"*.txt\"}},"
+                        + "{\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"allow\"}}]"));
+        assertTrue(session.hasPendingChanges());
+        assertEquals(Arrays.asList("user2", EveryonePrincipal.NAME), principalOrder());
+    }
+
+    @Test
+    public void testSyncAclOrder() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"allow\"}}]");
+        session.save();
+
+        // moving one principal only reports the principals whose position changed
+        assertEquals(outcomes("user2", Status.MODIFIED, "user1", Status.MODIFIED, EveryonePrincipal.NAME, Status.UNCHANGED),
+                sync("[{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                        + "{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                        + "{\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"allow\"}}]"));
+        assertEquals(Arrays.asList("user2", "user1", EveryonePrincipal.NAME), principalOrder());
+    }
+
+    @Test
+    public void testSyncAclEmpty() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}}]");
+        session.save();
+
+        assertEquals(outcomes("user1", Status.DELETED), sync("[]"));
+        assertEquals(Arrays.asList(), principalOrder());
+    }
+
+    @Test
+    public void testSyncAclWithoutPrivileges() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"principalId\":\"user2\",\"privileges\":{\"jcr:read\":\"allow\"}}]");
+        session.save();
+
+        // a principal without privileges is removed
+        assertEquals(outcomes("user1", Status.UNCHANGED, "user2", Status.DELETED, EveryonePrincipal.NAME, Status.UNCHANGED),
+                sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                        + "{\"principalId\":\"user2\"},"
+                        + "{\"principalId\":\"everyone\",\"privileges\":{\"jcr:read\":\"none\"}}]"));
+        assertEquals(Arrays.asList("user1"), principalOrder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSyncAclOrderMember() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"},\"order\":\"first\"}]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSyncAclRemoveRestrictionsMember() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"},\"removeRestrictions\":[\"rep:glob\"]}]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSyncAclDuplicatePrincipal() throws RepositoryException {
+        sync("[{\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}},"
+                + "{\"principalId\":\"user1\",\"privileges\":{\"jcr:write\":\"allow\"}}]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSyncAclOtherOperation() throws RepositoryException {
+        sync("[{\"operation\":\"deleteAce\",\"principalId\":\"user1\"}]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSyncAclOtherPath() throws RepositoryException {
+        sync("[{\"path\":\"/\",\"principalId\":\"user1\",\"privileges\":{\"jcr:read\":\"allow\"}}]");
+    }
+
+}